@@ -22,6 +22,7 @@ import ca.weblite.codename1.json.JSONArray;
 import ca.weblite.codename1.json.JSONObject;
 import com.codename1.l10n.DateFormat;
 import com.codename1.l10n.SimpleDateFormat;
+import com.parse4cn1.command.IHttpTransport;
 import com.parse4cn1.operation.ParseOperationUtil;
 import com.parse4cn1.operation.ParseOperationDecoder;
 import com.parse4cn1.util.ParseRegistry;
@@ -121,8 +122,7 @@ public class Parse {
         }
     }
 
-    private static String mApplicationId;
-    private static String mClientKey;
+    private static final ParseClient mDefaultClient = ParseClient.createDefault();
     private static final DateFormat dateFormat;
 
     static {
@@ -158,8 +158,49 @@ public class Parse {
      * consideration explains why the MASTER KEY is not exposed either.
      */
     static public void initialize(String applicationId, String clientKey) {
-        mApplicationId = applicationId;
-        mClientKey = clientKey;
+        initialize(applicationId, clientKey, ParseEndpointRouter.create(
+                ParseConstants.API_ENDPOINT + "/" + ParseConstants.API_VERSION));
+    }
+
+    /**
+     * Same as {@link #initialize(java.lang.String, java.lang.String)} for
+     * applications that use one or more Parse servers other than the default
+     * one ({@link ParseConstants#API_ENDPOINT}), e.g., a self-hosted Parse
+     * server cluster:
+     * <pre>
+     * <code>
+     * Parse.initialize(APP_ID, CLIENT_KEY, ParseEndpointRouter.create(
+     *     new String[]{"https://node1.example.com/parse", "https://node2.example.com/parse"})
+     *     .setPolicy(ParseEndpointRouter.EPolicy.LEAST_OUTSTANDING));
+     * </code>
+     * </pre>
+     *
+     * @param applicationId The application id.
+     * @param clientKey The client key.
+     * @param endpointRouter The router that distributes requests over the
+     * API endpoints.
+     */
+    static public void initialize(String applicationId, String clientKey,
+            ParseEndpointRouter endpointRouter) {
+        mDefaultClient.configure(applicationId, clientKey, endpointRouter);
+    }
+
+    /**
+     * @return The client used by all objects, queries and commands for which
+     * no other client is specified. It is configured via
+     * {@link #initialize(java.lang.String, java.lang.String)}.
+     */
+    static public ParseClient getDefaultClient() {
+        return mDefaultClient;
+    }
+
+    /**
+     * @return The router that distributes the requests of the default client
+     * over the API endpoints.
+     * @see #initialize(java.lang.String, java.lang.String, com.parse4cn1.ParseEndpointRouter)
+     */
+    static public ParseEndpointRouter getEndpointRouter() {
+        return mDefaultClient.getEndpointRouter();
     }
 
     /**
@@ -167,7 +208,7 @@ public class Parse {
      * @see #initialize(java.lang.String, java.lang.String)
      */
     static public String getApplicationId() {
-        return mApplicationId;
+        return mDefaultClient.getApplicationId();
     }
 
     /**
@@ -175,20 +216,40 @@ public class Parse {
      * @see #initialize(java.lang.String, java.lang.String)
      */
     static public String getClientKey() {
-        return mClientKey;
+        return mDefaultClient.getClientKey();
+    }
+
+    /**
+     * Sets the transport via which the requests of the
+     * {@link #getDefaultClient() default client} are issued. By default, requests are issued via the Codename One network
+     * manager ({@link com.parse4cn1.command.CN1HttpTransport}).
+     *
+     * @param httpTransport The transport to be used. If null, the default
+     * transport is restored.
+     */
+    static public void setHttpTransport(IHttpTransport httpTransport) {
+        mDefaultClient.setHttpTransport(httpTransport);
+    }
+
+    /**
+     * @return The transport via which the requests of the default client are
+     * issued.
+     * @see #setHttpTransport(com.parse4cn1.command.IHttpTransport)
+     */
+    static public IHttpTransport getHttpTransport() {
+        return mDefaultClient.getHttpTransport();
     }
 
     /**
-     * Creates a valid Parse REST API URL using the predefined
-     * {@link ParseConstants#API_ENDPOINT} and
-     * {@link ParseConstants#API_VERSION}.
+     * Creates a valid Parse REST API URL using the primary endpoint of the
+     * {@link #getEndpointRouter() endpoint router}, by default
+     * {@link ParseConstants#API_ENDPOINT} and {@link ParseConstants#API_VERSION}.
      *
      * @param endPoint The target endpoint/class name.
      * @return The created URL.
      */
     static public String getParseAPIUrl(String endPoint) {
-        return ParseConstants.API_ENDPOINT + "/" + ParseConstants.API_VERSION
-                + "/" + ((endPoint != null) ? endPoint : "");
+        return mDefaultClient.getParseAPIUrl(endPoint);
     }
 
     /**
@@ -0,0 +1,544 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.callback.ParseFuture;
+import com.parse4cn1.command.ParseCommand.EPriority;
+import com.parse4cn1.command.ParsePostCommand;
+import com.parse4cn1.command.ParseResponse;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ParseBatch class groups multiple create, update and/or delete operations
+ * on ParseObjects so that they can be sent to the Parse server using the batch
+ * API instead of issuing a separate request per object.
+ * <p>
+ * Operations are packed into batch requests of at most
+ * {@link ParseConstants#MAX_BATCH_SIZE} operations each. If more than one batch
+ * request is needed, the requests are issued asynchronously via the batch's
+ * {@link ParseClient} and are therefore subject to its limit on concurrent
+ * requests. Upon completion, the
+ * result of each operation is mapped back onto the corresponding ParseObject
+ * exactly as {@link ParseObject#save()} and {@link ParseObject#delete()} would.
+ * <p>
+ * <b>Note:</b> Batch operations are not transactional; some operations in a
+ * batch may succeed while others fail. Failures can be inspected via
+ * {@link #getErrors()} after {@link #execute()} returns.
+ * <p>
+ * The body of each create and update operation is set up via
+ * {@link ParseObject#setUpSaveCommand(com.parse4cn1.command.ParseCommand)}
+ * exactly as for a single save. Since the operations in a batch cannot carry
+ * their own headers or arguments, objects whose save hook adds any (e.g. the
+ * session token of a {@link ParseUser}) are saved with a separate request
+ * when the batch is executed. The same applies to deleting a ParseUser.
+ * <p>
+ * All objects in a batch must belong to the same {@link ParseClient}.
+ *
+ * @see <a href='https://www.parse.com/docs/rest/guide#objects-batch-operations'>Parse batch operations</a>
+ */
+public class ParseBatch {
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final String KEY_REQUESTS = "requests";
+    private static final String KEY_METHOD = "method";
+    private static final String KEY_PATH = "path";
+    private static final String KEY_BODY = "body";
+    private static final String KEY_SUCCESS = "success";
+    private static final String KEY_ERROR = "error";
+
+    /**
+     * The type of operation to be performed on an object in a batch.
+     */
+    public enum EBatchOpType {
+
+        CREATE,
+        UPDATE,
+        DELETE;
+    }
+
+    private final List<BatchItem> items = new ArrayList<BatchItem>();
+    private final Map<ParseObject, ParseException> errors
+            = new LinkedHashMap<ParseObject, ParseException>();
+    private ParseClient client;
+    private EPriority priority = EPriority.NORMAL;
+
+    /**
+     * Creates a new, empty batch.
+     *
+     * @return The newly created batch.
+     */
+    public static ParseBatch create() {
+        return new ParseBatch();
+    }
+
+    private ParseBatch() {
+    }
+
+    /**
+     * Sets the client via which this batch is executed. If no client is set,
+     * the client of the first added object is used (see 
+     * {@link ParseObject#getClient()}). All objects in this batch must belong 
+     * to this client.
+     *
+     * @param client The client.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseBatch setClient(final ParseClient client) {
+        this.client = client;
+        return this;
+    }
+
+    /**
+     * @return The client via which this batch is executed.
+     */
+    public ParseClient getClient() {
+        return (client != null) ? client : Parse.getDefaultClient();
+    }
+
+    /**
+     * Sets the priority of the batch requests, e.g.
+     * {@link EPriority#BACKGROUND} for synchronization jobs so that they do
+     * not delay interactive requests if the client is rate-limited. The
+     * default is {@link EPriority#NORMAL}.
+     *
+     * @param priority The priority.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseBatch setPriority(final EPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Null priority");
+        }
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Adds an operation on the specified {@code object} to this batch.
+     * <p>
+     * Objects that are not dirty are silently skipped for
+     * {@link EBatchOpType#CREATE} and {@link EBatchOpType#UPDATE} operations
+     * since saving them would have no effect.
+     *
+     * @param object The object on which {@code opType} is to be performed.
+     * @param opType The type of operation to be performed.
+     * @return {@code this} object so that calls can be chained.
+     * @throws ParseException if {@code object} is not in a valid state for
+     * {@code opType}, e.g., updating or deleting an object without an objectId,
+     * or if it belongs to a different client than this batch.
+     */
+    public ParseBatch addObject(final ParseObject object, final EBatchOpType opType)
+            throws ParseException {
+
+        if (object == null || opType == null) {
+            throw new IllegalArgumentException("Null object and/or operation type");
+        }
+
+        if (opType == EBatchOpType.CREATE && object.getObjectId() != null) {
+            LOGGER.error("Cannot create an object that already has an objectId.");
+            throw new ParseException(ParseException.OTHER_CAUSE,
+                    "Cannot create an object that already has an objectId.");
+        }
+
+        if (opType != EBatchOpType.CREATE && object.getObjectId() == null) {
+            LOGGER.error("Attempting to " + opType + " an object without an objectId.");
+            throw new ParseException(ParseException.MISSING_OBJECT_ID,
+                    "Attempting to " + opType + " an object without an objectId.");
+        }
+
+        if (opType != EBatchOpType.DELETE) {
+            if (!object.isDirty()) {
+                LOGGER.warn("Ignoring request to save unchanged/empty object");
+                return this;
+            }
+            object.validateSave();
+        }
+
+        if (client == null && items.isEmpty()) {
+            client = object.getClient();
+        }
+        validateClient(object);
+        items.add(new BatchItem(object, opType));
+        return this;
+    }
+
+    /**
+     * Adds the same operation type on each of the specified {@code objects}
+     * to this batch.
+     *
+     * @param objects The objects on which {@code opType} is to be performed.
+     * @param opType The type of operation to be performed.
+     * @return {@code this} object so that calls can be chained.
+     * @throws ParseException if any of the {@code objects} is not in a valid
+     * state for {@code opType}.
+     * @see #addObject(com.parse4cn1.ParseObject, com.parse4cn1.ParseBatch.EBatchOpType)
+     */
+    public ParseBatch addObjects(final Collection<? extends ParseObject> objects,
+            final EBatchOpType opType) throws ParseException {
+        for (ParseObject object : objects) {
+            addObject(object, opType);
+        }
+        return this;
+    }
+
+    /**
+     * Executes all operations in this batch.
+     * <p>
+     * Successful operations update the state of the associated objects (e.g.,
+     * objectId, createdAt and updatedAt for created objects) while deleted
+     * objects are reset. Failed operations leave the associated objects
+     * untouched; their errors can be retrieved via {@link #getErrors()}.
+     *
+     * @return {@code true} if all operations succeeded; otherwise {@code false}.
+     * @throws ParseException if anything goes wrong while preparing the batch
+     * requests or if the objects in this batch belong to a different client 
+     * than the one set via {@link #setClient(com.parse4cn1.ParseClient)}.
+     */
+    public boolean execute() throws ParseException {
+        errors.clear();
+
+        if (items.isEmpty()) {
+            return true;
+        }
+
+        for (BatchItem item : items) {
+            validateClient(item.object);
+        }
+
+        final List<BatchItem> batched = new ArrayList<BatchItem>();
+        final List<BatchItem> individual = new ArrayList<BatchItem>();
+        for (BatchItem item : items) {
+            item.error = null;
+            try {
+                if (item.prepare()) {
+                    batched.add(item);
+                } else {
+                    individual.add(item);
+                }
+            } catch (ParseException ex) {
+                item.error = ex;
+            }
+        }
+
+        final List<BatchChunk> chunks = new ArrayList<BatchChunk>();
+        for (int i = 0; i < batched.size(); i += ParseConstants.MAX_BATCH_SIZE) {
+            final int end = Math.min(i + ParseConstants.MAX_BATCH_SIZE, batched.size());
+            chunks.add(new BatchChunk(batched.subList(i, end)));
+        }
+
+        // Issue all chunks asynchronously and use the calling thread for the 
+        // individual operations in the meantime.
+        for (BatchChunk chunk : chunks) {
+            chunk.issue();
+        }
+        for (BatchItem item : individual) {
+            item.performIndividually();
+        }
+
+        for (BatchChunk chunk : chunks) {
+            chunk.awaitResults();
+            chunk.processResults();
+        }
+        for (BatchItem item : items) {
+            if (item.error != null) {
+                errors.put(item.object, item.error);
+            }
+        }
+
+        final Set<String> classNames = new HashSet<String>();
+        for (BatchItem item : items) {
+            if (classNames.add(item.object.getClassName())) {
+                getClient().getQueryCache().invalidate(item.object.getClassName());
+            }
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Batch of " + items.size() + " operation(s) in "
+                    + chunks.size() + " request(s) completed with "
+                    + errors.size() + " error(s)");
+        }
+
+        return errors.isEmpty();
+    }
+
+    /**
+     * Retrieves the errors that occurred during the last {@link #execute()}.
+     *
+     * @return A map of the objects whose operation failed to the corresponding
+     * error, in the order in which the objects were added to this batch.
+     */
+    public Map<ParseObject, ParseException> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * Ensures that {@code object} belongs to the client of this batch since 
+     * all operations in a batch are sent via a single client.
+     *
+     * @param object The object to be validated.
+     * @throws ParseException if {@code object} belongs to a different client.
+     */
+    private void validateClient(final ParseObject object) throws ParseException {
+        if (object.getClient() != getClient()) {
+            LOGGER.error("Cannot batch objects that belong to different clients.");
+            throw new ParseException(ParseException.OTHER_CAUSE,
+                    "Cannot batch objects that belong to different clients.");
+        }
+    }
+
+    /**
+     * Creates a path relative to the Parse server root as required for the
+     * individual requests in a batch.
+     *
+     * @param rootPath The path of the API endpoint, e.g. {@code /1}.
+     * @param endPoint The end point.
+     * @param objectId The optional object id.
+     * @return A path of the format {@code /<version>/<endpoint>[/<objectId>]}
+     * where {@code /<version>} is {@code rootPath}.
+     */
+    private static String getBatchPath(final String rootPath, final String endPoint,
+            final String objectId) {
+        return rootPath + "/" + endPoint
+                + (objectId != null ? "/" + objectId : "");
+    }
+
+    /**
+     * An operation on a single object in a batch.
+     */
+    private static class BatchItem {
+
+        private final ParseObject object;
+        private final EBatchOpType opType;
+        private JSONObject body;
+        private ParseException error;
+
+        BatchItem(final ParseObject object, final EBatchOpType opType) {
+            this.object = object;
+            this.opType = opType;
+        }
+
+        /**
+         * Sets up the body of a create or update operation via the object's 
+         * save hook.
+         *
+         * @return {@code true} if the operation can be batched; {@code false}
+         * if it requires a separate request.
+         * @throws ParseException if the save hook fails.
+         */
+        boolean prepare() throws ParseException {
+            body = null;
+            if (opType == EBatchOpType.DELETE) {
+                return !(object instanceof ParseUser);
+            }
+
+            final SaveRequestRecorder recorder = new SaveRequestRecorder(object.getEndPoint());
+            object.setUpSaveCommand(recorder);
+            body = recorder.body;
+            return !recorder.requiresOwnRequest && body != null;
+        }
+
+        JSONObject encode(final String rootPath) throws ParseException {
+            final JSONObject request = new JSONObject();
+            try {
+                switch (opType) {
+                    case CREATE:
+                        request.put(KEY_METHOD, "POST");
+                        request.put(KEY_PATH, getBatchPath(rootPath, object.getEndPoint(), null));
+                        request.put(KEY_BODY, body);
+                        break;
+                    case UPDATE:
+                        request.put(KEY_METHOD, "PUT");
+                        request.put(KEY_PATH, getBatchPath(rootPath, object.getEndPoint(), object.getObjectId()));
+                        request.put(KEY_BODY, body);
+                        break;
+                    case DELETE:
+                        request.put(KEY_METHOD, "DELETE");
+                        request.put(KEY_PATH, getBatchPath(rootPath, object.getEndPoint(), object.getObjectId()));
+                        break;
+                }
+            } catch (JSONException ex) {
+                throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
+            }
+            return request;
+        }
+
+        /**
+         * Performs the operation with a separate request, e.g., for objects 
+         * whose save hook adds headers.
+         */
+        void performIndividually() {
+            try {
+                if (opType == EBatchOpType.DELETE) {
+                    object.delete();
+                } else {
+                    object.save();
+                }
+            } catch (ParseException ex) {
+                error = ex;
+            }
+        }
+
+        void onSuccess(final JSONObject result) {
+            if (opType == EBatchOpType.DELETE) {
+                object.reset();
+            } else {
+                object.setData(result);
+                if (object.getUpdatedAt() == null) {
+                    object.setUpdatedAt(object.getCreatedAt());
+                }
+            }
+        }
+    }
+
+    /**
+     * A group of at most {@link ParseConstants#MAX_BATCH_SIZE} operations that
+     * is sent to the server in a single request.
+     */
+    private class BatchChunk {
+
+        private final List<BatchItem> chunkItems;
+        private ParseFuture<ParseResponse> pending;
+        private JSONArray results;
+        private ParseException failure;
+
+        BatchChunk(final List<BatchItem> chunkItems) {
+            this.chunkItems = chunkItems;
+        }
+
+        /**
+         * Issues the batch request for this chunk without waiting for it to 
+         * complete.
+         */
+        void issue() {
+            try {
+                final String rootPath = getClient().getEndpointRouter().getPrimaryPath();
+                final JSONArray requests = new JSONArray();
+                for (BatchItem item : chunkItems) {
+                    requests.put(item.encode(rootPath));
+                }
+                final JSONObject body = new JSONObject();
+                body.put(KEY_REQUESTS, requests);
+
+                final ParsePostCommand command = new ParsePostCommand(ParseConstants.ENDPOINT_BATCH);
+                command.setClient(getClient());
+                command.setPriority(priority);
+                command.setMessageBody(body);
+                pending = command.performAsync();
+            } catch (ParseException ex) {
+                failure = ex;
+            } catch (JSONException ex) {
+                failure = new ParseException(ParseException.INVALID_JSON,
+                        ParseException.ERR_PREPARING_REQUEST, ex);
+            } catch (RuntimeException ex) {
+                failure = new ParseException(ParseException.ERR_INTERNAL, ex);
+            }
+        }
+
+        /**
+         * Waits for the batch request issued via {@link #issue()} to complete.
+         */
+        void awaitResults() {
+            if (pending == null) {
+                return;
+            }
+
+            try {
+                final ParseResponse response = pending.get();
+                if (response.isFailed()) {
+                    LOGGER.error("Batch request failed.");
+                    failure = response.getException();
+                } else {
+                    results = response.getJsonArray();
+                    response.releaseResponseData();
+                }
+            } catch (ParseException ex) {
+                failure = ex;
+            } finally {
+                pending = null;
+            }
+        }
+
+        /**
+         * Maps the results of this chunk onto the associated objects. Must be
+         * invoked on the thread that executes the batch.
+         */
+        void processResults() {
+            if (failure == null && (results == null || results.length() != chunkItems.size())) {
+                failure = new ParseException(ParseException.INVALID_JSON,
+                        ParseException.ERR_INVALID_RESPONSE);
+            }
+
+            for (int i = 0; i < chunkItems.size(); ++i) {
+                final BatchItem item = chunkItems.get(i);
+                if (failure != null) {
+                    item.error = failure;
+                    continue;
+                }
+
+                final JSONObject result = results.optJSONObject(i);
+                if (result != null && result.has(KEY_SUCCESS)) {
+                    final JSONObject success = result.optJSONObject(KEY_SUCCESS);
+                    item.onSuccess(success != null ? success : new JSONObject());
+                } else if (result != null && result.optJSONObject(KEY_ERROR) != null) {
+                    item.error = ParseResponse.getParseError(result.optJSONObject(KEY_ERROR));
+                } else {
+                    item.error = new ParseException(ParseException.INVALID_JSON,
+                            ParseException.ERR_INVALID_RESPONSE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the body set up by a save hook instead of issuing a request. 
+     * Headers and arguments cannot be sent for individual operations in a 
+     * batch, so adding any marks the operation as requiring its own request.
+     */
+    private static class SaveRequestRecorder extends ParsePostCommand {
+
+        private JSONObject body;
+        private boolean requiresOwnRequest;
+
+        SaveRequestRecorder(final String endPoint) {
+            super(endPoint);
+        }
+
+        @Override
+        public void setMessageBody(final JSONObject data) throws ParseException {
+            body = data;
+        }
+
+        @Override
+        public void addHeader(final String key, final String value) throws ParseException {
+            requiresOwnRequest = true;
+        }
+
+        @Override
+        public void addArgument(final String key, final String value) throws ParseException {
+            requiresOwnRequest = true;
+        }
+    }
+}
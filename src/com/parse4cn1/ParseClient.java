@@ -0,0 +1,374 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.command.CN1HttpTransport;
+import com.parse4cn1.command.IHttpTransport;
+import com.parse4cn1.command.ParseCommandScheduler;
+import com.parse4cn1.command.ParseRequestCoalescer;
+import com.parse4cn1.command.ParseFileCache;
+import com.parse4cn1.command.ParseResponseCache;
+
+/**
+ * A ParseClient holds the state on which requests to a Parse application
+ * depend: the application's credentials, its API endpoints, the transport via
+ * which requests are issued, the policy for retrying failed requests, the
+ * optional rate limiter and scheduler, the coalescer of identical requests,
+ * the cache for conditional requests, the session of the current user and
+ * the query cache.
+ * <p>
+ * Most applications only need the default client which is configured via
+ * {@link Parse#initialize(java.lang.String, java.lang.String)} and used by
+ * all objects, queries and commands unless another client is specified.
+ * Applications that access several Parse applications or act on behalf of
+ * several users at the same time (e.g., a server) create a client per
+ * application via {@link #create(java.lang.String, java.lang.String, com.parse4cn1.ParseEndpointRouter)}
+ * and a session per user via {@link #newSession()}, and assign them via
+ * {@link ParseObject#setClient(com.parse4cn1.ParseClient)},
+ * {@link ParseQuery#setClient(com.parse4cn1.ParseClient)}, etc.
+ * <p>
+ * <b>Note:</b> The client of an object is not propagated to objects that it
+ * references (e.g. pointers decoded from a query result); set it explicitly
+ * before saving or fetching such objects.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ParseClient {
+
+    private String applicationId;
+    private String clientKey;
+    private ParseEndpointRouter endpointRouter;
+    private IHttpTransport httpTransport;
+    private ParseRetryPolicy retryPolicy = ParseRetryPolicy.create();
+    private ParseRateLimiter rateLimiter;
+    private ParseCommandScheduler scheduler;
+    private ParseRequestCoalescer requestCoalescer = ParseRequestCoalescer.create();
+    private ParseResponseCache responseCache = ParseResponseCache.create();
+    private ParseFileCache fileCache;
+    private final ParseQueryCache queryCache;
+    private ParseUser currentUser;
+
+    /**
+     * Creates a client for an application hosted at the default endpoint
+     * ({@link ParseConstants#API_ENDPOINT}).
+     *
+     * @param applicationId The application id.
+     * @param clientKey The client key.
+     * @return The newly created client.
+     */
+    public static ParseClient create(final String applicationId, final String clientKey) {
+        return create(applicationId, clientKey, createDefaultEndpointRouter());
+    }
+
+    /**
+     * Creates a client for an application hosted at the endpoints of
+     * {@code endpointRouter}.
+     *
+     * @param applicationId The application id.
+     * @param clientKey The client key.
+     * @param endpointRouter The router that distributes requests over the API
+     * endpoints. Routers may be shared by clients of the same cluster.
+     * @return The newly created client.
+     */
+    public static ParseClient create(final String applicationId, final String clientKey,
+            final ParseEndpointRouter endpointRouter) {
+        if (endpointRouter == null) {
+            throw new NullPointerException("Null endpoint router");
+        }
+        return new ParseClient(applicationId, clientKey, endpointRouter,
+                new CN1HttpTransport(), new ParseQueryCache());
+    }
+
+    /**
+     * Creates the default client whose query cache is
+     * {@link ParseQueryCache#getInstance()}.
+     *
+     * @return The default client.
+     */
+    static ParseClient createDefault() {
+        return new ParseClient(null, null, createDefaultEndpointRouter(),
+                new CN1HttpTransport(), ParseQueryCache.getInstance());
+    }
+
+    private ParseClient(final String applicationId, final String clientKey,
+            final ParseEndpointRouter endpointRouter, final IHttpTransport httpTransport,
+            final ParseQueryCache queryCache) {
+        this.applicationId = applicationId;
+        this.clientKey = clientKey;
+        this.endpointRouter = endpointRouter;
+        this.httpTransport = httpTransport;
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Creates a client for another session of the same application. The new
+     * client shares the credentials, endpoint router, transport, retry
+     * policy, rate limiter, scheduler, request coalescer, response cache,
+     * file cache and query cache (whose entries are specific to a session)
+     * of this client but has no current user.
+     *
+     * @return The newly created client.
+     */
+    public synchronized ParseClient newSession() {
+        final ParseClient session = new ParseClient(applicationId, clientKey, endpointRouter,
+                httpTransport, queryCache);
+        session.retryPolicy = retryPolicy;
+        session.rateLimiter = rateLimiter;
+        session.scheduler = scheduler;
+        session.requestCoalescer = requestCoalescer;
+        session.responseCache = responseCache;
+        session.fileCache = fileCache;
+        return session;
+    }
+
+    /**
+     * Changes the application of this client.
+     *
+     * @param applicationId The application id.
+     * @param clientKey The client key.
+     * @param endpointRouter The endpoint router.
+     */
+    synchronized void configure(final String applicationId, final String clientKey,
+            final ParseEndpointRouter endpointRouter) {
+        if (endpointRouter == null) {
+            throw new NullPointerException("Null endpoint router");
+        }
+        this.applicationId = applicationId;
+        this.clientKey = clientKey;
+        this.endpointRouter = endpointRouter;
+    }
+
+    /**
+     * @return The application id.
+     */
+    public synchronized String getApplicationId() {
+        return applicationId;
+    }
+
+    /**
+     * @return The client key.
+     */
+    public synchronized String getClientKey() {
+        return clientKey;
+    }
+
+    /**
+     * @return The router that distributes requests over the API endpoints.
+     */
+    public synchronized ParseEndpointRouter getEndpointRouter() {
+        return endpointRouter;
+    }
+
+    /**
+     * Sets the transport via which the requests of this client are issued.
+     * By default, requests are issued via the Codename One network manager
+     * ({@link CN1HttpTransport}).
+     *
+     * @param httpTransport The transport to be used. If null, the default
+     * transport is restored.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseClient setHttpTransport(final IHttpTransport httpTransport) {
+        this.httpTransport = (httpTransport != null) ? httpTransport : new CN1HttpTransport();
+        return this;
+    }
+
+    /**
+     * @return The transport via which the requests of this client are issued.
+     */
+    public synchronized IHttpTransport getHttpTransport() {
+        return httpTransport;
+    }
+
+    /**
+     * Sets the policy according to which failed requests of this client are
+     * retried. The policy's circuit breakers and statistics are shared by all
+     * clients using it.
+     *
+     * @param retryPolicy The policy to be used. If null, a policy with the
+     * default settings is used.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseClient setRetryPolicy(final ParseRetryPolicy retryPolicy) {
+        this.retryPolicy = (retryPolicy != null) ? retryPolicy : ParseRetryPolicy.create();
+        return this;
+    }
+
+    /**
+     * @return The policy according to which failed requests of this client
+     * are retried.
+     */
+    public synchronized ParseRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the rate limiter that keeps the requests of this client within
+     * the quota of the backend. By default, requests are not limited.
+     *
+     * @param rateLimiter The rate limiter or null to disable rate limiting.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseClient setRateLimiter(final ParseRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * @return The rate limiter of this client or null if requests are not
+     * limited.
+     */
+    public synchronized ParseRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets the scheduler that limits the number of concurrent requests of
+     * this client per priority class. By default, requests are passed to the
+     * transport immediately (which may still order queued requests by
+     * priority).
+     *
+     * @param scheduler The scheduler or null to disable scheduling.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseClient setScheduler(final ParseCommandScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * @return The scheduler of this client or null if requests are not
+     * scheduled.
+     */
+    public synchronized ParseCommandScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Sets the coalescer via which identical GET requests of this client
+     * that are issued concurrently share a single request. By default,
+     * requests are coalesced but responses are not memoized.
+     *
+     * @param requestCoalescer The coalescer or null to issue every request.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseClient setRequestCoalescer(final ParseRequestCoalescer requestCoalescer) {
+        this.requestCoalescer = requestCoalescer;
+        return this;
+    }
+
+    /**
+     * @return The request coalescer of this client or null if requests are
+     * not coalesced.
+     */
+    public synchronized ParseRequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * Sets the cache via which GET requests of this client (e.g. object
+     * fetches, queries and file downloads that are not streamed) are issued
+     * as conditional requests so that unmodified responses are not
+     * transferred again. By default, a cache
+     * with the default bounds is used.
+     *
+     * @param responseCache The cache or null to disable conditional requests.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseClient setResponseCache(final ParseResponseCache responseCache) {
+        this.responseCache = responseCache;
+        return this;
+    }
+
+    /**
+     * @return The response cache of this client or null if conditional
+     * requests are disabled.
+     */
+    public synchronized ParseResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets the on-disk cache that is consulted before the data of a 
+     * {@link ParseFile} is downloaded (e.g. via {@link ParseFile#getData()}) 
+     * and that stores the downloaded data. By default, there is no file cache.
+     *
+     * @param fileCache The cache or null to disable caching of file data.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseClient setFileCache(final ParseFileCache fileCache) {
+        this.fileCache = fileCache;
+        return this;
+    }
+
+    /**
+     * @return The file cache of this client or null if file data is not cached.
+     */
+    public synchronized ParseFileCache getFileCache() {
+        return fileCache;
+    }
+
+    /**
+     * @return The cache for the results of queries issued via this client.
+     */
+    public ParseQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * @return The user that is logged in via this client or null if there is
+     * none.
+     */
+    public synchronized ParseUser getCurrentUser() {
+        return currentUser;
+    }
+
+    /**
+     * Sets the user on whose behalf the requests of this client are issued.
+     * This is done automatically when a user of this client signs up or logs
+     * in.
+     *
+     * @param currentUser The user or null to issue requests without session.
+     */
+    public synchronized void setCurrentUser(final ParseUser currentUser) {
+        this.currentUser = currentUser;
+    }
+
+    /**
+     * @return The session token of the current user or null if there is no
+     * current user.
+     */
+    public synchronized String getSessionToken() {
+        return (currentUser != null) ? currentUser.getSessionToken() : null;
+    }
+
+    /**
+     * Creates a Parse REST API URL using the primary endpoint of this
+     * client's endpoint router.
+     *
+     * @param endPoint The target endpoint/class name.
+     * @return The created URL.
+     */
+    public String getParseAPIUrl(final String endPoint) {
+        return getEndpointRouter().getPrimaryUrl()
+                + "/" + ((endPoint != null) ? endPoint : "");
+    }
+
+    private static ParseEndpointRouter createDefaultEndpointRouter() {
+        return ParseEndpointRouter.create(
+                ParseConstants.API_ENDPOINT + "/" + ParseConstants.API_VERSION);
+    }
+}
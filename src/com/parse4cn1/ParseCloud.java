@@ -21,6 +21,9 @@ package com.parse4cn1;
 import ca.weblite.codename1.json.JSONException;
 import ca.weblite.codename1.json.JSONObject;
 import java.util.Map;
+import com.parse4cn1.callback.FunctionCallback;
+import com.parse4cn1.callback.ParseFuture;
+import com.parse4cn1.callback.ParseFuture.IContinuation;
 
 import com.parse4cn1.command.ParsePostCommand;
 import com.parse4cn1.command.ParseResponse;
@@ -53,14 +56,94 @@ public class ParseCloud {
      */
     public static <T> T callFunction(String name, Map<String, ?> params)
             throws ParseException {
+        return ParseCloud.<T>callFunction(null, name, params);
+    }
 
-        T result = null;
+    /**
+     * Same as {@link #callFunction(java.lang.String, java.util.Map)} via the 
+     * specified client, i.e., with its credentials and session.
+     * 
+     * @param <T> The type of result expected by this function call.
+     * @param client The client or null to use {@link Parse#getDefaultClient()}.
+     * @param name The name of the function to call.
+     * @param params The parameters to pass to the function.
+     * @return The result returned by the function call.
+     * @throws ParseException if anything goes wrong.
+     */
+    public static <T> T callFunction(ParseClient client, String name, 
+            Map<String, ?> params) throws ParseException {
+        return ParseCloud.<T>processFunctionResponse(
+                createFunctionCommand(client, name, params).perform());
+    }
+
+    /**
+     * Same as {@link #callFunction(java.lang.String, java.util.Map)} but 
+     * performed asynchronously.
+     * 
+     * @param <T> The type of result expected by this function call.
+     * @param name The name of the function to call.
+     * @param params The parameters to pass to the function.
+     * @return A future that is completed with the result returned by the 
+     * function call.
+     */
+    public static <T> ParseFuture<T> callFunctionInBackground(String name, 
+            Map<String, ?> params) {
+        return ParseCloud.<T>callFunctionInBackground(null, name, params);
+    }
+
+    /**
+     * Same as {@link #callFunction(com.parse4cn1.ParseClient, java.lang.String, java.util.Map)} 
+     * but performed asynchronously.
+     * 
+     * @param <T> The type of result expected by this function call.
+     * @param client The client or null to use {@link Parse#getDefaultClient()}.
+     * @param name The name of the function to call.
+     * @param params The parameters to pass to the function.
+     * @return A future that is completed with the result returned by the 
+     * function call.
+     */
+    public static <T> ParseFuture<T> callFunctionInBackground(ParseClient client, 
+            String name, Map<String, ?> params) {
+        try {
+            return createFunctionCommand(client, name, params).performAsync().then(
+                    new IContinuation<ParseResponse, T>() {
+
+                        public T then(ParseResponse response) throws ParseException {
+                            return ParseCloud.<T>processFunctionResponse(response);
+                        }
+                    });
+        } catch (ParseException ex) {
+            return ParseFuture.failed(ex);
+        }
+    }
+
+    /**
+     * Same as {@link #callFunctionInBackground(java.lang.String, java.util.Map)} 
+     * with the option to get notified when the function call is completed.
+     * 
+     * @param <T> The type of result expected by this function call.
+     * @param name The name of the function to call.
+     * @param params The parameters to pass to the function.
+     * @param callback The callback to be notified of the result.
+     */
+    public static <T> void callFunctionInBackground(String name, 
+            Map<String, ?> params, FunctionCallback<T> callback) {
+        ParseCloud.<T>callFunctionInBackground(name, params).addCallback(callback);
+    }
+
+    private static ParsePostCommand createFunctionCommand(ParseClient client, 
+            String name, Map<String, ?> params) throws ParseException {
         ParsePostCommand command = new ParsePostCommand("functions", name);
+        command.setClient(client);
         if (params != null) {
             command.setMessageBody(new JSONObject((HashMap) params));
         }
-        ParseResponse response = command.perform();
+        return command;
+    }
 
+    private static <T> T processFunctionResponse(ParseResponse response) 
+            throws ParseException {
+        T result = null;
         if (!response.isFailed()) {
             JSONObject jsonResponse = response.getJsonObject();
             try {
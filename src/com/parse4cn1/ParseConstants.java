@@ -28,6 +28,9 @@ public class ParseConstants {
     public static final String API_VERSION = "1";
 
     public static final String HEADER_CONTENT_TYPE = "Content-Type";
+    public static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    public static final String HEADER_CONTENT_RANGE = "Content-Range";
+    public static final String HEADER_RANGE = "Range";
     public static final String HEADER_APPLICATION_ID = "X-Parse-Application-Id";
     public static final String HEADER_CLIENT_KEY = "X-Parse-Client-Key";
     public static final String HEADER_SESSION_TOKEN = "X-Parse-Session-Token";
@@ -46,9 +49,13 @@ public class ParseConstants {
     public static final String ENDPOINT_USERS = "users";
     public static final String ENDPOINT_ROLES = "roles";
     public static final String ENDPOINT_SESSIONS = "sessions";
+    public static final String ENDPOINT_BATCH = "batch";
     public static final String CLASSES_PATH = "classes/";
     public static final String FILES_PATH = "files/";
     
     public static final String KEYWORD_OP = "__op";
     public static final String KEYWORD_TYPE = "__type";
+    
+    public static final int MAX_BATCH_SIZE = 50;
+    public static final int MAX_QUERY_LIMIT = 1000;
 }
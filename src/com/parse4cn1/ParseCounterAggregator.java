@@ -0,0 +1,520 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.ParseBatch.EBatchOpType;
+import com.parse4cn1.command.ParseCommand.EPriority;
+import com.parse4cn1.operation.IncrementFieldOperation;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The ParseCounterAggregator class buffers increments of number fields (e.g.
+ * view or like counters) on the client and writes them to the server in
+ * aggregated form, i.e., as a single Increment operation per field.
+ * <p>
+ * Increments are accumulated per (className, objectId, key) in a number of
+ * independently locked stripes so that many threads can record increments
+ * concurrently without contending for a single lock or issuing requests of
+ * their own. Accumulated increments are written by {@link #flush()}. Once
+ * {@link #start()}ed, the aggregator also flushes periodically (see
+ * {@link #setFlushInterval(long)}) and as soon as the number of pending
+ * counters reaches a threshold (see {@link #setFlushThreshold(int)}).
+ * <p>
+ * Flushed increments are sent via a {@link ParseBatch} by default. If
+ * writing the increment for an object fails, its increments are retained
+ * and retried on the next flush, unless the object no longer exists.
+ * <p>
+ * <b>Note:</b> Increments that are still pending when the application
+ * terminates are lost. Call {@link #stop()} to flush them beforehand.
+ */
+public class ParseCounterAggregator {
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final long DEFAULT_RETRY_DELAY = 5000;
+
+    /**
+     * The default number of stripes.
+     */
+    public static final int DEFAULT_STRIPE_COUNT = 16;
+
+    private final Stripe[] stripes;
+    private long flushInterval = 0;
+    private int flushThreshold = 0;
+    private boolean batched = true;
+    private ParseClient client;
+
+    private final Object flushLock = new Object();
+    private final Object countLock = new Object();
+    private int pendingCounters;
+
+    // State of the background flusher
+    private final Object flusherLock = new Object();
+    private Thread flusher;
+    private boolean running;
+    private boolean flushRequested;
+
+    /**
+     * Creates an aggregator with {@link #DEFAULT_STRIPE_COUNT} stripes.
+     *
+     * @return The newly created aggregator.
+     */
+    public static ParseCounterAggregator create() {
+        return create(DEFAULT_STRIPE_COUNT);
+    }
+
+    /**
+     * Creates an aggregator with the specified number of stripes. More
+     * stripes reduce contention between threads that increment counters of
+     * different objects.
+     *
+     * @param stripeCount The number of stripes. Must be positive.
+     * @return The newly created aggregator.
+     */
+    public static ParseCounterAggregator create(final int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Stripe count must be positive");
+        }
+        return new ParseCounterAggregator(stripeCount);
+    }
+
+    private ParseCounterAggregator(final int stripeCount) {
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; ++i) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Sets the interval at which pending increments are flushed after
+     * {@link #start()}. The default is 0, i.e., no periodic flushing.
+     *
+     * @param flushInterval The interval in milliseconds or 0 to disable
+     * periodic flushing.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseCounterAggregator setFlushInterval(final long flushInterval) {
+        if (flushInterval < 0) {
+            throw new IllegalArgumentException("Flush interval must not be negative");
+        }
+        synchronized (flusherLock) {
+            this.flushInterval = flushInterval;
+            flusherLock.notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * Sets the number of pending counters at which a flush is triggered
+     * after {@link #start()}. The default is 0, i.e., no threshold.
+     *
+     * @param flushThreshold The number of distinct pending (className,
+     * objectId, key) counters or 0 to disable the threshold.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseCounterAggregator setFlushThreshold(final int flushThreshold) {
+        if (flushThreshold < 0) {
+            throw new IllegalArgumentException("Flush threshold must not be negative");
+        }
+        synchronized (countLock) {
+            this.flushThreshold = flushThreshold;
+        }
+        return this;
+    }
+
+    /**
+     * Determines whether flushed increments are sent via the batch API
+     * (default) or via a separate request per object.
+     *
+     * @param batched {@code true} to use batch requests.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseCounterAggregator setBatched(final boolean batched) {
+        synchronized (flushLock) {
+            this.batched = batched;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the client via which flushed increments are written.
+     *
+     * @param client The client or null to use {@link Parse#getDefaultClient()}.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseCounterAggregator setClient(final ParseClient client) {
+        synchronized (flushLock) {
+            this.client = client;
+        }
+        return this;
+    }
+
+    /**
+     * Increments the field {@code key} of the specified object by 1.
+     *
+     * @param className The class name of the object.
+     * @param objectId The objectId of the object.
+     * @param key The key of the number field to be incremented.
+     */
+    public void increment(final String className, final String objectId, final String key) {
+        increment(className, objectId, key, 1);
+    }
+
+    /**
+     * Increments the field {@code key} of the specified object by
+     * {@code amount}. The increment is only recorded locally; it is written
+     * to the server by the next flush.
+     *
+     * @param className The class name of the object.
+     * @param objectId The objectId of the object.
+     * @param key The key of the number field to be incremented.
+     * @param amount The amount to increment by. May be negative.
+     */
+    public void increment(final String className, final String objectId,
+            final String key, final long amount) {
+        if (className == null || objectId == null || key == null) {
+            throw new IllegalArgumentException("Null class name, objectId and/or key");
+        }
+        add(className, objectId, key, amount);
+    }
+
+    /**
+     * Retrieves the increment of a field that is not yet written to the server.
+     *
+     * @param className The class name of the object.
+     * @param objectId The objectId of the object.
+     * @param key The key of the number field.
+     * @return The pending increment; 0 if there is none.
+     */
+    public long getPendingAmount(final String className, final String objectId,
+            final String key) {
+        final String objectKey = createObjectKey(className, objectId);
+        final Stripe stripe = getStripe(objectKey);
+        synchronized (stripe) {
+            final PendingObject object = stripe.objects.get(objectKey);
+            final long[] amount = (object != null) ? object.amounts.get(key) : null;
+            return (amount != null) ? amount[0] : 0;
+        }
+    }
+
+    /**
+     * @return The number of distinct (className, objectId, key) counters with
+     * pending increments.
+     */
+    public int getPendingCount() {
+        synchronized (countLock) {
+            return pendingCounters;
+        }
+    }
+
+    /**
+     * Writes all pending increments to the server and blocks until done.
+     * Concurrent flushes are serialized. Increments recorded while a flush
+     * is in progress are written by the next flush.
+     *
+     * @return {@code true} if all increments were written; {@code false} if
+     * writing some of them failed. Failed increments remain pending except
+     * for objects that no longer exist, which are discarded.
+     * @throws ParseException if the requests could not be issued at all. All
+     * increments remain pending in that case.
+     */
+    public boolean flush() throws ParseException {
+        synchronized (flushLock) {
+            final List<PendingObject> drained = drain();
+            if (drained.isEmpty()) {
+                return true;
+            }
+
+            final Map<ParseObject, PendingObject> updates
+                    = new LinkedHashMap<ParseObject, PendingObject>();
+            for (PendingObject pending : drained) {
+                final ParseObject object = pending.toUpdate();
+                if (object != null) {
+                    object.setClient(client);
+                    updates.put(object, pending);
+                }
+            }
+
+            final Map<ParseObject, ParseException> errors;
+            try {
+                errors = batched ? writeBatched(updates) : writeIndividually(updates);
+            } catch (ParseException ex) {
+                LOGGER.error("Flushing counters failed: " + ex);
+                restore(drained);
+                throw ex;
+            } catch (RuntimeException ex) {
+                LOGGER.error("Flushing counters failed: " + ex);
+                restore(drained);
+                throw new ParseException(ParseException.ERR_INTERNAL, ex);
+            }
+
+            for (Entry<ParseObject, ParseException> error : errors.entrySet()) {
+                final PendingObject pending = updates.get(error.getKey());
+                if (error.getValue().getCode() == ParseException.OBJECT_NOT_FOUND) {
+                    LOGGER.error("Discarding increments of non-existent object "
+                            + pending.className + "/" + pending.objectId);
+                } else {
+                    restore(pending);
+                }
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Flushed counters of " + updates.size() + " object(s) with "
+                        + errors.size() + " error(s)");
+            }
+            return errors.isEmpty();
+        }
+    }
+
+    /**
+     * Starts flushing pending increments in the background according to the
+     * configured flush interval and threshold. Has no effect if already
+     * started.
+     */
+    public void start() {
+        synchronized (flusherLock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            flusher = new Thread(new Flusher(), "ParseCounterAggregator");
+            flusher.start();
+        }
+    }
+
+    /**
+     * Stops background flushing and flushes all pending increments.
+     *
+     * @return The result of the final {@link #flush()}.
+     * @throws ParseException if the final flush could not be issued.
+     */
+    public boolean stop() throws ParseException {
+        final Thread stopped;
+        synchronized (flusherLock) {
+            running = false;
+            stopped = flusher;
+            flusher = null;
+            flusherLock.notifyAll();
+        }
+
+        if (stopped != null && stopped != Thread.currentThread()) {
+            try {
+                stopped.join();
+            } catch (InterruptedException ex) {
+                LOGGER.error("Interrupted while waiting for flusher to stop.");
+            }
+        }
+        return flush();
+    }
+
+    private Map<ParseObject, ParseException> writeBatched(
+            final Map<ParseObject, PendingObject> updates) throws ParseException {
+        final ParseBatch batch = ParseBatch.create().setClient(client)
+                .setPriority(EPriority.BACKGROUND);
+        batch.addObjects(updates.keySet(), EBatchOpType.UPDATE);
+        batch.execute();
+        return batch.getErrors();
+    }
+
+    private Map<ParseObject, ParseException> writeIndividually(
+            final Map<ParseObject, PendingObject> updates) {
+        final Map<ParseObject, ParseException> errors
+                = new LinkedHashMap<ParseObject, ParseException>();
+        for (ParseObject object : updates.keySet()) {
+            try {
+                object.save();
+            } catch (ParseException ex) {
+                errors.put(object, ex);
+            }
+        }
+        return errors;
+    }
+
+    private void add(final String className, final String objectId,
+            final String key, final long amount) {
+        final String objectKey = createObjectKey(className, objectId);
+        final Stripe stripe = getStripe(objectKey);
+        final boolean isNew;
+        synchronized (stripe) {
+            PendingObject object = stripe.objects.get(objectKey);
+            if (object == null) {
+                object = new PendingObject(className, objectId);
+                stripe.objects.put(objectKey, object);
+            }
+
+            final long[] current = object.amounts.get(key);
+            isNew = (current == null);
+            if (isNew) {
+                object.amounts.put(key, new long[]{amount});
+            } else {
+                current[0] += amount;
+            }
+        }
+
+        if (isNew) {
+            onCounterAdded();
+        }
+    }
+
+    private void onCounterAdded() {
+        final boolean thresholdReached;
+        synchronized (countLock) {
+            ++pendingCounters;
+            thresholdReached = (flushThreshold > 0) && (pendingCounters >= flushThreshold);
+        }
+
+        if (thresholdReached) {
+            synchronized (flusherLock) {
+                if (running) {
+                    flushRequested = true;
+                    flusherLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all pending increments from the stripes.
+     *
+     * @return The removed increments.
+     */
+    private List<PendingObject> drain() {
+        final List<PendingObject> drained = new ArrayList<PendingObject>();
+        int counters = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (PendingObject object : stripe.objects.values()) {
+                    drained.add(object);
+                    counters += object.amounts.size();
+                }
+                stripe.objects.clear();
+            }
+        }
+
+        synchronized (countLock) {
+            pendingCounters -= counters;
+        }
+        return drained;
+    }
+
+    private void restore(final List<PendingObject> objects) {
+        for (PendingObject object : objects) {
+            restore(object);
+        }
+    }
+
+    private void restore(final PendingObject object) {
+        for (Entry<String, long[]> amount : object.amounts.entrySet()) {
+            add(object.className, object.objectId, amount.getKey(), amount.getValue()[0]);
+        }
+    }
+
+    private Stripe getStripe(final String objectKey) {
+        return stripes[(objectKey.hashCode() & 0x7fffffff) % stripes.length];
+    }
+
+    private static String createObjectKey(final String className, final String objectId) {
+        return className + '/' + objectId;
+    }
+
+    /**
+     * A group of pending increments guarded by its own monitor.
+     */
+    private static class Stripe {
+
+        private final Map<String, PendingObject> objects = new HashMap<String, PendingObject>();
+    }
+
+    /**
+     * The pending increments of the fields of a single object.
+     */
+    private static class PendingObject {
+
+        private final String className;
+        private final String objectId;
+        private final Map<String, long[]> amounts = new HashMap<String, long[]>();
+
+        PendingObject(final String className, final String objectId) {
+            this.className = className;
+            this.objectId = objectId;
+        }
+
+        /**
+         * Creates an object whose only pending operations are the
+         * increments of this object.
+         *
+         * @return The object or null if all increments cancel out.
+         */
+        ParseObject toUpdate() {
+            final ParseObject object = ParseObject.create(className);
+            object.setObjectId(objectId);
+            for (Entry<String, long[]> amount : amounts.entrySet()) {
+                if (amount.getValue()[0] != 0) {
+                    object.addPendingOperation(amount.getKey(),
+                            new IncrementFieldOperation(amount.getValue()[0]));
+                }
+            }
+            return object.isDirty() ? object : null;
+        }
+    }
+
+    /**
+     * Flushes pending increments in the background until stopped.
+     */
+    private class Flusher implements Runnable {
+
+        public void run() {
+            boolean failed = false;
+            while (true) {
+                synchronized (flusherLock) {
+                    try {
+                        if (failed) {
+                            // Back off rather than retrying on every threshold hit
+                            final long retryAt = System.currentTimeMillis()
+                                    + (flushInterval > 0 ? flushInterval : DEFAULT_RETRY_DELAY);
+                            long remaining = retryAt - System.currentTimeMillis();
+                            while (running && remaining > 0) {
+                                flusherLock.wait(remaining);
+                                remaining = retryAt - System.currentTimeMillis();
+                            }
+                        } else if (running && !flushRequested) {
+                            flusherLock.wait(flushInterval);
+                        }
+                    } catch (InterruptedException ex) {
+                        LOGGER.error("Counter flusher interrupted.");
+                        running = false;
+                    }
+
+                    if (!running) {
+                        return;
+                    }
+                    flushRequested = false;
+                }
+
+                try {
+                    failed = !flush();
+                } catch (ParseException ex) {
+                    failed = true;
+                }
+            }
+        }
+    }
+}
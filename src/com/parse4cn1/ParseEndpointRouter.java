@@ -0,0 +1,397 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The ParseEndpointRouter class distributes requests over one or more
+ * equivalent Parse API endpoints (e.g. the nodes of a self-hosted Parse
+ * server cluster) and fails over to other endpoints when one becomes
+ * unavailable.
+ * <p>
+ * Each endpoint is a base URL that includes the API version or mount path,
+ * e.g. {@code https://api.parse.com/1} or {@code https://node1.example.com/parse}.
+ * The first endpoint is the primary endpoint: URLs returned by
+ * {@link Parse#getParseAPIUrl(java.lang.String)} refer to it and are mapped
+ * to the endpoint selected by the {@link EPolicy routing policy} when a
+ * request is issued.
+ * <p>
+ * An endpoint that fails {@link #setFailureThreshold(int) a number of times}
+ * in a row (connection failure or 502/503/504 response) is marked as
+ * unhealthy and is not selected for {@link #setRecoveryDelay(long) a while}.
+ * Afterwards, it is selected again; a single success marks it as healthy. If
+ * all endpoints are unhealthy, the one that will recover first is used.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ParseEndpointRouter {
+
+    /**
+     * The policy according to which an endpoint is selected for a request.
+     */
+    public enum EPolicy {
+
+        /**
+         * Endpoints are selected in turn.
+         */
+        ROUND_ROBIN,
+        /**
+         * The endpoint with the fewest outstanding requests is selected.
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * Endpoints are selected randomly with a probability that is
+         * inversely proportional to their average latency multiplied by
+         * their number of outstanding requests. Thus, slow endpoints receive
+         * fewer requests without being starved of requests that would reveal
+         * their recovery.
+         */
+        LATENCY_WEIGHTED
+    }
+
+    /**
+     * The default number of consecutive failures after which an endpoint is
+     * marked as unhealthy.
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 2;
+    /**
+     * The default time in milliseconds for which an unhealthy endpoint is
+     * not selected.
+     */
+    public static final long DEFAULT_RECOVERY_DELAY = 30000;
+
+    private static final Logger LOGGER = Logger.getInstance();
+    // Weight of a new latency sample in the moving average
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+    private final Random random = new Random();
+    private EPolicy policy = EPolicy.ROUND_ROBIN;
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long recoveryDelay = DEFAULT_RECOVERY_DELAY;
+    private int nextIndex;
+
+    /**
+     * Creates a router for a single endpoint.
+     *
+     * @param apiEndpoint The base URL of the endpoint.
+     * @return The newly created router.
+     */
+    public static ParseEndpointRouter create(final String apiEndpoint) {
+        return create(new String[]{apiEndpoint});
+    }
+
+    /**
+     * Creates a router for the specified endpoints.
+     *
+     * @param apiEndpoints The base URLs of the endpoints. The first one is
+     * the primary endpoint.
+     * @return The newly created router.
+     */
+    public static ParseEndpointRouter create(final String[] apiEndpoints) {
+        if (apiEndpoints == null || apiEndpoints.length == 0) {
+            throw new IllegalArgumentException("At least one API endpoint is required");
+        }
+        return new ParseEndpointRouter(apiEndpoints);
+    }
+
+    private ParseEndpointRouter(final String[] apiEndpoints) {
+        for (String apiEndpoint : apiEndpoints) {
+            if (apiEndpoint == null || apiEndpoint.length() == 0) {
+                throw new IllegalArgumentException("Empty API endpoint");
+            }
+            endpoints.add(new Endpoint(apiEndpoint.endsWith("/")
+                    ? apiEndpoint.substring(0, apiEndpoint.length() - 1) : apiEndpoint));
+        }
+    }
+
+    /**
+     * Sets the routing policy. The default is {@link EPolicy#ROUND_ROBIN}.
+     *
+     * @param policy The policy.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseEndpointRouter setPolicy(final EPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("Null policy");
+        }
+        this.policy = policy;
+        return this;
+    }
+
+    /**
+     * Sets the number of consecutive failures after which an endpoint is
+     * marked as unhealthy. The default is {@link #DEFAULT_FAILURE_THRESHOLD}.
+     *
+     * @param failureThreshold The threshold. Must be positive.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseEndpointRouter setFailureThreshold(final int failureThreshold) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        return this;
+    }
+
+    /**
+     * Sets the time for which an unhealthy endpoint is not selected. The
+     * default is {@link #DEFAULT_RECOVERY_DELAY}.
+     *
+     * @param recoveryDelay The delay in milliseconds.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseEndpointRouter setRecoveryDelay(final long recoveryDelay) {
+        if (recoveryDelay < 0) {
+            throw new IllegalArgumentException("Recovery delay must not be negative");
+        }
+        this.recoveryDelay = recoveryDelay;
+        return this;
+    }
+
+    /**
+     * @return The number of endpoints.
+     */
+    public int getEndpointCount() {
+        return endpoints.size();
+    }
+
+    /**
+     * @return The base URL of the primary endpoint.
+     */
+    public String getPrimaryUrl() {
+        return endpoints.get(0).url;
+    }
+
+    /**
+     * @return The path of the primary endpoint's base URL relative to the
+     * server root, e.g. {@code /1}, or an empty string if the base URL has no
+     * path.
+     */
+    public String getPrimaryPath() {
+        final String url = getPrimaryUrl();
+        final int schemeEnd = url.indexOf("://");
+        final int pathStart = url.indexOf('/', schemeEnd < 0 ? 0 : schemeEnd + 3);
+        return (pathStart < 0) ? "" : url.substring(pathStart);
+    }
+
+    /**
+     * Checks whether an endpoint is currently considered healthy.
+     *
+     * @param index The index of the endpoint in the list passed upon creation.
+     * @return {@code true} if the endpoint is healthy.
+     */
+    public synchronized boolean isHealthy(final int index) {
+        return endpoints.get(index).unhealthyUntil <= System.currentTimeMillis();
+    }
+
+    /**
+     * Retrieves the number of requests that are currently outstanding at an
+     * endpoint.
+     *
+     * @param index The index of the endpoint in the list passed upon creation.
+     * @return The number of outstanding requests.
+     */
+    public synchronized int getOutstandingRequests(final int index) {
+        return endpoints.get(index).outstanding;
+    }
+
+    /**
+     * Selects the endpoint to which a request for {@code url} is to be sent.
+     * Every selected endpoint must be released via
+     * {@link #release(com.parse4cn1.ParseEndpointRouter.Endpoint, boolean, long)}
+     * once the request is completed.
+     *
+     * @param url The URL of the request.
+     * @param excluded Endpoints that must not be selected unless there is no
+     * other endpoint, e.g., the endpoints that already failed for this
+     * request.
+     * @return The selected endpoint or null if {@code url} does not refer to
+     * the primary endpoint and should therefore not be routed.
+     */
+    public synchronized Endpoint acquire(final String url, final List<Endpoint> excluded) {
+        if (!isRouted(url)) {
+            return null;
+        }
+
+        final long now = System.currentTimeMillis();
+        final List<Endpoint> candidates = new ArrayList<Endpoint>();
+        Endpoint firstRecovering = null;
+        for (Endpoint endpoint : endpoints) {
+            if (excluded != null && excluded.contains(endpoint)) {
+                continue;
+            }
+            if (endpoint.unhealthyUntil <= now) {
+                candidates.add(endpoint);
+            } else if (firstRecovering == null
+                    || endpoint.unhealthyUntil < firstRecovering.unhealthyUntil) {
+                firstRecovering = endpoint;
+            }
+        }
+
+        Endpoint selected;
+        if (!candidates.isEmpty()) {
+            selected = select(candidates);
+        } else if (firstRecovering != null) {
+            selected = firstRecovering;
+        } else {
+            // All endpoints were excluded; fall back to the primary endpoint
+            selected = endpoints.get(0);
+        }
+        ++selected.outstanding;
+        return selected;
+    }
+
+    /**
+     * Maps a URL that refers to the primary endpoint to the specified
+     * endpoint.
+     *
+     * @param endpoint The endpoint obtained via
+     * {@link #acquire(java.lang.String, java.util.List)}.
+     * @param url The URL of the request.
+     * @return {@code url} with the primary endpoint's base URL replaced by
+     * that of {@code endpoint}.
+     */
+    public String resolve(final Endpoint endpoint, final String url) {
+        return endpoint.url + url.substring(getPrimaryUrl().length());
+    }
+
+    /**
+     * Reports the outcome of a request sent to an endpoint obtained via
+     * {@link #acquire(java.lang.String, java.util.List)}.
+     *
+     * @param endpoint The endpoint.
+     * @param success {@code false} if the endpoint failed to handle the
+     * request, e.g., it could not be reached.
+     * @param latency The time in milliseconds that the request took.
+     */
+    public synchronized void release(final Endpoint endpoint, final boolean success,
+            final long latency) {
+        --endpoint.outstanding;
+        if (success) {
+            endpoint.consecutiveFailures = 0;
+            endpoint.unhealthyUntil = 0;
+            endpoint.averageLatency = (endpoint.averageLatency < 0)
+                    ? latency
+                    : (1 - LATENCY_SMOOTHING) * endpoint.averageLatency + LATENCY_SMOOTHING * latency;
+        } else if (++endpoint.consecutiveFailures >= failureThreshold) {
+            endpoint.unhealthyUntil = System.currentTimeMillis() + recoveryDelay;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Endpoint " + endpoint.url + " marked as unhealthy after "
+                        + endpoint.consecutiveFailures + " consecutive failures");
+            }
+        }
+    }
+
+    /**
+     * Releases an endpoint obtained via
+     * {@link #acquire(java.lang.String, java.util.List)} without reporting an
+     * outcome because the request was not sent to it.
+     *
+     * @param endpoint The endpoint.
+     */
+    public synchronized void cancel(final Endpoint endpoint) {
+        --endpoint.outstanding;
+    }
+
+    private boolean isRouted(final String url) {
+        final String primaryUrl = getPrimaryUrl();
+        return url != null && url.startsWith(primaryUrl)
+                && (url.length() == primaryUrl.length() || url.charAt(primaryUrl.length()) == '/'
+                || url.charAt(primaryUrl.length()) == '?');
+    }
+
+    private int rotate(final int size) {
+        final int index = nextIndex % size;
+        nextIndex = (nextIndex + 1) & Integer.MAX_VALUE;
+        return index;
+    }
+
+    private Endpoint select(final List<Endpoint> candidates) {
+        switch (policy) {
+            case LEAST_OUTSTANDING: {
+                Endpoint selected = null;
+                final int start = rotate(candidates.size());
+                // Start at a rotating offset so that ties are distributed
+                for (int i = 0; i < candidates.size(); ++i) {
+                    final Endpoint candidate = candidates.get((start + i) % candidates.size());
+                    if (selected == null || candidate.outstanding < selected.outstanding) {
+                        selected = candidate;
+                    }
+                }
+                return selected;
+            }
+            case LATENCY_WEIGHTED: {
+                double minLatency = -1;
+                for (Endpoint candidate : candidates) {
+                    if (candidate.averageLatency >= 0
+                            && (minLatency < 0 || candidate.averageLatency < minLatency)) {
+                        minLatency = candidate.averageLatency;
+                    }
+                }
+
+                final double[] weights = new double[candidates.size()];
+                double totalWeight = 0;
+                for (int i = 0; i < candidates.size(); ++i) {
+                    final Endpoint candidate = candidates.get(i);
+                    // Endpoints without samples are treated like the fastest one
+                    final double latency = Math.max(1, candidate.averageLatency >= 0
+                            ? candidate.averageLatency : Math.max(minLatency, 1));
+                    weights[i] = 1 / (latency * (candidate.outstanding + 1));
+                    totalWeight += weights[i];
+                }
+
+                double target = random.nextDouble() * totalWeight;
+                for (int i = 0; i < weights.length; ++i) {
+                    target -= weights[i];
+                    if (target < 0) {
+                        return candidates.get(i);
+                    }
+                }
+                return candidates.get(candidates.size() - 1);
+            }
+            default:
+                return candidates.get(rotate(candidates.size()));
+        }
+    }
+
+    /**
+     * An endpoint managed by a router.
+     */
+    public static class Endpoint {
+
+        private final String url;
+        private int outstanding;
+        private int consecutiveFailures;
+        private long unhealthyUntil;
+        private double averageLatency = -1;
+
+        private Endpoint(final String url) {
+            this.url = url;
+        }
+
+        /**
+         * @return The base URL of this endpoint.
+         */
+        public String getUrl() {
+            return url;
+        }
+    }
+}
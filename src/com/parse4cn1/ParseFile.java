@@ -19,13 +19,22 @@
 package com.parse4cn1;
 
 import ca.weblite.codename1.json.JSONException;
+import com.codename1.io.FileSystemStorage;
+import com.parse4cn1.callback.GetDataCallback;
+import com.parse4cn1.callback.ParseFuture;
+import com.parse4cn1.callback.ParseFuture.IContinuation;
 import com.parse4cn1.callback.ProgressCallback;
+import com.parse4cn1.callback.SaveCallback;
+import com.parse4cn1.command.ParseCommand.EPriority;
 import com.parse4cn1.command.ParseResponse;
 import com.parse4cn1.command.ParseUploadCommand;
 import com.parse4cn1.util.Logger;
 import com.parse4cn1.util.MimeType;
 import ca.weblite.codename1.json.JSONObject;
 import com.parse4cn1.command.ParseDownloadCommand;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * ParseFile is a local representation of a file that is saved to the Parse cloud.
@@ -39,7 +48,12 @@ public class ParseFile implements Parse.IPersistable {
     private String name = null;
     private String url = null;
     private String contentType = null;
+    private ParseClient client;
+    private EPriority priority = EPriority.NORMAL;
     byte[] data;
+    private InputStream dataStream;
+    private long dataLength = -1;
+    private String dataPath;
 
     /**
      * Creates a new file from a byte array, file name, and content type.
@@ -89,6 +103,52 @@ public class ParseFile implements Parse.IPersistable {
         this(null, data, contentType);
     }
 
+    /**
+     * Creates a new file whose data is read from a stream when it is saved. 
+     * The data is streamed to the Parse server without being loaded into 
+     * memory as a whole, which makes this constructor suitable for large files.
+     * <p>
+     * The stream can only be read once; it is closed after it has been read. 
+     * Hence, the file can only be saved once and a request that is re-issued 
+     * (e.g. by a {@link ParseRetryPolicy}) fails. The 
+     * data is not available via {@link #getData()} until it has been 
+     * downloaded after saving.
+     *
+     * @param name The local file name.
+     * @param data The stream from which the file data is read.
+     * @param length The number of bytes to be read from {@code data} or -1 if 
+     * unknown, in which case {@code data} is read until its end.
+     * @param contentType The file content type specified as a MIME type.
+     */
+    public ParseFile(String name, InputStream data, long length, String contentType) {
+        this(name, (byte[]) null, contentType);
+        if (data == null) {
+            throw new NullPointerException("Null stream");
+        }
+        this.dataStream = data;
+        this.dataLength = length;
+    }
+
+    /**
+     * Creates a new file whose data is read from a local file when it is saved. 
+     * Like {@link #ParseFile(java.lang.String, java.io.InputStream, long, java.lang.String)},
+     * the data is streamed to the Parse server without being loaded into 
+     * memory but the local file is re-read whenever the request is issued.
+     *
+     * @param name The local file name.
+     * @param path The path of the local file as used by {@link FileSystemStorage}.
+     * @param contentType The file content type specified as a MIME type.
+     * @return The newly created file.
+     */
+    public static ParseFile createFromFile(String name, String path, String contentType) {
+        if (path == null) {
+            throw new NullPointerException("Null path");
+        }
+        final ParseFile file = new ParseFile(name, (byte[]) null, contentType);
+        file.dataPath = path;
+        return file;
+    }
+
     /**
      * Creates a file without data.
      *
@@ -157,6 +217,7 @@ public class ParseFile implements Parse.IPersistable {
      */
     public void setData(byte[] data) {
         this.data = data;
+        clearUploadSource();
         setDirty(true);
     }
 
@@ -193,16 +254,108 @@ public class ParseFile implements Parse.IPersistable {
      */
     public void save(ProgressCallback progressCallback) throws ParseException {
 
-        if (!isDirty() || !isDataAvailable()) {
+        if (!isDirty() || !(isDataAvailable() || hasUploadSource())) {
             return;
         }
 
+        processSaveResponse(createUploadCommand(progressCallback).perform());
+    }
+
+    /**
+     * Same as {@link #save(com.parse4cn1.callback.ProgressCallback)} but 
+     * performed asynchronously.
+     * 
+     * @param progressCallback The optional callback to retrieve progress notifications.
+     * @return A future that is completed when the file is saved.
+     */
+    public ParseFuture<Void> saveInBackground(ProgressCallback progressCallback) {
+
+        if (!isDirty() || !(isDataAvailable() || hasUploadSource())) {
+            return ParseFuture.completed(null);
+        }
+
+        try {
+            return createUploadCommand(progressCallback).performAsync().then(
+                    new IContinuation<ParseResponse, Void>() {
+
+                        public Void then(ParseResponse response) throws ParseException {
+                            processSaveResponse(response);
+                            return null;
+                        }
+                    });
+        } catch (ParseException ex) {
+            return ParseFuture.failed(ex);
+        }
+    }
+
+    /**
+     * Same as {@link #saveInBackground(com.parse4cn1.callback.ProgressCallback)} 
+     * with the option to get notified when the file is saved.
+     * 
+     * @param progressCallback The optional callback to retrieve progress notifications.
+     * @param callback The callback to be notified when saving is completed.
+     */
+    public void saveInBackground(ProgressCallback progressCallback, SaveCallback callback) {
+        saveInBackground(progressCallback).addCallback(callback);
+    }
+
+    /**
+     * Sets the client via which this file is uploaded and downloaded.
+     *
+     * @param client The client or null to use {@link Parse#getDefaultClient()}.
+     */
+    public void setClient(final ParseClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return The client via which this file is uploaded and downloaded.
+     */
+    public ParseClient getClient() {
+        return (client != null) ? client : Parse.getDefaultClient();
+    }
+
+    /**
+     * Sets the priority with which this file is uploaded and downloaded, 
+     * e.g., {@link EPriority#BACKGROUND} for large files that the user is not 
+     * waiting for. The default is {@link EPriority#NORMAL}.
+     * 
+     * @param priority The priority.
+     */
+    public void setPriority(final EPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Null priority");
+        }
+        this.priority = priority;
+    }
+
+    private ParseUploadCommand createUploadCommand(ProgressCallback progressCallback) {
         ParseUploadCommand command = new ParseUploadCommand(getEndPoint());
+        command.setClient(client);
+        command.setPriority(priority);
         command.setProgressCallback(progressCallback);
-        command.setData(data);
+        if (dataPath != null) {
+            command.setDataFile(dataPath);
+        } else if (dataStream != null) {
+            command.setData(dataStream, dataLength);
+        } else {
+            command.setData(data);
+        }
         command.setContentType(getContentType());
+        return command;
+    }
 
-        ParseResponse response = command.perform();
+    private boolean hasUploadSource() {
+        return dataStream != null || dataPath != null;
+    }
+
+    private void clearUploadSource() {
+        dataStream = null;
+        dataLength = -1;
+        dataPath = null;
+    }
+
+    private void processSaveResponse(ParseResponse response) throws ParseException {
         if (!response.isFailed()) {
             JSONObject jsonResponse = response.getJsonObject();
             if (jsonResponse == null) {
@@ -214,6 +367,7 @@ public class ParseFile implements Parse.IPersistable {
                 this.name = jsonResponse.getString("name");
                 this.url = jsonResponse.getString("url");
                 this.dirty = false;
+                clearUploadSource();
             } catch (JSONException ex) {
                 throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PROCESSING_RESPONSE, ex);
             }
@@ -226,23 +380,240 @@ public class ParseFile implements Parse.IPersistable {
     /**
      * Synchronously gets the data for this object if no file data is present;
      * otherwise returns the data available for this object.
+     * <p>
+     * If the client has a {@link com.parse4cn1.command.ParseFileCache}, data 
+     * that was downloaded before (e.g. by another ParseFile instance with the 
+     * same URL) is read from the cache instead of being downloaded again.
      * 
      * @return The data associated with this object.
      * @throws ParseException if retrieving file data from the Parse cloud fails.
      */
     public byte[] getData() throws ParseException {
         if (!isDataAvailable()) {
-            final ParseDownloadCommand command
-                    = new ParseDownloadCommand(getUrl(), getContentType());
-
-            ParseResponse response = command.perform();
-            if (!response.isFailed()) {
-                data = response.getResponseData();
-            } else {
-                LOGGER.error("Request failed.");
-                throw response.getException();
-            }
+            processDownloadResponse(createDownloadCommand(null).perform());
         }
         return data;
     }
+
+    /**
+     * Same as {@link #getData()} but performed asynchronously.
+     * 
+     * @return A future that is completed with the data associated with this object.
+     */
+    public ParseFuture<byte[]> getDataInBackground() {
+        if (isDataAvailable()) {
+            return ParseFuture.completed(data);
+        }
+
+        try {
+            return createDownloadCommand(null).performAsync().then(
+                    new IContinuation<ParseResponse, byte[]>() {
+
+                        public byte[] then(ParseResponse response) throws ParseException {
+                            processDownloadResponse(response);
+                            return data;
+                        }
+                    });
+        } catch (ParseException ex) {
+            return ParseFuture.failed(ex);
+        }
+    }
+
+    /**
+     * Same as {@link #getDataInBackground()} with the option to get notified 
+     * when the data is retrieved.
+     * 
+     * @param callback The callback to be notified of the result.
+     */
+    public void getDataInBackground(GetDataCallback callback) {
+        getDataInBackground().addCallback(callback);
+    }
+
+    /**
+     * Synchronously writes the data of this file to a stream. Unlike 
+     * {@link #getData()}, the data is not retained by this object; if it is 
+     * not available, it is copied to {@code output} via a fixed-size buffer 
+     * as it is downloaded. This makes this method suitable for large files.
+     * <p>
+     * If the connection is interrupted, the download is resumed where it 
+     * stopped according to the {@link ParseRetryPolicy} of the client.
+     * 
+     * @param output The stream to which the data is written. It is not closed.
+     * @param progressCallback The optional callback to retrieve progress 
+     * notifications which are sent on a network thread.
+     * @throws ParseException if retrieving the file data fails.
+     */
+    public void download(OutputStream output, ProgressCallback progressCallback) 
+            throws ParseException {
+        if (writeAvailableData(output)) {
+            return;
+        }
+        final ParseDownloadCommand command = createDownloadCommand(progressCallback);
+        command.setOutput(output, 0);
+        processStreamedDownloadResponse(command.perform());
+    }
+
+    /**
+     * Same as {@link #download(java.io.OutputStream, com.parse4cn1.callback.ProgressCallback)} 
+     * but performed asynchronously.
+     * 
+     * @param output The stream to which the data is written. It is not closed.
+     * @param progressCallback The optional callback to retrieve progress notifications.
+     * @return A future that is completed when the data is written.
+     */
+    public ParseFuture<Void> downloadInBackground(OutputStream output, 
+            ProgressCallback progressCallback) {
+        try {
+            if (writeAvailableData(output)) {
+                return ParseFuture.completed(null);
+            }
+            final ParseDownloadCommand command = createDownloadCommand(progressCallback);
+            command.setOutput(output, 0);
+            return command.performAsync().then(new IContinuation<ParseResponse, Void>() {
+
+                public Void then(ParseResponse response) throws ParseException {
+                    processStreamedDownloadResponse(response);
+                    return null;
+                }
+            });
+        } catch (ParseException ex) {
+            return ParseFuture.failed(ex);
+        }
+    }
+
+    /**
+     * Synchronously writes the data of this file to a local file as 
+     * described in {@link #download(java.io.OutputStream, com.parse4cn1.callback.ProgressCallback)}.
+     * 
+     * @param path The path of the local file as used by {@link FileSystemStorage}.
+     * @param resume If {@code true} and the local file exists, it is assumed 
+     * to contain the beginning of the data (e.g. from a download that was 
+     * aborted) and only the remaining data is downloaded; otherwise, the 
+     * local file is overwritten.
+     * @param progressCallback The optional callback to retrieve progress 
+     * notifications which are sent on a network thread.
+     * @throws ParseException if retrieving the file data or writing the local 
+     * file fails.
+     */
+    public void downloadToFile(String path, boolean resume, ProgressCallback progressCallback) 
+            throws ParseException {
+        final long offset = getResumeOffset(path, resume);
+        final OutputStream output = openFile(path, offset);
+        try {
+            if (!writeAvailableData(output)) {
+                final ParseDownloadCommand command = createDownloadCommand(progressCallback);
+                command.setOutput(output, offset);
+                processStreamedDownloadResponse(command.perform());
+            }
+        } finally {
+            closeFile(output);
+        }
+    }
+
+    /**
+     * Same as {@link #downloadToFile(java.lang.String, boolean, com.parse4cn1.callback.ProgressCallback)} 
+     * but performed asynchronously.
+     * 
+     * @param path The path of the local file as used by {@link FileSystemStorage}.
+     * @param resume If {@code true}, an existing local file is resumed.
+     * @param progressCallback The optional callback to retrieve progress notifications.
+     * @return A future that is completed when the local file is written.
+     */
+    public ParseFuture<Void> downloadToFileInBackground(String path, boolean resume, 
+            ProgressCallback progressCallback) {
+        try {
+            final long offset = getResumeOffset(path, resume);
+            final OutputStream output = openFile(path, offset);
+            if (writeAvailableData(output)) {
+                closeFile(output);
+                return ParseFuture.completed(null);
+            }
+            final ParseDownloadCommand command = createDownloadCommand(progressCallback);
+            command.setOutput(output, offset);
+            ParseFuture<ParseResponse> future;
+            try {
+                future = command.performAsync();
+            } catch (ParseException ex) {
+                closeFile(output);
+                throw ex;
+            }
+            return future.then(new IContinuation<ParseResponse, Void>() {
+
+                public Void then(ParseResponse response) throws ParseException {
+                    closeFile(output);
+                    processStreamedDownloadResponse(response);
+                    return null;
+                }
+            });
+        } catch (ParseException ex) {
+            return ParseFuture.failed(ex);
+        }
+    }
+
+    private ParseDownloadCommand createDownloadCommand(ProgressCallback progressCallback) {
+        final ParseDownloadCommand command
+                = new ParseDownloadCommand(getUrl(), getContentType());
+        command.setClient(client);
+        command.setPriority(priority);
+        command.setProgressCallback(progressCallback);
+        return command;
+    }
+
+    private boolean writeAvailableData(OutputStream output) throws ParseException {
+        if (output == null) {
+            throw new NullPointerException("Null output");
+        }
+        if (!isDataAvailable()) {
+            return false;
+        }
+        try {
+            output.write(data);
+            output.flush();
+        } catch (IOException ex) {
+            throw new ParseException(ParseException.OTHER_CAUSE, "Writing file data failed", ex);
+        }
+        return true;
+    }
+
+    private static long getResumeOffset(String path, boolean resume) {
+        final FileSystemStorage storage = FileSystemStorage.getInstance();
+        return (resume && storage.exists(path)) ? storage.getLength(path) : 0;
+    }
+
+    private static OutputStream openFile(String path, long offset) throws ParseException {
+        if (path == null) {
+            throw new NullPointerException("Null path");
+        }
+        try {
+            final FileSystemStorage storage = FileSystemStorage.getInstance();
+            return (offset > 0) 
+                    ? storage.openOutputStream(path, (int) offset) : storage.openOutputStream(path);
+        } catch (IOException ex) {
+            throw new ParseException(ParseException.OTHER_CAUSE, "Opening file " + path + " failed", ex);
+        }
+    }
+
+    private static void closeFile(OutputStream output) {
+        try {
+            output.close();
+        } catch (IOException ex) {
+            LOGGER.error("Closing downloaded file failed: " + ex);
+        }
+    }
+
+    private void processStreamedDownloadResponse(ParseResponse response) throws ParseException {
+        if (response.isFailed()) {
+            LOGGER.error("Request failed.");
+            throw response.getException();
+        }
+    }
+
+    private void processDownloadResponse(ParseResponse response) throws ParseException {
+        if (!response.isFailed()) {
+            data = response.getResponseData();
+        } else {
+            LOGGER.error("Request failed.");
+            throw response.getException();
+        }
+    }
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.util.Logger;
+import com.parse4cn1.util.ParseRegistry;
+import java.lang.ref.WeakReference;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The ParseIdentityMap class ensures that, within its scope, each server-side
+ * object (identified by its class name and objectId) is represented by a
+ * single ParseObject instance.
+ * <p>
+ * When a map is assigned to a query (see
+ * {@link ParseQuery#setIdentityMap(com.parse4cn1.ParseIdentityMap)}),
+ * results, included objects and pointers that refer to an object already in
+ * the map resolve to that canonical instance instead of a new copy. Newer
+ * data received from the server is merged into the canonical instance
+ * unless it has unsaved changes. Sharing one map among several queries
+ * extends this to all their results.
+ * <p>
+ * Instances are only weakly referenced so the map never keeps objects alive
+ * that are no longer used by the application.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ParseIdentityMap {
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final int PURGE_INTERVAL = 256;
+
+    private final Map<String, WeakReference> objects
+            = new HashMap<String, WeakReference>();
+    private int putsSincePurge;
+
+    /**
+     * Retrieves the canonical instance of an object.
+     *
+     * @param <T> The type of ParseObject.
+     * @param className The class name of the object.
+     * @param objectId The objectId of the object.
+     * @return The canonical instance or {@code null} if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends ParseObject> T get(final String className,
+            final String objectId) {
+        final String key = createKey(className, objectId);
+        final WeakReference ref = objects.get(key);
+        if (ref == null) {
+            return null;
+        }
+
+        final ParseObject object = (ParseObject) ref.get();
+        if (object == null || !objectId.equals(object.getObjectId())) {
+            // Garbage collected or deleted (which clears the objectId)
+            objects.remove(key);
+            return null;
+        }
+        return (T) object;
+    }
+
+    /**
+     * Makes {@code object} the canonical instance for its class name and
+     * objectId, replacing any previous one.
+     *
+     * @param object The object to be added. It must have an objectId.
+     */
+    public synchronized void put(final ParseObject object) {
+        if (object.getObjectId() == null) {
+            throw new IllegalArgumentException("Object has no objectId");
+        }
+
+        objects.put(createKey(object.getClassName(), object.getObjectId()),
+                new WeakReference(object));
+        if (++putsSincePurge >= PURGE_INTERVAL) {
+            purge();
+        }
+    }
+
+    /**
+     * Removes the canonical instance of an object, if any.
+     *
+     * @param className The class name of the object.
+     * @param objectId The objectId of the object.
+     */
+    public synchronized void remove(final String className, final String objectId) {
+        objects.remove(createKey(className, objectId));
+    }
+
+    /**
+     * Removes all objects from this map.
+     */
+    public synchronized void clear() {
+        objects.clear();
+        putsSincePurge = 0;
+    }
+
+    /**
+     * @return The number of canonical instances that are still in use.
+     */
+    public synchronized int size() {
+        purge();
+        return objects.size();
+    }
+
+    /**
+     * Resolves a pointer to the canonical instance of the object it refers to,
+     * creating and registering an object without data if there is none yet.
+     *
+     * @param <T> The type of ParseObject.
+     * @param className The class name of the object.
+     * @param objectId The objectId of the object.
+     * @return The canonical instance.
+     */
+    public synchronized <T extends ParseObject> T resolvePointer(
+            final String className, final String objectId) {
+        T object = get(className, objectId);
+        if (object == null) {
+            object = ParseRegistry.getObjectFactory(className).create(className);
+            object.setObjectId(objectId);
+            put(object);
+        }
+        return object;
+    }
+
+    /**
+     * Resolves the JSON data of an object retrieved from the server to the
+     * canonical instance of that object, creating and registering one if
+     * there is none yet.
+     * <p>
+     * The data is merged into an existing canonical instance unless that
+     * instance has unsaved changes or the data is older than what the
+     * instance already holds (based on {@code updatedAt}). Objects nested
+     * in {@code data} are resolved via this map as well.
+     *
+     * @param <T> The type of ParseObject.
+     * @param className The class name of the object.
+     * @param data The JSON data of the object.
+     * @return The canonical instance.
+     */
+    public <T extends ParseObject> T resolve(final String className,
+            final JSONObject data) {
+        return resolve(className, data, null);
+    }
+
+    /**
+     * Same as {@link #resolve(java.lang.String, ca.weblite.codename1.json.JSONObject)}
+     * but the canonical instance is assigned to {@code client} before the
+     * data is set, e.g., so that the session token of a {@link ParseUser} is
+     * associated with that client.
+     *
+     * @param <T> The type of ParseObject.
+     * @param className The class name of the object.
+     * @param data The JSON data of the object.
+     * @param client The client of the object or null to leave it unchanged.
+     * @return The canonical instance.
+     */
+    synchronized <T extends ParseObject> T resolve(final String className,
+            final JSONObject data, final ParseClient client) {
+        final String objectId = data.optString(ParseConstants.FIELD_OBJECT_ID, null);
+        T object = (objectId != null) ? this.<T>get(className, objectId) : null;
+
+        if (object != null && client != null) {
+            object.setClient(client);
+        }
+
+        if (object == null) {
+            object = ParseRegistry.getObjectFactory(className).create(className);
+            if (client != null) {
+                object.setClient(client);
+            }
+            if (objectId != null) {
+                // Registered before setting the data to resolve cyclic references
+                object.setObjectId(objectId);
+                put(object);
+            }
+            object.setData(data, this);
+        } else if (object.isDirty()) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Not merging server data into modified object "
+                        + createKey(className, objectId));
+            }
+        } else if (!isOlder(data, object)) {
+            object.setData(data, this);
+        }
+        return object;
+    }
+
+    private boolean isOlder(final JSONObject data, final ParseObject object) {
+        final String updatedAt = data.optString(ParseConstants.FIELD_UPDATED_AT, null);
+        if (updatedAt == null || object.getUpdatedAt() == null) {
+            return false;
+        }
+
+        final Date date = Parse.parseDate(updatedAt);
+        return (date != null) && (date.getTime() < object.getUpdatedAt().getTime());
+    }
+
+    private void purge() {
+        final Iterator<WeakReference> it = objects.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().get() == null) {
+                it.remove();
+            }
+        }
+        putsSincePurge = 0;
+    }
+
+    private static String createKey(final String className, final String objectId) {
+        return className + ':' + objectId;
+    }
+}
@@ -22,9 +22,14 @@ import ca.weblite.codename1.json.JSONArray;
 import ca.weblite.codename1.json.JSONException;
 import ca.weblite.codename1.json.JSONObject;
 import com.parse4cn1.Parse.IPersistable;
+import com.parse4cn1.callback.DeleteCallback;
 import com.parse4cn1.callback.GetCallback;
 import com.parse4cn1.callback.ParseCallback;
+import com.parse4cn1.callback.ParseFuture;
+import com.parse4cn1.callback.ParseFuture.IContinuation;
+import com.parse4cn1.callback.SaveCallback;
 import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.ParseCommand.EPriority;
 import com.parse4cn1.command.ParseDeleteCommand;
 import com.parse4cn1.command.ParseGetCommand;
 import com.parse4cn1.command.ParsePostCommand;
@@ -78,6 +83,9 @@ public class ParseObject implements IPersistable {
 
     private Date updatedAt;
     private Date createdAt;
+    private ParseClient client;
+    private EPriority priority = EPriority.NORMAL;
+    private ParseIdentityMap decodingIdentityMap;
 
     protected ParseObject(String className) {
 
@@ -159,6 +167,44 @@ public class ParseObject implements IPersistable {
         return this.endPoint;
     }
 
+    /**
+     * Sets the client via which this object is saved, deleted, etc. Objects 
+     * retrieved via a query inherit the client of the query.
+     *
+     * @param client The client or null to use {@link Parse#getDefaultClient()}.
+     */
+    public void setClient(final ParseClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return The client via which this object is saved, deleted, etc.
+     */
+    public ParseClient getClient() {
+        return (client != null) ? client : Parse.getDefaultClient();
+    }
+
+    /**
+     * Sets the priority with which this object is saved and deleted. The 
+     * default is {@link EPriority#NORMAL}.
+     * 
+     * @param priority The priority.
+     */
+    public void setPriority(final EPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Null priority");
+        }
+        this.priority = priority;
+    }
+
+    /**
+     * @return {@code true} if a client was set via 
+     * {@link #setClient(com.parse4cn1.ParseClient)}.
+     */
+    boolean hasClient() {
+        return client != null;
+    }
+
     /**
      * Returns a set view of the keys contained in this object. This does not
      * reserved keys like createdAt, updatedAt or objectId.
@@ -611,15 +657,46 @@ public class ParseObject implements IPersistable {
         }
 
         validateSave();
+        performSave(createSaveCommand());
+    }
 
-        ParseCommand command;
-        if (objectId == null) {
-            command = new ParsePostCommand(getEndPoint());
-        } else {
-            command = new ParsePutCommand(getEndPoint(), getObjectId());
+    /**
+     * Same as {@link #save()} but performed asynchronously.
+     *
+     * @return A future that is completed when the save operation is completed.
+     */
+    public ParseFuture<Void> saveInBackground() {
+
+        if (!isDirty()) {
+            Logger.getInstance().warn("Ignoring request to save unchanged/empty"
+                    + " object");
+            return ParseFuture.completed(null);
+        }
+
+        try {
+            validateSave();
+            final ParseCommand command = createSaveCommand();
+            setUpSaveCommand(command);
+            return command.performAsync().then(new IContinuation<ParseResponse, Void>() {
+
+                public Void then(ParseResponse response) throws ParseException {
+                    processSaveResponse(response);
+                    return null;
+                }
+            });
+        } catch (ParseException ex) {
+            return ParseFuture.failed(ex);
         }
+    }
 
-        performSave(command);
+    /**
+     * Same as {@link #saveInBackground()} with the option to get notified when
+     * the save operation is completed.
+     *
+     * @param callback The callback to be notified when saving is completed.
+     */
+    public void saveInBackground(final SaveCallback callback) {
+        saveInBackground().addCallback(callback);
     }
 
     /**
@@ -676,8 +753,9 @@ public class ParseObject implements IPersistable {
         } catch (ParseException ex) {
             throw new IllegalArgumentException(ex.getMessage());
         }
+        final ParseOperation merged = operation.mergeWithPrevious(operations.get(key));
         data.put(key, newValue);
-        operations.put(key, operation);
+        operations.put(key, merged);
         dirtyKeys.add(key);
         setDirty(true);
     }
@@ -688,24 +766,79 @@ public class ParseObject implements IPersistable {
      * @throws ParseException if anything goes wrong.
      */
     public void delete() throws ParseException {
+        processDeleteResponse(createDeleteCommand().perform());
+    }
 
-        if (getObjectId() == null) {
-            LOGGER.error("Attempting to delete an object without an objectId.");
-            throw new ParseException(ParseException.MISSING_OBJECT_ID,
-                    "Attempting to delete an object without an objectId.");
+    /**
+     * Same as {@link #delete()} but performed asynchronously.
+     *
+     * @return A future that is completed when the delete operation is completed.
+     */
+    public ParseFuture<Void> deleteInBackground() {
+        try {
+            return createDeleteCommand().performAsync().then(
+                    new IContinuation<ParseResponse, Void>() {
+
+                        public Void then(ParseResponse response) throws ParseException {
+                            processDeleteResponse(response);
+                            return null;
+                        }
+                    });
+        } catch (ParseException ex) {
+            return ParseFuture.failed(ex);
         }
+    }
 
-        ParseCommand command = new ParseDeleteCommand(getEndPoint(), getObjectId());
-        ParseResponse response = command.perform();
-        if (response.isFailed()) {
-            throw response.getException();
+    /**
+     * Same as {@link #deleteInBackground()} with the option to get notified 
+     * when the delete operation is completed.
+     *
+     * @param callback The callback to be notified when deletion is completed.
+     */
+    public void deleteInBackground(final DeleteCallback callback) {
+        deleteInBackground().addCallback(callback);
+    }
+
+    /**
+     * Saves each of the provided objects using as few requests to the Parse
+     * batch API as possible. New objects are created while existing objects
+     * are updated. Objects that are not dirty are skipped.
+     *
+     * @param objects The objects to be saved.
+     * @throws ParseException if saving any of the objects fails. In that case,
+     * the first error encountered is thrown. Note that other objects in the
+     * batch may have been saved successfully.
+     * @see ParseBatch
+     */
+    public static void saveAll(final Collection<? extends ParseObject> objects)
+            throws ParseException {
+        final ParseBatch batch = ParseBatch.create();
+        for (ParseObject object : objects) {
+            batch.addObject(object, (object.getObjectId() == null)
+                    ? ParseBatch.EBatchOpType.CREATE : ParseBatch.EBatchOpType.UPDATE);
         }
+        executeBatch(batch);
+    }
 
-        reset();
+    /**
+     * Deletes each of the provided objects using as few requests to the Parse
+     * batch API as possible.
+     *
+     * @param objects The objects to be deleted. Each must have an objectId.
+     * @throws ParseException if deleting any of the objects fails. In that case,
+     * the first error encountered is thrown. Note that other objects in the
+     * batch may have been deleted successfully.
+     * @see ParseBatch
+     */
+    public static void deleteAll(final Collection<? extends ParseObject> objects)
+            throws ParseException {
+        final ParseBatch batch = ParseBatch.create();
+        batch.addObjects(objects, ParseBatch.EBatchOpType.DELETE);
+        executeBatch(batch);
     }
 
     /**
-     * Encodes the data present in this object in a JSONObject that complies to 
+     * Encodes the data present in this object in a JSONObject that complies to
      * the Parse API specification. 
      * 
      * @return The JSON equivalent of this object as expected by Parse.
@@ -730,6 +863,29 @@ public class ParseObject implements IPersistable {
         return parseData;
     }
 
+    /**
+     * Creates a copy of this object that only contains the specified keys in 
+     * addition to the object id and timestamps, similar to the results of a 
+     * query with selected keys.
+     * 
+     * @param keys The keys to be retained.
+     * @return The copy which is not dirty.
+     */
+    ParseObject createProjection(final Collection<String> keys) {
+        final ParseObject projection 
+                = ParseRegistry.getObjectFactory(getClassName()).create(getClassName());
+        projection.objectId = objectId;
+        projection.createdAt = createdAt;
+        projection.updatedAt = updatedAt;
+        for (String key : keys) {
+            if (data.containsKey(key)) {
+                projection.data.put(key, data.get(key));
+            }
+        }
+        projection.setDirty(false);
+        return projection;
+    }
+
     /**
      * Checks the validity of this object's state just before a save operation 
      * is performed. Sub-classes should override this method to implement class-
@@ -747,9 +903,47 @@ public class ParseObject implements IPersistable {
      * @throws ParseException if anything goes wrong.
      */
     protected void performSave(final ParseCommand command) throws ParseException {
+        setUpSaveCommand(command);
+        processSaveResponse(command.perform());
+    }
 
+    /**
+     * Initializes the ParseCommand to be used to issue the save request for 
+     * this object. Sub-classes may override this method to add class-specific 
+     * data (e.g. headers) to the request.
+     * 
+     * @param command The ParseCommand to be initialized.
+     * @throws ParseException if anything goes wrong.
+     */
+    protected void setUpSaveCommand(final ParseCommand command) throws ParseException {
         command.setMessageBody(getParseData());
-        ParseResponse response = command.perform();
+    }
+
+    /**
+     * Creates the ParseCommand for saving this object, i.e., a POST command 
+     * for new objects and a PUT command for existing objects.
+     * 
+     * @return The created command.
+     */
+    private ParseCommand createSaveCommand() {
+        final ParseCommand command;
+        if (objectId == null) {
+            command = new ParsePostCommand(getEndPoint());
+        } else {
+            command = new ParsePutCommand(getEndPoint(), getObjectId());
+        }
+        command.setClient(client);
+        command.setPriority(priority);
+        return command;
+    }
+
+    /**
+     * Updates this object with the response to a save request.
+     * 
+     * @param response The response to the save request.
+     * @throws ParseException if the request failed or its response is invalid.
+     */
+    private void processSaveResponse(final ParseResponse response) throws ParseException {
         if (!response.isFailed()) {
             JSONObject jsonResponse = response.getJsonObject();
             if (jsonResponse == null) {
@@ -761,6 +955,7 @@ public class ParseObject implements IPersistable {
             if (getUpdatedAt() == null) {
                 setUpdatedAt(getCreatedAt());
             }
+            getClient().getQueryCache().invalidate(getClassName());
         } else {
             LOGGER.error("Request failed.");
             throw response.getException();
@@ -768,18 +963,22 @@ public class ParseObject implements IPersistable {
     }
 
     /**
-     * Performs the specified ParseOperation on this object.
+     * Performs the specified ParseOperation on this object. If an operation 
+     * on the same key is pending (i.e. not yet saved), it is merged with 
+     * {@code operation} (see {@link ParseOperation#mergeWithPrevious(com.parse4cn1.operation.ParseOperation)}).
      * 
      * @param key The field to which the result of {@code operation} will be 
      * stored, if application.
      * @param operation The ParseOperation to be performed.
+     * @throws IllegalArgumentException if {@code operation} cannot be 
+     * performed after the pending operation on {@code key}.
      */
     void performOperation(String key, ParseOperation operation) {
 
+        final ParseOperation merged = operation.mergeWithPrevious(operations.get(key));
         Object oldValue = null;
         if (has(key)) {
             oldValue = data.get(key);
-            operations.remove(key);
             data.remove(key);
         }
 
@@ -795,7 +994,22 @@ public class ParseObject implements IPersistable {
         } else {
             data.remove(key);
         }
-        operations.put(key, operation);
+        operations.put(key, merged);
+        dirtyKeys.add(key);
+        setDirty(true);
+    }
+
+    /**
+     * Records {@code operation} as pending on {@code key} without applying it 
+     * to the local data. This is useful for updating objects whose data has 
+     * not been retrieved, e.g., incrementing a counter without knowing its 
+     * current value.
+     * 
+     * @param key The field to which the operation applies.
+     * @param operation The ParseOperation to be recorded.
+     */
+    void addPendingOperation(String key, ParseOperation operation) {
+        operations.put(key, operation.mergeWithPrevious(operations.get(key)));
         dirtyKeys.add(key);
         setDirty(true);
     }
@@ -818,7 +1032,61 @@ public class ParseObject implements IPersistable {
 
         ParseGetCommand command
                 = new ParseGetCommand(toEndPoint(className), objectId);
-        ParseResponse response = command.perform();
+        return ParseObject.<T>processFetchResponse(className, command.perform());
+    }
+
+    /**
+     * Same as {@link #fetch(java.lang.String, java.lang.String)} but performed
+     * asynchronously.
+     * 
+     * @param <T> The concrete type of ParseObject to be fetched.
+     * @param className The name of the class associated with this Parse object.
+     * @param objectId The id of the object to be fetched.
+     * @return A future that is completed with the ParseObject that was fetched.
+     */
+    public static <T extends ParseObject> ParseFuture<T> fetchInBackground(
+            final String className, final String objectId) {
+
+        ParseGetCommand command
+                = new ParseGetCommand(toEndPoint(className), objectId);
+        try {
+            return command.performAsync().then(new IContinuation<ParseResponse, T>() {
+
+                public T then(ParseResponse response) throws ParseException {
+                    return ParseObject.<T>processFetchResponse(className, response);
+                }
+            });
+        } catch (ParseException ex) {
+            return ParseFuture.failed(ex);
+        }
+    }
+
+    /**
+     * Same as {@link #fetchInBackground(java.lang.String, java.lang.String)} 
+     * with the option to get notified when the fetch is completed.
+     * 
+     * @param <T> The concrete type of ParseObject to be fetched.
+     * @param className The name of the class associated with this Parse object.
+     * @param objectId The id of the object to be fetched.
+     * @param callback The callback to be notified of the result.
+     */
+    public static <T extends ParseObject> void fetchInBackground(
+            final String className, final String objectId, 
+            final GetCallback<T> callback) {
+        ParseObject.<T>fetchInBackground(className, objectId).addCallback(callback);
+    }
+
+    /**
+     * Creates a ParseObject from the response to a fetch request.
+     * 
+     * @param <T> The concrete type of ParseObject to be created.
+     * @param className The name of the class of the fetched object.
+     * @param response The response to the fetch request.
+     * @return The fetched ParseObject.
+     * @throws ParseException if the request failed or its response is invalid.
+     */
+    private static <T extends ParseObject> T processFetchResponse(
+            final String className, final ParseResponse response) throws ParseException {
         if (!response.isFailed()) {
             JSONObject jsonResponse = response.getJsonObject();
             if (jsonResponse == null) {
@@ -878,6 +1146,10 @@ public class ParseObject implements IPersistable {
     /**
      * Sets the data for this ParseObject. This method is typically invoked after 
      * this object's data is retrieved from the server.
+     * <p>
+     * Since the data originates from the server, it is written directly into 
+     * this object, i.e., without the validation and operation tracking 
+     * performed by {@link #put(java.lang.String, java.lang.Object)}.
      * 
      * @param jsonObject The JSON object containing the data to be set.
      */
@@ -890,7 +1162,12 @@ public class ParseObject implements IPersistable {
             if (Parse.isReservedKey(key)) {
                 setReservedKey(key, value);
             } else {
-                put(key, ParseDecoder.decode(value));
+                value = ParseDecoder.decode(value, decodingIdentityMap);
+                if (value != null) {
+                    data.put(key, value);
+                } else {
+                    data.remove(key);
+                }
             }
         }
 
@@ -899,6 +1176,26 @@ public class ParseObject implements IPersistable {
         this.dirtyKeys.clear();
     }
 
+    /**
+     * Same as {@link #setData(ca.weblite.codename1.json.JSONObject)} but 
+     * nested pointers and objects are resolved to their canonical instances 
+     * in {@code identityMap}. The data is still set via 
+     * {@link #setData(ca.weblite.codename1.json.JSONObject)} so that 
+     * subclasses only need to override that method.
+     * 
+     * @param jsonObject The JSON object containing the data to be set.
+     * @param identityMap The identity map to be used for nested objects. 
+     * If null, new ParseObjects are created for nested objects.
+     */
+    final void setData(JSONObject jsonObject, ParseIdentityMap identityMap) {
+        decodingIdentityMap = identityMap;
+        try {
+            setData(jsonObject);
+        } finally {
+            decodingIdentityMap = null;
+        }
+    }
+
     /**
      * Resets this ParseObject's state. After invoking this method, the ParseObject 
      * state is comparable to a newly constructed ParseObject 
@@ -936,6 +1233,46 @@ public class ParseObject implements IPersistable {
         }
     }
 
+    /**
+     * Creates the ParseCommand for deleting this object.
+     * 
+     * @return The created command.
+     * @throws ParseException if this object has no objectId.
+     */
+    private ParseCommand createDeleteCommand() throws ParseException {
+        if (getObjectId() == null) {
+            LOGGER.error("Attempting to delete an object without an objectId.");
+            throw new ParseException(ParseException.MISSING_OBJECT_ID,
+                    "Attempting to delete an object without an objectId.");
+        }
+        final ParseCommand command = new ParseDeleteCommand(getEndPoint(), getObjectId());
+        command.setClient(client);
+        command.setPriority(priority);
+        return command;
+    }
+
+    /**
+     * Resets this object if the delete request was successful.
+     * 
+     * @param response The response to the delete request.
+     * @throws ParseException if the request failed.
+     */
+    private void processDeleteResponse(final ParseResponse response) throws ParseException {
+        if (response.isFailed()) {
+            throw response.getException();
+        }
+
+        getClient().getQueryCache().invalidate(getClassName());
+        reset();
+    }
+
+    private static void executeBatch(final ParseBatch batch) throws ParseException {
+        if (!batch.execute()) {
+            LOGGER.error("Batch request failed for " + batch.getErrors().size() + " object(s).");
+            throw batch.getErrors().values().iterator().next();
+        }
+    }
+
     private static String toEndPoint(final String className) {
         return ParseConstants.CLASSES_PATH + className;
     }
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.ParseQuery.IResultConsumer;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ParseParallelScan class retrieves all results of a {@link ParseQuery} by
+ * splitting the query into disjoint object id ranges (partitions) that are
+ * scanned concurrently.
+ * <p>
+ * Parse object ids consist of the characters {@code [0-9A-Za-z]}. The
+ * partitions are formed by dividing this alphabet into contiguous ranges of
+ * first characters, e.g. with 2 partitions, one partition covers object ids
+ * starting with {@code 0-U} and the other those starting with {@code V-z}.
+ * Each partition is scanned via a {@link ParseQueryIterator} whose range is
+ * combined with the constraints of the original query, so the user-specified
+ * constraints still apply.
+ * <p>
+ * At most {@link #setParallelism(int)} partitions are scanned at the same
+ * time. Results are passed to the consumer one at a time (i.e., the consumer
+ * need not be thread-safe) but since partitions are scanned concurrently,
+ * results are only ordered by object id within a partition.
+ * <p>
+ * <b>Note:</b> As with {@link ParseQueryIterator}, the query may not specify
+ * an order or skip. In addition, it may not specify a limit since the limit
+ * cannot be distributed across partitions in a meaningful way.
+ *
+ * @param <T> The type of ParseObjects returned by the scan.
+ */
+public class ParseParallelScan<T extends ParseObject> {
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final String OBJECT_ID_ALPHABET
+            = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    private final ParseQuery<T> query;
+    private int partitionCount = 8;
+    private int parallelism = 4;
+    private int pageSize = ParseConstants.MAX_QUERY_LIMIT;
+
+    // State of the ongoing scan
+    private final Object consumerLock = new Object();
+    private List<String[]> pending;
+    private ParseException error;
+
+    /**
+     * Creates a parallel scan of the provided {@code query}.
+     *
+     * @param <T> The type of ParseObjects returned by the scan.
+     * @param query The query whose results are to be scanned.
+     * @return The newly created scan.
+     */
+    public static <T extends ParseObject> ParseParallelScan<T> create(final ParseQuery<T> query) {
+        return new ParseParallelScan<T>(query);
+    }
+
+    private ParseParallelScan(final ParseQuery<T> query) {
+        if (query == null) {
+            throw new IllegalArgumentException("Null query");
+        }
+        this.query = query;
+    }
+
+    /**
+     * Sets the number of partitions into which the query is split. The
+     * default is 8.
+     *
+     * @param partitionCount The number of partitions in the range [1, 62].
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseParallelScan<T> setPartitionCount(final int partitionCount) {
+        if (partitionCount < 1 || partitionCount > OBJECT_ID_ALPHABET.length()) {
+            throw new IllegalArgumentException("Partition count must be in the range [1, "
+                    + OBJECT_ID_ALPHABET.length() + "]");
+        }
+        this.partitionCount = partitionCount;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of partitions that are scanned concurrently.
+     * The default is 4.
+     *
+     * @param parallelism The maximum number of concurrent requests.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseParallelScan<T> setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets the number of results retrieved per request within a partition.
+     * The default is {@link ParseConstants#MAX_QUERY_LIMIT}.
+     *
+     * @param pageSize The page size.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseParallelScan<T> setPageSize(final int pageSize) {
+        if (pageSize < 1 || pageSize > ParseConstants.MAX_QUERY_LIMIT) {
+            throw new IllegalArgumentException("Page size must be in the range [1, "
+                    + ParseConstants.MAX_QUERY_LIMIT + "]");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Scans all partitions and passes each result to {@code consumer}. This
+     * method blocks until all partitions are scanned or an error occurs.
+     *
+     * @param consumer The consumer of the results. It is invoked from
+     * multiple threads but never concurrently.
+     * @throws ParseException if scanning any of the partitions fails,
+     * {@code consumer} throws or the calling thread is interrupted. In that 
+     * case, the remaining partitions are abandoned. If interrupted, this 
+     * method returns only after all workers have stopped and the interrupt 
+     * status of the calling thread is restored.
+     */
+    public void execute(final IResultConsumer<T> consumer) throws ParseException {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Null consumer");
+        }
+
+        if (query.getLimit() >= 0) {
+            throw new IllegalArgumentException(
+                    "Query may not specify a limit in a parallel scan");
+        }
+
+        synchronized (this) {
+            if (pending != null) {
+                throw new IllegalStateException("Scan is already in progress");
+            }
+            pending = createPartitions();
+            error = null;
+        }
+
+        // Use the calling thread as one of the workers
+        final int workerCount = Math.min(parallelism, partitionCount);
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 1; i < workerCount; ++i) {
+            final Thread worker = new Thread(new ScanWorker(consumer),
+                    "ParseParallelScan-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        new ScanWorker(consumer).run();
+
+        // If interrupted, the scan is aborted but the workers are still 
+        // drained so that no worker outlives the scan state
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            boolean joined = false;
+            while (!joined) {
+                try {
+                    worker.join();
+                    joined = true;
+                } catch (InterruptedException ex) {
+                    if (!interrupted) {
+                        interrupted = true;
+                        LOGGER.error("Interrupted while waiting for partition scan to complete.");
+                        setError(new ParseException(ParseException.OTHER_CAUSE,
+                                "Interrupted while waiting for partition scan to complete.", ex));
+                        for (Thread other : workers) {
+                            other.interrupt();
+                        }
+                    }
+                }
+            }
+        }
+
+        final ParseException scanError;
+        synchronized (this) {
+            scanError = error;
+            pending = null;
+            error = null;
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (scanError != null) {
+            throw scanError;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Parallel scan of class " + query.getClassName() + " in "
+                    + partitionCount + " partition(s) completed");
+        }
+    }
+
+    /**
+     * Divides the object id alphabet into {@link #partitionCount} ranges of
+     * first characters. The first and last ranges are unbounded so that
+     * object ids outside the expected alphabet are not missed.
+     *
+     * @return The [start, end) object id range of each partition.
+     */
+    private List<String[]> createPartitions() {
+        final List<String[]> partitions = new ArrayList<String[]>();
+        final int size = OBJECT_ID_ALPHABET.length();
+        String start = null;
+        for (int i = 1; i <= partitionCount; ++i) {
+            final String end = (i == partitionCount) ? null
+                    : OBJECT_ID_ALPHABET.substring(i * size / partitionCount,
+                            i * size / partitionCount + 1);
+            partitions.add(new String[]{start, end});
+            start = end;
+        }
+        return partitions;
+    }
+
+    /**
+     * Retrieves the next partition to be scanned.
+     *
+     * @return The range of the next partition or {@code null} if there are
+     * no more partitions or the scan has failed.
+     */
+    private synchronized String[] nextPartition() {
+        if (error != null || pending.isEmpty()) {
+            return null;
+        }
+        return pending.remove(0);
+    }
+
+    /**
+     * Records the first error that occurs during the scan.
+     *
+     * @param ex The error.
+     */
+    private synchronized void setError(final ParseException ex) {
+        if (error == null) {
+            error = ex;
+        }
+    }
+
+    private synchronized boolean isFailed() {
+        return error != null;
+    }
+
+    /**
+     * Scans partitions until there are none left.
+     */
+    private class ScanWorker implements Runnable {
+
+        private final IResultConsumer<T> consumer;
+
+        ScanWorker(final IResultConsumer<T> consumer) {
+            this.consumer = consumer;
+        }
+
+        public void run() {
+            String[] range;
+            while ((range = nextPartition()) != null) {
+                try {
+                    scan(range[0], range[1]);
+                } catch (ParseException ex) {
+                    setError(ex);
+                } catch (RuntimeException ex) {
+                    setError(new ParseException(ParseException.ERR_INTERNAL, ex));
+                }
+            }
+        }
+
+        private void scan(final String start, final String end) throws ParseException {
+            final ParseQueryIterator<T> it
+                    = query.iterator(ParseQueryIterator.ECursorKey.OBJECT_ID, pageSize, null);
+            it.setObjectIdRange(start, end);
+
+            int count = 0;
+            while (!isFailed() && it.hasNext()) {
+                final T object = it.next();
+                synchronized (consumerLock) {
+                    consumer.consume(object);
+                }
+                ++count;
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Scanned " + count + " result(s) in object id range ["
+                        + start + ", " + end + ")");
+            }
+        }
+    }
+}
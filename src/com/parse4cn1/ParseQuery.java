@@ -21,13 +21,25 @@ package com.parse4cn1;
 import ca.weblite.codename1.json.JSONArray;
 import ca.weblite.codename1.json.JSONException;
 import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.callback.CountCallback;
+import com.parse4cn1.callback.FindCallback;
+import com.parse4cn1.callback.GetCallback;
+import com.parse4cn1.callback.ParseCallback;
+import com.parse4cn1.callback.ParseFuture;
+import com.parse4cn1.callback.ParseFuture.IContinuation;
+import com.parse4cn1.command.IResponseStreamHandler;
+import com.parse4cn1.command.ParseCommand.EPriority;
 import com.parse4cn1.command.ParseGetCommand;
 import com.parse4cn1.command.ParseResponse;
 import com.parse4cn1.encode.IParseObjectEncodingStrategy;
 import com.parse4cn1.encode.PointerEncodingStrategy;
+import com.parse4cn1.util.JsonStreamReader;
 import com.parse4cn1.util.Logger;
 import com.parse4cn1.encode.ParseEncoder;
 import com.parse4cn1.util.ParseRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -43,6 +55,72 @@ import java.util.List;
 public class ParseQuery<T extends ParseObject> {
 
     private static final Logger LOGGER = Logger.getInstance();
+    private static final String KEY_RESULTS = "results";
+    private static final String KEY_COUNT = "count";
+
+    /**
+     * A consumer of the ParseObjects retrieved by a query.
+     *
+     * @param <T> The type of ParseObjects consumed.
+     */
+    public interface IResultConsumer<T extends ParseObject> {
+
+        /**
+         * Processes a single query result.
+         *
+         * @param object The result to be processed.
+         * @throws ParseException if processing fails. This aborts the query.
+         */
+        void consume(T object) throws ParseException;
+    }
+
+    /**
+     * Determines if and how the {@link ParseQueryCache} is used when a query 
+     * is performed via {@link #find()}, {@link #get(java.lang.String)}, 
+     * {@link #count()} and their asynchronous counterparts.
+     */
+    public enum ECachePolicy {
+
+        /**
+         * The query does not load from the cache or save results to the cache.
+         * This is the default.
+         */
+        IGNORE_CACHE,
+        /**
+         * The query only loads from the cache. If there is no cached result, 
+         * a ParseException with code {@link ParseException#CACHE_MISS} is 
+         * thrown.
+         */
+        CACHE_ONLY,
+        /**
+         * The query does not load from the cache, but it saves its results 
+         * to the cache.
+         */
+        NETWORK_ONLY,
+        /**
+         * The query first tries to load from the cache and only performs a 
+         * network request if there is no cached result. The result of the 
+         * network request is saved to the cache.
+         */
+        CACHE_ELSE_NETWORK,
+        /**
+         * The query first performs a network request and saves its result to 
+         * the cache. If the network request fails due to a connection failure,
+         * the cached result, if any, is returned instead.
+         */
+        NETWORK_ELSE_CACHE,
+        /**
+         * The query first loads from the cache and then performs a network 
+         * request whose result is saved to the cache. The callback is 
+         * therefore notified twice if there is a cached result.
+         * <p>
+         * <b>Note:</b> This policy is only supported by 
+         * {@link ParseQuery#findInBackground(com.parse4cn1.callback.FindCallback)}
+         * and {@link ParseQuery#countInBackground(com.parse4cn1.callback.CountCallback)}. 
+         * All other methods throw an {@link IllegalStateException}.
+         */
+        CACHE_THEN_NETWORK
+    }
 
     private String className;
     private QueryConstraints where;
@@ -52,6 +130,11 @@ public class ParseQuery<T extends ParseObject> {
     private int skip;
     private String order;
     private boolean caseSensitive = true;
+    private ECachePolicy cachePolicy = ECachePolicy.IGNORE_CACHE;
+    private long maxCacheAge = Long.MAX_VALUE;
+    private ParseIdentityMap identityMap;
+    private ParseClient client;
+    private EPriority priority = EPriority.NORMAL;
 
     /**
      * Creates a ParseQuery for the specified class type.
@@ -730,6 +813,163 @@ public class ParseQuery<T extends ParseObject> {
         return this;
     }
 
+    /**
+     * Sets the cache policy of this query. The default is 
+     * {@link ECachePolicy#IGNORE_CACHE}.
+     *
+     * @param cachePolicy The new cache policy.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseQuery<T> setCachePolicy(ECachePolicy cachePolicy) {
+        if (cachePolicy == null) {
+            throw new IllegalArgumentException("Null cache policy");
+        }
+        this.cachePolicy = cachePolicy;
+        return this;
+    }
+
+    /**
+     * Accessor for the cache policy.
+     *
+     * @return The cache policy.
+     */
+    public ECachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    /**
+     * Sets the maximum age of cached results that may be returned by this 
+     * query. Older results are treated as if they were not cached. The 
+     * default is to accept cached results regardless of their age.
+     *
+     * @param maxAgeInMilliseconds The maximum age in milliseconds.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseQuery<T> setMaxCacheAge(long maxAgeInMilliseconds) {
+        this.maxCacheAge = maxAgeInMilliseconds;
+        return this;
+    }
+
+    /**
+     * Accessor for the maximum cache age.
+     *
+     * @return The maximum age in milliseconds of cached results.
+     */
+    public long getMaxCacheAge() {
+        return maxCacheAge;
+    }
+
+    /**
+     * Sets the identity map via which the results of this query (including 
+     * nested pointers and included objects) are resolved. With an identity 
+     * map, every server-side object is represented by a single ParseObject 
+     * instance, also across queries that share the same map. By default, 
+     * no identity map is used and each occurrence of an object yields a 
+     * new ParseObject.
+     *
+     * @param identityMap The identity map or null to disable uniquing.
+     * @return {@code this} object so that calls can be chained.
+     * @see ParseIdentityMap
+     */
+    public ParseQuery<T> setIdentityMap(ParseIdentityMap identityMap) {
+        this.identityMap = identityMap;
+        return this;
+    }
+
+    /**
+     * Accessor for the identity map.
+     *
+     * @return The identity map or null if none is used.
+     */
+    public ParseIdentityMap getIdentityMap() {
+        return identityMap;
+    }
+
+    /**
+     * Sets the client via which this query is issued. The results of the 
+     * query inherit this client.
+     *
+     * @param client The client or null to use {@link Parse#getDefaultClient()}.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseQuery<T> setClient(ParseClient client) {
+        this.client = client;
+        return this;
+    }
+
+    /**
+     * @return The client via which this query is issued.
+     */
+    public ParseClient getClient() {
+        return (client != null) ? client : Parse.getDefaultClient();
+    }
+
+    /**
+     * Sets the priority with which this query is issued. The default is
+     * {@link EPriority#NORMAL}; use {@link EPriority#INTERACTIVE} for queries 
+     * whose results a user is waiting for.
+     * 
+     * @param priority The priority.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseQuery<T> setPriority(final EPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Null priority");
+        }
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * @return The priority with which this query is issued.
+     */
+    public EPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Checks if the results of {@link #find()} for this query are currently 
+     * cached and not older than {@link #getMaxCacheAge()}.
+     *
+     * @return {@code true} if there is a usable cached result.
+     * @throws ParseException if anything goes wrong.
+     */
+    public boolean hasCachedResult() throws ParseException {
+        return getClient().getQueryCache().peek(
+                createCacheKey(KEY_RESULTS, encode()), maxCacheAge) != null;
+    }
+
+    /**
+     * Removes the cached results of this query, if any.
+     *
+     * @throws ParseException if anything goes wrong.
+     */
+    public void clearCachedResult() throws ParseException {
+        final JSONObject query = encode();
+        getClient().getQueryCache().remove(createCacheKey(KEY_RESULTS, query));
+        getClient().getQueryCache().remove(createCacheKey(KEY_COUNT, query));
+    }
+
+    /**
+     * Creates the key of the cached result of this query for the session of 
+     * its client.
+     *
+     * @param type The type of result.
+     * @param query The JSON-encoded query.
+     * @return The cache key.
+     */
+    private String createCacheKey(final String type, final JSONObject query) {
+        return ParseQueryCache.createKey(type, query, getClient().getSessionToken());
+    }
+
+    /**
+     * Removes all cached query results of the 
+     * {@link Parse#getDefaultClient() default client}.
+     */
+    public static void clearAllCachedResults() {
+        ParseQueryCache.getInstance().clear();
+    }
+
     /**
      * Constructs a ParseObject whose id is already known by fetching data from
      * the source.
@@ -770,7 +1010,154 @@ public class ParseQuery<T extends ParseObject> {
      * @see <a href="http://www.parse.com/docs/android/api/com/parse/ParseQuery.html#find()">Parse Android API find() method</a>
      */
     public List<T> find() throws ParseException {
-        return find(encode());
+        return new CachedFind(encode()).perform();
+    }
+
+    /**
+     * Retrieves the ParseObjects that satisfy this query and passes them one 
+     * at a time to {@code consumer}. 
+     * <p>
+     * Unlike {@link #find()}, the results are not accumulated; each object is 
+     * decoded directly from the network stream and handed over to the consumer 
+     * before the next one is read. For the same reason, the cache policy of 
+     * this query is not applied and the response is neither shared with 
+     * identical queries nor revalidated (see 
+     * {@link com.parse4cn1.command.ParseCommand#setResponseShareable(boolean)}). 
+     * Memory usage is therefore independent of the number of results, which makes this method suitable for large 
+     * result sets (e.g. when {@link #setLimit(int)} is set to the maximum 
+     * allowed by the server).
+     * <p>
+     * <b>Note:</b> {@code consumer} is invoked on a network thread.
+     *
+     * @param consumer The consumer of the matching ParseObjects.
+     * @throws ParseException if anything goes wrong, including any exception 
+     * thrown by {@code consumer}, which aborts the query.
+     */
+    public void find(final IResultConsumer<T> consumer) throws ParseException {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Null consumer");
+        }
+        find(encode(), consumer);
+    }
+
+    /**
+     * Creates an iterator over all results of this query that are retrieved 
+     * from the server in pages of {@code pageSize} results, ordered by object 
+     * id.
+     * <p>
+     * This is the preferred way to process result sets that are too large to 
+     * be retrieved at once. See {@link ParseQueryIterator} for details.
+     *
+     * @param pageSize The number of results to retrieve per request.
+     * @return The iterator.
+     * @throws ParseException if anything goes wrong.
+     */
+    public ParseQueryIterator<T> iterator(final int pageSize) throws ParseException {
+        return iterator(ParseQueryIterator.ECursorKey.OBJECT_ID, pageSize, null);
+    }
+
+    /**
+     * Creates an iterator over the results of this query that are retrieved 
+     * from the server in pages of {@code pageSize} results, ordered by 
+     * {@code cursorKey}. 
+     * <p>
+     * <b>Note:</b> The iterator is based on the state of this query at the time 
+     * this method is invoked; subsequent changes to the query do not affect it.
+     *
+     * @param cursorKey The key by which results are ordered and paged.
+     * @param pageSize The number of results to retrieve per request.
+     * @param cursor A cursor previously obtained via 
+     * {@link ParseQueryIterator#getCursor()} to resume an earlier iteration or 
+     * {@code null} to start from the first result.
+     * @return The iterator.
+     * @throws ParseException if anything goes wrong.
+     */
+    public ParseQueryIterator<T> iterator(final ParseQueryIterator.ECursorKey cursorKey,
+            final int pageSize, final String cursor) throws ParseException {
+        return new ParseQueryIterator<T>(this, cursorKey, pageSize, cursor);
+    }
+
+    /**
+     * Performs this query on ParseObjects that are already in memory instead 
+     * of on the server.
+     *
+     * @param objects The objects to be queried.
+     * @return The matching objects, ordered and limited as specified by this 
+     * query.
+     * @throws ParseException if this query contains constraints that cannot 
+     * be evaluated locally.
+     * @see ParseQueryEvaluator
+     */
+    public List<T> findLocally(final Collection<? extends T> objects) throws ParseException {
+        return ParseQueryEvaluator.compile(this).evaluate(objects);
+    }
+
+    /**
+     * Same as {@link #find()} but performed asynchronously.
+     *
+     * @return A future that is completed with the ParseObjects matching this 
+     * query or an empty list if none is found.
+     */
+    public ParseFuture<List<T>> findInBackground() {
+        try {
+            return new CachedFind(encode()).performAsync();
+        } catch (ParseException ex) {
+            return ParseFuture.failed(ex);
+        }
+    }
+
+    /**
+     * Same as {@link #findInBackground()} with the option to get notified when 
+     * the query is completed.
+     *
+     * @param callback The callback to be notified of the result.
+     */
+    public void findInBackground(final FindCallback<T> callback) {
+        try {
+            new CachedFind(encode()).performAsync(callback);
+        } catch (ParseException ex) {
+            ParseFuture.<List<T>>failed(ex).addCallback(callback);
+        }
+    }
+
+    /**
+     * Same as {@link #get(java.lang.String)} but performed asynchronously.
+     * <p>
+     * <b>Note:</b> Unlike {@link #get(java.lang.String)}, this ParseQuery is 
+     * restored before this method returns.
+     *
+     * @param objectId Object id of the ParseObject to fetch.
+     * @return A future that is completed with the object with {@code objectId} 
+     * or {@code null} if none is found.
+     */
+    public ParseFuture<T> getInBackground(final String objectId) {
+        final JSONObject query;
+        whereEqualTo(ParseConstants.FIELD_OBJECT_ID, objectId);
+        try {
+            query = encode();
+        } catch (ParseException ex) {
+            return ParseFuture.failed(ex);
+        } finally {
+            removeCondition(ParseConstants.FIELD_OBJECT_ID);
+        }
+
+        return new CachedFind(query).performAsync().then(new IContinuation<List<T>, T>() {
+
+            public T then(List<T> results) throws ParseException {
+                return (results != null && results.size() > 0) ? results.get(0) : null;
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #getInBackground(java.lang.String)} with the option to 
+     * get notified when the retrieval is completed.
+     *
+     * @param objectId Object id of the ParseObject to fetch.
+     * @param callback The callback to be notified of the result.
+     */
+    public void getInBackground(final String objectId, final GetCallback<T> callback) {
+        getInBackground(objectId).addCallback(callback);
     }
 
     /**
@@ -834,55 +1221,87 @@ public class ParseQuery<T extends ParseObject> {
      * none is found.
      * @throws ParseException if anything goes wrong.
      */
-    @SuppressWarnings("unchecked")
-    private List<T> find(JSONObject query) throws ParseException {
+    List<T> find(JSONObject query) throws ParseException {
+        final ResultCollector collector = new ResultCollector();
+        find(query, collector);
+        return collector.results;
+    }
+
+    /**
+     * Retrieves the ParseObjects that satisfy the provided {@code query} and 
+     * passes them to {@code consumer} as they are read from the response.
+     *
+     * @param query The JSON-encoded query.
+     * @param consumer The consumer of the matching ParseObjects.
+     * @throws ParseException if anything goes wrong.
+     */
+    private void find(JSONObject query, IResultConsumer<T> consumer) throws ParseException {
+        final ParseGetCommand command = createFindCommand(query, consumer, null);
+        // Buffering the response to share it would defeat streaming
+        command.setResponseShareable(false);
+        processFindResponse(command.perform());
+    }
 
+    /**
+     * Creates the command for retrieving the ParseObjects that satisfy the 
+     * provided {@code query}. The results are decoded directly from the 
+     * response stream and passed to {@code consumer}.
+     *
+     * @param query The JSON-encoded query.
+     * @param consumer The consumer of the matching ParseObjects.
+     * @param recorder If not null, the recorder to which the undecoded 
+     * results are passed, e.g., for caching.
+     * @return The command to be performed.
+     * @throws ParseException if anything goes wrong.
+     */
+    private ParseGetCommand createFindCommand(JSONObject query, 
+            IResultConsumer<T> consumer, ResultRecorder recorder) throws ParseException {
         ParseGetCommand command = new ParseGetCommand(getEndPoint());
+        command.setClient(client);
+        command.setPriority(priority);
         query.remove(ParseConstants.FIELD_CLASSNAME);
         addDataToCommand(command, query);
-        ParseResponse response = command.perform();
-        List<T> results = new ArrayList<T>();
-        if (!response.isFailed()) {
-            if (response.getJsonObject() == null) {
-                LOGGER.debug("Empty response.");
-                throw response.getException();
-            }
-            try {
-                JSONObject json = response.getJsonObject();
-                JSONArray objs = json.getJSONArray("results");
-                if (objs.length() == 0) {
-                    return results;
-                }
-
-                for (int i = 0; i < objs.length(); i++) {
-                    T po = ParseRegistry.getObjectFactory(getClassName()).create(getClassName());
-                    JSONObject obj = (JSONObject) objs.get(i);
-                    po.setData(obj);
-                    results.add((T) po);
-                }
+        command.setResponseStreamHandler(new ResultStreamHandler(consumer, recorder));
+        return command;
+    }
 
-                return results;
-            } catch (JSONException e) {
-                LOGGER.error(
-                        ParseException.ERR_INVALID_RESPONSE + " Error: "
-                        + e.getMessage());
-                throw new ParseException(
-                        ParseException.INVALID_JSON,
-                        ParseException.ERR_INVALID_RESPONSE,
-                        e);
-            } catch (IllegalArgumentException e) {
-                LOGGER.error("Error while instantiating class. Did you register your subclass? Error: "
-                        + e.getMessage());
-                throw new ParseException(
-                        "An error occurred while processing query results.",
-                        e);
-            }
-        } else {
+    /**
+     * Checks the outcome of a find command. The results themselves are 
+     * processed while the response is being read.
+     *
+     * @param response The response to the command created via 
+     * {@link #createFindCommand(ca.weblite.codename1.json.JSONObject, com.parse4cn1.ParseQuery.IResultConsumer, com.parse4cn1.ParseQuery.ResultRecorder)}.
+     * @throws ParseException if the request failed or its response is invalid.
+     */
+    private void processFindResponse(final ParseResponse response) throws ParseException {
+        if (response.isFailed()) {
             LOGGER.debug("Request failed.");
             throw response.getException();
         }
     }
 
+    /**
+     * Creates a ParseObject of the class of this query from the JSON data of 
+     * a query result.
+     *
+     * @param data The JSON data of the result.
+     * @return The ParseObject.
+     */
+    private T createResult(final JSONObject data) {
+        // The client is set before the data so that, e.g., the session token 
+        // of a ParseUser is associated with this query's client
+        if (identityMap != null) {
+            return identityMap.resolve(getClassName(), data, client);
+        }
+        
+        final T po = ParseRegistry.getObjectFactory(getClassName()).create(getClassName());
+        if (client != null) {
+            po.setClient(client);
+        }
+        po.setData(data);
+        return po;
+    }
+
     /**
      * Adds the query data as url-encoded parameters of the provided 
      * GET {@code command}.
@@ -908,26 +1327,76 @@ public class ParseQuery<T extends ParseObject> {
      * @throws ParseException if anything goes wrong.
      */
     public int count() throws ParseException {
+        return new CachedCount().perform().intValue();
+    }
+
+    /**
+     * Same as {@link #count()} but performed asynchronously.
+     *
+     * @return A future that is completed with the number of objects matching 
+     * this query.
+     */
+    public ParseFuture<Integer> countInBackground() {
+        try {
+            return new CachedCount().performAsync();
+        } catch (ParseException ex) {
+            return ParseFuture.failed(ex);
+        }
+    }
 
+    /**
+     * Same as {@link #countInBackground()} with the option to get notified when 
+     * the count is completed.
+     *
+     * @param callback The callback to be notified of the result.
+     */
+    public void countInBackground(final CountCallback callback) {
+        try {
+            new CachedCount().performAsync(callback);
+        } catch (ParseException ex) {
+            ParseFuture.<Integer>failed(ex).addCallback(callback);
+        }
+    }
+
+    /**
+     * Creates the command for counting the number of objects that match this query.
+     *
+     * @return The command to be performed.
+     * @throws ParseException if anything goes wrong.
+     */
+    private ParseGetCommand createCountCommand() throws ParseException {
         ParseGetCommand command = new ParseGetCommand(getEndPoint());
+        command.setClient(client);
+        command.setPriority(priority);
         JSONObject query = encode();
         try {
-            query.put("count", 1);
+            query.put(KEY_COUNT, 1);
             query.put("limit", 0);
         } catch (JSONException ex) {
             throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
         }
         query.remove(ParseConstants.FIELD_CLASSNAME);
         addDataToCommand(command, query);
-        ParseResponse response = command.perform();
+        return command;
+    }
+
+    /**
+     * Extracts the count from the response to a count command.
+     *
+     * @param response The response to the command created via 
+     * {@link #createCountCommand()}.
+     * @return The number of objects matching this query.
+     * @throws ParseException if the request failed or its response is invalid.
+     */
+    private int processCountResponse(final ParseResponse response) throws ParseException {
         if (!response.isFailed()) {
-            if (response.getJsonObject() == null) {
+            JSONObject json = response.getJsonObject();
+            if (json == null) {
                 LOGGER.debug("Empty response.");
                 throw response.getException();
             }
             try {
-                JSONObject json = response.getJsonObject();
-                int count = json.getInt("count");
+                int count = json.getInt(KEY_COUNT);
                 return count;
             } catch (JSONException e) {
                 LOGGER.error(
@@ -1107,4 +1576,396 @@ public class ParseQuery<T extends ParseObject> {
             return json;
         }
     }
+
+    /**
+     * A request whose result may be served from and/or saved to the 
+     * {@link ParseQueryCache} depending on the cache policy of this query.
+     *
+     * @param <R> The type of the result.
+     */
+    private abstract class CachedRequest<R> {
+
+        private final ECachePolicy policy;
+        private final long maxAge;
+        private final String cacheKey;
+        private final long cacheEpoch;
+
+        CachedRequest(final String type, final JSONObject query) {
+            this.policy = cachePolicy;
+            this.maxAge = maxCacheAge;
+            this.cacheKey = (policy != ECachePolicy.IGNORE_CACHE)
+                    ? createCacheKey(type, query) : null;
+            // Captured before the query is issued so that a result that may 
+            // predate a concurrent save or delete is not cached
+            this.cacheEpoch = getClient().getQueryCache().getEpoch();
+        }
+
+        /**
+         * Performs the request over the network.
+         *
+         * @param cacheResult If true, the result is saved to the cache.
+         * @return The result.
+         * @throws ParseException if anything goes wrong.
+         */
+        abstract R performNetwork(boolean cacheResult) throws ParseException;
+
+        /**
+         * Same as {@link #performNetwork(boolean)} but performed 
+         * asynchronously.
+         *
+         * @param cacheResult If true, the result is saved to the cache.
+         * @return A future that is completed with the result.
+         */
+        abstract ParseFuture<R> performNetworkAsync(boolean cacheResult);
+
+        /**
+         * Converts a cached value into a result.
+         *
+         * @param value The cached value.
+         * @return The result.
+         * @throws ParseException if anything goes wrong.
+         */
+        abstract R fromCache(Object value) throws ParseException;
+
+        R perform() throws ParseException {
+            switch (policy) {
+                case CACHE_ONLY:
+                    return getCached(true);
+                case CACHE_ELSE_NETWORK: {
+                    final R cached = getCached(false);
+                    return (cached != null) ? cached : performNetwork(true);
+                }
+                case NETWORK_ONLY:
+                    return performNetwork(true);
+                case NETWORK_ELSE_CACHE:
+                    try {
+                        return performNetwork(true);
+                    } catch (ParseException ex) {
+                        return getCachedOnFailure(ex);
+                    }
+                case CACHE_THEN_NETWORK:
+                    throw new IllegalStateException(
+                            "Cache policy CACHE_THEN_NETWORK requires a callback");
+                default:
+                    return performNetwork(false);
+            }
+        }
+
+        ParseFuture<R> performAsync() {
+            try {
+                switch (policy) {
+                    case CACHE_ONLY:
+                        return ParseFuture.completed(getCached(true));
+                    case CACHE_ELSE_NETWORK: {
+                        final R cached = getCached(false);
+                        return (cached != null)
+                                ? ParseFuture.completed(cached) : performNetworkAsync(true);
+                    }
+                    case NETWORK_ONLY:
+                        return performNetworkAsync(true);
+                    case NETWORK_ELSE_CACHE:
+                        return performNetworkAsync(true).recover(
+                                new IContinuation<ParseException, R>() {
+
+                                    public R then(ParseException ex) throws ParseException {
+                                        return getCachedOnFailure(ex);
+                                    }
+                                });
+                    case CACHE_THEN_NETWORK:
+                        throw new IllegalStateException(
+                                "Cache policy CACHE_THEN_NETWORK requires a callback");
+                    default:
+                        return performNetworkAsync(false);
+                }
+            } catch (ParseException ex) {
+                return ParseFuture.failed(ex);
+            }
+        }
+
+        void performAsync(final ParseCallback<? super R> callback) {
+            if (policy != ECachePolicy.CACHE_THEN_NETWORK) {
+                performAsync().addCallback(callback);
+                return;
+            }
+
+            try {
+                final R cached = getCached(false);
+                if (cached != null) {
+                    ParseFuture.completed(cached).addCallback(callback);
+                }
+            } catch (ParseException ex) {
+                LOGGER.error("Ignoring unusable cached result: " + ex);
+            }
+            performNetworkAsync(true).addCallback(callback);
+        }
+
+        void saveToCache(final Object value) {
+            saveToCache(value, new ArrayList<String>());
+        }
+
+        void saveToCache(final Object value, final Collection<String> includedClassNames) {
+            getClient().getQueryCache().put(cacheKey, getClassName(), includedClassNames, 
+                    value, cacheEpoch);
+        }
+
+        private R getCached(final boolean required) throws ParseException {
+            final Object value = getClient().getQueryCache().get(cacheKey, maxAge);
+            if (value != null) {
+                return fromCache(value);
+            }
+
+            if (required) {
+                throw new ParseException(ParseException.CACHE_MISS,
+                        "No cached result available for query on class " + getClassName());
+            }
+            return null;
+        }
+
+        private R getCachedOnFailure(final ParseException ex) throws ParseException {
+            if (ex.getCode() == ParseException.CONNECTION_FAILED) {
+                final R cached = getCached(false);
+                if (cached != null) {
+                    LOGGER.warn("Request failed; using cached result instead. Error: " + ex);
+                    return cached;
+                }
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * A find request whose results are cached in undecoded form so that each 
+     * cache hit yields new ParseObjects that can be modified independently.
+     */
+    private class CachedFind extends CachedRequest<List<T>> {
+
+        private final JSONObject query;
+
+        CachedFind(final JSONObject query) {
+            super(KEY_RESULTS, query);
+            this.query = query;
+        }
+
+        @Override
+        List<T> performNetwork(final boolean cacheResult) throws ParseException {
+            final ResultCollector collector = new ResultCollector();
+            final ResultRecorder recorder = cacheResult ? new ResultRecorder() : null;
+            processFindResponse(createFindCommand(query, collector, recorder).perform());
+            if (recorder != null) {
+                saveToCache(recorder.results, recorder.includedClassNames);
+            }
+            return collector.results;
+        }
+
+        @Override
+        ParseFuture<List<T>> performNetworkAsync(final boolean cacheResult) {
+            final ResultCollector collector = new ResultCollector();
+            final ResultRecorder recorder = cacheResult ? new ResultRecorder() : null;
+            try {
+                return createFindCommand(query, collector, recorder).performAsync().then(
+                        new IContinuation<ParseResponse, List<T>>() {
+
+                            public List<T> then(ParseResponse response) throws ParseException {
+                                processFindResponse(response);
+                                if (recorder != null) {
+                                    saveToCache(recorder.results, 
+                                            recorder.includedClassNames);
+                                }
+                                return collector.results;
+                            }
+                        });
+            } catch (ParseException ex) {
+                return ParseFuture.failed(ex);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        List<T> fromCache(final Object value) throws ParseException {
+            final List<String> cached = (List<String>) value;
+            final List<T> results = new ArrayList<T>(cached.size());
+            try {
+                for (String data : cached) {
+                    results.add(createResult(new JSONObject(data)));
+                }
+            } catch (JSONException ex) {
+                throw new ParseException(ParseException.INVALID_JSON, 
+                        "Cached query result is invalid", ex);
+            }
+            return results;
+        }
+    }
+
+    /**
+     * A count request whose result may be cached.
+     */
+    private class CachedCount extends CachedRequest<Integer> {
+
+        CachedCount() throws ParseException {
+            super(KEY_COUNT, encode());
+        }
+
+        @Override
+        Integer performNetwork(final boolean cacheResult) throws ParseException {
+            final Integer count = Integer.valueOf(
+                    processCountResponse(createCountCommand().perform()));
+            if (cacheResult) {
+                saveToCache(count);
+            }
+            return count;
+        }
+
+        @Override
+        ParseFuture<Integer> performNetworkAsync(final boolean cacheResult) {
+            try {
+                return createCountCommand().performAsync().then(
+                        new IContinuation<ParseResponse, Integer>() {
+
+                            public Integer then(ParseResponse response) throws ParseException {
+                                final Integer count 
+                                        = Integer.valueOf(processCountResponse(response));
+                                if (cacheResult) {
+                                    saveToCache(count);
+                                }
+                                return count;
+                            }
+                        });
+            } catch (ParseException ex) {
+                return ParseFuture.failed(ex);
+            }
+        }
+
+        @Override
+        Integer fromCache(final Object value) {
+            return (Integer) value;
+        }
+    }
+
+    /**
+     * Records the undecoded results of a find request for caching. The 
+     * results are recorded in serialized form because decoding modifies the 
+     * JSON data of included objects. The classes of included objects are 
+     * tracked so that the cached results can be invalidated when an object 
+     * of one of these classes is modified.
+     */
+    private class ResultRecorder {
+
+        private final List<String> results = new ArrayList<String>();
+        private final List<String> includedClassNames = new ArrayList<String>();
+
+        void record(final JSONObject data) {
+            results.add(data.toString());
+            if (!include.isEmpty()) {
+                addIncludedClassNames(data);
+            }
+        }
+
+        private void addIncludedClassNames(final Object value) {
+            if (value instanceof JSONArray) {
+                final JSONArray array = (JSONArray) value;
+                for (int i = 0; i < array.length(); ++i) {
+                    addIncludedClassNames(array.opt(i));
+                }
+            } else if (value instanceof JSONObject) {
+                final JSONObject object = (JSONObject) value;
+                if ("Object".equals(object.optString(ParseConstants.KEYWORD_TYPE, null))) {
+                    final String className = object.optString(ParseConstants.FIELD_CLASSNAME, null);
+                    if (className != null && !includedClassNames.contains(className)) {
+                        includedClassNames.add(className);
+                    }
+                }
+                final Iterator<?> it = object.keys();
+                while (it.hasNext()) {
+                    addIncludedClassNames(object.opt((String) it.next()));
+                }
+            }
+        }
+    }
+
+    /**
+     * A consumer that accumulates all results in a list.
+     */
+    private class ResultCollector implements IResultConsumer<T> {
+
+        private final List<T> results = new ArrayList<T>();
+
+        public void consume(T object) throws ParseException {
+            results.add(object);
+        }
+    }
+
+    /**
+     * Decodes the "results" array of a query response one element at a time 
+     * directly from the response stream, i.e., without first loading the 
+     * complete response into memory.
+     */
+    private class ResultStreamHandler implements IResponseStreamHandler {
+
+        private final IResultConsumer<T> consumer;
+        private final ResultRecorder recorder;
+
+        ResultStreamHandler(final IResultConsumer<T> consumer, 
+                final ResultRecorder recorder) {
+            this.consumer = consumer;
+            this.recorder = recorder;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void handleResponse(InputStream input) throws IOException, ParseException {
+            final JsonStreamReader reader
+                    = new JsonStreamReader(new InputStreamReader(input, "UTF-8"));
+            boolean resultsFound = false;
+            int count = 0;
+
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (!KEY_RESULTS.equals(reader.nextName())) {
+                        reader.skipValue();
+                        continue;
+                    }
+
+                    resultsFound = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        final Object value = reader.nextValue();
+                        if (!(value instanceof JSONObject)) {
+                            throw new JSONException("Query result is not an object: " + value);
+                        }
+                        if (recorder != null) {
+                            recorder.record((JSONObject) value);
+                        }
+                        consumer.consume(createResult((JSONObject) value));
+                        ++count;
+                    }
+                    reader.endArray();
+                }
+                reader.endObject();
+            } catch (JSONException e) {
+                LOGGER.error(
+                        ParseException.ERR_INVALID_RESPONSE + " Error: "
+                        + e.getMessage());
+                throw new ParseException(
+                        ParseException.INVALID_JSON,
+                        ParseException.ERR_INVALID_RESPONSE,
+                        e);
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Error while instantiating class. Did you register your subclass? Error: "
+                        + e.getMessage());
+                throw new ParseException(
+                        "An error occurred while processing query results.",
+                        e);
+            }
+
+            if (!resultsFound) {
+                LOGGER.error(ParseException.ERR_INVALID_RESPONSE + " Error: No results");
+                throw new ParseException(ParseException.INVALID_JSON,
+                        ParseException.ERR_INVALID_RESPONSE);
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Decoded " + count + " query result(s) from response stream");
+            }
+        }
+    }
 }
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ParseQueryCache class is an in-memory cache of query results that is
+ * used by {@link ParseQuery} depending on its
+ * {@link ParseQuery.ECachePolicy cache policy}.
+ * <p>
+ * Entries are keyed by the canonical form of the encoded query (i.e., class
+ * name, constraints, order, limit, skip, selected keys and includes) together
+ * with the session token of the current user since the latter may affect the
+ * results. The number of entries is bounded; when the bound is exceeded, the
+ * least recently used entry is evicted. Entries of a class are invalidated
+ * whenever an object of that class is saved or deleted via this library; so
+ * are entries whose results embed objects of that class (see
+ * {@link ParseQuery#include(java.lang.String)}).
+ * <p>
+ * Each {@link ParseClient} has its own cache, which is shared by all queries
+ * issued via that client (and its sessions). The cache is thread-safe.
+ */
+public class ParseQueryCache {
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final ParseQueryCache INSTANCE = new ParseQueryCache();
+    private static final Comparator<String> KEY_ORDER = new Comparator<String>() {
+
+        public int compare(String first, String second) {
+            return first.compareTo(second);
+        }
+    };
+
+    /**
+     * The default maximum number of entries in the cache.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+
+    private final LinkedHashMap<String, CacheEntry> entries
+            = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+    private final Map<String, Long> invalidationEpochs = new HashMap<String, Long>();
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long epoch;
+    private long clearEpoch;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @return The query cache of the {@link Parse#getDefaultClient() default client}.
+     */
+    public static ParseQueryCache getInstance() {
+        return INSTANCE;
+    }
+
+    ParseQueryCache() {
+    }
+
+    /**
+     * Sets the maximum number of entries in the cache, evicting the least
+     * recently used entries if necessary.
+     *
+     * @param maxEntries The maximum number of entries. Must be positive.
+     */
+    public synchronized void setMaxEntries(final int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    /**
+     * @return The maximum number of entries in the cache.
+     */
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return The current number of entries in the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of lookups that were served from the cache since
+     * the last {@link #resetStatistics()}.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The number of lookups that could not be served from the cache
+     * (no entry or entry too old) since the last {@link #resetStatistics()}.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        clearEpoch = ++epoch;
+    }
+
+    /**
+     * Removes all entries associated with queries on the specified class or 
+     * whose results include objects of that class.
+     *
+     * @param className The name of the class whose entries are to be removed.
+     */
+    public synchronized void invalidate(final String className) {
+        invalidationEpochs.put(className, Long.valueOf(++epoch));
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        int count = 0;
+        final Iterator<CacheEntry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            final CacheEntry entry = it.next();
+            if (entry.className.equals(className) 
+                    || entry.includedClassNames.contains(className)) {
+                it.remove();
+                ++count;
+            }
+        }
+
+        if (count > 0 && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Invalidated " + count + " cached query result(s) of class " + className);
+        }
+    }
+
+    /**
+     * Retrieves the current invalidation epoch, which is to be captured when 
+     * a query whose result is to be cached is issued (see 
+     * {@link #put(java.lang.String, java.lang.String, java.util.Collection, java.lang.Object, long)}).
+     *
+     * @return The epoch.
+     */
+    synchronized long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Retrieves a cached value and updates the hit/miss counters accordingly.
+     *
+     * @param key The cache key as created by {@link #createKey(java.lang.String, ca.weblite.codename1.json.JSONObject)}.
+     * @param maxAge The maximum age in milliseconds of a usable value.
+     * @return The cached value or {@code null} if there is no such value or
+     * it is older than {@code maxAge}.
+     */
+    synchronized Object get(final String key, final long maxAge) {
+        final Object value = peek(key, maxAge);
+        if (value != null) {
+            ++hitCount;
+        } else {
+            ++missCount;
+        }
+        return value;
+    }
+
+    /**
+     * Same as {@link #get(java.lang.String, long)} without updating the
+     * counters.
+     *
+     * @param key The cache key.
+     * @param maxAge The maximum age in milliseconds of a usable value.
+     * @return The cached value or {@code null} if there is no such value or
+     * it is older than {@code maxAge}.
+     */
+    synchronized Object peek(final String key, final long maxAge) {
+        final CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() - entry.timestamp > maxAge) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Adds or replaces a cached value.
+     *
+     * @param key The cache key.
+     * @param className The class of the query whose result is cached.
+     * @param value The value to be cached. It must not be modified afterwards.
+     */
+    synchronized void put(final String key, final String className, final Object value) {
+        put(key, className, new ArrayList<String>(), value);
+    }
+
+    /**
+     * Adds or replaces a cached value whose results include objects of other 
+     * classes.
+     *
+     * @param key The cache key.
+     * @param className The class of the query whose result is cached.
+     * @param includedClassNames The classes of the objects included in the 
+     * results.
+     * @param value The value to be cached. It must not be modified afterwards.
+     */
+    synchronized void put(final String key, final String className, 
+            final Collection<String> includedClassNames, final Object value) {
+        entries.put(key, new CacheEntry(className, includedClassNames, value));
+        evict();
+    }
+
+    /**
+     * Adds or replaces a cached value unless the cache was cleared or any of 
+     * the classes of the results was invalidated since the query was issued. 
+     * In that case, the value may predate the modification that caused the 
+     * invalidation.
+     *
+     * @param key The cache key.
+     * @param className The class of the query whose result is cached.
+     * @param includedClassNames The classes of the objects included in the 
+     * results.
+     * @param value The value to be cached. It must not be modified afterwards.
+     * @param startEpoch The {@link #getEpoch() epoch} when the query was 
+     * issued.
+     * @return {@code true} if the value was cached.
+     */
+    synchronized boolean put(final String key, final String className, 
+            final Collection<String> includedClassNames, final Object value, 
+            final long startEpoch) {
+        boolean stale = clearEpoch > startEpoch || isInvalidatedSince(className, startEpoch);
+        for (String includedClassName : includedClassNames) {
+            stale = stale || isInvalidatedSince(includedClassName, startEpoch);
+        }
+        if (stale) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Not caching query result of class " + className 
+                        + " that was invalidated while the query was in progress");
+            }
+            return false;
+        }
+        put(key, className, includedClassNames, value);
+        return true;
+    }
+
+    private boolean isInvalidatedSince(final String className, final long startEpoch) {
+        final Long invalidated = invalidationEpochs.get(className);
+        return invalidated != null && invalidated.longValue() > startEpoch;
+    }
+
+    /**
+     * Removes a cached value.
+     *
+     * @param key The cache key.
+     */
+    synchronized void remove(final String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Creates the cache key for a query.
+     *
+     * @param type The type of result (e.g. results or count) to distinguish
+     * different kinds of requests for the same query.
+     * @param query The JSON-encoded query.
+     * @return The cache key.
+     */
+    static String createKey(final String type, final JSONObject query) {
+        return createKey(type, query, Parse.getDefaultClient().getSessionToken());
+    }
+
+    /**
+     * Same as {@link #createKey(java.lang.String, ca.weblite.codename1.json.JSONObject)}
+     * for a query issued with the specified session.
+     *
+     * @param type The type of result.
+     * @param query The JSON-encoded query.
+     * @param sessionToken The session token of the user on whose behalf the
+     * query is issued or null if there is none.
+     * @return The cache key.
+     */
+    static String createKey(final String type, final JSONObject query,
+            final String sessionToken) {
+        final StringBuilder key = new StringBuilder(type).append(':');
+        appendCanonical(key, query);
+
+        if (sessionToken != null) {
+            key.append(':').append(sessionToken);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Appends a canonical string representation of {@code value} in which the
+     * keys of JSON objects are sorted, so that equivalent queries yield the
+     * same key regardless of the order in which constraints were added.
+     *
+     * @param builder The builder to append to.
+     * @param value The value to append.
+     */
+    private static void appendCanonical(final StringBuilder builder, final Object value) {
+        if (value instanceof JSONObject) {
+            final JSONObject json = (JSONObject) value;
+            final List<String> keys = new ArrayList<String>();
+            final Iterator<?> it = json.keys();
+            while (it.hasNext()) {
+                keys.add((String) it.next());
+            }
+            Collections.sort(keys, KEY_ORDER);
+
+            builder.append('{');
+            for (int i = 0; i < keys.size(); ++i) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(JSONObject.quote(keys.get(i))).append(':');
+                appendCanonical(builder, json.opt(keys.get(i)));
+            }
+            builder.append('}');
+        } else if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray) value;
+            builder.append('[');
+            for (int i = 0; i < array.length(); ++i) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                appendCanonical(builder, array.opt(i));
+            }
+            builder.append(']');
+        } else if (value instanceof String) {
+            builder.append(JSONObject.quote((String) value));
+        } else {
+            builder.append(value);
+        }
+    }
+
+    private void evict() {
+        final Iterator<String> it = entries.keySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * A cached value.
+     */
+    private static class CacheEntry {
+
+        private final String className;
+        private final Collection<String> includedClassNames;
+        private final Object value;
+        private final long timestamp;
+
+        CacheEntry(final String className, final Collection<String> includedClassNames, 
+                final Object value) {
+            this.className = className;
+            this.includedClassNames = includedClassNames;
+            this.value = value;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,827 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.encode.ParseDecoder;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ParseQueryEvaluator class evaluates a {@link ParseQuery} against
+ * ParseObjects that are already in memory, e.g., previously retrieved or
+ * cached results, without contacting the server.
+ * <p>
+ * A query is compiled once via {@link #compile(com.parse4cn1.ParseQuery)}
+ * after which the resulting evaluator can be used as a predicate
+ * ({@link #matches(com.parse4cn1.ParseObject)}), as a comparator
+ * ({@link #getComparator()}) or to perform the complete query including
+ * ordering, skip, limit and selected keys
+ * ({@link #evaluate(java.util.Collection)}).
+ * <p>
+ * The evaluator works on the same encoded form of the query that is sent to
+ * the server (see {@link ParseQuery#encode()}) and supports the following
+ * constraints: equality (including array membership), {@code $ne},
+ * {@code $lt}, {@code $lte}, {@code $gt}, {@code $gte}, {@code $in},
+ * {@code $nin}, {@code $all}, {@code $exists}, {@code $nearSphere} (with
+ * optional {@code $maxDistance}), {@code $within} ({@code $box}) and
+ * {@code $or}. Regular expressions ({@code $regex}) are supported to the
+ * extent generated by {@link ParseQuery#whereContains(java.lang.String, java.lang.String)},
+ * {@link ParseQuery#whereStartsWith(java.lang.String, java.lang.String)} and
+ * {@link ParseQuery#whereEndsWith(java.lang.String, java.lang.String)}, i.e.,
+ * literal text with optional anchors, since CN1 has no regex engine.
+ * <p>
+ * Constraints that depend on other data on the server ({@code $inQuery},
+ * {@code $notInQuery}, {@code $select}, {@code $dontSelect} and
+ * {@code $relatedTo}) cannot be evaluated locally and are rejected when the
+ * query is compiled.
+ * <p>
+ * <b>Note:</b> Unlike the server, the evaluator does not apply a default
+ * limit; all matching objects are returned unless the query specifies a
+ * limit. Pointers are compared by class name and object id.
+ *
+ * @param <T> The type of ParseObjects the query applies to.
+ */
+public class ParseQueryEvaluator<T extends ParseObject> {
+
+    private static final Logger LOGGER = Logger.getInstance();
+
+    /**
+     * A compiled (part of a) where-clause.
+     */
+    private interface ICondition {
+
+        /**
+         * @param object The object to be checked.
+         * @return {@code true} if {@code object} satisfies this condition.
+         */
+        boolean matches(ParseObject object);
+    }
+
+    /**
+     * The comparison operators that can be evaluated on a single key.
+     */
+    private enum EOperator {
+
+        EQ, NE, LT, LTE, GT, GTE, IN, NIN, ALL, EXISTS
+    }
+
+    private final String className;
+    private final ICondition condition;
+    private final Comparator<T> comparator;
+    private final int limit;
+    private final int skip;
+    private final List<String> selectedKeys;
+    private ParseGeoPoint nearPoint;
+    private String nearKey;
+
+    /**
+     * Compiles {@code query} into an evaluator.
+     *
+     * @param <T> The type of ParseObjects the query applies to.
+     * @param query The query to be compiled.
+     * @return The evaluator.
+     * @throws ParseException if the query cannot be encoded or contains
+     * constraints that cannot be evaluated locally (error code
+     * {@link ParseException#INVALID_QUERY}).
+     */
+    public static <T extends ParseObject> ParseQueryEvaluator<T> compile(
+            final ParseQuery<T> query) throws ParseException {
+        if (query == null) {
+            throw new IllegalArgumentException("Null query");
+        }
+        return new ParseQueryEvaluator<T>(query.getClassName(), query.encode());
+    }
+
+    private ParseQueryEvaluator(final String className, final JSONObject query)
+            throws ParseException {
+        this.className = className;
+        this.limit = query.optInt("limit", -1);
+        this.skip = query.optInt("skip", 0);
+
+        final JSONObject where = query.optJSONObject("where");
+        this.condition = (where != null) ? compileWhere(where) : null;
+        this.comparator = compileOrder(query.optString("order", null));
+
+        final String keys = query.optString("keys", null);
+        if (keys != null) {
+            selectedKeys = new ArrayList<String>();
+            for (String key : split(keys)) {
+                // Only top-level fields can be projected
+                final int dot = key.indexOf('.');
+                selectedKeys.add(dot >= 0 ? key.substring(0, dot) : key);
+            }
+        } else {
+            selectedKeys = null;
+        }
+    }
+
+    /**
+     * Checks if {@code object} satisfies the constraints of the query.
+     *
+     * @param object The object to be checked.
+     * @return {@code true} if {@code object} belongs to the class of the query
+     * and satisfies all its constraints.
+     */
+    public boolean matches(final ParseObject object) {
+        if (object == null || !className.equals(object.getClassName())) {
+            return false;
+        }
+        return condition == null || condition.matches(object);
+    }
+
+    /**
+     * Retrieves a comparator that orders objects as specified by the query.
+     * If the query has a {@code $nearSphere} constraint but no explicit order,
+     * objects are ordered by increasing distance as done by the server.
+     *
+     * @return The comparator or {@code null} if the query does not specify an
+     * order.
+     */
+    public Comparator<T> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * Performs the query on the provided objects, i.e., selects the matching
+     * objects, orders them, applies skip and limit and, if the query selects
+     * specific keys, projects the results onto these keys.
+     *
+     * @param objects The objects to be queried. The collection is not
+     * modified.
+     * @return The results. If the query selects keys, the results are new
+     * objects containing only the selected keys (and the object id and
+     * timestamps); otherwise they are the original objects.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> evaluate(final Collection<? extends T> objects) {
+        List<T> results = new ArrayList<T>();
+        for (T object : objects) {
+            if (matches(object)) {
+                results.add(object);
+            }
+        }
+
+        if (comparator != null) {
+            Collections.sort(results, comparator);
+        }
+
+        final int from = Math.min(skip, results.size());
+        final int to = (limit >= 0) ? Math.min(from + limit, results.size()) : results.size();
+        results = new ArrayList<T>(results.subList(from, to));
+
+        if (selectedKeys != null) {
+            for (int i = 0; i < results.size(); ++i) {
+                results.set(i, (T) results.get(i).createProjection(selectedKeys));
+            }
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Local query on class " + className + " matched "
+                    + results.size() + " of " + objects.size() + " object(s)");
+        }
+        return results;
+    }
+
+    /**
+     * Compiles a where-clause, i.e., a conjunction of key constraints.
+     *
+     * @param where The encoded where-clause.
+     * @return The compiled condition.
+     * @throws ParseException if the clause contains unsupported constraints.
+     */
+    private ICondition compileWhere(final JSONObject where) throws ParseException {
+        final List<ICondition> conditions = new ArrayList<ICondition>();
+        final Iterator<?> it = where.keys();
+        while (it.hasNext()) {
+            final String key = (String) it.next();
+            final Object value = where.opt(key);
+
+            if ("$or".equals(key)) {
+                conditions.add(compileOr(value));
+            } else if (key.startsWith("$")) {
+                throw unsupported(key);
+            } else if (isKeyConstraints(value)) {
+                compileKeyConstraints(key, (JSONObject) value, conditions);
+            } else {
+                conditions.add(new KeyCondition(key, EOperator.EQ, ParseDecoder.decode(value)));
+            }
+        }
+
+        return new ICondition() {
+
+            public boolean matches(ParseObject object) {
+                for (ICondition condition : conditions) {
+                    if (!condition.matches(object)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    private ICondition compileOr(final Object value) throws ParseException {
+        if (!(value instanceof JSONArray)) {
+            throw invalid("$or requires an array of queries");
+        }
+
+        final JSONArray array = (JSONArray) value;
+        final List<ICondition> alternatives = new ArrayList<ICondition>();
+        for (int i = 0; i < array.length(); ++i) {
+            final JSONObject clause = array.optJSONObject(i);
+            if (clause == null) {
+                throw invalid("$or requires an array of queries");
+            }
+            alternatives.add(compileWhere(clause));
+        }
+
+        return new ICondition() {
+
+            public boolean matches(ParseObject object) {
+                for (ICondition alternative : alternatives) {
+                    if (alternative.matches(object)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    private void compileKeyConstraints(final String key, final JSONObject constraints,
+            final List<ICondition> conditions) throws ParseException {
+        final Iterator<?> it = constraints.keys();
+        while (it.hasNext()) {
+            final String op = (String) it.next();
+            final Object operand = constraints.opt(op);
+
+            if ("$lt".equals(op)) {
+                conditions.add(new KeyCondition(key, EOperator.LT, ParseDecoder.decode(operand)));
+            } else if ("$lte".equals(op)) {
+                conditions.add(new KeyCondition(key, EOperator.LTE, ParseDecoder.decode(operand)));
+            } else if ("$gt".equals(op)) {
+                conditions.add(new KeyCondition(key, EOperator.GT, ParseDecoder.decode(operand)));
+            } else if ("$gte".equals(op)) {
+                conditions.add(new KeyCondition(key, EOperator.GTE, ParseDecoder.decode(operand)));
+            } else if ("$ne".equals(op)) {
+                conditions.add(new KeyCondition(key, EOperator.NE, ParseDecoder.decode(operand)));
+            } else if ("$in".equals(op)) {
+                conditions.add(new KeyCondition(key, EOperator.IN, decodeList(op, operand)));
+            } else if ("$nin".equals(op)) {
+                conditions.add(new KeyCondition(key, EOperator.NIN, decodeList(op, operand)));
+            } else if ("$all".equals(op)) {
+                conditions.add(new KeyCondition(key, EOperator.ALL, decodeList(op, operand)));
+            } else if ("$exists".equals(op)) {
+                conditions.add(new KeyCondition(key, EOperator.EXISTS, operand));
+            } else if ("$regex".equals(op)) {
+                conditions.add(new RegexCondition(key, String.valueOf(operand),
+                        constraints.optString("$options", "")));
+            } else if ("$nearSphere".equals(op)) {
+                conditions.add(compileNear(key, operand, constraints));
+            } else if ("$within".equals(op)) {
+                conditions.add(compileWithin(key, operand));
+            } else if (!"$options".equals(op) && !"$maxDistance".equals(op)) {
+                // $options and $maxDistance are handled with $regex and $nearSphere
+                throw unsupported(op);
+            }
+        }
+    }
+
+    private ICondition compileNear(final String key, final Object operand,
+            final JSONObject constraints) throws ParseException {
+        final Object point = ParseDecoder.decode(operand);
+        if (!(point instanceof ParseGeoPoint)) {
+            throw invalid("$nearSphere requires a GeoPoint");
+        }
+        if (nearPoint != null) {
+            throw invalid("Only one $nearSphere constraint is supported");
+        }
+
+        nearPoint = (ParseGeoPoint) point;
+        nearKey = key;
+        final double maxDistance = constraints.optDouble("$maxDistance", Double.NaN);
+
+        return new ICondition() {
+
+            public boolean matches(ParseObject object) {
+                final Object value = getValue(object, key);
+                if (!(value instanceof ParseGeoPoint)) {
+                    return false;
+                }
+                return Double.isNaN(maxDistance)
+                        || nearPoint.distanceInRadiansTo((ParseGeoPoint) value) <= maxDistance;
+            }
+        };
+    }
+
+    private ICondition compileWithin(final String key, final Object operand) throws ParseException {
+        final JSONArray box = (operand instanceof JSONObject)
+                ? ((JSONObject) operand).optJSONArray("$box") : null;
+        final Object southwest = (box != null) ? ParseDecoder.decode(box.opt(0)) : null;
+        final Object northeast = (box != null) ? ParseDecoder.decode(box.opt(1)) : null;
+        if (!(southwest instanceof ParseGeoPoint) || !(northeast instanceof ParseGeoPoint)) {
+            throw invalid("$within requires a $box of two GeoPoints");
+        }
+
+        final ParseGeoPoint sw = (ParseGeoPoint) southwest;
+        final ParseGeoPoint ne = (ParseGeoPoint) northeast;
+        return new ICondition() {
+
+            public boolean matches(ParseObject object) {
+                final Object value = getValue(object, key);
+                if (!(value instanceof ParseGeoPoint)) {
+                    return false;
+                }
+
+                final ParseGeoPoint point = (ParseGeoPoint) value;
+                if (point.getLatitude() < sw.getLatitude()
+                        || point.getLatitude() > ne.getLatitude()) {
+                    return false;
+                }
+                if (sw.getLongitude() <= ne.getLongitude()) {
+                    return point.getLongitude() >= sw.getLongitude()
+                            && point.getLongitude() <= ne.getLongitude();
+                }
+                // Box crosses the 180th meridian
+                return point.getLongitude() >= sw.getLongitude()
+                        || point.getLongitude() <= ne.getLongitude();
+            }
+        };
+    }
+
+    private Comparator<T> compileOrder(final String order) {
+        if (order == null) {
+            if (nearPoint == null) {
+                return null;
+            }
+
+            return new Comparator<T>() {
+
+                public int compare(T first, T second) {
+                    return compareDoubles(distance(first), distance(second));
+                }
+
+                private double distance(T object) {
+                    final Object value = getValue(object, nearKey);
+                    return (value instanceof ParseGeoPoint)
+                            ? nearPoint.distanceInRadiansTo((ParseGeoPoint) value)
+                            : Double.MAX_VALUE;
+                }
+            };
+        }
+
+        final List<String> keys = split(order);
+        return new Comparator<T>() {
+
+            public int compare(T first, T second) {
+                for (String key : keys) {
+                    final boolean descending = key.startsWith("-");
+                    final String field = descending ? key.substring(1) : key;
+                    final int result = compareForSort(getValue(first, field), getValue(second, field));
+                    if (result != 0) {
+                        return descending ? -result : result;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * A constraint on the value of a single key.
+     */
+    private static class KeyCondition implements ICondition {
+
+        private final String key;
+        private final EOperator operator;
+        private final Object operand;
+
+        KeyCondition(final String key, final EOperator operator, final Object operand) {
+            this.key = key;
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        public boolean matches(final ParseObject object) {
+            final Object value = getValue(object, key);
+
+            switch (operator) {
+                case EQ:
+                    return matchesValue(value, operand);
+                case NE:
+                    return !matchesValue(value, operand);
+                case LT: {
+                    final Integer result = compareValues(value, operand);
+                    return result != null && result.intValue() < 0;
+                }
+                case LTE: {
+                    final Integer result = compareValues(value, operand);
+                    return result != null && result.intValue() <= 0;
+                }
+                case GT: {
+                    final Integer result = compareValues(value, operand);
+                    return result != null && result.intValue() > 0;
+                }
+                case GTE: {
+                    final Integer result = compareValues(value, operand);
+                    return result != null && result.intValue() >= 0;
+                }
+                case IN:
+                    return matchesAny(value, (List<?>) operand);
+                case NIN:
+                    return !matchesAny(value, (List<?>) operand);
+                case ALL:
+                    if (!(value instanceof List)) {
+                        return false;
+                    }
+                    for (Object item : (List<?>) operand) {
+                        if (!matchesValue(value, item)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                case EXISTS:
+                    return (value != null) == Boolean.TRUE.equals(operand);
+                default:
+                    return false;
+            }
+        }
+
+        private static boolean matchesAny(final Object value, final List<?> candidates) {
+            for (Object candidate : candidates) {
+                if (matchesValue(value, candidate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Equality as defined by Parse: an array field matches if any of its
+         * elements equals {@code expected}.
+         */
+        private static boolean matchesValue(final Object value, final Object expected) {
+            if (valuesEqual(value, expected)) {
+                return true;
+            }
+
+            if (value instanceof List && !(expected instanceof List)) {
+                for (Object item : (List<?>) value) {
+                    if (valuesEqual(item, expected)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A regular expression constraint consisting of literal text with
+     * optional start and/or end anchors.
+     */
+    private static class RegexCondition implements ICondition {
+
+        private final String key;
+        private final String literal;
+        private final boolean anchoredStart;
+        private final boolean anchoredEnd;
+        private final boolean ignoreCase;
+
+        RegexCondition(final String key, final String regex, final String options)
+                throws ParseException {
+            for (int i = 0; i < options.length(); ++i) {
+                if (options.charAt(i) != 'i') {
+                    throw invalid("Regex option '" + options.charAt(i)
+                            + "' cannot be evaluated locally");
+                }
+            }
+
+            this.key = key;
+            this.ignoreCase = options.length() > 0;
+
+            int start = 0;
+            int end = regex.length();
+            anchoredStart = regex.startsWith("^");
+            if (anchoredStart) {
+                ++start;
+            }
+            anchoredEnd = end > start && regex.charAt(end - 1) == '$'
+                    && !isEscaped(regex, end - 1);
+            if (anchoredEnd) {
+                --end;
+            }
+
+            final String text = parseLiteral(regex.substring(start, end));
+            this.literal = ignoreCase ? text.toLowerCase() : text;
+        }
+
+        public boolean matches(final ParseObject object) {
+            final Object value = getValue(object, key);
+            if (!(value instanceof String)) {
+                return false;
+            }
+
+            final String text = ignoreCase ? ((String) value).toLowerCase() : (String) value;
+            if (anchoredStart && anchoredEnd) {
+                return text.equals(literal);
+            } else if (anchoredStart) {
+                return text.startsWith(literal);
+            } else if (anchoredEnd) {
+                return text.endsWith(literal);
+            }
+            return text.indexOf(literal) >= 0;
+        }
+
+        /**
+         * Checks if the character at {@code index} is escaped by a backslash.
+         */
+        private static boolean isEscaped(final String regex, final int index) {
+            int backslashes = 0;
+            for (int i = index - 1; i >= 0 && regex.charAt(i) == '\\'; --i) {
+                ++backslashes;
+            }
+            return (backslashes % 2) == 1;
+        }
+
+        /**
+         * Converts a regex without metacharacters (other than quoting) into
+         * the literal text it matches.
+         */
+        private static String parseLiteral(final String regex) throws ParseException {
+            final StringBuilder text = new StringBuilder();
+            int i = 0;
+            while (i < regex.length()) {
+                final char c = regex.charAt(i);
+                if (c == '\\' && i + 1 < regex.length()) {
+                    final char next = regex.charAt(i + 1);
+                    if (next == 'Q') {
+                        int close = regex.indexOf("\\E", i + 2);
+                        if (close < 0) {
+                            close = regex.length();
+                        }
+                        text.append(regex.substring(i + 2, close));
+                        i = close + 2;
+                    } else if ((next >= 'a' && next <= 'z') || (next >= 'A' && next <= 'Z')
+                            || (next >= '0' && next <= '9')) {
+                        // Character classes such as \d or \w
+                        throw invalid("Regex '" + regex + "' cannot be evaluated locally");
+                    } else {
+                        text.append(next);
+                        i += 2;
+                    }
+                } else if (".[]{}()*+?|^$\\".indexOf(c) >= 0) {
+                    throw invalid("Regex '" + regex + "' cannot be evaluated locally");
+                } else {
+                    text.append(c);
+                    ++i;
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Retrieves the value of {@code key} from {@code object}. Nested keys
+     * (e.g. {@code "author.name"}) are resolved through included objects and
+     * nested JSON objects.
+     *
+     * @param object The object.
+     * @param key The (nested) key.
+     * @return The value or {@code null} if it is not available.
+     */
+    private static Object getValue(final ParseObject object, final String key) {
+        Object current = object;
+        int start = 0;
+        while (current != null && start <= key.length()) {
+            int end = key.indexOf('.', start);
+            if (end < 0) {
+                end = key.length();
+            }
+            final String field = key.substring(start, end);
+
+            if (current instanceof ParseObject) {
+                final ParseObject po = (ParseObject) current;
+                if (ParseConstants.FIELD_OBJECT_ID.equals(field)) {
+                    current = po.getObjectId();
+                } else if (ParseConstants.FIELD_CREATED_AT.equals(field)) {
+                    current = po.getCreatedAt();
+                } else if (ParseConstants.FIELD_UPDATED_AT.equals(field)) {
+                    current = po.getUpdatedAt();
+                } else {
+                    current = po.get(field);
+                }
+            } else if (current instanceof Map) {
+                current = ((Map<?, ?>) current).get(field);
+            } else if (current instanceof JSONObject) {
+                current = ParseDecoder.decode(((JSONObject) current).opt(field));
+            } else {
+                current = null;
+            }
+            start = end + 1;
+        }
+        return (current == JSONObject.NULL) ? null : current;
+    }
+
+    private static boolean valuesEqual(final Object first, final Object second) {
+        if (first == null || second == null) {
+            return first == second;
+        }
+
+        if (isNumber(first) && isNumber(second)) {
+            if (isIntegral(first) && isIntegral(second)) {
+                return toLong(first) == toLong(second);
+            }
+            return toDouble(first) == toDouble(second);
+        }
+
+        if (first instanceof ParseObject && second instanceof ParseObject) {
+            final ParseObject po1 = (ParseObject) first;
+            final ParseObject po2 = (ParseObject) second;
+            if (po1.getObjectId() == null || po2.getObjectId() == null) {
+                return po1 == po2;
+            }
+            return po1.getClassName().equals(po2.getClassName())
+                    && po1.getObjectId().equals(po2.getObjectId());
+        }
+
+        if (first instanceof ParseGeoPoint && second instanceof ParseGeoPoint) {
+            final ParseGeoPoint gp1 = (ParseGeoPoint) first;
+            final ParseGeoPoint gp2 = (ParseGeoPoint) second;
+            return gp1.getLatitude() == gp2.getLatitude()
+                    && gp1.getLongitude() == gp2.getLongitude();
+        }
+
+        if (first instanceof ParseFile && second instanceof ParseFile) {
+            final String name = ((ParseFile) first).getName();
+            return name != null && name.equals(((ParseFile) second).getName());
+        }
+
+        if (first instanceof List && second instanceof List) {
+            final List<?> list1 = (List<?>) first;
+            final List<?> list2 = (List<?>) second;
+            if (list1.size() != list2.size()) {
+                return false;
+            }
+            for (int i = 0; i < list1.size(); ++i) {
+                if (!valuesEqual(list1.get(i), list2.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        return first.equals(second);
+    }
+
+    /**
+     * Compares two values of the same comparable type.
+     *
+     * @return The comparison result or {@code null} if the values cannot be
+     * compared, in which case range constraints are not satisfied.
+     */
+    private static Integer compareValues(final Object first, final Object second) {
+        if (isNumber(first) && isNumber(second)) {
+            if (isIntegral(first) && isIntegral(second)) {
+                final long l1 = toLong(first);
+                final long l2 = toLong(second);
+                return Integer.valueOf(l1 < l2 ? -1 : (l1 == l2 ? 0 : 1));
+            }
+            return Integer.valueOf(compareDoubles(toDouble(first), toDouble(second)));
+        }
+
+        if (first instanceof String && second instanceof String) {
+            return Integer.valueOf(((String) first).compareTo((String) second));
+        }
+
+        if (first instanceof Date && second instanceof Date) {
+            final long t1 = ((Date) first).getTime();
+            final long t2 = ((Date) second).getTime();
+            return Integer.valueOf(t1 < t2 ? -1 : (t1 == t2 ? 0 : 1));
+        }
+
+        if (first instanceof Boolean && second instanceof Boolean) {
+            final boolean b1 = ((Boolean) first).booleanValue();
+            final boolean b2 = ((Boolean) second).booleanValue();
+            return Integer.valueOf(b1 == b2 ? 0 : (b1 ? 1 : -1));
+        }
+
+        return null;
+    }
+
+    /**
+     * Compares two values for sorting. Missing values are ordered first and
+     * values that cannot be compared are considered equal.
+     */
+    private static int compareForSort(final Object first, final Object second) {
+        if (first == null || second == null) {
+            return (first == second) ? 0 : (first == null ? -1 : 1);
+        }
+        final Integer result = compareValues(first, second);
+        return (result != null) ? result.intValue() : 0;
+    }
+
+    private static int compareDoubles(final double first, final double second) {
+        return (first < second) ? -1 : ((first > second) ? 1 : 0);
+    }
+
+    // CLDC has no java.lang.Number; hence the explicit type checks below
+    private static boolean isNumber(final Object value) {
+        return isIntegral(value) || value instanceof Double || value instanceof Float;
+    }
+
+    private static boolean isIntegral(final Object value) {
+        return value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte;
+    }
+
+    private static long toLong(final Object number) {
+        if (number instanceof Long) {
+            return ((Long) number).longValue();
+        } else if (number instanceof Short) {
+            return ((Short) number).shortValue();
+        } else if (number instanceof Byte) {
+            return ((Byte) number).byteValue();
+        }
+        return ((Integer) number).intValue();
+    }
+
+    private static double toDouble(final Object number) {
+        if (number instanceof Double) {
+            return ((Double) number).doubleValue();
+        } else if (number instanceof Float) {
+            return ((Float) number).floatValue();
+        }
+        return toLong(number);
+    }
+
+    private static boolean isKeyConstraints(final Object value) {
+        if (!(value instanceof JSONObject)) {
+            return false;
+        }
+
+        final Iterator<?> it = ((JSONObject) value).keys();
+        while (it.hasNext()) {
+            if (((String) it.next()).startsWith("$")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<?> decodeList(final String op, final Object operand) throws ParseException {
+        final Object decoded = ParseDecoder.decode(operand);
+        if (!(decoded instanceof List)) {
+            throw invalid(op + " requires an array");
+        }
+        return (List<?>) decoded;
+    }
+
+    private static List<String> split(final String value) {
+        final List<String> parts = new ArrayList<String>();
+        int start = 0;
+        while (start <= value.length()) {
+            int end = value.indexOf(',', start);
+            if (end < 0) {
+                end = value.length();
+            }
+            final String part = value.substring(start, end).trim();
+            if (part.length() > 0) {
+                parts.add(part);
+            }
+            start = end + 1;
+        }
+        return parts;
+    }
+
+    private static ParseException unsupported(final String constraint) {
+        return invalid("Constraint '" + constraint + "' cannot be evaluated locally");
+    }
+
+    private static ParseException invalid(final String message) {
+        LOGGER.error(message);
+        return new ParseException(ParseException.INVALID_QUERY, message);
+    }
+}
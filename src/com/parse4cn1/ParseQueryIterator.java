@@ -0,0 +1,517 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The ParseQueryIterator class lazily iterates over all results of a
+ * {@link ParseQuery}, retrieving them from the server one page at a time.
+ * <p>
+ * Instead of paging via {@link ParseQuery#setSkip(int)} (which becomes slower
+ * as the skip grows and may skip or repeat results if objects are created or
+ * deleted during the iteration), pages are retrieved using a keyset cursor:
+ * results are ordered by the cursor key ({@code objectId} or
+ * {@code createdAt}) and each page only requests results beyond the last
+ * result returned by {@link #next()}. At most one page of results is held in
+ * memory at any given time.
+ * <p>
+ * An iteration can be resumed (e.g. after an error or in a later session) by
+ * creating a new iterator with the value returned by {@link #getCursor()}.
+ * <p>
+ * <b>Note:</b> Since the order of the results is determined by the cursor key,
+ * the underlying query may not specify an order or skip. If the query
+ * specifies a limit, it is interpreted as the maximum total number of results
+ * to be returned by the iteration.
+ *
+ * @param <T> The type of ParseObjects returned by the iterator.
+ * @see ParseQuery#iterator(int)
+ */
+public class ParseQueryIterator<T extends ParseObject> {
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final String KEY_WHERE = "where";
+    private static final String KEY_ORDER = "order";
+    private static final String KEY_LIMIT = "limit";
+    private static final String KEY_KEYS = "keys";
+    private static final String KEY_CURSOR_KEY = "key";
+    private static final String KEY_CURSOR_VALUE = "value";
+    private static final String KEY_CURSOR_OBJECT_ID = "objectId";
+    private static final String KEY_OR = "$or";
+    private static final String KEY_AND = "$and";
+
+    /**
+     * The key used to order the results and to determine where the next page
+     * starts.
+     */
+    public enum ECursorKey {
+
+        /**
+         * Results are returned in ascending order of their object id. This is
+         * the most efficient option since object ids are unique.
+         */
+        OBJECT_ID(ParseConstants.FIELD_OBJECT_ID),
+        /**
+         * Results are returned in ascending order of creation. Objects
+         * created during the iteration are therefore returned at the end.
+         * Objects with the same creation time are returned in ascending
+         * order of their object id.
+         */
+        CREATED_AT(ParseConstants.FIELD_CREATED_AT);
+
+        private final String field;
+
+        private ECursorKey(final String field) {
+            this.field = field;
+        }
+
+        /**
+         * @return The name of the field associated with this cursor key.
+         */
+        public String getField() {
+            return field;
+        }
+    }
+
+    private final ParseQuery<T> query;
+    private final String encodedQuery;
+    private final ECursorKey cursorKey;
+    private final int pageSize;
+    private int remaining;
+    private String lastObjectId;
+    private Date lastCreatedAt;
+    private String rangeStart;
+    private String rangeEnd;
+    private List<T> page;
+    private int pageIndex;
+    private boolean exhausted;
+
+    /**
+     * Creates an iterator over the results of {@code query}.
+     *
+     * @param query The query whose results are to be iterated.
+     * @param cursorKey The key by which results are ordered and paged.
+     * @param pageSize The number of results to retrieve per request. Must
+     * be in the range [1, {@link ParseConstants#MAX_QUERY_LIMIT}].
+     * @param cursor A cursor previously obtained via {@link #getCursor()}
+     * to resume an iteration or {@code null} to start from the beginning.
+     * @throws ParseException if {@code query} cannot be encoded or
+     * {@code cursor} is invalid.
+     */
+    ParseQueryIterator(final ParseQuery<T> query, final ECursorKey cursorKey,
+            final int pageSize, final String cursor) throws ParseException {
+        if (cursorKey == null) {
+            throw new IllegalArgumentException("Null cursor key");
+        }
+
+        if (pageSize < 1 || pageSize > ParseConstants.MAX_QUERY_LIMIT) {
+            throw new IllegalArgumentException("Page size must be in the range [1, "
+                    + ParseConstants.MAX_QUERY_LIMIT + "]");
+        }
+
+        if (query.getSkip() > 0) {
+            throw new IllegalArgumentException(
+                    "Query may not specify a skip; the results are paged via a cursor");
+        }
+
+        this.query = query;
+        this.cursorKey = cursorKey;
+        this.pageSize = pageSize;
+        this.remaining = query.getLimit();
+
+        final JSONObject encoded = query.encode();
+        if (encoded.has(KEY_ORDER)) {
+            throw new IllegalArgumentException("Query may not specify an order; "
+                    + "the results are ordered by " + cursorKey.getField());
+        }
+        this.encodedQuery = encoded.toString();
+
+        if (cursor != null) {
+            restoreCursor(cursor);
+        }
+    }
+
+    /**
+     * Restricts this iterator to results whose object id is in the range
+     * [{@code start}, {@code end}). The range is combined with any
+     * constraints on the object id in the underlying query.
+     *
+     * @param start The inclusive lower bound or {@code null} if unbounded.
+     * @param end The exclusive upper bound or {@code null} if unbounded.
+     */
+    void setObjectIdRange(final String start, final String end) {
+        if (cursorKey != ECursorKey.OBJECT_ID) {
+            throw new IllegalStateException("Object id ranges require an object id cursor");
+        }
+        this.rangeStart = start;
+        this.rangeEnd = end;
+    }
+
+    /**
+     * Checks if there are more results. If the current page is exhausted,
+     * the next page is retrieved from the server.
+     *
+     * @return {@code true} if there are more results.
+     * @throws ParseException if anything goes wrong while retrieving the next
+     * page. The iteration can be resumed by calling this method again.
+     */
+    public boolean hasNext() throws ParseException {
+        if (page != null && pageIndex < page.size()) {
+            return true;
+        }
+
+        if (exhausted) {
+            return false;
+        }
+
+        fetchNextPage();
+        return pageIndex < page.size();
+    }
+
+    /**
+     * Retrieves the next result.
+     *
+     * @return The next result.
+     * @throws ParseException if anything goes wrong while retrieving the next
+     * page.
+     * @throws NoSuchElementException if there are no more results.
+     */
+    public T next() throws ParseException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final T object = page.get(pageIndex);
+        page.set(pageIndex++, null);
+        advanceCursor(object);
+        return object;
+    }
+
+    /**
+     * Retrieves the position of this iterator, i.e., the position just
+     * after the last result returned by {@link #next()}.
+     * <p>
+     * The cursor is a string that can be persisted and passed to
+     * {@link ParseQuery#iterator(com.parse4cn1.ParseQueryIterator.ECursorKey, int, java.lang.String)}
+     * to resume the iteration. A remaining limit, if any, is not part of the
+     * cursor.
+     *
+     * @return The cursor or {@code null} if no result has been returned yet.
+     */
+    public String getCursor() {
+        final JSONObject cursor = new JSONObject();
+        try {
+            cursor.put(KEY_CURSOR_KEY, cursorKey.getField());
+            if (cursorKey == ECursorKey.OBJECT_ID) {
+                if (lastObjectId == null) {
+                    return null;
+                }
+                cursor.put(KEY_CURSOR_VALUE, lastObjectId);
+            } else {
+                if (lastCreatedAt == null) {
+                    return null;
+                }
+                cursor.put(KEY_CURSOR_VALUE, Parse.encodeDate(lastCreatedAt));
+                cursor.put(KEY_CURSOR_OBJECT_ID, lastObjectId);
+            }
+        } catch (JSONException ex) {
+            // Not expected for string values
+            LOGGER.error("Error encoding cursor: " + ex);
+            return null;
+        }
+        return cursor.toString();
+    }
+
+    /**
+     * Retrieves the next page of results, replacing the current page.
+     *
+     * @throws ParseException if anything goes wrong.
+     */
+    private void fetchNextPage() throws ParseException {
+        int limit = pageSize;
+        if (remaining >= 0 && remaining < limit) {
+            limit = remaining;
+        }
+
+        if (limit == 0) {
+            exhausted = true;
+            page = new ArrayList<T>();
+            pageIndex = 0;
+            return;
+        }
+
+        page = query.find(createPageQuery(limit));
+        pageIndex = 0;
+
+        if (remaining >= 0) {
+            remaining -= page.size();
+        }
+
+        if (page.size() < limit) {
+            exhausted = true;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Retrieved page of " + page.size() + " result(s) for class "
+                    + query.getClassName() + " after " + getCursor());
+        }
+    }
+
+    /**
+     * Creates the JSON-encoded query for the next page by adding the cursor
+     * constraints to the original query.
+     *
+     * @param limit The maximum number of results to retrieve.
+     * @return The JSON-encoded query.
+     * @throws ParseException if anything goes wrong.
+     */
+    private JSONObject createPageQuery(final int limit) throws ParseException {
+        try {
+            final JSONObject pageQuery = new JSONObject(encodedQuery);
+            pageQuery.put(KEY_LIMIT, limit);
+
+            if (cursorKey == ECursorKey.OBJECT_ID) {
+                pageQuery.put(KEY_ORDER, ParseConstants.FIELD_OBJECT_ID);
+            } else {
+                pageQuery.put(KEY_ORDER, ParseConstants.FIELD_CREATED_AT
+                        + "," + ParseConstants.FIELD_OBJECT_ID);
+                if (pageQuery.has(KEY_KEYS)) {
+                    pageQuery.put(KEY_KEYS, pageQuery.getString(KEY_KEYS)
+                            + "," + ParseConstants.FIELD_CREATED_AT);
+                }
+            }
+
+            final boolean atStart = (lastObjectId == null && lastCreatedAt == null);
+            if (atStart && rangeStart == null && rangeEnd == null) {
+                return pageQuery;
+            }
+
+            JSONObject where = pageQuery.optJSONObject(KEY_WHERE);
+            if (where == null) {
+                where = new JSONObject();
+                pageQuery.put(KEY_WHERE, where);
+            }
+
+            if (atStart) {
+                if (rangeStart != null) {
+                    restrictLowerBound(getConstraint(where, ParseConstants.FIELD_OBJECT_ID));
+                }
+            } else if (cursorKey == ECursorKey.OBJECT_ID) {
+                getLowerBoundConstraint(where).put("$gt", lastObjectId);
+            } else {
+                // Results after the last returned one in (createdAt, objectId)
+                // order, i.e., created later or at the same time with a
+                // greater object id
+                final JSONObject date = new JSONObject();
+                date.put(ParseConstants.KEYWORD_TYPE, "Date");
+                date.put("iso", Parse.encodeDate(lastCreatedAt));
+
+                final JSONObject after = new JSONObject();
+                after.put("$gt", date);
+                final JSONObject createdLater = new JSONObject();
+                createdLater.put(ParseConstants.FIELD_CREATED_AT, after);
+
+                final JSONObject greaterId = new JSONObject();
+                greaterId.put("$gt", lastObjectId);
+                final JSONObject createdSimultaneously = new JSONObject();
+                createdSimultaneously.put(ParseConstants.FIELD_CREATED_AT, date);
+                createdSimultaneously.put(ParseConstants.FIELD_OBJECT_ID, greaterId);
+
+                final JSONArray alternatives = new JSONArray();
+                alternatives.put(createdLater);
+                alternatives.put(createdSimultaneously);
+                addAlternatives(where, alternatives);
+            }
+
+            if (rangeEnd != null) {
+                restrictUpperBound(getConstraint(where, ParseConstants.FIELD_OBJECT_ID));
+            }
+            return pageQuery;
+        } catch (JSONException ex) {
+            LOGGER.error("Error encoding json: " + ex);
+            throw new ParseException(ParseException.INVALID_JSON,
+                    ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+    }
+
+    /**
+     * Adds a constraint to {@code where} that requires at least one of
+     * {@code alternatives} to be satisfied. If the query already has such a
+     * constraint (e.g. a query created via
+     * {@link ParseQuery#getOrQuery(java.util.Collection)}), both are combined via
+     * {@code $and}.
+     *
+     * @param where The where-clause of the query.
+     * @param alternatives The alternative constraints.
+     * @throws JSONException if anything goes wrong.
+     */
+    private static void addAlternatives(final JSONObject where,
+            final JSONArray alternatives) throws JSONException {
+        final Object existing = where.opt(KEY_OR);
+        if (existing == null) {
+            where.put(KEY_OR, alternatives);
+            return;
+        }
+
+        JSONArray conjunction = where.optJSONArray(KEY_AND);
+        if (conjunction == null) {
+            conjunction = new JSONArray();
+            where.put(KEY_AND, conjunction);
+        }
+        final JSONObject existingClause = new JSONObject();
+        existingClause.put(KEY_OR, existing);
+        conjunction.put(existingClause);
+        final JSONObject cursorClause = new JSONObject();
+        cursorClause.put(KEY_OR, alternatives);
+        conjunction.put(cursorClause);
+        where.remove(KEY_OR);
+    }
+
+    /**
+     * Retrieves the constraints on the cursor key with any existing lower
+     * bound removed. Such a lower bound is superseded by the cursor since all
+     * previously returned results already satisfied it.
+     *
+     * @param where The where-clause of the query.
+     * @return The constraints on the cursor key.
+     * @throws JSONException if anything goes wrong.
+     */
+    private JSONObject getLowerBoundConstraint(final JSONObject where)
+            throws JSONException, ParseException {
+        final JSONObject constraint = getConstraint(where, cursorKey.getField());
+        constraint.remove("$gt");
+        constraint.remove("$gte");
+        return constraint;
+    }
+
+    /**
+     * Applies the lower bound of the object id range unless {@code constraint}
+     * already specifies a stricter lower bound.
+     *
+     * @param constraint The constraints on the object id.
+     * @throws JSONException if anything goes wrong.
+     */
+    private void restrictLowerBound(final JSONObject constraint) throws JSONException {
+        final String gt = constraint.optString("$gt", null);
+        final String gte = constraint.optString("$gte", null);
+        if ((gt != null && gt.compareTo(rangeStart) >= 0)
+                || (gte != null && gte.compareTo(rangeStart) >= 0)) {
+            return;
+        }
+        constraint.remove("$gt");
+        constraint.put("$gte", rangeStart);
+    }
+
+    /**
+     * Applies the upper bound of the object id range unless {@code constraint}
+     * already specifies a stricter upper bound.
+     *
+     * @param constraint The constraints on the object id.
+     * @throws JSONException if anything goes wrong.
+     */
+    private void restrictUpperBound(final JSONObject constraint) throws JSONException {
+        final String lt = constraint.optString("$lt", null);
+        final String lte = constraint.optString("$lte", null);
+        if ((lt != null && lt.compareTo(rangeEnd) <= 0)
+                || (lte != null && lte.compareTo(rangeEnd) < 0)) {
+            return;
+        }
+        constraint.remove("$lte");
+        constraint.put("$lt", rangeEnd);
+    }
+
+    /**
+     * Retrieves the constraints on {@code key}, creating them if necessary.
+     *
+     * @param where The where-clause of the query.
+     * @param key The key whose constraints are to be retrieved.
+     * @return The constraints on {@code key}.
+     * @throws JSONException if anything goes wrong.
+     * @throws ParseException if {@code key} is constrained to an exact value
+     * in which case the iteration cannot be paged.
+     */
+    private JSONObject getConstraint(final JSONObject where, final String key)
+            throws JSONException, ParseException {
+        if (!where.has(key)) {
+            final JSONObject constraint = new JSONObject();
+            where.put(key, constraint);
+            return constraint;
+        }
+
+        final JSONObject constraint = where.optJSONObject(key);
+        if (constraint == null || constraint.has(ParseConstants.KEYWORD_TYPE)) {
+            LOGGER.error("Cannot page query in which '" + key 
+                    + "' must equal a specific value");
+            throw new ParseException(ParseException.INVALID_QUERY,
+                    "Cannot page query in which '" + key 
+                    + "' must equal a specific value");
+        }
+        return constraint;
+    }
+
+    /**
+     * Moves the cursor to just after {@code object}.
+     *
+     * @param object The result just returned by {@link #next()}.
+     */
+    private void advanceCursor(final T object) {
+        lastObjectId = object.getObjectId();
+
+        if (cursorKey == ECursorKey.CREATED_AT) {
+            lastCreatedAt = object.getCreatedAt();
+        }
+    }
+
+    /**
+     * Restores the position of this iterator from a cursor obtained via
+     * {@link #getCursor()}.
+     *
+     * @param cursor The cursor.
+     * @throws ParseException if the cursor is invalid.
+     */
+    private void restoreCursor(final String cursor) throws ParseException {
+        try {
+            final JSONObject json = new JSONObject(cursor);
+            if (!cursorKey.getField().equals(json.getString(KEY_CURSOR_KEY))) {
+                throw new IllegalArgumentException("Cursor key mismatch: expected "
+                        + cursorKey.getField() + " but found "
+                        + json.getString(KEY_CURSOR_KEY));
+            }
+
+            if (cursorKey == ECursorKey.OBJECT_ID) {
+                lastObjectId = json.getString(KEY_CURSOR_VALUE);
+            } else {
+                lastCreatedAt = Parse.parseDate(json.getString(KEY_CURSOR_VALUE));
+                if (lastCreatedAt == null) {
+                    throw new JSONException("Invalid date in cursor: "
+                            + json.getString(KEY_CURSOR_VALUE));
+                }
+                lastObjectId = json.getString(KEY_CURSOR_OBJECT_ID);
+            }
+        } catch (JSONException ex) {
+            LOGGER.error("Invalid cursor: " + cursor);
+            throw new ParseException(ParseException.INVALID_JSON,
+                    "Invalid query cursor", ex);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.codename1.ui.Display;
+import com.parse4cn1.command.ParseCommand.EPriority;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The ParseRateLimiter class keeps the request rate of a client within the
+ * quota of the Parse backend so that bursts (e.g. from batch jobs) do not
+ * trigger "request limit exceeded" errors.
+ * <p>
+ * Requests to the Parse API consume a permit from a global token bucket and,
+ * if configured via {@link #setLimit(java.lang.String, double, int)}, from
+ * the bucket of their endpoint class, i.e., the first path segment of the
+ * request URL relative to the API endpoint (e.g. {@code classes},
+ * {@code files} or {@code functions}). A bucket holds at most {@code burst}
+ * permits and is refilled at {@code permitsPerSecond}. Requests to other
+ * hosts (e.g. file downloads) are not limited.
+ * <p>
+ * If no permit is available, a request either waits for one
+ * ({@link EMode#BLOCK}) or fails immediately with
+ * {@link ParseException#REQUEST_LIMIT_EXCEEDED} ({@link EMode#FAIL_FAST}).
+ * Waiting requests are served in the order of their
+ * {@link EPriority priority}: no request takes a permit while a request of a
+ * higher priority is waiting. In addition, {@link EPriority#BACKGROUND}
+ * requests cannot use the {@link #setBackgroundReserve(double) reserved}
+ * part of each bucket so that interactive requests find permits even while
+ * a background job saturates the quota.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ParseRateLimiter {
+
+    /**
+     * The behavior when no permit is available.
+     */
+    public enum EMode {
+
+        /**
+         * The request waits until a permit is available. Synchronous requests
+         * block the calling thread; asynchronous requests are deferred.
+         */
+        BLOCK,
+        /**
+         * The request fails with {@link ParseException#REQUEST_LIMIT_EXCEEDED}.
+         */
+        FAIL_FAST
+    }
+
+    /**
+     * The default fraction of each bucket that background requests cannot
+     * use.
+     */
+    public static final double DEFAULT_BACKGROUND_RESERVE = 0.25;
+
+    private final Bucket globalBucket;
+    private final Map<String, Bucket> classBuckets = new HashMap<String, Bucket>();
+    private final int[] waiting = new int[EPriority.values().length];
+    private EMode mode = EMode.BLOCK;
+    private double backgroundReserve = DEFAULT_BACKGROUND_RESERVE;
+
+    private long acquiredCount;
+    private long delayedCount;
+    private long rejectedCount;
+
+    /**
+     * Creates a rate limiter with a global limit.
+     *
+     * @param permitsPerSecond The sustained number of requests per second.
+     * @param burst The maximum number of requests that can be issued at once
+     * after a period of inactivity.
+     * @return The newly created rate limiter.
+     */
+    public static ParseRateLimiter create(final double permitsPerSecond, final int burst) {
+        return new ParseRateLimiter(new Bucket(permitsPerSecond, burst));
+    }
+
+    private ParseRateLimiter(final Bucket globalBucket) {
+        this.globalBucket = globalBucket;
+    }
+
+    /**
+     * Limits the requests of an endpoint class in addition to the global
+     * limit.
+     *
+     * @param endpointClass The endpoint class, e.g., {@code classes}.
+     * @param permitsPerSecond The sustained number of requests per second.
+     * @param burst The maximum number of requests that can be issued at once.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseRateLimiter setLimit(final String endpointClass,
+            final double permitsPerSecond, final int burst) {
+        if (endpointClass == null) {
+            throw new NullPointerException("Null endpoint class");
+        }
+        classBuckets.put(endpointClass, new Bucket(permitsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Sets the behavior when no permit is available. The default is
+     * {@link EMode#BLOCK}. It can be overridden per command via
+     * {@link com.parse4cn1.command.ParseCommand#setRateLimitMode(com.parse4cn1.ParseRateLimiter.EMode)}.
+     *
+     * @param mode The mode.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseRateLimiter setMode(final EMode mode) {
+        if (mode == null) {
+            throw new NullPointerException("Null mode");
+        }
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * @return The behavior when no permit is available.
+     */
+    public synchronized EMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets the fraction of each bucket that background requests cannot use.
+     * The default is {@link #DEFAULT_BACKGROUND_RESERVE}. At least one permit
+     * of a full bucket is always available to background requests.
+     *
+     * @param backgroundReserve The fraction between 0 and 1.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseRateLimiter setBackgroundReserve(final double backgroundReserve) {
+        if (backgroundReserve < 0 || backgroundReserve > 1) {
+            throw new IllegalArgumentException("Invalid background reserve: " + backgroundReserve);
+        }
+        this.backgroundReserve = backgroundReserve;
+        return this;
+    }
+
+    /**
+     * Takes a permit for a request if one is available.
+     *
+     * @param endpointClass The endpoint class of the request.
+     * @param priority The priority of the request.
+     * @return 0 if a permit was taken; otherwise the estimated time in
+     * milliseconds until a permit will be available.
+     */
+    public synchronized long tryAcquire(final String endpointClass, final EPriority priority) {
+        final long wait = take(endpointClass, priority);
+        if (wait == 0) {
+            ++acquiredCount;
+        }
+        return wait;
+    }
+
+    /**
+     * Takes a permit for a request, waiting for one if necessary. If invoked
+     * on the EDT, the EDT is not blocked while waiting (see
+     * {@link Display#invokeAndBlock(java.lang.Runnable)}).
+     *
+     * @param endpointClass The endpoint class of the request.
+     * @param priority The priority of the request.
+     * @param blocking {@code true} to wait until a permit is available.
+     * @return {@code true} if a permit was taken; {@code false} if none was
+     * available and {@code blocking} is false.
+     * @throws InterruptedException if the calling thread was interrupted
+     * while waiting.
+     */
+    public boolean acquire(final String endpointClass, final EPriority priority,
+            final boolean blocking) throws InterruptedException {
+        synchronized (this) {
+            if (take(endpointClass, priority) == 0) {
+                ++acquiredCount;
+                return true;
+            }
+            if (!blocking) {
+                ++rejectedCount;
+                return false;
+            }
+            enqueue(priority);
+        }
+
+        final InterruptedException[] interruption = new InterruptedException[1];
+        final Runnable waiter = new Runnable() {
+
+            public void run() {
+                synchronized (ParseRateLimiter.this) {
+                    try {
+                        long wait = take(endpointClass, priority);
+                        while (wait > 0) {
+                            ParseRateLimiter.this.wait(wait);
+                            wait = take(endpointClass, priority);
+                        }
+                        ++acquiredCount;
+                    } catch (InterruptedException ex) {
+                        interruption[0] = ex;
+                    } finally {
+                        dequeue(priority);
+                    }
+                }
+            }
+        };
+        if (Display.isInitialized() && Display.getInstance().isEdt()) {
+            Display.getInstance().invokeAndBlock(waiter);
+        } else {
+            waiter.run();
+        }
+
+        if (interruption[0] != null) {
+            throw interruption[0];
+        }
+        return true;
+    }
+
+    /**
+     * Registers a request that waits for a permit without blocking a thread
+     * (e.g. an asynchronous request that will call
+     * {@link #tryAcquire(java.lang.String, com.parse4cn1.command.ParseCommand.EPriority)}
+     * again later) so that requests of lower priority do not take permits
+     * in the meantime. Each call must be followed by
+     * {@link #dequeue(com.parse4cn1.command.ParseCommand.EPriority)}.
+     *
+     * @param priority The priority of the request.
+     */
+    public synchronized void enqueue(final EPriority priority) {
+        ++waiting[priority.ordinal()];
+        ++delayedCount;
+    }
+
+    /**
+     * Unregisters a request registered via
+     * {@link #enqueue(com.parse4cn1.command.ParseCommand.EPriority)}.
+     *
+     * @param priority The priority of the request.
+     */
+    public synchronized void dequeue(final EPriority priority) {
+        --waiting[priority.ordinal()];
+        notifyAll();
+    }
+
+    /**
+     * Records a request that failed because no permit was available.
+     */
+    public synchronized void recordRejected() {
+        ++rejectedCount;
+    }
+
+    /**
+     * @param priority The priority.
+     * @return The number of requests of {@code priority} that are waiting
+     * for a permit.
+     */
+    public synchronized int getWaitingCount(final EPriority priority) {
+        return waiting[priority.ordinal()];
+    }
+
+    /**
+     * @return The number of permits taken.
+     */
+    public synchronized long getAcquiredCount() {
+        return acquiredCount;
+    }
+
+    /**
+     * @return The number of requests that had to wait for a permit.
+     */
+    public synchronized long getDelayedCount() {
+        return delayedCount;
+    }
+
+    /**
+     * @return The number of requests that failed because no permit was
+     * available.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Resets the counters of this rate limiter.
+     */
+    public synchronized void resetStatistics() {
+        acquiredCount = 0;
+        delayedCount = 0;
+        rejectedCount = 0;
+    }
+
+    private long take(final String endpointClass, final EPriority priority) {
+        final long now = System.currentTimeMillis();
+        final Bucket classBucket = (endpointClass != null) ? classBuckets.get(endpointClass) : null;
+        final boolean background = (priority == EPriority.BACKGROUND);
+
+        long wait = globalBucket.getWait(now, background ? backgroundReserve : 0);
+        if (classBucket != null) {
+            wait = Math.max(wait, classBucket.getWait(now, background ? backgroundReserve : 0));
+        }
+        if (wait == 0) {
+            for (int i = 0; i < priority.ordinal(); ++i) {
+                if (waiting[i] > 0) {
+                    // Let the waiting request of higher priority go first
+                    return globalBucket.getRefillTime();
+                }
+            }
+            globalBucket.tokens -= 1;
+            if (classBucket != null) {
+                classBucket.tokens -= 1;
+            }
+        }
+        return wait;
+    }
+
+    /**
+     * A token bucket.
+     */
+    private static class Bucket {
+
+        private final double permitsPerSecond;
+        private final int burst;
+        private double tokens;
+        private long lastRefill;
+
+        Bucket(final double permitsPerSecond, final int burst) {
+            if (permitsPerSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("Invalid limit: " + permitsPerSecond
+                        + " permits/s, burst " + burst);
+            }
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+            this.tokens = burst;
+            this.lastRefill = System.currentTimeMillis();
+        }
+
+        /**
+         * Determines the time until a permit can be taken.
+         *
+         * @param now The current time.
+         * @param reserve The fraction of the bucket that must remain.
+         * @return 0 if a permit can be taken now; otherwise the time in
+         * milliseconds until one can be taken.
+         */
+        long getWait(final long now, final double reserve) {
+            if (now > lastRefill) {
+                tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerSecond / 1000);
+                lastRefill = now;
+            }
+            final double required = 1 + Math.min(reserve * burst, burst - 1);
+            if (tokens >= required) {
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((required - tokens) * 1000 / permitsPerSecond));
+        }
+
+        long getRefillTime() {
+            return Math.max(1, (long) Math.ceil(1000 / permitsPerSecond));
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.util.Logger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The ParseRetryPolicy class determines whether and when a failed request is
+ * re-issued, and protects unhealthy backends via per-endpoint circuit
+ * breakers.
+ * <p>
+ * A request is retried if it failed transiently, i.e., the connection failed
+ * or the server responded with 500, 502, 503, 504 or 429. Requests that the
+ * server might have processed (connection failure, 500, 502, 504) are only
+ * retried if they are idempotent (GET, PUT, DELETE) or explicitly marked as
+ * safe to retry; 503 and 429 responses indicate that the request was not
+ * processed and are retried regardless of the HTTP method.
+ * <p>
+ * Retries are delayed by a capped exponential backoff with full jitter:
+ * retry <em>n</em> (starting at 0) waits a random time between 0 and
+ * {@code min(maxDelay, baseDelay * 2^n)}. If the response specifies a
+ * {@code Retry-After} delay in seconds, that delay is used instead; a
+ * {@code Retry-After} delay longer than the maximum delay is not waited for
+ * and the request fails.
+ * <p>
+ * Each endpoint (the base URL of a routed API endpoint or the scheme and host
+ * of any other URL) has a circuit breaker. After a
+ * {@link #setBreakerThreshold(int) number of consecutive failures}
+ * (connection failure or 5xx response), the circuit opens and requests to the
+ * endpoint fail immediately for {@link #setBreakerOpenTime(long) a while}.
+ * Afterwards, a single probe request is let through (half-open); its success
+ * closes the circuit and its failure opens it again.
+ * <p>
+ * The policy keeps counters for monitoring which can be reset via
+ * {@link #resetStatistics()}.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ParseRetryPolicy {
+
+    /**
+     * The state of a circuit breaker.
+     */
+    public enum ECircuitState {
+
+        /**
+         * Requests are let through.
+         */
+        CLOSED,
+        /**
+         * Requests fail immediately.
+         */
+        OPEN,
+        /**
+         * A single probe request is let through to test whether the endpoint
+         * has recovered.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * The default maximum number of times a request is retried.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    /**
+     * The default base delay in milliseconds of the exponential backoff.
+     */
+    public static final long DEFAULT_BASE_DELAY = 250;
+    /**
+     * The default maximum delay in milliseconds before a retry.
+     */
+    public static final long DEFAULT_MAX_DELAY = 10000;
+    /**
+     * The default number of consecutive failures after which a circuit
+     * opens.
+     */
+    public static final int DEFAULT_BREAKER_THRESHOLD = 5;
+    /**
+     * The default time in milliseconds for which a circuit stays open.
+     */
+    public static final long DEFAULT_BREAKER_OPEN_TIME = 30000;
+
+    private static final Logger LOGGER = Logger.getInstance();
+
+    private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+    private final Random random = new Random();
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long baseDelay = DEFAULT_BASE_DELAY;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private int breakerThreshold = DEFAULT_BREAKER_THRESHOLD;
+    private long breakerOpenTime = DEFAULT_BREAKER_OPEN_TIME;
+
+    private long attemptCount;
+    private long retryCount;
+    private long exhaustedCount;
+    private long rejectedCount;
+    private long breakerOpenCount;
+
+    /**
+     * Creates a policy with the default settings.
+     *
+     * @return The newly created policy.
+     */
+    public static ParseRetryPolicy create() {
+        return new ParseRetryPolicy();
+    }
+
+    private ParseRetryPolicy() {
+    }
+
+    /**
+     * Sets the maximum number of times a request is retried. The default is
+     * {@link #DEFAULT_MAX_RETRIES}.
+     *
+     * @param maxRetries The maximum number of retries or 0 to disable retries.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseRetryPolicy setMaxRetries(final int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Maximum retries must not be negative");
+        }
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * @return The maximum number of times a request is retried.
+     */
+    public synchronized int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Sets the delays of the exponential backoff. The defaults are
+     * {@link #DEFAULT_BASE_DELAY} and {@link #DEFAULT_MAX_DELAY}.
+     *
+     * @param baseDelay The upper bound in milliseconds of the delay before
+     * the first retry.
+     * @param maxDelay The upper bound in milliseconds of the delay before any
+     * retry, including delays requested via {@code Retry-After}.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseRetryPolicy setDelays(final long baseDelay, final long maxDelay) {
+        if (baseDelay < 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Invalid delays: " + baseDelay + ", " + maxDelay);
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * Sets the number of consecutive failures after which the circuit of an
+     * endpoint opens. The default is {@link #DEFAULT_BREAKER_THRESHOLD}.
+     *
+     * @param breakerThreshold The threshold or 0 to disable circuit breaking.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseRetryPolicy setBreakerThreshold(final int breakerThreshold) {
+        if (breakerThreshold < 0) {
+            throw new IllegalArgumentException("Breaker threshold must not be negative");
+        }
+        this.breakerThreshold = breakerThreshold;
+        if (breakerThreshold == 0) {
+            circuits.clear();
+        }
+        return this;
+    }
+
+    /**
+     * Sets the time for which a circuit stays open before a probe request is
+     * let through. The default is {@link #DEFAULT_BREAKER_OPEN_TIME}.
+     *
+     * @param breakerOpenTime The time in milliseconds.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseRetryPolicy setBreakerOpenTime(final long breakerOpenTime) {
+        if (breakerOpenTime < 0) {
+            throw new IllegalArgumentException("Breaker open time must not be negative");
+        }
+        this.breakerOpenTime = breakerOpenTime;
+        return this;
+    }
+
+    /**
+     * Checks whether a failed request may be retried.
+     *
+     * @param method The HTTP method of the request.
+     * @param statusCode The status code of the response or 0 if no response
+     * was received.
+     * @param retrySafe {@code true} if the request may be re-issued even if
+     * the server might have processed it already.
+     * @return {@code true} if the failure is transient and retrying the
+     * request is safe.
+     */
+    public boolean isRetryable(final String method, final int statusCode,
+            final boolean retrySafe) {
+        if (statusCode == 429 || statusCode == 503) {
+            return true;
+        }
+        if (statusCode != 0 && statusCode != 500 && statusCode != 502 && statusCode != 504) {
+            return false;
+        }
+        return retrySafe || !"POST".equals(method);
+    }
+
+    /**
+     * Determines the delay before a retry.
+     *
+     * @param retry The number of retries that were already performed for the
+     * request.
+     * @param retryAfter The value of the response's {@code Retry-After}
+     * header or null if there is none. Only delays in seconds are supported;
+     * HTTP dates are ignored.
+     * @return The delay in milliseconds or -1 if the request should not be
+     * retried because the requested delay exceeds the maximum delay.
+     */
+    public synchronized long getRetryDelay(final int retry, final String retryAfter) {
+        if (retryAfter != null) {
+            try {
+                final long delay = Long.parseLong(retryAfter.trim()) * 1000;
+                if (delay >= 0) {
+                    return (delay <= maxDelay) ? delay : -1;
+                }
+            } catch (NumberFormatException ex) {
+                // HTTP date; use backoff
+            }
+        }
+        final long cap = Math.min(maxDelay, baseDelay << Math.min(retry, 30));
+        return (long) (random.nextDouble() * (cap + 1));
+    }
+
+    /**
+     * Derives the circuit breaker key of a URL that is not routed by an
+     * endpoint router.
+     *
+     * @param url The URL.
+     * @return The scheme, host and port of {@code url}.
+     */
+    public static String getEndpointKey(final String url) {
+        final int schemeEnd = url.indexOf("://");
+        final int pathStart = url.indexOf('/', schemeEnd < 0 ? 0 : schemeEnd + 3);
+        return (pathStart < 0) ? url : url.substring(0, pathStart);
+    }
+
+    /**
+     * Checks whether a request to an endpoint may be issued and counts it as
+     * an attempt if so. The outcome of every permitted request must be
+     * reported via {@link #recordOutcome(java.lang.String, boolean)}.
+     *
+     * @param endpoint The endpoint key, i.e., the base URL of a routed
+     * endpoint or the result of {@link #getEndpointKey(java.lang.String)}.
+     * @return {@code true} if the request may be issued; {@code false} if the
+     * endpoint's circuit is open.
+     */
+    public synchronized boolean allowRequest(final String endpoint) {
+        final Circuit circuit = circuits.get(endpoint);
+        if (circuit != null && circuit.state != ECircuitState.CLOSED) {
+            if (circuit.state == ECircuitState.OPEN
+                    && System.currentTimeMillis() - circuit.openedAt >= breakerOpenTime) {
+                circuit.state = ECircuitState.HALF_OPEN;
+                circuit.probing = false;
+            }
+            if (circuit.state == ECircuitState.OPEN || circuit.probing) {
+                ++rejectedCount;
+                return false;
+            }
+            circuit.probing = true;
+        }
+        ++attemptCount;
+        return true;
+    }
+
+    /**
+     * Reports the outcome of a request permitted by
+     * {@link #allowRequest(java.lang.String)}.
+     *
+     * @param endpoint The endpoint key.
+     * @param success {@code false} if the endpoint failed to handle the
+     * request, i.e., it could not be reached or responded with a 5xx status.
+     */
+    public synchronized void recordOutcome(final String endpoint, final boolean success) {
+        Circuit circuit = circuits.get(endpoint);
+        if (success) {
+            if (circuit != null) {
+                circuits.remove(endpoint);
+            }
+            return;
+        }
+        if (breakerThreshold == 0) {
+            return;
+        }
+        if (circuit == null) {
+            circuit = new Circuit();
+            circuits.put(endpoint, circuit);
+        }
+        ++circuit.consecutiveFailures;
+        if (circuit.state == ECircuitState.HALF_OPEN
+                || (circuit.state == ECircuitState.CLOSED
+                && circuit.consecutiveFailures >= breakerThreshold)) {
+            circuit.state = ECircuitState.OPEN;
+            circuit.openedAt = System.currentTimeMillis();
+            circuit.probing = false;
+            ++breakerOpenCount;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Circuit of endpoint " + endpoint + " opened after "
+                        + circuit.consecutiveFailures + " consecutive failures");
+            }
+        }
+    }
+
+    /**
+     * Records that a failed request is retried.
+     */
+    public synchronized void recordRetry() {
+        ++retryCount;
+    }
+
+    /**
+     * Records that a request failed transiently but is not retried because
+     * the maximum number of retries was reached or the requested delay is
+     * too long.
+     */
+    public synchronized void recordExhausted() {
+        ++exhaustedCount;
+    }
+
+    /**
+     * Retrieves the state of the circuit breaker of an endpoint.
+     *
+     * @param endpoint The endpoint key.
+     * @return The state of the endpoint's circuit.
+     */
+    public synchronized ECircuitState getCircuitState(final String endpoint) {
+        final Circuit circuit = circuits.get(endpoint);
+        if (circuit == null) {
+            return ECircuitState.CLOSED;
+        }
+        if (circuit.state == ECircuitState.OPEN
+                && System.currentTimeMillis() - circuit.openedAt >= breakerOpenTime) {
+            return ECircuitState.HALF_OPEN;
+        }
+        return circuit.state;
+    }
+
+    /**
+     * @return The number of requests issued (including retries).
+     */
+    public synchronized long getAttemptCount() {
+        return attemptCount;
+    }
+
+    /**
+     * @return The number of retries.
+     */
+    public synchronized long getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * @return The number of transiently failed requests that were not
+     * retried (anymore).
+     */
+    public synchronized long getExhaustedCount() {
+        return exhaustedCount;
+    }
+
+    /**
+     * @return The number of times a request was not sent to an endpoint
+     * because the endpoint's circuit was open.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return The number of times a circuit opened.
+     */
+    public synchronized long getBreakerOpenCount() {
+        return breakerOpenCount;
+    }
+
+    /**
+     * Resets the counters of this policy. The state of the circuit breakers
+     * is not affected.
+     */
+    public synchronized void resetStatistics() {
+        attemptCount = 0;
+        retryCount = 0;
+        exhaustedCount = 0;
+        rejectedCount = 0;
+        breakerOpenCount = 0;
+    }
+
+    /**
+     * The circuit breaker state of an endpoint that recently failed.
+     */
+    private static class Circuit {
+
+        private ECircuitState state = ECircuitState.CLOSED;
+        private int consecutiveFailures;
+        private long openedAt;
+        private boolean probing;
+    }
+}
@@ -46,10 +46,13 @@ public class ParseUser extends ParseObject {
     private String password;
     private String sessionToken;
 
-    private static ParseUser current;
-    
+    /**
+     * @return The user that is logged in via the 
+     * {@link Parse#getDefaultClient() default client} or null if there is none.
+     * @see ParseClient#getCurrentUser()
+     */
     public static ParseUser getCurrent() {
-        return current;
+        return Parse.getDefaultClient().getCurrentUser();
     }
     
     protected ParseUser() {
@@ -75,12 +78,14 @@ public class ParseUser extends ParseObject {
         }
         
         ParseCommand command = new ParseDeleteCommand(getEndPoint(), getObjectId());
+        command.setClient(getClient());
         command.addHeader(ParseConstants.HEADER_SESSION_TOKEN, getSessionToken());
         ParseResponse response = command.perform();
         if (response.isFailed()) {
             throw response.getException();
         }
         
+        getClient().getQueryCache().invalidate(getClassName());
         reset();
     }
 
@@ -137,9 +142,26 @@ public class ParseUser extends ParseObject {
      * @throws ParseException if anything goes wrong.
      */
     public static ParseUser fetchBySession(final String sessionToken) throws ParseException {
+        return fetchBySession(Parse.getDefaultClient(), sessionToken);
+    }
+
+    /**
+     * Same as {@link #fetchBySession(java.lang.String)} for the specified 
+     * client. The retrieved user becomes the current user of {@code client}.
+     * This is typically used by servers to restore the session of a user 
+     * in a client created via {@link ParseClient#newSession()}.
+     * 
+     * @param client The client via which the user is retrieved.
+     * @param sessionToken A session token associated with a ParseUser.
+     * @return The ParseUser associated with {@code sessionToken}.
+     * @throws ParseException if anything goes wrong.
+     */
+    public static ParseUser fetchBySession(final ParseClient client, 
+            final String sessionToken) throws ParseException {
         ParseUser user = null;
         ParseCommand command = 
             new ParseGetCommand(ParseConstants.ENDPOINT_USERS, OBJECT_ID_CURRENT);
+        command.setClient(client);
         command.addHeader(ParseConstants.HEADER_SESSION_TOKEN, sessionToken);
     
         ParseResponse response = command.perform();
@@ -151,12 +173,13 @@ public class ParseUser extends ParseObject {
             }
             
             user = new ParseUser();
+            user.setClient(client);
             user.setData(jsonResponse);
         } else {
             LOGGER.error("Request failed.");
             throw response.getException();
         }
-        current = user;
+        client.setCurrentUser(user);
         return user;
     }
 
@@ -232,6 +255,7 @@ public class ParseUser extends ParseObject {
         }
 
         ParsePostCommand command = new ParsePostCommand(getEndPoint());
+        command.setClient(getClient());
         try {
             JSONObject parseData = getParseData();
             parseData.put(KEY_PASSWORD, password);
@@ -272,6 +296,7 @@ public class ParseUser extends ParseObject {
     public void login() throws ParseException {
 
         ParseGetCommand command = new ParseGetCommand(ENDPOINT_LOGIN);
+        command.setClient(getClient());
         command.addJson(false);
         command.addArgument(KEY_USERNAME, getUsername());
         command.addArgument(KEY_PASSWORD, password);
@@ -309,13 +334,14 @@ public class ParseUser extends ParseObject {
 
         if (isAuthenticated()) {
             ParseCommand command = new ParsePostCommand(ENDPOINT_LOGOUT);
+            command.setClient(getClient());
             command.addHeader(ParseConstants.HEADER_SESSION_TOKEN, getSessionToken());
             ParseResponse response = command.perform();
             if (response.isFailed()) {
                 throw response.getException();
             }
             setSessionToken(null);
-            current = null;
+            getClient().setCurrentUser(null);
         }
     }
 
@@ -345,13 +371,13 @@ public class ParseUser extends ParseObject {
     }
 
     @Override
-    protected void performSave(final ParseCommand command) throws ParseException {
+    protected void setUpSaveCommand(final ParseCommand command) throws ParseException {
         command.addHeader(ParseConstants.HEADER_SESSION_TOKEN, getSessionToken());
-        super.performSave(command);
+        super.setUpSaveCommand(command);
     }
     
     protected void setSessionToken(String sessionToken) {
         this.sessionToken = sessionToken;
-        current = this;
+        getClient().setCurrentUser(this);
     }
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.callback;
+
+import com.codename1.ui.Display;
+import com.parse4cn1.ParseException;
+import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A handle to the result of an asynchronous operation such as a ParseCommand
+ * that is performed in the background.
+ * <p>
+ * The result can either be retrieved by blocking on {@link #get()} or by
+ * registering any of the ParseCallback sub-classes (e.g. {@link FindCallback},
+ * {@link SaveCallback}) via {@link #addCallback(com.parse4cn1.callback.ParseCallback)}.
+ * Callbacks are invoked on the thread that completes the future which, for
+ * network operations, is typically the EDT.
+ *
+ * @param <T> The type of the result of the asynchronous operation.
+ */
+public class ParseFuture<T> {
+
+    private static final Logger LOGGER = Logger.getInstance();
+
+    /**
+     * A transformation that is applied to the result of a future once it
+     * completes successfully.
+     *
+     * @param <T> The type of the input of the transformation.
+     * @param <R> The type of the output of the transformation.
+     */
+    public interface IContinuation<T, R> {
+
+        /**
+         * Transforms the result of a completed future.
+         *
+         * @param result The result of the completed future.
+         * @return The transformed result.
+         * @throws ParseException if the transformation fails.
+         */
+        R then(T result) throws ParseException;
+    }
+
+    private final List<ParseCallback<? super T>> callbacks
+            = new ArrayList<ParseCallback<? super T>>();
+    private boolean done;
+    private T result;
+    private ParseException error;
+
+    /**
+     * Creates a future that is already completed with the specified result.
+     *
+     * @param <T> The type of the result.
+     * @param result The result.
+     * @return The completed future.
+     */
+    public static <T> ParseFuture<T> completed(final T result) {
+        final ParseFuture<T> future = new ParseFuture<T>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Creates a future that has already failed with the specified error.
+     *
+     * @param <T> The type of the result.
+     * @param error The error.
+     * @return The failed future.
+     */
+    public static <T> ParseFuture<T> failed(final ParseException error) {
+        final ParseFuture<T> future = new ParseFuture<T>();
+        future.fail(error);
+        return future;
+    }
+
+    /**
+     * @return {@code true} if this future has either completed successfully or
+     * failed.
+     */
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waits if necessary for the operation to complete and retrieves its
+     * result. If invoked on the EDT, the EDT is not blocked (see
+     * {@link Display#invokeAndBlock(java.lang.Runnable)}).
+     * <p>
+     * Waiting threads are woken up as soon as the result is set, i.e., this 
+     * method may return before the callbacks registered via 
+     * {@link #addCallback(com.parse4cn1.callback.ParseCallback)} have run.
+     *
+     * @return The result of the operation.
+     * @throws ParseException if the operation failed or waiting was
+     * interrupted.
+     */
+    public T get() throws ParseException {
+        if (!isDone()) {
+            final Runnable waiter = new Runnable() {
+
+                public void run() {
+                    synchronized (ParseFuture.this) {
+                        while (!done) {
+                            try {
+                                ParseFuture.this.wait();
+                            } catch (InterruptedException ex) {
+                                fail(new ParseException(ParseException.OTHER_CAUSE,
+                                        "Interrupted while waiting for operation to complete.", ex));
+                            }
+                        }
+                    }
+                }
+            };
+
+            if (Display.isInitialized() && Display.getInstance().isEdt()) {
+                Display.getInstance().invokeAndBlock(waiter);
+            } else {
+                waiter.run();
+            }
+        }
+
+        synchronized (this) {
+            if (error != null) {
+                throw error;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Registers a callback to be notified when this future completes. If the
+     * future is already completed, the callback is invoked immediately on the
+     * calling thread; otherwise, it is invoked on the completing thread after 
+     * threads waiting in {@link #get()} have been woken up.
+     *
+     * @param callback The callback to be notified.
+     * @return {@code this} future so that calls can be chained.
+     */
+    public ParseFuture<T> addCallback(final ParseCallback<? super T> callback) {
+        if (callback == null) {
+            return this;
+        }
+
+        synchronized (this) {
+            if (!done) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        notifyCallback(callback);
+        return this;
+    }
+
+    /**
+     * Creates a new future whose result is obtained by applying
+     * {@code continuation} to the result of this future once it completes
+     * successfully. If this future fails or the continuation throws, the
+     * returned future fails with the same error.
+     *
+     * @param <R> The type of the result of the returned future.
+     * @param continuation The transformation to be applied.
+     * @return The new future.
+     */
+    public <R> ParseFuture<R> then(final IContinuation<? super T, R> continuation) {
+        final ParseFuture<R> next = new ParseFuture<R>();
+        addCallback(new ParseCallback<T>() {
+
+            @Override
+            void internalDone(T value, ParseException parseException) {
+                if (parseException != null) {
+                    next.fail(parseException);
+                    return;
+                }
+
+                try {
+                    next.complete(continuation.then(value));
+                } catch (ParseException ex) {
+                    next.fail(ex);
+                } catch (RuntimeException ex) {
+                    next.fail(new ParseException(ParseException.ERR_INTERNAL, ex));
+                }
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Creates a new future that completes with the result of this future or,
+     * if this future fails, with the result of applying {@code recovery} to
+     * the error. If the recovery throws, the returned future fails with that
+     * error.
+     *
+     * @param recovery The transformation to be applied to the error.
+     * @return The new future.
+     */
+    public ParseFuture<T> recover(final IContinuation<ParseException, ? extends T> recovery) {
+        final ParseFuture<T> next = new ParseFuture<T>();
+        addCallback(new ParseCallback<T>() {
+
+            @Override
+            void internalDone(T value, ParseException parseException) {
+                if (parseException == null) {
+                    next.complete(value);
+                    return;
+                }
+
+                try {
+                    next.complete(recovery.then(parseException));
+                } catch (ParseException ex) {
+                    next.fail(ex);
+                } catch (RuntimeException ex) {
+                    next.fail(new ParseException(ParseException.ERR_INTERNAL, ex));
+                }
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Completes this future successfully. Has no effect if the future is
+     * already done.
+     *
+     * @param result The result of the operation.
+     * @return {@code true} if this call completed the future; otherwise
+     * {@code false}.
+     */
+    public boolean complete(final T result) {
+        return finish(result, null);
+    }
+
+    /**
+     * Completes this future with an error. Has no effect if the future is
+     * already done.
+     *
+     * @param error The error that caused the operation to fail.
+     * @return {@code true} if this call completed the future; otherwise
+     * {@code false}.
+     */
+    public boolean fail(final ParseException error) {
+        if (error == null) {
+            throw new NullPointerException("Null error");
+        }
+        return finish(null, error);
+    }
+
+    private boolean finish(final T result, final ParseException error) {
+        final List<ParseCallback<? super T>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.done = true;
+            this.result = result;
+            this.error = error;
+            toNotify = new ArrayList<ParseCallback<? super T>>(callbacks);
+            callbacks.clear();
+            notifyAll();
+        }
+
+        for (ParseCallback<? super T> callback : toNotify) {
+            notifyCallback(callback);
+        }
+        return true;
+    }
+
+    private void notifyCallback(final ParseCallback<? super T> callback) {
+        try {
+            callback.internalDone(result, error);
+        } catch (RuntimeException ex) {
+            LOGGER.error("Callback threw an exception: " + ex);
+        }
+    }
+}
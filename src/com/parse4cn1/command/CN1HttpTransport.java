@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.codename1.io.ConnectionRequest;
+import com.codename1.io.NetworkEvent;
+import com.codename1.io.NetworkManager;
+import com.codename1.ui.events.ActionEvent;
+import com.codename1.ui.events.ActionListener;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The default {@link IHttpTransport} which issues requests via the Codename
+ * One {@link NetworkManager}. The number of concurrent requests is therefore
+ * bounded by the number of network threads of the network manager. Queued
+ * requests are ordered by their {@link HttpRequest#getPriority() priority}.
+ */
+public class CN1HttpTransport implements IHttpTransport {
+
+    public void perform(final HttpRequest request, final IResponseHandler handler) {
+        final TransportRequest connection = new TransportRequest(request, handler);
+
+        ActionListener listener = null;
+        if (request.isProgressReported()) {
+            listener = new ProgressListener(connection, false);
+            NetworkManager.getInstance().addProgressListener(listener);
+        }
+
+        NetworkManager.getInstance().addToQueueAndWait(connection);
+
+        if (listener != null) {
+            NetworkManager.getInstance().removeProgressListener(listener);
+        }
+        connection.complete();
+    }
+
+    public void performAsync(final HttpRequest request, final IResponseHandler handler) {
+        final TransportRequest connection = new TransportRequest(request, handler);
+        NetworkManager.getInstance().addProgressListener(new ProgressListener(connection, true));
+        NetworkManager.getInstance().addToQueue(connection);
+    }
+
+    /**
+     * A connection request that forwards its outcome to a response handler.
+     */
+    private static class TransportRequest extends ConnectionRequest {
+
+        private final HttpRequest request;
+        private final IResponseHandler handler;
+        private final Map<String, String> headers = new HashMap<String, String>();
+        private String statusMessage;
+        private boolean responded;
+        private boolean failed;
+        private boolean completed;
+
+        TransportRequest(final HttpRequest request, final IResponseHandler handler) {
+            this.request = request;
+            this.handler = handler;
+
+            setPost(!request.isGet());
+            setHttpMethod(request.getMethod());
+            setUrl(request.getUrl());
+            setReadResponseForErrors(true);
+            setPriority(toConnectionPriority(request.getPriority()));
+            for (Entry<String, String> header : request.getHeaders().entrySet()) {
+                addRequestHeader(header.getKey(), header.getValue());
+            }
+            for (Entry<String, String> argument : request.getArguments().entrySet()) {
+                addArgument(argument.getKey(), argument.getValue());
+            }
+        }
+
+        private static byte toConnectionPriority(final ParseCommand.EPriority priority) {
+            switch (priority) {
+                case INTERACTIVE:
+                    return PRIORITY_HIGH;
+                case BACKGROUND:
+                    return PRIORITY_LOW;
+                default:
+                    return PRIORITY_NORMAL;
+            }
+        }
+
+        @Override
+        protected void readHeaders(Object connection) throws IOException {
+            super.readHeaders(connection);
+            storeHeaders(connection);
+        }
+
+        @Override
+        protected void readErrorCodeHeaders(Object connection) throws IOException {
+            super.readErrorCodeHeaders(connection);
+            storeHeaders(connection);
+        }
+
+        @Override
+        protected void handleErrorResponseCode(int code, String message) {
+            statusMessage = message;
+        }
+
+        @Override
+        protected void handleException(Exception err) {
+            // Also invoked if reading the response failed, in which case the 
+            // handler has already been notified via onResponse()
+            if (responded || failed) {
+                return;
+            }
+            failed = true;
+            handler.onFailure(err);
+        }
+
+        @Override
+        protected void readResponse(InputStream input) throws IOException {
+            responded = true;
+            handler.onResponse(getResponseCode(), statusMessage, headers, input);
+        }
+
+        @Override
+        protected void buildRequestBody(OutputStream os) throws IOException {
+            if (request.getBodyWriter() != null) {
+                request.getBodyWriter().writeTo(os);
+            } else {
+                super.buildRequestBody(os);
+            }
+        }
+
+        /**
+         * Notifies the handler that the request is completed, reporting a
+         * response without body if none was read. Has no effect after the
+         * first invocation.
+         */
+        synchronized void complete() {
+            if (completed) {
+                return;
+            }
+            completed = true;
+
+            if (!responded && !failed) {
+                if (getResponseCode() > 0) {
+                    try {
+                        handler.onResponse(getResponseCode(), statusMessage, headers,
+                                new ByteArrayInputStream(new byte[0]));
+                    } catch (IOException ex) {
+                        handler.onFailure(ex);
+                    }
+                } else {
+                    handler.onFailure(new IOException("No response received"));
+                }
+            }
+            handler.onCompleted();
+        }
+
+        private void storeHeaders(Object connection) throws IOException {
+            final String[] names = getHeaderFieldNames(connection);
+            if (names == null) {
+                return;
+            }
+            for (String name : names) {
+                if (name != null) {
+                    headers.put(name.toLowerCase(), getHeader(connection, name));
+                }
+            }
+        }
+    }
+
+    /**
+     * Listens to the network events of a single request in order to forward
+     * progress notifications and, for asynchronous requests, completion.
+     */
+    private static class ProgressListener implements ActionListener {
+
+        private final TransportRequest connection;
+        private final boolean async;
+
+        ProgressListener(final TransportRequest connection, final boolean async) {
+            this.connection = connection;
+            this.async = async;
+        }
+
+        public void actionPerformed(ActionEvent evt) {
+            if (!(evt instanceof NetworkEvent)) {
+                return;
+            }
+
+            final NetworkEvent networkEvent = (NetworkEvent) evt;
+            if (connection != networkEvent.getConnectionRequest()) {
+                return;
+            }
+
+            if (connection.request.isProgressReported()) {
+                int progressPercentage = networkEvent.getProgressPercentage();
+                if (progressPercentage >= 0) {
+                    connection.handler.onProgress(progressPercentage);
+                }
+            }
+
+            if (async && networkEvent.getProgressType() == NetworkEvent.PROGRESS_TYPE_COMPLETED) {
+                NetworkManager.getInstance().removeProgressListener(this);
+                connection.complete();
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class describes an HTTP request in a transport-independent manner. It
+ * is created by a {@link ParseCommand} and issued via an {@link IHttpTransport}.
+ * <p>
+ * Arguments are sent as URL query parameters for GET requests. For other
+ * requests, they are sent as a form-encoded body unless a
+ * {@link IBodyWriter body writer} is set.
+ */
+public class HttpRequest {
+
+    /**
+     * Writes the body of a request to the network stream.
+     */
+    public interface IBodyWriter {
+
+        /**
+         * Writes the request body.
+         * <p>
+         * <b>Note:</b> This method is invoked on a network thread and may be
+         * invoked more than once if a request is re-issued.
+         *
+         * @param output The stream to which the body is to be written.
+         * @throws IOException if writing to {@code output} fails.
+         */
+        void writeTo(OutputStream output) throws IOException;
+    }
+
+    private String method = "GET";
+    private String url;
+    private final Map<String, String> headers = new LinkedHashMap<String, String>();
+    private final Map<String, String> arguments = new LinkedHashMap<String, String>();
+    private IBodyWriter bodyWriter;
+    private long contentLength = -1;
+    private boolean progressReported;
+    private ParseCommand.EPriority priority = ParseCommand.EPriority.NORMAL;
+
+    /**
+     * @return The HTTP method, e.g. GET or POST.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Sets the HTTP method. The default is GET.
+     *
+     * @param method The HTTP method.
+     */
+    public void setMethod(final String method) {
+        this.method = method;
+    }
+
+    /**
+     * @return {@code true} if this request is a GET request.
+     */
+    public boolean isGet() {
+        return "GET".equals(method);
+    }
+
+    /**
+     * @return The URL of this request without any arguments.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Sets the URL of this request.
+     *
+     * @param url The URL.
+     */
+    public void setUrl(final String url) {
+        this.url = url;
+    }
+
+    /**
+     * @return The request headers in the order in which they were added.
+     */
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * Adds or replaces a request header.
+     *
+     * @param name The header name.
+     * @param value The header value.
+     */
+    public void addHeader(final String name, final String value) {
+        headers.put(name, value);
+    }
+
+    /**
+     * @return The (unencoded) request arguments in the order in which they
+     * were added.
+     */
+    public Map<String, String> getArguments() {
+        return Collections.unmodifiableMap(arguments);
+    }
+
+    /**
+     * Adds or replaces a request argument.
+     *
+     * @param key The argument key.
+     * @param value The (unencoded) argument value.
+     */
+    public void addArgument(final String key, final String value) {
+        arguments.put(key, value);
+    }
+
+    /**
+     * @return The writer of the request body or null if there is none.
+     */
+    public IBodyWriter getBodyWriter() {
+        return bodyWriter;
+    }
+
+    /**
+     * Sets the writer of the request body.
+     *
+     * @param bodyWriter The writer.
+     * @param contentLength The number of bytes written by {@code bodyWriter}
+     * or -1 if unknown.
+     */
+    public void setBody(final IBodyWriter bodyWriter, final long contentLength) {
+        this.bodyWriter = bodyWriter;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * @return The number of bytes in the body or -1 if unknown.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return {@code true} if the transport should report progress for this
+     * request.
+     */
+    public boolean isProgressReported() {
+        return progressReported;
+    }
+
+    /**
+     * Determines whether the transport should report progress for this
+     * request. Since doing so incurs some overhead, it is disabled by default.
+     *
+     * @param progressReported {@code true} to report progress.
+     */
+    public void setProgressReported(final boolean progressReported) {
+        this.progressReported = progressReported;
+    }
+
+    /**
+     * @return The priority of this request.
+     */
+    public ParseCommand.EPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority of this request. Transports should issue queued
+     * requests of higher priority first. The default is
+     * {@link ParseCommand.EPriority#NORMAL}.
+     *
+     * @param priority The priority.
+     */
+    public void setPriority(final ParseCommand.EPriority priority) {
+        this.priority = priority;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * An HTTP transport issues the {@link HttpRequest}s of ParseCommands. The
+ * default transport ({@link CN1HttpTransport}) uses the Codename One network
+ * manager. Other transports can be installed via
+ * {@link com.parse4cn1.Parse#setHttpTransport(com.parse4cn1.command.IHttpTransport)},
+ * e.g., to use a dedicated connection pool when running on a JavaSE server.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface IHttpTransport {
+
+    /**
+     * Receives the outcome of a request issued via a transport.
+     * <p>
+     * For every request, exactly one of {@link #onResponse(int, java.lang.String, java.util.Map, java.io.InputStream)}
+     * and {@link #onFailure(java.lang.Exception)} is invoked, followed by
+     * {@link #onCompleted()}. All methods may be invoked on a network thread.
+     */
+    interface IResponseHandler {
+
+        /**
+         * Invoked when a response is received, regardless of its status code.
+         *
+         * @param statusCode The HTTP status code.
+         * @param statusMessage The HTTP status message, if any.
+         * @param headers The response headers with lower-case names.
+         * @param body The response body. It is closed by the transport once
+         * this method returns.
+         * @throws IOException if reading the body fails. The transport does 
+         * not invoke {@link #onFailure(java.lang.Exception)} in that case; it 
+         * only completes the request.
+         */
+        void onResponse(int statusCode, String statusMessage,
+                Map<String, String> headers, InputStream body) throws IOException;
+
+        /**
+         * Invoked if no response could be obtained, e.g., due to a connection
+         * failure.
+         *
+         * @param error The cause of the failure.
+         */
+        void onFailure(Exception error);
+
+        /**
+         * Invoked when progress is made if the request's
+         * {@link HttpRequest#isProgressReported()} is set.
+         *
+         * @param percentage The progress percentage.
+         */
+        void onProgress(int percentage);
+
+        /**
+         * Invoked once the request is completed.
+         */
+        void onCompleted();
+    }
+
+    /**
+     * Issues {@code request} and blocks until it is completed.
+     *
+     * @param request The request to be issued.
+     * @param handler The handler to be notified of the outcome of the request.
+     */
+    void perform(HttpRequest request, IResponseHandler handler);
+
+    /**
+     * Issues {@code request} without waiting for its completion.
+     *
+     * @param request The request to be issued.
+     * @param handler The handler to be notified of the outcome of the request.
+     */
+    void performAsync(HttpRequest request, IResponseHandler handler);
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.parse4cn1.ParseException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A handler that consumes the body of a successful response directly from
+ * the network stream instead of having it buffered in a {@link ParseResponse}.
+ * <p>
+ * This is useful for large responses (e.g. query results) that can be
+ * processed incrementally. Error responses are never passed to the handler;
+ * they are buffered as usual so that {@link ParseResponse#getException()}
+ * works as expected.
+ */
+public interface IResponseStreamHandler {
+
+    /**
+     * Consumes the response body.
+     * <p>
+     * <b>Note:</b> This method is invoked on a network thread.
+     *
+     * @param input The stream from which the response body is to be read.
+     * @throws IOException if reading from {@code input} fails.
+     * @throws ParseException if the response cannot be processed. The
+     * exception will be reported via {@link ParseResponse#getException()}.
+     */
+    void handleResponse(InputStream input) throws IOException, ParseException;
+}
@@ -20,20 +20,32 @@ package com.parse4cn1.command;
 
 import ca.weblite.codename1.json.JSONException;
 import ca.weblite.codename1.json.JSONObject;
-import com.codename1.io.ConnectionRequest;
-import com.codename1.io.NetworkEvent;
-import com.codename1.io.NetworkManager;
-import com.codename1.ui.events.ActionEvent;
-import com.codename1.ui.events.ActionListener;
+import com.codename1.io.Util;
+import com.codename1.ui.Display;
 import com.parse4cn1.Parse;
+import com.parse4cn1.ParseClient;
 import com.parse4cn1.ParseConstants;
+import com.parse4cn1.ParseEndpointRouter;
 import com.parse4cn1.ParseException;
-import com.parse4cn1.ParseUser;
+import com.parse4cn1.ParseRateLimiter;
+import com.parse4cn1.ParseRetryPolicy;
+import com.parse4cn1.callback.ParseFuture;
+import com.parse4cn1.callback.ParseFuture.IContinuation;
 import com.parse4cn1.callback.ProgressCallback;
+import com.parse4cn1.util.JsonStreamWriter;
 import com.parse4cn1.util.Logger;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * This class encapsulates a network request to be made to the Parse REST API 
@@ -41,67 +53,363 @@ import java.util.Iterator;
  */
 public abstract class ParseCommand {
 
+    /**
+     * The priority of a command. It determines the order in which queued 
+     * commands are issued by the {@link ParseCommandScheduler} and the 
+     * transport, and in which commands waiting for a permit of the 
+     * {@link ParseRateLimiter} obtain it.
+     */
+    public enum EPriority {
+
+        /**
+         * Requests on which a user is waiting.
+         */
+        INTERACTIVE,
+        /**
+         * The default priority.
+         */
+        NORMAL,
+        /**
+         * Requests of background work such as synchronization or batch jobs.
+         */
+        BACKGROUND
+    }
+
     private static final Logger LOGGER = Logger.getInstance();
     private static final String REQUEST_BODY_KEY = "data";
+    private static final Comparator<String> NAME_ORDER = new Comparator<String>() {
+
+        public int compare(String first, String second) {
+            return first.compareTo(second);
+        }
+    };
+    private static Timer retryTimer;
 
     private final JSONObject data = new JSONObject();
     private final JSONObject headers = new JSONObject();
     private ProgressCallback progressCallback;
+    private ParseClient client;
+    private IResponseStreamHandler responseStreamHandler;
+    private boolean retrySafe;
+    private boolean responseShareable = true;
+    private EPriority priority = EPriority.NORMAL;
+    private ParseRateLimiter.EMode rateLimitMode;
     
     protected boolean addJson;
 
     /**
-     * Sets up the network connection request that will be issued when performing 
+     * Sets up the HTTP request that will be issued when performing 
      * this operation. Typically, that involves specifying the HTTP verb,
      * headers, url, content type, etc.
      * <p>
-     * This method is invoked by {@link #perform()}.
+     * This method is invoked by {@link #perform()} and {@link #performAsync()}.
      * 
      * @param request The request to be initialized.
      * @throws ParseException if anything goes wrong.
      */
-    abstract void setUpRequest(final ConnectionRequest request) throws ParseException;
+    abstract void setUpRequest(final HttpRequest request) throws ParseException;
+
+    /**
+     * Determines whether the streamed response of this command can be 
+     * resumed. If so, a response whose body is interrupted is treated as a 
+     * connection failure and re-issued according to the client's 
+     * {@link ParseRetryPolicy}; otherwise, it is reported as failed.
+     * 
+     * @return {@code false} by default.
+     * @see #setUpAttempt(com.parse4cn1.command.HttpRequest) 
+     */
+    boolean isResumable() {
+        return false;
+    }
+
+    /**
+     * Determines whether the streamed response of this command may be 
+     * buffered so that identical requests can share it via the client's 
+     * {@link ParseRequestCoalescer} and that it can be revalidated via the 
+     * client's {@link ParseResponseCache}. If so, the body is read completely 
+     * before it is passed to the {@link #setResponseStreamHandler(com.parse4cn1.command.IResponseStreamHandler) 
+     * response stream handler}; the handlers of joined requests and of 
+     * requests answered with {@code 304 Not Modified} receive a replay of it.
+     * 
+     * @return The value set via {@link #setResponseShareable(boolean)}, 
+     * {@code true} by default; commands whose responses may be too large to 
+     * be buffered return {@code false}.
+     */
+    boolean isResponseShareable() {
+        return responseShareable;
+    }
+
+    /**
+     * Invoked before each attempt to issue the request of this command, 
+     * e.g., to request only the part of a response that was not received by 
+     * a previous attempt. Does nothing by default.
+     * 
+     * @param request The request to be issued.
+     */
+    void setUpAttempt(final HttpRequest request) {
+    }
+
+    /**
+     * Invoked with the status and headers of a successful response before 
+     * its body is passed to the {@link #setResponseStreamHandler(com.parse4cn1.command.IResponseStreamHandler) 
+     * response stream handler}. Does nothing by default.
+     * 
+     * @param statusCode The HTTP status code.
+     * @param headers The response headers with lower-case names.
+     * @throws ParseException if the response cannot be processed.
+     */
+    void handleResponseHeaders(final int statusCode, final Map<String, String> headers) 
+            throws ParseException {
+    }
 
     /**
      * Performs this ParseCommand by issuing a synchronous network request.
+     * <p>
+     * Requests to the Parse API are sent to the endpoint selected by the 
+     * endpoint router of the {@link #getClient() client}. If that endpoint is 
+     * unavailable, idempotent requests are re-issued to another endpoint.
+     * Transient failures are retried according to the client's 
+     * {@link ParseRetryPolicy}; this method blocks during the backoff delays 
+     * (without blocking the EDT if invoked on it) and, if the client's {@link ParseRateLimiter} is in blocking mode, while 
+     * waiting for a permit. If the client has a {@link ParseCommandScheduler}, 
+     * it also blocks while the request is queued. A GET request that is 
+     * identical to one in flight waits for the latter's response instead of 
+     * being issued (see {@link ParseRequestCoalescer}). If the client has a 
+     * {@link ParseResponseCache}, GET requests are issued as conditional 
+     * requests and unmodified responses are served from the cache, except 
+     * for file downloads to a stream whose response is not 
+     * {@link #isResponseShareable() shareable}.
+     * 
      * @return The response received if the request was successful.
      * 
      * @throws ParseException if anything goes wrong.
      */
     public ParseResponse perform() throws ParseException {
 
+        final long commandStart = System.currentTimeMillis();
+        final HttpRequest request = prepareRequest();
+        final String requestKey = getRequestKey(request);
+        final ParseRequestCoalescer coalescer = getCoalescer(request, requestKey);
+        String flightKey = null;
+        if (coalescer != null) {
+            final ParseFuture<ParseResponse> shared = new ParseFuture<ParseResponse>();
+            flightKey = coalescer.join(requestKey, shared);
+            if (flightKey == null) {
+                return replay(shared.get());
+            }
+        }
+        
+        final ResponseHandler handler = new ResponseHandler(
+                request, null, commandStart, requestKey, coalescer, flightKey);
+        try {
+            do {
+                if (handler.acquirePermit() && handler.acquireSlot() && handler.prepareAttempt()) {
+                    getClient().getHttpTransport().perform(request, handler);
+                } else {
+                    handler.onCompleted();
+                }
+
+                if (handler.getRetryDelay() > 0 && !sleep(handler.getRetryDelay())) {
+                    handler.cancelReissue();
+                }
+            } while (handler.isReissueRequired());
+        } finally {
+            handler.completeCoalesced();
+        }
+        return handler.response;
+    }
+
+    /**
+     * Waits before a request is reissued. If invoked on the EDT, the EDT is
+     * not blocked (see {@link Display#invokeAndBlock(java.lang.Runnable)}).
+     *
+     * @param delay The time to wait in milliseconds.
+     * @return {@code true} if the full delay elapsed; {@code false} if the
+     * calling thread was interrupted while waiting.
+     */
+    private static boolean sleep(final long delay) {
+        final boolean[] interrupted = new boolean[1];
+        final Runnable waiter = new Runnable() {
+
+            public void run() {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    interrupted[0] = true;
+                }
+            }
+        };
+        if (Display.isInitialized() && Display.getInstance().isEdt()) {
+            Display.getInstance().invokeAndBlock(waiter);
+        } else {
+            waiter.run();
+        }
+        return !interrupted[0];
+    }
+
+    /**
+     * Performs this ParseCommand by issuing an asynchronous network request. 
+     * This method returns immediately without waiting for the request to be 
+     * completed.
+     * 
+     * @return A future that is completed with the response once the request 
+     * is completed. As with {@link #perform()}, the future completes successfully 
+     * even if the request failed; use {@link ParseResponse#isFailed()} to 
+     * check the outcome.
+     * @throws ParseException if anything goes wrong while preparing the request.
+     */
+    public ParseFuture<ParseResponse> performAsync() throws ParseException {
+        
+        final long commandStart = System.currentTimeMillis();
+        final HttpRequest request = prepareRequest();
+        final ParseFuture<ParseResponse> future = new ParseFuture<ParseResponse>();
+        final String requestKey = getRequestKey(request);
+        final ParseRequestCoalescer coalescer = getCoalescer(request, requestKey);
+        final String flightKey = (coalescer != null) ? coalescer.join(requestKey, future) : null;
+        if (coalescer != null && flightKey == null) {
+            return future.then(new IContinuation<ParseResponse, ParseResponse>() {
+
+                public ParseResponse then(ParseResponse response) throws ParseException {
+                    return replay(response);
+                }
+            });
+        }
+        
+        final ResponseHandler handler = new ResponseHandler(
+                request, future, commandStart, requestKey, coalescer, flightKey);
+        handler.issueAsync();
+        return future;
+    }
+    
+    /**
+     * Determines the key that identifies a GET request for the client's 
+     * {@link ParseRequestCoalescer} and {@link ParseResponseCache}.
+     * 
+     * @param request The prepared request.
+     * @return The key, i.e., the URL, arguments and headers (which include 
+     * the session token) of the request, or null if the request is not a GET 
+     * request or its streamed response is not {@link #isResponseShareable() shareable}.
+     */
+    private String getRequestKey(final HttpRequest request) {
+        if (!request.isGet() || (responseStreamHandler != null && !isResponseShareable())) {
+            return null;
+        }
+        
+        final StringBuilder key = new StringBuilder(request.getUrl());
+        appendSorted(key.append('?'), request.getArguments());
+        appendSorted(key.append('\n'), request.getHeaders());
+        return key.toString();
+    }
+    
+    /**
+     * Determines whether a request is to be coalesced with identical 
+     * requests. Requests that may modify data invalidate the responses 
+     * memoized by the client's coalescer.
+     * 
+     * @param request The prepared request.
+     * @param requestKey The key of the request or null.
+     * @return The coalescer of the client or null if the request is not to 
+     * be coalesced.
+     */
+    private ParseRequestCoalescer getCoalescer(final HttpRequest request, 
+            final String requestKey) {
+        final ParseRequestCoalescer coalescer = getClient().getRequestCoalescer();
+        if (coalescer == null) {
+            return null;
+        }
+        if (!request.isGet()) {
+            coalescer.invalidate();
+            return null;
+        }
+        return (requestKey != null && progressCallback == null) ? coalescer : null;
+    }
+    
+    /**
+     * Passes the buffered body of a successful response that was shared via 
+     * the client's {@link ParseRequestCoalescer} to the response stream 
+     * handler of this command (if any).
+     * 
+     * @param response The response.
+     * @return {@code response}.
+     */
+    private ParseResponse replay(final ParseResponse response) {
+        if (responseStreamHandler != null && !response.isFailed()) {
+            replayTo(response);
+        }
+        return response;
+    }
+
+    private void replayTo(final ParseResponse response) {
+        try {
+            handleResponseHeaders(response.getStatusCode(), response.getHeaders());
+            responseStreamHandler.handleResponse(
+                    new ByteArrayInputStream(response.getResponseData()));
+        } catch (ParseException ex) {
+            response.setConnectionError(ex);
+        } catch (IOException ex) {
+            response.setConnectionError(new ParseException(ParseException.CONNECTION_FAILED, 
+                    ParseException.ERR_NETWORK, ex));
+        }
+    }
+    
+    private static void appendSorted(final StringBuilder builder, 
+            final Map<String, String> values) {
+        final List<String> names = new ArrayList<String>(values.keySet());
+        Collections.sort(names, NAME_ORDER);
+        for (String name : names) {
+            builder.append(name).append('=').append(values.get(name)).append('&');
+        }
+    }
+    
+    /**
+     * Creates an HTTP request for this command and initializes it with the 
+     * headers, arguments and body of this command.
+     * 
+     * @return The initialized request.
+     * @throws ParseException if anything goes wrong.
+     */
+    private HttpRequest prepareRequest() throws ParseException {
+        
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Data to be sent: " + data.toString());
         }
 
-        long commandStart = System.currentTimeMillis();
-        final ParseResponse response = new ParseResponse();
-        final ConnectionRequest request = createConnectionRequest(response);
-        setUpRequest(request);
-        
-        if (progressCallback != null) {
-            NetworkManager.getInstance().addProgressListener(new ActionListener() {
-
-                public void actionPerformed(ActionEvent evt) {
-                    if (evt instanceof NetworkEvent) {
-                        final NetworkEvent networkEvent = (NetworkEvent) evt;
-                        if (request.equals(networkEvent.getConnectionRequest())) {
-                            int progressPercentage = networkEvent.getProgressPercentage();
-                            if (progressPercentage >= 0) {
-                                progressCallback.done(progressPercentage);
-                            }
-                        }
+        final HttpRequest request = new HttpRequest();
+        if (data.has(REQUEST_BODY_KEY)) {
+            // The body is encoded directly into the connection's stream 
+            // (possibly several times if the request is re-issued) rather 
+            // than being materialized as a string and a byte array
+            final Object body;
+            final long contentLength;
+            try {
+                body = data.get(REQUEST_BODY_KEY);
+                contentLength = JsonStreamWriter.getLength(body);
+            } catch (JSONException ex) {
+                throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
+            }
+            request.setBody(new HttpRequest.IBodyWriter() {
+
+                public void writeTo(OutputStream output) throws IOException {
+                    final JsonStreamWriter writer = new JsonStreamWriter(output);
+                    try {
+                        writer.write(body);
+                    } catch (JSONException ex) {
+                        throw new IOException(ex.getMessage());
                     }
+                    writer.flush();
                 }
-            });
+            }, contentLength);
         }
+        request.setProgressReported(progressCallback != null);
+        request.setPriority(priority);
+        setUpRequest(request);
 
         Iterator keys = headers.keys();
         while (keys.hasNext()) {
             final String key = (String) keys.next();
            
              try {
-                request.addRequestHeader(key, (String) headers.get(key));
+                request.addHeader(key, (String) headers.get(key));
             } catch (JSONException ex) {
                 Logger.getInstance().error("Error parsing header '" + key + "' + Error: " + ex);
                 throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
@@ -120,16 +428,7 @@ public abstract class ParseCommand {
                 }
             }
         }
-        NetworkManager.getInstance().addToQueueAndWait(request);
-        response.extractResponseData(request);
-        long commandReceived = System.currentTimeMillis();
-
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Parse " + request.getHttpMethod() + " Command took " 
-                    + (commandReceived - commandStart) + " milliseconds\n");
-        }
-
-        return response;
+        return request;
     }
     
     /**
@@ -148,46 +447,6 @@ public abstract class ParseCommand {
         }
     }
 
-    /**
-     * Creates and initializes a network connection request.
-     * 
-     * @param response The response associated with the request. This response 
-     * object will be updated with the error information if the request fails.
-     * 
-     * @return The created connection request.
-     */
-    protected ConnectionRequest createConnectionRequest(final ParseResponse response) {
-        ConnectionRequest request = new ConnectionRequest() {
-
-            @Override
-            protected void handleErrorResponseCode(int code, String message) {
-                response.setConnectionError(code, message);
-            }
-
-            @Override
-            protected void handleException(Exception err) {
-                response.setConnectionError(new ParseException(ParseException.CONNECTION_FAILED, 
-                    ParseException.ERR_NETWORK, err));
-            }
-
-            @Override
-            protected void buildRequestBody(OutputStream os) throws IOException {
-                if (data.has(REQUEST_BODY_KEY)) {
-                    try {
-                        os.write(data.get(REQUEST_BODY_KEY).toString().getBytes("UTF-8"));
-                    } catch (JSONException ex) {
-                        throw new IllegalArgumentException("Unable to read request body from json object. Error:"
-                                + ex.getMessage());
-                    }
-                } else {
-                    super.buildRequestBody(os);
-                }
-            }
-        };
-        request.setReadResponseForErrors(true);
-        return request;
-    }
-
     /**
      * Adds the default headers (e.g., {@link ParseConstants#HEADER_APPLICATION_ID}
      * and {@link ParseConstants#HEADER_CLIENT_KEY}) associated with Parse REST API calls.
@@ -197,15 +456,19 @@ public abstract class ParseCommand {
      */
     protected void setupDefaultHeaders(boolean addJson) throws ParseException {
         try {
-            headers.put(ParseConstants.HEADER_APPLICATION_ID, Parse.getApplicationId());
-            headers.put(ParseConstants.HEADER_CLIENT_KEY, Parse.getClientKey());
+            final ParseClient parseClient = getClient();
+            headers.put(ParseConstants.HEADER_APPLICATION_ID, parseClient.getApplicationId());
+            headers.put(ParseConstants.HEADER_CLIENT_KEY, parseClient.getClientKey());
             if (addJson) {
                 headers.put(ParseConstants.HEADER_CONTENT_TYPE, ParseConstants.CONTENT_TYPE_JSON);
             }
-            if (!data.has(ParseConstants.FIELD_SESSION_TOKEN) && ParseUser.getCurrent() != null) {
-                data.put(ParseConstants.FIELD_SESSION_TOKEN, ParseUser.getCurrent().getSessionToken());
+            if (!data.has(ParseConstants.FIELD_SESSION_TOKEN) && parseClient.getCurrentUser() != null) {
+                data.put(ParseConstants.FIELD_SESSION_TOKEN, parseClient.getSessionToken());
             }
-            if (data.has(ParseConstants.FIELD_SESSION_TOKEN)) {
+            // A session header added explicitly (e.g. for acting on behalf of 
+            // a user other than the current one) takes precedence
+            if (data.has(ParseConstants.FIELD_SESSION_TOKEN) 
+                    && !headers.has(ParseConstants.HEADER_SESSION_TOKEN)) {
                 headers.put(ParseConstants.HEADER_SESSION_TOKEN,
                         data.getString(ParseConstants.FIELD_SESSION_TOKEN));
             } 
@@ -221,8 +484,8 @@ public abstract class ParseCommand {
      * @param objectId The optional objectId
      * @return The Parse API URL of the format {@code https://api.parse.com/<endpoint>[/<objectId>]}.
      */
-    static protected String getUrl(final String endPoint, final String objectId) {
-        String url = Parse.getParseAPIUrl(endPoint) + (objectId != null ? "/" + objectId : "");
+    protected String getUrl(final String endPoint, final String objectId) {
+        String url = getClient().getParseAPIUrl(endPoint) + (objectId != null ? "/" + objectId : "");
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Request URL: " + url);
@@ -232,7 +495,9 @@ public abstract class ParseCommand {
     }
 
     /**
-     * Sets the message body data for the HTTP request.
+     * Sets the message body data for the HTTP request. The body is encoded 
+     * when the request is sent; it must not be modified while this command 
+     * is being performed.
      * 
      * @param data The message body to be set.
      * @throws ParseException if anything goes wrong.
@@ -260,6 +525,80 @@ public abstract class ParseCommand {
         }
     }
     
+    /**
+     * Sets the client on whose behalf this command is performed, i.e., whose 
+     * credentials, session and endpoints are used.
+     * 
+     * @param client The client or null to use {@link Parse#getDefaultClient()}.
+     */
+    public void setClient(final ParseClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return The client on whose behalf this command is performed.
+     */
+    public ParseClient getClient() {
+        return (client != null) ? client : Parse.getDefaultClient();
+    }
+
+    /**
+     * Sets whether the streamed response of this GET command may be buffered 
+     * so that it can be shared with identical requests (see 
+     * {@link ParseRequestCoalescer}) and revalidated (see 
+     * {@link ParseResponseCache}). Disable this for responses that must be 
+     * processed while they are read, e.g., to bound memory usage.
+     * 
+     * @param responseShareable {@code false} to always stream the response 
+     * to the {@link #setResponseStreamHandler(com.parse4cn1.command.IResponseStreamHandler) 
+     * response stream handler}. The default is {@code true}.
+     */
+    public void setResponseShareable(final boolean responseShareable) {
+        this.responseShareable = responseShareable;
+    }
+
+    /**
+     * Marks this command as safe to be re-issued even if the server might 
+     * have processed it already. This is only relevant for POST requests; 
+     * other requests are idempotent and retried anyway.
+     * 
+     * @param retrySafe {@code true} if transient failures of this command 
+     * may be retried.
+     */
+    public void setRetrySafe(final boolean retrySafe) {
+        this.retrySafe = retrySafe;
+    }
+
+    /**
+     * Sets the priority of this command. The default is 
+     * {@link EPriority#NORMAL}.
+     * 
+     * @param priority The priority.
+     */
+    public void setPriority(final EPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Null priority");
+        }
+        this.priority = priority;
+    }
+
+    /**
+     * @return The priority of this command.
+     */
+    public EPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets whether this command waits for a permit of the client's rate 
+     * limiter or fails immediately if none is available.
+     * 
+     * @param rateLimitMode The mode or null to use the rate limiter's mode.
+     */
+    public void setRateLimitMode(final ParseRateLimiter.EMode rateLimitMode) {
+        this.rateLimitMode = rateLimitMode;
+    }
+
     /**
      * Sets a callback to be notified of the progress of this command when it 
      * is performed.
@@ -270,4 +609,484 @@ public abstract class ParseCommand {
     public void setProgressCallback(final ProgressCallback progressCallback) {
         this.progressCallback = progressCallback;
     }
+
+    /**
+     * @return The callback to retrieve progress notifications or null if 
+     * there is none.
+     */
+    ProgressCallback getProgressCallback() {
+        return progressCallback;
+    }
+
+    /**
+     * Sets a handler that reads the body of a successful response directly 
+     * from the network stream. If set, the raw response data will not be 
+     * available via {@link ParseResponse#getResponseData()} unless the 
+     * response of a GET request is buffered to be shared with identical 
+     * requests (see {@link ParseRequestCoalescer}) or to be revalidated 
+     * (see {@link ParseResponseCache}), which can be disabled via 
+     * {@link #setResponseShareable(boolean)}.
+     * 
+     * @param responseStreamHandler The handler to be set. It will replace any 
+     * previously set handler.
+     */
+    public void setResponseStreamHandler(final IResponseStreamHandler responseStreamHandler) {
+        this.responseStreamHandler = responseStreamHandler;
+    }
+
+    /**
+     * Schedules a task on the timer shared by all commands for delaying 
+     * asynchronous retries.
+     * 
+     * @param task The task.
+     * @param delay The delay in milliseconds.
+     */
+    private static synchronized void scheduleRetry(final TimerTask task, final long delay) {
+        if (retryTimer == null) {
+            retryTimer = new Timer();
+        }
+        retryTimer.schedule(task, delay);
+    }
+
+    /**
+     * Transfers the outcome of a single request into its ParseResponse, 
+     * forwards progress notifications to the progress callback (if any) and, 
+     * for asynchronous requests, completes the associated future.
+     * <p>
+     * The handler also reports the outcome of each attempt to the retry 
+     * policy and, if the request is routed, to the endpoint router, and 
+     * determines whether the request is to be re-issued: immediately to 
+     * another endpoint (failover) or after a backoff delay (retry).
+     */
+    private class ResponseHandler implements IHttpTransport.IResponseHandler {
+
+        private final HttpRequest request;
+        private final String url;
+        private final ParseFuture<ParseResponse> future;
+        private final long commandStart;
+        private final String requestKey;
+        private final ParseRequestCoalescer coalescer;
+        private final String flightKey;
+        private final ParseRetryPolicy retryPolicy;
+        private final ParseResponseCache responseCache;
+        private final ParseResponseCache.CachedResponse cachedResponse;
+        private final List<ParseEndpointRouter.Endpoint> failedEndpoints 
+                = new ArrayList<ParseEndpointRouter.Endpoint>();
+        private ParseResponse response = new ParseResponse();
+        private ParseEndpointRouter.Endpoint endpoint;
+        private String endpointKey;
+        private long attemptStart;
+        private int retries;
+        private boolean failoverRequired;
+        private long retryDelay;
+        private boolean permitQueued;
+        private ParseCommandScheduler slotScheduler;
+
+        ResponseHandler(final HttpRequest request, 
+                final ParseFuture<ParseResponse> future, final long commandStart,
+                final String requestKey, final ParseRequestCoalescer coalescer,
+                final String flightKey) {
+            this.request = request;
+            this.url = request.getUrl();
+            this.future = future;
+            this.commandStart = commandStart;
+            this.requestKey = requestKey;
+            this.coalescer = coalescer;
+            this.flightKey = flightKey;
+            this.retryPolicy = getClient().getRetryPolicy();
+            this.responseCache = (requestKey != null) ? getClient().getResponseCache() : null;
+            this.cachedResponse = (responseCache != null) 
+                    ? responseCache.prepare(requestKey, request) : null;
+        }
+        
+        /**
+         * Passes the final response to the requests that joined this request 
+         * via the client's {@link ParseRequestCoalescer} (if any).
+         */
+        void completeCoalesced() {
+            if (coalescer != null) {
+                coalescer.complete(flightKey, response);
+            }
+        }
+
+        /**
+         * Prepares the request for (re-)issuing it to the endpoint selected by 
+         * the router, skipping endpoints whose circuit is open.
+         * 
+         * @return {@code true} if the request is to be issued; {@code false} 
+         * if all eligible endpoints are open circuits in which case the 
+         * response is already marked as failed.
+         */
+        boolean prepareAttempt() {
+            final ParseEndpointRouter router = getClient().getEndpointRouter();
+            response = new ParseResponse();
+            failoverRequired = false;
+            retryDelay = -1;
+            
+            final List<ParseEndpointRouter.Endpoint> excluded 
+                    = new ArrayList<ParseEndpointRouter.Endpoint>(failedEndpoints);
+            final List<ParseEndpointRouter.Endpoint> open 
+                    = new ArrayList<ParseEndpointRouter.Endpoint>();
+            while (true) {
+                endpoint = router.acquire(url, excluded);
+                endpointKey = (endpoint != null) 
+                        ? endpoint.getUrl() : ParseRetryPolicy.getEndpointKey(url);
+                // The router only returns an endpoint with an open circuit if 
+                // there is no other one
+                final boolean alreadyRejected = (endpoint != null && open.contains(endpoint));
+                if (!alreadyRejected && retryPolicy.allowRequest(endpointKey)) {
+                    break;
+                }
+                
+                if (endpoint != null) {
+                    router.cancel(endpoint);
+                }
+                if (endpoint == null || alreadyRejected) {
+                    response.setConnectionError(new ParseException(ParseException.CONNECTION_FAILED, 
+                            "Circuit of endpoint " + endpointKey + " is open"));
+                    endpoint = null;
+                    endpointKey = null;
+                    return false;
+                }
+                open.add(endpoint);
+                excluded.add(endpoint);
+            }
+            
+            request.setUrl((endpoint != null) ? router.resolve(endpoint, url) : url);
+            setUpAttempt(request);
+            attemptStart = System.currentTimeMillis();
+            return true;
+        }
+        
+        /**
+         * Takes a permit of the client's rate limiter (if any) for the next 
+         * attempt, waiting for one if the rate limiter is in blocking mode.
+         * 
+         * @return {@code true} if the request may be issued; {@code false} if 
+         * no permit is available in which case the response is marked as 
+         * failed.
+         */
+        boolean acquirePermit() {
+            final ParseRateLimiter limiter = getClient().getRateLimiter();
+            final String endpointClass = getEndpointClass();
+            if (limiter == null || endpointClass == null) {
+                return true;
+            }
+            
+            try {
+                if (limiter.acquire(endpointClass, priority, isRateLimitBlocking(limiter))) {
+                    return true;
+                }
+            } catch (InterruptedException ex) {
+                limiter.recordRejected();
+            }
+            rejectAttempt(new ParseException(ParseException.REQUEST_LIMIT_EXCEEDED, 
+                    "Client-side request limit exceeded"));
+            return false;
+        }
+        
+        /**
+         * Acquires a slot of the client's scheduler (if any) for the next 
+         * attempt, waiting while the request is queued.
+         * 
+         * @return {@code true} if the request may be issued; {@code false} if 
+         * it was cancelled while queued in which case the response is marked 
+         * as failed.
+         */
+        boolean acquireSlot() {
+            final ParseCommandScheduler scheduler = getClient().getScheduler();
+            if (scheduler == null) {
+                return true;
+            }
+            
+            try {
+                if (scheduler.acquire(priority)) {
+                    slotScheduler = scheduler;
+                    return true;
+                }
+            } catch (InterruptedException ex) {
+                // Treated like a cancellation
+            }
+            rejectAttempt(createCancellation());
+            return false;
+        }
+        
+        private ParseException createCancellation() {
+            return new ParseException(ParseException.OTHER_CAUSE, 
+                    "Request was cancelled before it was issued");
+        }
+        
+        /**
+         * Issues the request asynchronously. If the client's rate limiter is 
+         * in blocking mode and has no permit, the request is deferred. If no 
+         * permit or endpoint is available, the request is completed 
+         * immediately.
+         */
+        void issueAsync() {
+            final ParseRateLimiter limiter = getClient().getRateLimiter();
+            final String endpointClass = getEndpointClass();
+            if (limiter != null && endpointClass != null) {
+                final long wait = limiter.tryAcquire(endpointClass, priority);
+                if (wait > 0 && isRateLimitBlocking(limiter)) {
+                    if (!permitQueued) {
+                        limiter.enqueue(priority);
+                        permitQueued = true;
+                    }
+                    scheduleRetry(new TimerTask() {
+
+                        public void run() {
+                            issueAsync();
+                        }
+                    }, wait);
+                    return;
+                }
+                if (permitQueued) {
+                    limiter.dequeue(priority);
+                    permitQueued = false;
+                }
+                if (wait > 0) {
+                    limiter.recordRejected();
+                    rejectAttempt(new ParseException(ParseException.REQUEST_LIMIT_EXCEEDED, 
+                            "Client-side request limit exceeded"));
+                    onCompleted();
+                    return;
+                }
+            }
+            
+            final ParseCommandScheduler scheduler = getClient().getScheduler();
+            if (scheduler == null) {
+                startAsync();
+                return;
+            }
+            scheduler.submit(priority, new ParseCommandScheduler.ITask() {
+
+                public void run() {
+                    slotScheduler = scheduler;
+                    startAsync();
+                }
+
+                public void cancel() {
+                    rejectAttempt(createCancellation());
+                    onCompleted();
+                }
+            });
+        }
+        
+        private void startAsync() {
+            if (prepareAttempt()) {
+                getClient().getHttpTransport().performAsync(request, this);
+            } else {
+                onCompleted();
+            }
+        }
+        
+        private boolean isRateLimitBlocking(final ParseRateLimiter limiter) {
+            return ((rateLimitMode != null) ? rateLimitMode : limiter.getMode()) 
+                    == ParseRateLimiter.EMode.BLOCK;
+        }
+        
+        /**
+         * @return The first path segment of the request URL relative to the 
+         * client's API endpoint (e.g. {@code classes}) or null if the request 
+         * is not sent to the Parse API.
+         */
+        private String getEndpointClass() {
+            final String apiUrl = getClient().getEndpointRouter().getPrimaryUrl() + "/";
+            if (!url.startsWith(apiUrl)) {
+                return null;
+            }
+            int end = url.length();
+            for (int i = apiUrl.length(); i < url.length(); ++i) {
+                final char c = url.charAt(i);
+                if (c == '/' || c == '?') {
+                    end = i;
+                    break;
+                }
+            }
+            return url.substring(apiUrl.length(), end);
+        }
+        
+        private void rejectAttempt(final ParseException error) {
+            response = new ParseResponse();
+            response.setConnectionError(error);
+            endpoint = null;
+            endpointKey = null;
+            failoverRequired = false;
+            retryDelay = -1;
+        }
+
+        boolean isReissueRequired() {
+            return failoverRequired || retryDelay >= 0;
+        }
+        
+        /**
+         * @return The delay in milliseconds before the request is to be 
+         * re-issued or -1 if it is not to be retried.
+         */
+        long getRetryDelay() {
+            return retryDelay;
+        }
+        
+        void cancelReissue() {
+            failoverRequired = false;
+            retryDelay = -1;
+        }
+
+        public void onResponse(int statusCode, String statusMessage, 
+                Map<String, String> headers, InputStream body) {
+            try {
+                handleResponse(statusCode, statusMessage, headers, body);
+            } catch (IOException ex) {
+                // Transports do not invoke onFailure() once a response was 
+                // delivered, so a failure to read it is recorded here
+                onFailure(ex);
+            }
+        }
+
+        private void handleResponse(int statusCode, String statusMessage, 
+                Map<String, String> headers, InputStream body) throws IOException {
+            response.setHeaders(headers);
+            if (statusCode == 304 && cachedResponse != null) {
+                // Not modified; the cached body is still valid
+                response.setResponseData(200, responseCache.use(cachedResponse));
+                if (responseStreamHandler != null) {
+                    replayTo(response);
+                }
+                return;
+            }
+            
+            final boolean success = (statusCode >= 200 && statusCode < 300);
+            if (!success) {
+                response.setConnectionError(statusCode, statusMessage);
+            }
+            
+            if (success && responseStreamHandler != null 
+                    && coalescer == null && responseCache == null) {
+                response.setResponseStreamed(statusCode);
+                try {
+                    handleResponseHeaders(statusCode, headers);
+                    responseStreamHandler.handleResponse(body);
+                } catch (ParseException ex) {
+                    response.setConnectionError(ex);
+                }
+            } else {
+                response.setResponseData(statusCode, Util.readInputStream(body));
+                if (success && responseStreamHandler != null) {
+                    // Buffered so that it can be replayed to joined requests 
+                    // and after a 304 response
+                    replayTo(response);
+                }
+                if (responseCache != null && (statusCode == 404 
+                        || (statusCode == 200 && !response.isFailed()))) {
+                    responseCache.store(requestKey, headers, 
+                            (statusCode == 200) ? response.getResponseData() : null);
+                }
+            }
+        }
+
+        public void onFailure(Exception error) {
+            if (isResumable()) {
+                // Discard the status of an interrupted response so that the 
+                // request is retried
+                response = new ParseResponse();
+            }
+            response.setConnectionError(new ParseException(ParseException.CONNECTION_FAILED, 
+                    ParseException.ERR_NETWORK, error));
+        }
+
+        public void onProgress(int percentage) {
+            if (progressCallback != null) {
+                progressCallback.done(percentage);
+            }
+        }
+
+        public void onCompleted() {
+            final long now = System.currentTimeMillis();
+            if (slotScheduler != null) {
+                final ParseCommandScheduler scheduler = slotScheduler;
+                slotScheduler = null;
+                scheduler.release(priority);
+            }
+            if (endpointKey != null) {
+                final int statusCode = response.getStatusCode();
+                retryPolicy.recordOutcome(endpointKey, statusCode != 0 && statusCode < 500);
+                
+                if (endpoint != null) {
+                    updateRouter(statusCode, now);
+                }
+                if (!failoverRequired && response.isFailed()) {
+                    updateRetry(statusCode);
+                }
+            }
+            
+            if (isReissueRequired() && future != null) {
+                if (retryDelay > 0) {
+                    scheduleRetry(new TimerTask() {
+
+                        public void run() {
+                            issueAsync();
+                        }
+                    }, retryDelay);
+                } else {
+                    issueAsync();
+                }
+                return;
+            }
+            
+            if (LOGGER.isDebugEnabled() && !isReissueRequired()) {
+                LOGGER.debug("Parse " + request.getMethod() + " Command took " 
+                        + (now - commandStart) + " milliseconds\n");
+            }
+            
+            if (future != null) {
+                completeCoalesced();
+                future.complete(response);
+            }
+        }
+        
+        private void updateRouter(final int statusCode, final long now) {
+            final ParseEndpointRouter router = getClient().getEndpointRouter();
+            // No response or a response from a proxy indicating that the 
+            // node behind it is unavailable
+            final boolean endpointFailed = (statusCode == 0 || statusCode == 502 
+                    || statusCode == 503 || statusCode == 504);
+            router.release(endpoint, !endpointFailed, now - attemptStart);
+
+            // Non-idempotent requests might have been processed unless 
+            // the server explicitly indicated that it is unavailable
+            if (endpointFailed 
+                    && (!"POST".equals(request.getMethod()) || retrySafe || statusCode == 503)
+                    && failedEndpoints.size() + 1 < router.getEndpointCount()) {
+                failedEndpoints.add(endpoint);
+                failoverRequired = true;
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Endpoint " + endpoint.getUrl() 
+                            + " failed; re-issuing request to another endpoint");
+                }
+            }
+        }
+        
+        private void updateRetry(final int statusCode) {
+            if (!retryPolicy.isRetryable(request.getMethod(), statusCode, retrySafe)) {
+                return;
+            }
+            
+            if (retries < retryPolicy.getMaxRetries()) {
+                retryDelay = retryPolicy.getRetryDelay(retries, response.getHeader("Retry-After"));
+            }
+            if (retryDelay < 0) {
+                retryPolicy.recordExhausted();
+                return;
+            }
+            
+            ++retries;
+            retryPolicy.recordRetry();
+            // All endpoints are eligible again after the backoff delay
+            failedEndpoints.clear();
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Request to " + request.getUrl() + " failed with status " 
+                        + statusCode + "; retry " + retries + " in " + retryDelay + " ms");
+            }
+        }
+    }
 }
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.codename1.ui.Display;
+import com.parse4cn1.command.ParseCommand.EPriority;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The ParseCommandScheduler class limits the number of requests that a
+ * client has in flight, overall and per {@link EPriority priority class}, so
+ * that background work such as large file uploads or bulk synchronization
+ * cannot delay interactive requests.
+ * <p>
+ * Requests that cannot be issued immediately are queued by priority (and in
+ * order of arrival within a priority) and issued as soon as a slot of their
+ * class becomes available. A queued request of higher priority thus
+ * overtakes all queued requests of lower priority; requests that are already
+ * in flight are never interrupted. Queued requests of a priority can also be
+ * withdrawn via {@link #cancelQueued(com.parse4cn1.command.ParseCommand.EPriority)},
+ * e.g., to abandon a background synchronization when the user needs the
+ * network.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ParseCommandScheduler {
+
+    /**
+     * A request waiting for a slot without blocking a thread.
+     */
+    public interface ITask {
+
+        /**
+         * Issues the request. Invoked once a slot was acquired; the slot must
+         * be released via
+         * {@link ParseCommandScheduler#release(com.parse4cn1.command.ParseCommand.EPriority)}
+         * once the request is completed.
+         */
+        void run();
+
+        /**
+         * Invoked instead of {@link #run()} if the request was cancelled
+         * while queued.
+         */
+        void cancel();
+    }
+
+    /**
+     * The default maximum number of requests in flight.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT = 4;
+    /**
+     * The default maximum number of {@link EPriority#BACKGROUND} requests in
+     * flight.
+     */
+    public static final int DEFAULT_MAX_BACKGROUND = 1;
+
+    private final List<Entry> queue = new ArrayList<Entry>();
+    private final int[] maxInFlight = new int[EPriority.values().length];
+    private final int[] inFlight = new int[EPriority.values().length];
+    private int maxTotalInFlight = DEFAULT_MAX_CONCURRENT;
+    private int totalInFlight;
+    private long cancelledCount;
+
+    /**
+     * Creates a scheduler with the default limits.
+     *
+     * @return The newly created scheduler.
+     */
+    public static ParseCommandScheduler create() {
+        return new ParseCommandScheduler();
+    }
+
+    private ParseCommandScheduler() {
+        for (int i = 0; i < maxInFlight.length; ++i) {
+            maxInFlight[i] = Integer.MAX_VALUE;
+        }
+        maxInFlight[EPriority.BACKGROUND.ordinal()] = DEFAULT_MAX_BACKGROUND;
+    }
+
+    /**
+     * Sets the maximum number of requests in flight. The default is
+     * {@link #DEFAULT_MAX_CONCURRENT}.
+     *
+     * @param maxConcurrent The maximum. Must be positive.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseCommandScheduler setMaxConcurrent(final int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Maximum must be positive");
+        }
+        synchronized (this) {
+            this.maxTotalInFlight = maxConcurrent;
+        }
+        runAll(dispatch());
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of requests of a priority class in flight. By
+     * default, {@link EPriority#BACKGROUND} requests are limited to
+     * {@link #DEFAULT_MAX_BACKGROUND}; other classes are only limited by the
+     * overall maximum.
+     *
+     * @param priority The priority class.
+     * @param maxConcurrent The maximum. Must be positive.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public ParseCommandScheduler setMaxConcurrent(final EPriority priority,
+            final int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Maximum must be positive");
+        }
+        synchronized (this) {
+            maxInFlight[priority.ordinal()] = maxConcurrent;
+        }
+        runAll(dispatch());
+        return this;
+    }
+
+    /**
+     * Acquires a slot for a request, waiting until one is available. If
+     * invoked on the EDT, the EDT is not blocked (see
+     * {@link Display#invokeAndBlock(java.lang.Runnable)}).
+     *
+     * @param priority The priority of the request.
+     * @return {@code true} if a slot was acquired; {@code false} if the
+     * request was cancelled while queued.
+     * @throws InterruptedException if the calling thread was interrupted
+     * while waiting.
+     */
+    public boolean acquire(final EPriority priority) throws InterruptedException {
+        final Entry entry = new Entry(priority, null);
+        enqueue(entry);
+        runAll(dispatch());
+
+        final InterruptedException[] interruption = new InterruptedException[1];
+        final Runnable waiter = new Runnable() {
+
+            public void run() {
+                synchronized (ParseCommandScheduler.this) {
+                    try {
+                        while (!entry.started && !entry.cancelled) {
+                            ParseCommandScheduler.this.wait();
+                        }
+                    } catch (InterruptedException ex) {
+                        interruption[0] = ex;
+                    }
+                }
+            }
+        };
+        if (Display.isInitialized() && Display.getInstance().isEdt()) {
+            Display.getInstance().invokeAndBlock(waiter);
+        } else {
+            waiter.run();
+        }
+
+        if (interruption[0] != null) {
+            final boolean started;
+            synchronized (this) {
+                started = entry.started;
+                queue.remove(entry);
+            }
+            if (started) {
+                release(priority);
+            }
+            throw interruption[0];
+        }
+        return entry.started;
+    }
+
+    /**
+     * Runs a task once a slot is available. If a slot is available
+     * immediately, the task is run on the calling thread; otherwise, it is
+     * run on the thread that releases the slot.
+     *
+     * @param priority The priority of the request.
+     * @param task The task that issues the request.
+     */
+    public void submit(final EPriority priority, final ITask task) {
+        enqueue(new Entry(priority, task));
+        runAll(dispatch());
+    }
+
+    /**
+     * Releases a slot acquired via
+     * {@link #acquire(com.parse4cn1.command.ParseCommand.EPriority)} or
+     * {@link #submit(com.parse4cn1.command.ParseCommand.EPriority, com.parse4cn1.command.ParseCommandScheduler.ITask)}.
+     *
+     * @param priority The priority of the completed request.
+     */
+    public void release(final EPriority priority) {
+        synchronized (this) {
+            --inFlight[priority.ordinal()];
+            --totalInFlight;
+        }
+        runAll(dispatch());
+    }
+
+    /**
+     * Cancels all queued (not yet issued) requests of a priority. The
+     * corresponding commands fail without being issued.
+     *
+     * @param priority The priority.
+     * @return The number of cancelled requests.
+     */
+    public int cancelQueued(final EPriority priority) {
+        final List<ITask> cancelled = new ArrayList<ITask>();
+        int count = 0;
+        synchronized (this) {
+            for (Iterator<Entry> it = queue.iterator(); it.hasNext();) {
+                final Entry entry = it.next();
+                if (entry.priority == priority) {
+                    it.remove();
+                    entry.cancelled = true;
+                    if (entry.task != null) {
+                        cancelled.add(entry.task);
+                    }
+                    ++count;
+                }
+            }
+            cancelledCount += count;
+            notifyAll();
+        }
+        for (ITask task : cancelled) {
+            task.cancel();
+        }
+        return count;
+    }
+
+    /**
+     * @param priority The priority.
+     * @return The number of queued requests of {@code priority}.
+     */
+    public synchronized int getQueuedCount(final EPriority priority) {
+        int count = 0;
+        for (Entry entry : queue) {
+            if (entry.priority == priority) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param priority The priority.
+     * @return The number of requests of {@code priority} in flight.
+     */
+    public synchronized int getInFlightCount(final EPriority priority) {
+        return inFlight[priority.ordinal()];
+    }
+
+    /**
+     * @return The number of requests cancelled while queued.
+     */
+    public synchronized long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    private synchronized void enqueue(final Entry entry) {
+        int index = queue.size();
+        while (index > 0 && queue.get(index - 1).priority.ordinal() > entry.priority.ordinal()) {
+            --index;
+        }
+        queue.add(index, entry);
+    }
+
+    /**
+     * Starts queued requests in order as long as slots are available.
+     *
+     * @return The tasks of the started asynchronous requests which must be
+     * run outside the lock.
+     */
+    private synchronized List<ITask> dispatch() {
+        List<ITask> started = null;
+        boolean notify = false;
+        for (Iterator<Entry> it = queue.iterator(); it.hasNext()
+                && totalInFlight < maxTotalInFlight;) {
+            final Entry entry = it.next();
+            final int index = entry.priority.ordinal();
+            if (inFlight[index] >= maxInFlight[index]) {
+                continue;
+            }
+
+            it.remove();
+            ++inFlight[index];
+            ++totalInFlight;
+            entry.started = true;
+            if (entry.task != null) {
+                if (started == null) {
+                    started = new ArrayList<ITask>();
+                }
+                started.add(entry.task);
+            } else {
+                notify = true;
+            }
+        }
+        if (notify) {
+            notifyAll();
+        }
+        return started;
+    }
+
+    private void runAll(final List<ITask> tasks) {
+        if (tasks != null) {
+            for (ITask task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * A queued request.
+     */
+    private static class Entry {
+
+        private final EPriority priority;
+        private final ITask task;
+        private boolean started;
+        private boolean cancelled;
+
+        Entry(final EPriority priority, final ITask task) {
+            this.priority = priority;
+            this.task = task;
+        }
+    }
+}
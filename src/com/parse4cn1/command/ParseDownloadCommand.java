@@ -16,18 +16,62 @@
  */
 package com.parse4cn1.command;
 
-import com.codename1.io.ConnectionRequest;
+import com.codename1.io.FileSystemStorage;
+import com.codename1.io.Util;
 import com.parse4cn1.ParseConstants;
 import com.parse4cn1.ParseException;
+import com.parse4cn1.callback.ParseFuture;
+import com.parse4cn1.callback.ParseFuture.IContinuation;
+import com.parse4cn1.callback.ProgressCallback;
+import com.parse4cn1.util.Logger;
 import com.parse4cn1.util.MimeType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This class defines a command for downloading resources from the Parse server.
+ * <p>
+ * By default, the downloaded data is buffered in the {@link ParseResponse}. 
+ * If an output stream is {@link #setOutput(java.io.OutputStream, long) set}, 
+ * the data is instead copied to that stream via a fixed-size buffer as it is 
+ * received. A download to an output stream is resumable: if the connection 
+ * is interrupted, the request is re-issued according to the client's 
+ * {@link com.parse4cn1.ParseRetryPolicy} with an HTTP {@code Range} header 
+ * so that only the missing data is transferred.
+ * <p>
+ * Large resources can also be downloaded to a file as several byte ranges 
+ * that are transferred concurrently (see 
+ * {@link #setSegmentedOutput(java.lang.String, int)}).
  */
 public class ParseDownloadCommand extends ParseCommand {
 
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The default minimum size in bytes of a segment of a segmented download.
+     */
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+
     private final String url;
     private final String contentType;
+    private OutputStream output;
+    private long offset;
+    private long rangeStart;
+    private long rangeEnd = -1;
+    private long bytesReceived;
+    private long totalLength = -1;
+    private long skip;
+    private boolean partial;
+    private int percentDone = -1;
+    private String segmentedPath;
+    private int maxSegments;
+    private long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+    private ParseFileCache.Entry cacheEntry;
 
     public ParseDownloadCommand(final String url, final String contentType) {
         if (url == null) {
@@ -43,14 +87,706 @@ public class ParseDownloadCommand extends ParseCommand {
         }
     }
 
+    /**
+     * Sets the stream to which the downloaded data is written instead of 
+     * buffering it in the response. The stream is not closed by this command.
+     * <p>
+     * Progress notifications (if requested) are computed from the total 
+     * size of the resource and are sent on a network thread.
+     * 
+     * @param output The stream to which the data is written.
+     * @param offset The number of bytes of the resource that were already 
+     * written to {@code output}, e.g., by a previous download that was 
+     * aborted. If positive, only the remaining data is requested.
+     */
+    public void setOutput(final OutputStream output, final long offset) {
+        if (output == null) {
+            throw new NullPointerException("Null output");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative");
+        }
+        this.output = output;
+        this.offset = offset;
+        setResponseStreamHandler(new IResponseStreamHandler() {
+
+            public void handleResponse(InputStream input) throws IOException, ParseException {
+                copy(input);
+            }
+        });
+    }
+
+    /**
+     * Restricts the download to an output stream to a byte range of the 
+     * resource.
+     * 
+     * @param start The position of the first byte of the range.
+     * @param end The position of the last byte of the range (inclusive) or 
+     * -1 for the end of the resource.
+     */
+    void setRange(final long start, final long end) {
+        this.rangeStart = start;
+        this.rangeEnd = end;
+    }
+
+    /**
+     * Sets a file to which the resource is downloaded as several byte ranges 
+     * (segments) that are requested concurrently. This can significantly 
+     * increase the throughput for large files on connections with a high 
+     * latency.
+     * <p>
+     * The first segment also determines the size of the resource; the 
+     * number of segments is then chosen such that each segment is at least 
+     * {@link #setMinSegmentSize(long) the minimum segment size}. Each segment 
+     * is written to a temporary file next to {@code path} and retried 
+     * independently (see {@link #setOutput(java.io.OutputStream, long)}). Once 
+     * all segments are completed, they are joined and the size of the 
+     * resulting file is checked against the size reported by the server. If 
+     * the server does not support range requests, the resource is downloaded 
+     * via a single connection.
+     * <p>
+     * The number of segments that are actually transferred in parallel is 
+     * bounded by the number of threads of the 
+     * {@link com.codename1.io.NetworkManager} and by the client's 
+     * {@link ParseCommandScheduler} (if any).
+     * 
+     * @param path The path of the file as used by {@link FileSystemStorage}. 
+     * It is overwritten if it exists.
+     * @param maxSegments The maximum number of segments. Must be positive.
+     */
+    public void setSegmentedOutput(final String path, final int maxSegments) {
+        if (path == null) {
+            throw new NullPointerException("Null path");
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("Maximum number of segments must be positive");
+        }
+        this.segmentedPath = path;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Sets the minimum size of a segment of a segmented download. The default 
+     * is {@link #DEFAULT_MIN_SEGMENT_SIZE}.
+     * 
+     * @param minSegmentSize The minimum size in bytes. Must be positive.
+     */
+    public void setMinSegmentSize(final long minSegmentSize) {
+        if (minSegmentSize < 1) {
+            throw new IllegalArgumentException("Minimum segment size must be positive");
+        }
+        this.minSegmentSize = minSegmentSize;
+    }
+
+    /**
+     * @return The number of bytes of the resource written to the output 
+     * stream so far, including the offset at which the download started.
+     */
+    public synchronized long getBytesWritten() {
+        return offset + bytesReceived;
+    }
+
+    /**
+     * @return The total size of the resource in bytes or -1 if it is not 
+     * (yet) known.
+     */
+    public synchronized long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Performs this command. If a {@link #setSegmentedOutput(java.lang.String, int) 
+     * segmented output} is set, the resource is downloaded to it and the 
+     * returned response has no body.
+     * <p>
+     * If the client has a {@link ParseFileCache} and the whole resource is 
+     * requested, the resource is read from the cache if possible; otherwise, 
+     * it is stored in the cache once it is downloaded.
+     * 
+     * @return The response.
+     * @throws ParseException if anything goes wrong.
+     */
     @Override
-    void setUpRequest(ConnectionRequest request) throws ParseException {
-        request.setPost(false);
-        request.setHttpMethod("GET");
+    public ParseResponse perform() throws ParseException {
+        if (segmentedPath != null) {
+            return performAsync().get();
+        }
+        final ParseFileCache cache = getFileCache();
+        final ParseResponse cached = readCache(cache);
+        if (cached != null) {
+            return cached;
+        }
+        startCaching(cache);
+        try {
+            return storeCache(cache, super.perform());
+        } finally {
+            // No-op unless the request could not be performed
+            abortCaching();
+        }
+    }
+
+    @Override
+    public ParseFuture<ParseResponse> performAsync() throws ParseException {
+        final ParseFileCache cache = getFileCache();
+        final ParseResponse cached = readCache(cache);
+        if (cached != null) {
+            return ParseFuture.completed(cached);
+        }
+        if (segmentedPath != null) {
+            return new SegmentedDownload(cache).start();
+        }
+        startCaching(cache);
+        boolean issued = false;
+        try {
+            final ParseFuture<ParseResponse> future = super.performAsync();
+            issued = true;
+            return future.then(new IContinuation<ParseResponse, ParseResponse>() {
+
+                public ParseResponse then(ParseResponse response) {
+                    return storeCache(cache, response);
+                }
+            });
+        } finally {
+            if (!issued) {
+                abortCaching();
+            }
+        }
+    }
+
+    /**
+     * @return The file cache of the client or null if there is none or only 
+     * part of the resource is requested.
+     */
+    private ParseFileCache getFileCache() {
+        return (rangeStart == 0 && rangeEnd < 0 && offset == 0) 
+                ? getClient().getFileCache() : null;
+    }
+
+    /**
+     * Serves the resource from the file cache.
+     * 
+     * @param cache The file cache or null.
+     * @return The response or null if the resource is not cached.
+     */
+    private ParseResponse readCache(final ParseFileCache cache) {
+        if (cache == null) {
+            return null;
+        }
+        final ParseResponse response = new ParseResponse();
+        if (output == null && segmentedPath == null) {
+            final byte[] data = cache.get(url);
+            if (data == null) {
+                return null;
+            }
+            response.setResponseData(200, data);
+            return response;
+        }
+
+        final InputStream input = cache.open(url);
+        if (input == null) {
+            return null;
+        }
+        OutputStream target = output;
+        try {
+            if (segmentedPath != null) {
+                target = FileSystemStorage.getInstance().openOutputStream(segmentedPath);
+            }
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                target.write(buffer, 0, read);
+                synchronized (this) {
+                    bytesReceived += read;
+                }
+            }
+            target.flush();
+            synchronized (this) {
+                totalLength = bytesReceived;
+            }
+            response.setResponseStreamed(200);
+        } catch (IOException ex) {
+            response.setConnectionError(new ParseException(ParseException.OTHER_CAUSE, 
+                    "Reading cached file " + url + " failed", ex));
+        } finally {
+            Util.cleanup(input);
+            if (target != output) {
+                Util.cleanup(target);
+            }
+        }
+        return response;
+    }
+
+    private void startCaching(final ParseFileCache cache) {
+        if (cache != null && output != null) {
+            // The data is written to the cache as it is copied to the output
+            cacheEntry = cache.store(url);
+        }
+    }
+
+    /**
+     * Discards the cache entry started via {@link #startCaching(com.parse4cn1.command.ParseFileCache)}, 
+     * if any, e.g., because the request could not be prepared.
+     */
+    private void abortCaching() {
+        if (cacheEntry != null) {
+            cacheEntry.abort();
+            cacheEntry = null;
+        }
+    }
+
+    private ParseResponse storeCache(final ParseFileCache cache, final ParseResponse response) {
+        if (cacheEntry != null) {
+            if (response.isFailed()) {
+                cacheEntry.abort();
+            } else {
+                cacheEntry.commit();
+            }
+            cacheEntry = null;
+        } else if (cache != null && !response.isFailed() && response.getResponseData() != null) {
+            cache.put(url, response.getResponseData());
+        }
+        return response;
+    }
+
+    @Override
+    void setUpRequest(HttpRequest request) throws ParseException {
+        request.setMethod("GET");
         request.setUrl(url);
 
         if (contentType != null) {
-            request.addRequestHeader(ParseConstants.HEADER_CONTENT_TYPE, contentType);
+            request.addHeader(ParseConstants.HEADER_CONTENT_TYPE, contentType);
+        }
+        if (output != null) {
+            // Progress is reported by this command relative to the whole resource
+            request.setProgressReported(false);
+        }
+    }
+
+    @Override
+    boolean isResumable() {
+        return output != null;
+    }
+
+    @Override
+    boolean isResponseShareable() {
+        // Files may be too large to be buffered
+        return false;
+    }
+
+    @Override
+    synchronized void setUpAttempt(HttpRequest request) {
+        final long position = rangeStart + getBytesWritten();
+        if (output != null && (position > 0 || rangeEnd >= 0)) {
+            request.addHeader(ParseConstants.HEADER_RANGE, "bytes=" + position + "-" 
+                    + ((rangeEnd >= 0) ? String.valueOf(rangeEnd) : ""));
+        }
+    }
+
+    @Override
+    synchronized void handleResponseHeaders(int statusCode, Map<String, String> headers) 
+            throws ParseException {
+        final long position = rangeStart + getBytesWritten();
+        partial = (statusCode == 206);
+        if (partial) {
+            final String range = headers.get(ParseConstants.HEADER_CONTENT_RANGE.toLowerCase());
+            if (range == null || parseRangeStart(range) != position) {
+                throw new ParseException(ParseException.OTHER_CAUSE, 
+                        "Unexpected content range '" + range + "'; expected start " + position);
+            }
+            final int slash = range.indexOf('/');
+            totalLength = parseLength(range.substring(slash + 1));
+            skip = 0;
+        } else {
+            // The server ignored the range (if any); the data already written 
+            // is skipped
+            totalLength = parseLength(headers.get(ParseConstants.HEADER_CONTENT_LENGTH.toLowerCase()));
+            skip = position;
+            if (skip > 0 && LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Range not supported; skipping " + skip + " bytes of " + url);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the last response contained only the 
+     * requested range of the resource.
+     */
+    synchronized boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * @return The number of bytes to be written to the output stream in 
+     * total or -1 if it is not known.
+     */
+    private synchronized long getExpectedLength() {
+        long end = rangeEnd;
+        if (totalLength >= 0 && (end < 0 || end >= totalLength)) {
+            end = totalLength - 1;
+        }
+        return (end >= 0) ? end - rangeStart + 1 : -1;
+    }
+
+    /**
+     * Copies the response body to the output stream.
+     * 
+     * @param input The response body.
+     * @throws IOException if reading or writing fails or the body ends before 
+     * the whole resource (or range) is received.
+     */
+    private void copy(final InputStream input) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final long expected = getExpectedLength();
+        int read;
+        while ((expected < 0 || getBytesWritten() < expected) 
+                && (read = input.read(buffer)) >= 0) {
+            int start = 0;
+            int end = read;
+            synchronized (this) {
+                if (skip > 0) {
+                    start = (int) Math.min(skip, read);
+                    skip -= start;
+                }
+                if (expected >= 0) {
+                    end = (int) Math.min(read, start + expected - getBytesWritten());
+                }
+            }
+            if (end > start) {
+                output.write(buffer, start, end - start);
+                if (cacheEntry != null) {
+                    cacheEntry.write(buffer, start, end - start);
+                }
+                synchronized (this) {
+                    bytesReceived += end - start;
+                }
+                reportProgress();
+            }
+        }
+        output.flush();
+
+        if (expected >= 0 && getBytesWritten() < expected) {
+            throw new IOException("Download of " + url + " interrupted after " 
+                    + getBytesWritten() + " of " + expected + " bytes");
+        }
+    }
+
+    private void reportProgress() {
+        final ProgressCallback callback = getProgressCallback();
+        final long total = getTotalLength();
+        if (callback == null || total <= 0) {
+            return;
+        }
+        final int percentage = (int) ((rangeStart + getBytesWritten()) * 100 / total);
+        if (percentage != percentDone) {
+            percentDone = percentage;
+            callback.done(percentage);
+        }
+    }
+
+    /**
+     * @param range The value of a {@code Content-Range} header, e.g., 
+     * {@code bytes 100-199/200}.
+     * @return The first byte position of the range or -1 if it is invalid.
+     */
+    private static long parseRangeStart(final String range) {
+        final int space = range.indexOf(' ');
+        final int dash = range.indexOf('-');
+        if (space < 0 || dash < space) {
+            return -1;
+        }
+        return parseLength(range.substring(space + 1, dash));
+    }
+
+    /**
+     * @param value A length, e.g., the value of a {@code Content-Length} header.
+     * @return The length or -1 if {@code value} is null or not a number.
+     */
+    private static long parseLength(final String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Downloads the resource to the segmented output. The first segment is 
+     * requested on its own to determine the size of the resource; the other 
+     * segments are then requested concurrently.
+     */
+    private class SegmentedDownload {
+
+        private final ParseFileCache cache;
+        private final ParseFuture<ParseResponse> future = new ParseFuture<ParseResponse>();
+        private final List<Segment> segments = new ArrayList<Segment>();
+        private long resourceLength = -1;
+        private int pending;
+        private ParseException error;
+        private int percentReported = -1;
+
+        /**
+         * @param cache The file cache in which the downloaded resource is 
+         * stored or null.
+         */
+        SegmentedDownload(final ParseFileCache cache) {
+            this.cache = cache;
+        }
+
+        ParseFuture<ParseResponse> start() throws ParseException {
+            // A single segment is not restricted to a range
+            final Segment first = new Segment(0, 0, (maxSegments > 1) ? minSegmentSize - 1 : -1);
+            segments.add(first);
+            first.perform().then(new IContinuation<ParseResponse, Void>() {
+
+                public Void then(ParseResponse response) {
+                    onFirstSegmentCompleted(first, response);
+                    return null;
+                }
+            });
+            return future;
+        }
+
+        private void onFirstSegmentCompleted(final Segment first, final ParseResponse response) {
+            first.close();
+            if (response.isFailed()) {
+                finish(response.getException());
+                return;
+            }
+
+            final long written = first.command.getBytesWritten();
+            final List<Segment> started = new ArrayList<Segment>();
+            synchronized (this) {
+                resourceLength = first.command.getTotalLength();
+                final boolean complete = (resourceLength >= 0) 
+                        ? written >= resourceLength : maxSegments == 1;
+                if (!complete && (!first.command.isPartial() || resourceLength < 0)) {
+                    // Ranges are not supported; the download continues via a 
+                    // single connection, skipping the data already written
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Range requests not supported for " + url 
+                                + "; downloading without segments");
+                    }
+                    final Segment rest = new Segment(first.path, 0, -1, written);
+                    segments.set(0, rest);
+                    started.add(rest);
+                } else if (!complete) {
+                    // Adapt the number of segments to the size of the resource
+                    final long remaining = resourceLength - written;
+                    final long count = Math.max(1, Math.min(maxSegments - 1, 
+                            (remaining + minSegmentSize - 1) / minSegmentSize));
+                    final long segmentSize = (remaining + count - 1) / count;
+                    for (long start = written; start < resourceLength; start += segmentSize) {
+                        final Segment segment = new Segment(segments.size(), start, 
+                                Math.min(start + segmentSize, resourceLength) - 1);
+                        segments.add(segment);
+                        started.add(segment);
+                    }
+                }
+                pending = started.size();
+            }
+
+            if (started.isEmpty()) {
+                finish(null);
+                return;
+            }
+
+            for (final Segment segment : started) {
+                try {
+                    segment.perform().then(new IContinuation<ParseResponse, Void>() {
+
+                        public Void then(ParseResponse response) {
+                            segment.close();
+                            onSegmentCompleted(response.isFailed() ? response.getException() : null);
+                            return null;
+                        }
+                    });
+                } catch (ParseException ex) {
+                    segment.close();
+                    onSegmentCompleted(ex);
+                }
+            }
+        }
+
+        private void onSegmentCompleted(final ParseException failure) {
+            final boolean done;
+            synchronized (this) {
+                if (failure != null && error == null) {
+                    error = failure;
+                }
+                done = (--pending == 0);
+            }
+            if (done) {
+                finish(error);
+            }
+        }
+
+        private synchronized void reportProgress() {
+            final ProgressCallback callback = getProgressCallback();
+            if (callback == null || resourceLength <= 0) {
+                return;
+            }
+            long written = 0;
+            for (Segment segment : segments) {
+                written += segment.command.getBytesWritten();
+            }
+            final int percentage = (int) (written * 100 / resourceLength);
+            if (percentage > percentReported) {
+                percentReported = percentage;
+                callback.done(percentage);
+            }
+        }
+
+        /**
+         * Joins the segments into the output file, checks its size and 
+         * completes the download.
+         * 
+         * @param failure The error that occurred or null if all segments 
+         * were downloaded successfully.
+         */
+        private void finish(ParseException failure) {
+            final FileSystemStorage storage = FileSystemStorage.getInstance();
+            if (failure == null) {
+                try {
+                    join();
+                    final long length = storage.getLength(segmentedPath);
+                    if (resourceLength >= 0 && length != resourceLength) {
+                        failure = new ParseException(ParseException.OTHER_CAUSE, 
+                                "Size of downloaded file " + segmentedPath + " (" + length 
+                                + " bytes) does not match content length of " 
+                                + resourceLength + " bytes");
+                    } else if (cache != null) {
+                        storeCache();
+                    }
+                } catch (IOException ex) {
+                    failure = new ParseException(ParseException.OTHER_CAUSE, 
+                            "Joining segments of " + segmentedPath + " failed", ex);
+                }
+            }
+            for (Segment segment : segments) {
+                if (storage.exists(segment.path)) {
+                    storage.delete(segment.path);
+                }
+            }
+
+            final ParseResponse response = new ParseResponse();
+            if (failure != null) {
+                LOGGER.error("Segmented download of " + url + " failed: " + failure.getMessage());
+                response.setConnectionError(failure);
+            } else {
+                response.setResponseStreamed(200);
+            }
+            future.complete(response);
+        }
+
+        private void storeCache() {
+            final ParseFileCache.Entry entry = cache.store(url);
+            InputStream input = null;
+            try {
+                input = FileSystemStorage.getInstance().openInputStream(segmentedPath);
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    entry.write(buffer, 0, read);
+                }
+                entry.commit();
+            } catch (IOException ex) {
+                LOGGER.error("Caching " + segmentedPath + " failed: " + ex);
+                entry.abort();
+            } finally {
+                Util.cleanup(input);
+            }
+        }
+
+        private void join() throws IOException {
+            final FileSystemStorage storage = FileSystemStorage.getInstance();
+            final OutputStream file = storage.openOutputStream(segmentedPath);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                for (Segment segment : segments) {
+                    final InputStream input = storage.openInputStream(segment.path);
+                    try {
+                        int read;
+                        while ((read = input.read(buffer)) >= 0) {
+                            file.write(buffer, 0, read);
+                        }
+                    } finally {
+                        input.close();
+                    }
+                }
+            } finally {
+                file.close();
+            }
+        }
+
+        /**
+         * A byte range of the resource that is downloaded to a temporary file.
+         */
+        private class Segment {
+
+            private final String path;
+            private final ParseDownloadCommand command;
+            private final long offset;
+            private OutputStream output;
+
+            Segment(final int index, final long start, final long end) {
+                this(segmentedPath + ".part" + index, start, end, 0);
+            }
+
+            /**
+             * @param path The temporary file.
+             * @param start The position of the first byte of the range.
+             * @param end The position of the last byte of the range or -1.
+             * @param offset The number of bytes of the range already written 
+             * to {@code path}.
+             */
+            Segment(final String path, final long start, final long end, final long offset) {
+                this.path = path;
+                this.offset = offset;
+                this.command = new ParseDownloadCommand(url, contentType);
+                command.setClient(getClient());
+                command.setPriority(getPriority());
+                command.setRange(start, end);
+                command.setProgressCallback(new ProgressCallback() {
+
+                    @Override
+                    public void done(Integer percentDone) {
+                        reportProgress();
+                    }
+                });
+            }
+
+            ParseFuture<ParseResponse> perform() throws ParseException {
+                if (offset > Integer.MAX_VALUE) {
+                    // FileSystemStorage can only append at int offsets
+                    LOGGER.error("Cannot resume writing file " + path + " at offset " + offset);
+                    throw new ParseException(ParseException.OTHER_CAUSE, 
+                            "Cannot resume writing file " + path + " at offset " 
+                            + offset + " beyond " + Integer.MAX_VALUE + " bytes");
+                }
+                try {
+                    output = (offset > 0) 
+                            ? FileSystemStorage.getInstance().openOutputStream(path, (int) offset)
+                            : FileSystemStorage.getInstance().openOutputStream(path);
+                } catch (IOException ex) {
+                    throw new ParseException(ParseException.OTHER_CAUSE, 
+                            "Opening file " + path + " failed", ex);
+                }
+                command.setOutput(output, offset);
+                return command.performAsync();
+            }
+
+            void close() {
+                try {
+                    if (output != null) {
+                        output.close();
+                    }
+                } catch (IOException ex) {
+                    LOGGER.error("Closing file " + path + " failed: " + ex);
+                }
+            }
         }
     }
 }
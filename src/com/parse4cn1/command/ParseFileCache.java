@@ -0,0 +1,479 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.codename1.io.FileSystemStorage;
+import com.codename1.io.Util;
+import com.parse4cn1.util.Logger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ParseFileCache class stores the data of downloaded Parse files on disk
+ * so that files that are loaded repeatedly (e.g. images of objects retrieved
+ * by queries) are transferred only once, also across application restarts.
+ * <p>
+ * The data of a file is stored in a directory (via {@link FileSystemStorage})
+ * under a name derived from a hash of the file's URL. As the URL of a Parse
+ * file is unique and changes whenever new data is saved, cached data never
+ * becomes stale. Lookups use an in-memory index that is built from the
+ * directory the first time the cache is used.
+ * <p>
+ * The total size of the cached files is bounded; when it is exceeded, the
+ * least recently used files are evicted. Access times are not persisted, so
+ * after a restart, the files are initially ordered by their modification time.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ParseFileCache {
+
+    private static final Logger LOGGER = Logger.getInstance();
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The default maximum total size in bytes of the cached files.
+     */
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private final String directory;
+    private final LinkedHashMap<String, Long> entries
+            = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private boolean loaded;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long byteCount;
+    private int tempCount;
+
+    private long requestCount;
+    private long hitCount;
+    private long bytesSaved;
+    private long evictionCount;
+
+    /**
+     * Creates a cache that stores files in a directory. The directory is
+     * created when the first file is stored.
+     *
+     * @param directory The path of the directory as used by
+     * {@link FileSystemStorage}, e.g., a subdirectory of
+     * {@link FileSystemStorage#getAppHomePath()}. It should not be used for
+     * other files as these may be evicted.
+     * @return The newly created cache.
+     */
+    public static ParseFileCache create(final String directory) {
+        if (directory == null) {
+            throw new NullPointerException("Null directory");
+        }
+        return new ParseFileCache(directory);
+    }
+
+    private ParseFileCache(final String directory) {
+        this.directory = directory.endsWith("/") ? directory : directory + "/";
+    }
+
+    /**
+     * @return The path of the directory in which files are stored.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the maximum total size of the cached files, evicting the least
+     * recently used files if necessary. Files larger than this size are not
+     * cached.
+     *
+     * @param maxBytes The maximum size in bytes. Must be positive.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseFileCache setMaxBytes(final long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        this.maxBytes = maxBytes;
+        if (loaded) {
+            evict();
+        }
+        return this;
+    }
+
+    /**
+     * @return The maximum total size in bytes of the cached files.
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return The current number of cached files.
+     */
+    public synchronized int size() {
+        load();
+        return entries.size();
+    }
+
+    /**
+     * @return The total size in bytes of the cached files.
+     */
+    public synchronized long getByteCount() {
+        load();
+        return byteCount;
+    }
+
+    /**
+     * Deletes all cached files.
+     */
+    public synchronized void clear() {
+        load();
+        for (String name : entries.keySet()) {
+            delete(name);
+        }
+        entries.clear();
+        byteCount = 0;
+    }
+
+    /**
+     * @return The number of lookups since the last {@link #resetStatistics()}.
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return The number of lookups that were served from the cache.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The fraction of lookups that were served from the cache or 0
+     * if there were none.
+     */
+    public synchronized double getHitRatio() {
+        return (requestCount > 0) ? (double) hitCount / requestCount : 0;
+    }
+
+    /**
+     * @return The number of bytes that did not have to be downloaded thanks
+     * to the cache.
+     */
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    /**
+     * @return The number of files evicted to stay within the maximum size.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Resets the counters of this cache.
+     */
+    public synchronized void resetStatistics() {
+        requestCount = 0;
+        hitCount = 0;
+        bytesSaved = 0;
+        evictionCount = 0;
+    }
+
+    /**
+     * Opens the cached data of a file.
+     *
+     * @param url The URL of the file.
+     * @return A stream from which the data can be read or null if the file
+     * is not cached.
+     */
+    InputStream open(final String url) {
+        final String name = getName(url);
+        final Long length;
+        synchronized (this) {
+            load();
+            ++requestCount;
+            length = entries.get(name);
+            if (length == null) {
+                return null;
+            }
+            ++hitCount;
+            bytesSaved += length.longValue();
+        }
+
+        try {
+            return FileSystemStorage.getInstance().openInputStream(directory + name);
+        } catch (IOException ex) {
+            LOGGER.error("Opening cached file for " + url + " failed: " + ex);
+            synchronized (this) {
+                --hitCount;
+                bytesSaved -= length.longValue();
+                remove(name);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads the cached data of a file.
+     *
+     * @param url The URL of the file.
+     * @return The data or null if the file is not cached.
+     */
+    byte[] get(final String url) {
+        final InputStream input = open(url);
+        if (input == null) {
+            return null;
+        }
+        try {
+            return Util.readInputStream(input);
+        } catch (IOException ex) {
+            LOGGER.error("Reading cached file for " + url + " failed: " + ex);
+            return null;
+        } finally {
+            Util.cleanup(input);
+        }
+    }
+
+    /**
+     * Caches the data of a file.
+     *
+     * @param url The URL of the file.
+     * @param data The data.
+     */
+    void put(final String url, final byte[] data) {
+        final Entry entry = store(url);
+        try {
+            entry.write(data);
+            entry.commit();
+        } catch (IOException ex) {
+            entry.abort();
+        }
+    }
+
+    /**
+     * Creates an entry to which the data of a file is written while it is
+     * downloaded. The data only becomes available via the cache once the
+     * entry is {@link Entry#commit() committed}.
+     *
+     * @param url The URL of the file.
+     * @return The entry.
+     */
+    Entry store(final String url) {
+        final String name = getName(url);
+        final String tempName;
+        synchronized (this) {
+            tempName = name + "." + (++tempCount) + TEMP_SUFFIX;
+        }
+        return new Entry(url, name, tempName);
+    }
+
+    /**
+     * Loads the index from the directory if that has not been done yet.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        final FileSystemStorage storage = FileSystemStorage.getInstance();
+        if (!storage.exists(directory)) {
+            return;
+        }
+        final String[] files;
+        try {
+            files = storage.listFiles(directory);
+        } catch (IOException ex) {
+            LOGGER.error("Listing cached files in " + directory + " failed: " + ex);
+            return;
+        }
+
+        final List<String> names = new ArrayList<String>();
+        for (String file : files) {
+            if (file.endsWith(TEMP_SUFFIX)) {
+                // Left over from an interrupted download
+                storage.delete(directory + file);
+            } else {
+                names.add(file);
+            }
+        }
+        Collections.sort(names, new Comparator<String>() {
+
+            public int compare(String a, String b) {
+                final long diff = storage.getLastModified(directory + a)
+                        - storage.getLastModified(directory + b);
+                return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+            }
+        });
+        for (String name : names) {
+            final long length = storage.getLength(directory + name);
+            entries.put(name, Long.valueOf(length));
+            byteCount += length;
+        }
+        evict();
+    }
+
+    private synchronized void add(final String name, final String tempName, final long length) {
+        load();
+        remove(name);
+        FileSystemStorage.getInstance().rename(directory + tempName, name);
+        entries.put(name, Long.valueOf(length));
+        byteCount += length;
+        evict();
+    }
+
+    private void remove(final String name) {
+        final Long removed = entries.remove(name);
+        if (removed != null) {
+            byteCount -= removed.longValue();
+            delete(name);
+        }
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (byteCount > maxBytes && it.hasNext()) {
+            final Map.Entry<String, Long> entry = it.next();
+            byteCount -= entry.getValue().longValue();
+            delete(entry.getKey());
+            it.remove();
+            ++evictionCount;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Evicted cached file; " + entries.size() + " remaining");
+            }
+        }
+    }
+
+    private void delete(final String name) {
+        final FileSystemStorage storage = FileSystemStorage.getInstance();
+        if (storage.exists(directory + name)) {
+            storage.delete(directory + name);
+        }
+    }
+
+    /**
+     * Derives the name under which the data of a file is stored from the
+     * 64-bit FNV-1a hash of its URL.
+     *
+     * @param url The URL of the file.
+     * @return The name.
+     */
+    static String getName(final String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); ++i) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return toHex((int) (hash >>> 32)) + toHex((int) hash);
+    }
+
+    private static String toHex(final int value) {
+        final String hex = Integer.toHexString(value);
+        return "00000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * An entry of the cache that is being written.
+     */
+    class Entry extends OutputStream {
+
+        private final String url;
+        private final String name;
+        private final String tempName;
+        private OutputStream output;
+        private long length;
+        private boolean discarded;
+
+        Entry(final String url, final String name, final String tempName) {
+            this.url = url;
+            this.name = name;
+            this.tempName = tempName;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (discarded) {
+                return;
+            }
+            if (length + len > getMaxBytes()) {
+                // Too large to be cached
+                abort();
+                return;
+            }
+            try {
+                open();
+                output.write(b, off, len);
+                length += len;
+            } catch (IOException ex) {
+                LOGGER.error("Caching file " + url + " failed: " + ex);
+                abort();
+            }
+        }
+
+        /**
+         * Makes the data written so far available via the cache unless the
+         * entry was discarded (e.g. because it is too large).
+         */
+        void commit() {
+            if (discarded) {
+                return;
+            }
+            discarded = true;
+            try {
+                open();
+                output.close();
+                output = null;
+                add(name, tempName, length);
+            } catch (IOException ex) {
+                LOGGER.error("Caching file " + url + " failed: " + ex);
+                delete(tempName);
+            }
+        }
+
+        private void open() throws IOException {
+            if (output == null) {
+                final FileSystemStorage storage = FileSystemStorage.getInstance();
+                if (!storage.exists(directory)) {
+                    storage.mkdir(directory);
+                }
+                output = storage.openOutputStream(directory + tempName);
+            }
+        }
+
+        /**
+         * Discards the data written so far.
+         */
+        void abort() {
+            discarded = true;
+            if (output != null) {
+                Util.cleanup(output);
+                output = null;
+                delete(tempName);
+            }
+        }
+    }
+}
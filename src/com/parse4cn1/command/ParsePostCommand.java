@@ -19,7 +19,6 @@
 
 package com.parse4cn1.command;
 
-import com.codename1.io.ConnectionRequest;
 import com.parse4cn1.ParseException;
 
 /**
@@ -40,10 +39,9 @@ public class ParsePostCommand extends ParseCommand {
     }
 
     @Override
-    void setUpRequest(ConnectionRequest request) throws ParseException {
+    void setUpRequest(HttpRequest request) throws ParseException {
         setupDefaultHeaders(addJson);
-        request.setPost(true);
-        request.setHttpMethod("POST");
+        request.setMethod("POST");
         request.setUrl(getUrl(endPoint, objectId));
     }
 }
@@ -19,10 +19,8 @@
 
 package com.parse4cn1.command;
 
-import com.codename1.io.ConnectionRequest;
 
 import com.parse4cn1.ParseException;
-import static com.parse4cn1.command.ParseCommand.getUrl;
 
 /**
  * This class defines a PUT command typically used for updating objects on the Parse server.
@@ -42,10 +40,9 @@ public class ParsePutCommand extends ParseCommand {
     }
 
     @Override
-    void setUpRequest(ConnectionRequest request) throws ParseException {
+    void setUpRequest(HttpRequest request) throws ParseException {
         setupDefaultHeaders(true);
-        request.setPost(true);
-        request.setHttpMethod("PUT");
+        request.setMethod("PUT");
         request.setUrl(getUrl(endPoint, objectId));
     }
 }
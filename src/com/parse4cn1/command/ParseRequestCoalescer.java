@@ -0,0 +1,255 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.parse4cn1.callback.ParseFuture;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ParseRequestCoalescer class lets identical GET requests that are
+ * issued while one of them is in flight share that request ("single
+ * flight"). This typically happens when several components of a screen
+ * fetch the same object or run the same query at the same time.
+ * <p>
+ * Requests are identical if their URL, arguments and session token are
+ * equal. The first request is issued as usual; the others wait for its
+ * completion and receive their own copy of its response, i.e., the
+ * decoded JSON is not shared. Streamed responses (e.g. the results of
+ * {@link com.parse4cn1.ParseQuery#find()}) are buffered for this purpose and
+ * replayed to the stream handler of each joined request. Streamed responses
+ * that are not shareable (see
+ * {@link ParseCommand#setResponseShareable(boolean)}), such as results passed
+ * to a {@link com.parse4cn1.ParseQuery.IResultConsumer} and file downloads to
+ * a stream, as well as requests whose progress is reported are never
+ * coalesced.
+ * <p>
+ * Optionally, successful responses are memoized for a short time (see
+ * {@link #setMemoizationTime(long)}) so that identical requests issued
+ * shortly after the completion of the first one are served without network
+ * access. Memoized responses are discarded as soon as the client issues a
+ * request that may modify data (e.g. a POST).
+ * <p>
+ * This class is thread-safe.
+ */
+public class ParseRequestCoalescer {
+
+    private final Map<String, InFlightRequest> inFlight
+            = new HashMap<String, InFlightRequest>();
+    private final Map<String, MemoizedResponse> memoized
+            = new HashMap<String, MemoizedResponse>();
+    private long memoizationTime;
+    private long generation;
+
+    private long issuedCount;
+    private long coalescedCount;
+    private long memoizedCount;
+
+    /**
+     * Creates a coalescer without memoization.
+     *
+     * @return The newly created coalescer.
+     */
+    public static ParseRequestCoalescer create() {
+        return new ParseRequestCoalescer();
+    }
+
+    private ParseRequestCoalescer() {
+    }
+
+    /**
+     * Sets the time for which successful responses are reused for identical
+     * requests. The default is 0, i.e., only requests issued while an
+     * identical request is in flight are coalesced.
+     *
+     * @param memoizationTime The time in milliseconds. Must not be negative.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseRequestCoalescer setMemoizationTime(final long memoizationTime) {
+        if (memoizationTime < 0) {
+            throw new IllegalArgumentException("Invalid memoization time: " + memoizationTime);
+        }
+        this.memoizationTime = memoizationTime;
+        if (memoizationTime == 0) {
+            memoized.clear();
+        }
+        return this;
+    }
+
+    /**
+     * @return The time in milliseconds for which successful responses are
+     * reused.
+     */
+    public synchronized long getMemoizationTime() {
+        return memoizationTime;
+    }
+
+    /**
+     * Joins the request identified by {@code key} if an identical request 
+     * that was issued after the last {@link #invalidate()} is in flight or 
+     * its response is memoized. Otherwise, the caller is expected to issue 
+     * the request and pass its response to
+     * {@link #complete(java.lang.String, com.parse4cn1.command.ParseResponse)}.
+     * <p>
+     * An identical request that was issued before the last invalidation is 
+     * not joined since its response may predate a modification.
+     *
+     * @param key The key of the request.
+     * @param future The future to be completed with a copy of the response
+     * if the request was joined.
+     * @return null if the request was joined; otherwise the key under which 
+     * the caller's request is in flight.
+     */
+    String join(final String key, final ParseFuture<ParseResponse> future) {
+        ParseResponse response = null;
+        synchronized (this) {
+            final MemoizedResponse memo = memoized.get(key);
+            if (memo != null && System.currentTimeMillis() < memo.expiry) {
+                response = memo.response;
+                ++memoizedCount;
+            } else {
+                if (memo != null) {
+                    memoized.remove(key);
+                }
+                final String flightKey = key + '\n' + generation;
+                final InFlightRequest request = inFlight.get(flightKey);
+                if (request == null) {
+                    inFlight.put(flightKey, new InFlightRequest(key, generation));
+                    ++issuedCount;
+                    return flightKey;
+                }
+                request.waiting.add(future);
+                ++coalescedCount;
+                return null;
+            }
+        }
+        future.complete(response.copy());
+        return null;
+    }
+
+    /**
+     * Completes the requests that joined an issued request and memoizes its 
+     * response if it was successful and no {@link #invalidate()} occurred 
+     * while the request was in flight.
+     *
+     * @param flightKey The key returned by 
+     * {@link #join(java.lang.String, com.parse4cn1.callback.ParseFuture)} 
+     * for the issued request.
+     * @param response The response.
+     */
+    void complete(final String flightKey, final ParseResponse response) {
+        final InFlightRequest request;
+        synchronized (this) {
+            request = inFlight.remove(flightKey);
+            // A response that may predate a modification must not be reused
+            if (memoizationTime > 0 && request != null && request.generation == generation
+                    && !response.isFailed()
+                    && response.getResponseData() != null) {
+                final long now = System.currentTimeMillis();
+                removeExpired(now);
+                memoized.put(request.key, 
+                        new MemoizedResponse(response.copy(), now + memoizationTime));
+            }
+        }
+        if (request != null) {
+            for (ParseFuture<ParseResponse> future : request.waiting) {
+                future.complete(response.copy());
+            }
+        }
+    }
+
+    /**
+     * Discards all memoized responses. Invoked whenever a request that may
+     * modify data is issued.
+     */
+    public synchronized void invalidate() {
+        memoized.clear();
+        ++generation;
+    }
+
+    /**
+     * @return The number of requests that were issued to the network.
+     */
+    public synchronized long getIssuedCount() {
+        return issuedCount;
+    }
+
+    /**
+     * @return The number of requests that shared an identical request in
+     * flight.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return The number of requests that were served from a memoized
+     * response.
+     */
+    public synchronized long getMemoizedCount() {
+        return memoizedCount;
+    }
+
+    /**
+     * Resets the counters of this coalescer.
+     */
+    public synchronized void resetStatistics() {
+        issuedCount = 0;
+        coalescedCount = 0;
+        memoizedCount = 0;
+    }
+
+    private void removeExpired(final long now) {
+        for (Iterator<MemoizedResponse> it = memoized.values().iterator(); it.hasNext();) {
+            if (now >= it.next().expiry) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A request in flight and the requests waiting for its response.
+     */
+    private static class InFlightRequest {
+
+        private final List<ParseFuture<ParseResponse>> waiting
+                = new ArrayList<ParseFuture<ParseResponse>>();
+        private final String key;
+        private final long generation;
+
+        InFlightRequest(final String key, final long generation) {
+            this.key = key;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * A memoized response.
+     */
+    private static class MemoizedResponse {
+
+        private final ParseResponse response;
+        private final long expiry;
+
+        MemoizedResponse(final ParseResponse response, final long expiry) {
+            this.response = response;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -18,11 +18,15 @@
  */
 package com.parse4cn1.command;
 
+import ca.weblite.codename1.json.JSONArray;
 import ca.weblite.codename1.json.JSONException;
 import ca.weblite.codename1.json.JSONObject;
-import com.codename1.io.ConnectionRequest;
+import ca.weblite.codename1.json.JSONTokener;
 import com.parse4cn1.ParseException;
 import com.parse4cn1.util.Logger;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class encapsulates a response to a ParseCommand issued to the Parse
@@ -36,7 +40,10 @@ public class ParseResponse {
 
     private ParseException error;
     private byte[] responseBody;
+    private boolean responseReceived;
+    private Object decodedBody;
     private int statusCode;
+    private Map<String, String> headers = new HashMap<String, String>();
 
     /**
      * Creates a ParseException that indicates connection failure. This
@@ -67,11 +74,19 @@ public class ParseResponse {
     public ParseException getException() {
 
         if (hasConnectionFailed()) {
+            if (error != null) {
+                // E.g. a network error or a request rejected by the client
+                return error;
+            }
             return new ParseException(ParseException.CONNECTION_FAILED,
                     "Connection to backend failed.");
         }
 
         if (!hasErrorCode()) {
+            if (error != null) {
+                // E.g. processing of a streamed response failed
+                return error;
+            }
             return new ParseException(ParseException.OPERATION_FORBIDDEN,
                     "Request to backend completed successfully (no errors).");
         }
@@ -139,40 +154,161 @@ public class ParseResponse {
     }
 
     /**
-     * @return The raw response data received from the Parse server.
+     * @return The raw response data received from the Parse server or 
+     * {@code null} if it has been released via {@link #releaseResponseData()}.
      */
     public byte[] getResponseData() {
         return responseBody;
     }
 
     /**
+     * Releases the raw response data so that it can be garbage collected. 
+     * Typically invoked once the response has been decoded via 
+     * {@link #getJsonObject()} or {@link #getJsonArray()} since the decoded 
+     * JSON remains available afterwards.
+     */
+    public void releaseResponseData() {
+        responseBody = null;
+    }
+
+    /**
+     * The response is decoded only once; subsequent calls return the same 
+     * (cached) JSONObject. Callers that modify the returned object therefore 
+     * affect all other callers.
+     * 
      * @return The response received from the Parse server encoded in a
      * JSONObject.
      * @throws ParseException if anything goes wrong with converting the
      * response to JSON.
      */
     public JSONObject getJsonObject() throws ParseException {
-        try {
-            return new JSONObject(new String(responseBody));
-        } catch (JSONException ex) {
+        final Object decoded = decode();
+        if (!(decoded instanceof JSONObject)) {
             throw new ParseException(ParseException.INVALID_JSON,
-                    "Unable to parse the response received from Parse", ex);
+                    "Unable to parse the response received from Parse");
         }
+        return (JSONObject) decoded;
     }
 
     /**
-     * Extracts the response from the provided {@code request}.
-     *
-     * @param request The (executed) network request.
+     * Same as {@link #getJsonObject()} for responses that are JSON arrays. 
+     * This applies to end points like the batch API whose response is an 
+     * array rather than an object.
+     * 
+     * @return The response received from the Parse server encoded in a
+     * JSONArray. 
+     * @throws ParseException if anything goes wrong with converting the
+     * response to JSON.
      */
-    protected void extractResponseData(final ConnectionRequest request) {
-        if (request.getResponseData() != null) {
-            responseBody = request.getResponseData();
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Raw response (as string): " + new String(responseBody));
+    public JSONArray getJsonArray() throws ParseException {
+        final Object decoded = decode();
+        if (!(decoded instanceof JSONArray)) {
+            throw new ParseException(ParseException.INVALID_JSON,
+                    "Unable to parse the response received from Parse");
+        }
+        return (JSONArray) decoded;
+    }
+
+    /**
+     * Decodes the raw response (UTF-8 encoded) into a JSONObject or JSONArray 
+     * the first time it is invoked and returns the cached result afterwards.
+     * 
+     * @return The decoded response.
+     * @throws ParseException if the response could not be decoded.
+     */
+    private Object decode() throws ParseException {
+        if (decodedBody == null) {
+            if (responseBody == null) {
+                throw new ParseException(ParseException.INVALID_JSON,
+                        responseReceived 
+                                ? "Response data has already been released"
+                                : ParseException.ERR_INVALID_RESPONSE);
+            }
+
+            try {
+                decodedBody = new JSONTokener(
+                        new String(responseBody, "UTF-8")).nextValue();
+            } catch (JSONException ex) {
+                throw new ParseException(ParseException.INVALID_JSON,
+                        "Unable to parse the response received from Parse", ex);
+            } catch (UnsupportedEncodingException ex) {
+                throw new ParseException(ParseException.INVALID_JSON,
+                        "Unable to parse the response received from Parse", ex);
             }
-            setStatusCode(request.getResponseCode());
         }
+        return decodedBody;
+    }
+
+    /**
+     * Creates a copy of this response that shares the raw response data but
+     * decodes it independently so that modifications of the decoded JSON of
+     * one response do not affect the other.
+     *
+     * @return The copy.
+     * @see ParseRequestCoalescer
+     */
+    ParseResponse copy() {
+        final ParseResponse copy = new ParseResponse();
+        copy.error = error;
+        copy.responseBody = responseBody;
+        copy.responseReceived = responseReceived;
+        copy.statusCode = statusCode;
+        copy.headers = headers;
+        return copy;
+    }
+
+    /**
+     * Sets the response received from the server.
+     *
+     * @param statusCode The HTTP status code.
+     * @param body The raw response body.
+     */
+    void setResponseData(final int statusCode, final byte[] body) {
+        responseBody = body;
+        responseReceived = true;
+        setStatusCode(statusCode);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Raw response (as string): " + new String(responseBody));
+        }
+    }
+
+    /**
+     * Marks this response as received even though its body is not buffered 
+     * because it was consumed directly from the network stream.
+     * 
+     * @param statusCode The HTTP status code.
+     * @see ParseCommand#setResponseStreamHandler(com.parse4cn1.command.IResponseStreamHandler) 
+     */
+    void setResponseStreamed(final int statusCode) {
+        responseReceived = true;
+        setStatusCode(statusCode);
+    }
+
+    /**
+     * Sets the response headers.
+     *
+     * @param headers The response headers with lower-case names.
+     */
+    void setHeaders(final Map<String, String> headers) {
+        this.headers = new HashMap<String, String>(headers);
+    }
+
+    /**
+     * @return The response headers with lower-case names.
+     */
+    Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Retrieves a response header.
+     *
+     * @param name The case-insensitive header name.
+     * @return The value of the header or null if it was not present in the 
+     * response.
+     */
+    public String getHeader(final String name) {
+        return headers.get(name.toLowerCase());
     }
 
     /**
@@ -206,7 +342,7 @@ public class ParseResponse {
     }
 
     private boolean hasConnectionFailed() {
-        return responseBody == null;
+        return !responseReceived;
     }
 
     private boolean hasError() {
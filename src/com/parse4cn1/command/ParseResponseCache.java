@@ -0,0 +1,295 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.parse4cn1.util.Logger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The ParseResponseCache class enables HTTP conditional requests for GET
+ * requests such as object fetches, queries and file downloads whose data is
+ * buffered in the response.
+ * <p>
+ * The body of a successful response is cached together with its validators,
+ * i.e., its {@code ETag} and/or {@code Last-Modified} header. When an
+ * identical request (same URL, arguments and headers, including the session
+ * token) is issued again, the validators are sent as {@code If-None-Match}
+ * and {@code If-Modified-Since} headers. If the server replies with
+ * {@code 304 Not Modified}, the cached body is used as the response body
+ * so that unchanged resources (e.g. images loaded repeatedly) are not
+ * transferred again. The streamed response of a query such as
+ * {@link com.parse4cn1.ParseQuery#find()} is buffered for this purpose and
+ * the cached body is replayed to its stream handler. Responses without
+ * validators or with {@code Cache-Control: no-store} are not cached; neither
+ * are streamed responses that are not shareable (see
+ * {@link ParseCommand#setResponseShareable(boolean)}), e.g., query results
+ * passed to a {@link com.parse4cn1.ParseQuery.IResultConsumer} or file
+ * downloads to a stream (see
+ * {@link ParseDownloadCommand#setOutput(java.io.OutputStream, long)}), which
+ * may be too large to be buffered and can use a {@link ParseFileCache}
+ * instead.
+ * <p>
+ * The cache is bounded by a number of entries and a total body size; when
+ * either bound is exceeded, the least recently used entries are evicted.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ParseResponseCache {
+
+    private static final Logger LOGGER = Logger.getInstance();
+
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    static final String HEADER_CACHE_CONTROL = "Cache-Control";
+
+    /**
+     * The default maximum number of entries in the cache.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    /**
+     * The default maximum total size in bytes of the cached bodies.
+     */
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    private final LinkedHashMap<String, CachedResponse> entries
+            = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long byteCount;
+
+    private long requestCount;
+    private long hitCount;
+    private long bytesSaved;
+
+    /**
+     * Creates a cache with the default bounds.
+     *
+     * @return The newly created cache.
+     */
+    public static ParseResponseCache create() {
+        return new ParseResponseCache();
+    }
+
+    private ParseResponseCache() {
+    }
+
+    /**
+     * Sets the maximum number of entries in the cache, evicting the least
+     * recently used entries if necessary.
+     *
+     * @param maxEntries The maximum number of entries. Must be positive.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseResponseCache setMaxEntries(final int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        evict();
+        return this;
+    }
+
+    /**
+     * Sets the maximum total size of the cached response bodies, evicting
+     * the least recently used entries if necessary. Responses larger than
+     * this size are not cached.
+     *
+     * @param maxBytes The maximum size in bytes. Must be positive.
+     * @return {@code this} object so that calls can be chained.
+     */
+    public synchronized ParseResponseCache setMaxBytes(final long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        this.maxBytes = maxBytes;
+        evict();
+        return this;
+    }
+
+    /**
+     * @return The current number of entries in the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The total size in bytes of the cached response bodies.
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        byteCount = 0;
+    }
+
+    /**
+     * @return The number of cacheable requests since the last
+     * {@link #resetStatistics()}.
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return The number of requests whose body was served from the cache
+     * because the server replied that it was not modified.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The fraction of cacheable requests that were served from the
+     * cache or 0 if there were none.
+     */
+    public synchronized double getHitRatio() {
+        return (requestCount > 0) ? (double) hitCount / requestCount : 0;
+    }
+
+    /**
+     * @return The number of response body bytes that did not have to be
+     * transferred thanks to the cache.
+     */
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    /**
+     * Resets the counters of this cache.
+     */
+    public synchronized void resetStatistics() {
+        requestCount = 0;
+        hitCount = 0;
+        bytesSaved = 0;
+    }
+
+    /**
+     * Adds the conditional headers for a cached response (if any) to a
+     * request.
+     *
+     * @param key The key of the request.
+     * @param request The request.
+     * @return The cached response that is to be used if the server replies
+     * with {@code 304 Not Modified} or null if there is none.
+     */
+    synchronized CachedResponse prepare(final String key, final HttpRequest request) {
+        ++requestCount;
+        final CachedResponse cached = entries.get(key);
+        if (cached != null) {
+            if (cached.etag != null) {
+                request.addHeader(HEADER_IF_NONE_MATCH, cached.etag);
+            }
+            if (cached.lastModified != null) {
+                request.addHeader(HEADER_IF_MODIFIED_SINCE, cached.lastModified);
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Records that a cached response was used because the server replied
+     * with {@code 304 Not Modified}.
+     *
+     * @param cached The cached response.
+     * @return A copy of the cached body.
+     */
+    synchronized byte[] use(final CachedResponse cached) {
+        ++hitCount;
+        bytesSaved += cached.body.length;
+        return copy(cached.body);
+    }
+
+    /**
+     * Caches the body of a successful response if it has validators and
+     * removes any previously cached response of the request otherwise.
+     *
+     * @param key The key of the request.
+     * @param headers The response headers with lower-case names.
+     * @param body The response body or null if the request failed (e.g.
+     * because the resource no longer exists).
+     */
+    synchronized void store(final String key, final Map<String, String> headers,
+            final byte[] body) {
+        final String etag = headers.get(HEADER_ETAG.toLowerCase());
+        final String lastModified = headers.get(HEADER_LAST_MODIFIED.toLowerCase());
+        final String cacheControl = headers.get(HEADER_CACHE_CONTROL.toLowerCase());
+        remove(key);
+        if ((etag == null && lastModified == null) || body == null || body.length > maxBytes
+                || (cacheControl != null && cacheControl.indexOf("no-store") >= 0)) {
+            return;
+        }
+
+        entries.put(key, new CachedResponse(etag, lastModified, copy(body)));
+        byteCount += body.length;
+        evict();
+    }
+
+    /**
+     * Removes the cached response of a request, e.g., because the resource
+     * no longer exists.
+     *
+     * @param key The key of the request.
+     */
+    synchronized void remove(final String key) {
+        final CachedResponse removed = entries.remove(key);
+        if (removed != null) {
+            byteCount -= removed.body.length;
+        }
+    }
+
+    private void evict() {
+        final Iterator<CachedResponse> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || byteCount > maxBytes) && it.hasNext()) {
+            byteCount -= it.next().body.length;
+            it.remove();
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Evicted cached response; " + entries.size() + " remaining");
+            }
+        }
+    }
+
+    private static byte[] copy(final byte[] data) {
+        final byte[] copy = new byte[data.length];
+        System.arraycopy(data, 0, copy, 0, data.length);
+        return copy;
+    }
+
+    /**
+     * A cached response body and its validators.
+     */
+    static class CachedResponse {
+
+        private final String etag;
+        private final String lastModified;
+        private final byte[] body;
+
+        CachedResponse(final String etag, final String lastModified, final byte[] body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+}
@@ -18,20 +18,30 @@
  */
 package com.parse4cn1.command;
 
-import com.codename1.io.ConnectionRequest;
+import com.codename1.io.FileSystemStorage;
 import com.parse4cn1.ParseConstants;
 import com.parse4cn1.ParseException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
  * This class defines a command for uploading resources to the Parse server.
+ * <p>
+ * The data to be uploaded is either a byte array, a stream or a file. Streams 
+ * and files are copied to the connection via a fixed-size buffer so that 
+ * large files need not be loaded into memory.
  */
 public class ParseUploadCommand extends ParseCommand {
 
+    private static final int BUFFER_SIZE = 8192;
+
     private final String endPoint;
     private String contentType;
     private byte[] uploadData;
+    private InputStream uploadStream;
+    private String uploadPath;
+    private long uploadLength = -1;
 
     public ParseUploadCommand(String endPoint) {
         this.endPoint = endPoint;
@@ -43,22 +53,55 @@ public class ParseUploadCommand extends ParseCommand {
 
     public void setData(byte[] uploadData) {
         this.uploadData = uploadData;
+        this.uploadStream = null;
+        this.uploadPath = null;
+    }
+
+    /**
+     * Sets a stream from which the data to be uploaded is read. The stream 
+     * can only be read once; if the request has to be re-issued (e.g. to 
+     * another endpoint), it fails. The stream is closed once it has been 
+     * read.
+     * 
+     * @param uploadStream The stream.
+     * @param length The number of bytes to be uploaded or -1 if unknown, in 
+     * which case the stream is read until its end.
+     */
+    public void setData(final InputStream uploadStream, final long length) {
+        if (uploadStream == null) {
+            throw new NullPointerException("Null stream");
+        }
+        this.uploadStream = uploadStream;
+        this.uploadLength = length;
+        this.uploadData = null;
+        this.uploadPath = null;
+    }
+
+    /**
+     * Sets the file whose content is to be uploaded. The file is read each 
+     * time the request is issued.
+     * 
+     * @param path The path of the file as used by {@link FileSystemStorage}.
+     */
+    public void setDataFile(final String path) {
+        if (path == null) {
+            throw new NullPointerException("Null path");
+        }
+        this.uploadPath = path;
+        this.uploadData = null;
+        this.uploadStream = null;
     }
 
     @Override
-    void setUpRequest(ConnectionRequest request) throws ParseException {
+    void setUpRequest(HttpRequest request) throws ParseException {
         setupDefaultHeaders(false);
-        request.setPost(true);
-        request.setHttpMethod("POST");
+        request.setMethod("POST");
         request.setUrl(getUrl(endPoint, null));
 
         if (contentType != null) {
-            request.addRequestHeader(ParseConstants.HEADER_CONTENT_TYPE, contentType);
+            request.addHeader(ParseConstants.HEADER_CONTENT_TYPE, contentType);
         }
-    }
 
-    @Override
-    protected ConnectionRequest createConnectionRequest(final ParseResponse response) {
         /*
          Normally, a multipart request is typically used for uploading files.
          However, using with the parse API results in some extra bytes at the 
@@ -67,26 +110,69 @@ public class ParseUploadCommand extends ParseCommand {
          (See also: http://stackoverflow.com/questions/21966299/uploading-image-to-parse-com-with-afnetworking-causing-corrupt-image)
          Instead, sending the raw bytes in the payload as done below works just fine.
          */
-        final ConnectionRequest request = new ConnectionRequest() {
+        if (uploadPath != null) {
+            final String path = uploadPath;
+            request.setBody(new HttpRequest.IBodyWriter() {
 
-            @Override
-            protected void handleErrorResponseCode(int code, String message) {
-                response.setConnectionError(code, message);
-            }
+                public void writeTo(OutputStream output) throws IOException {
+                    copy(FileSystemStorage.getInstance().openInputStream(path), output, -1);
+                }
+            }, FileSystemStorage.getInstance().getLength(path));
+        } else if (uploadStream != null) {
+            final InputStream input = uploadStream;
+            final long length = uploadLength;
+            request.setBody(new HttpRequest.IBodyWriter() {
 
-            @Override
-            protected void handleException(Exception err) {
-                response.setConnectionError(new ParseException(ParseException.CONNECTION_FAILED, 
-                    ParseException.ERR_NETWORK, err));
-            }
+                private boolean consumed;
 
-            @Override
-            protected void buildRequestBody(OutputStream os) throws IOException {
-                os.write(uploadData);
-            }
-        };
+                public void writeTo(OutputStream output) throws IOException {
+                    if (consumed) {
+                        throw new IOException("Upload stream cannot be read again");
+                    }
+                    consumed = true;
+                    copy(input, output, length);
+                }
+            }, length);
+        } else {
+            final byte[] body = (uploadData != null) ? uploadData : new byte[0];
+            request.setBody(new HttpRequest.IBodyWriter() {
+
+                public void writeTo(OutputStream output) throws IOException {
+                    output.write(body);
+                }
+            }, body.length);
+        }
+    }
 
-        request.setReadResponseForErrors(true);
-        return request;
+    /**
+     * Copies a stream to the connection via a fixed-size buffer and closes it.
+     * 
+     * @param input The stream to be copied.
+     * @param output The stream of the connection.
+     * @param length The number of bytes to be copied or -1 to copy until 
+     * the end of {@code input}.
+     * @throws IOException if reading or writing fails or {@code input} ends 
+     * before {@code length} bytes were read.
+     */
+    private static void copy(final InputStream input, final OutputStream output, 
+            final long length) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = (length >= 0) ? length : Long.MAX_VALUE;
+        try {
+            while (remaining > 0) {
+                final int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    if (length >= 0) {
+                        throw new IOException("Upload stream ended " + remaining 
+                                + " bytes before the expected length of " + length + " bytes");
+                    }
+                    break;
+                }
+                output.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            input.close();
+        }
     }
 }
@@ -32,6 +32,7 @@ import com.parse4cn1.Parse;
 import com.parse4cn1.ParseConstants;
 import com.parse4cn1.ParseFile;
 import com.parse4cn1.ParseGeoPoint;
+import com.parse4cn1.ParseIdentityMap;
 import com.parse4cn1.ParseObject;
 import com.parse4cn1.ParseRelation;
 import com.parse4cn1.operation.ParseOperationDecoder;
@@ -42,11 +43,24 @@ import com.parse4cn1.util.ParseRegistry;
  */
 public class ParseDecoder {
 
-    @SuppressWarnings("rawtypes")
     public static Object decode(Object object) {
+        return decode(object, null);
+    }
+
+    /**
+     * Same as {@link #decode(java.lang.Object)} but pointers and objects are
+     * resolved to their canonical instances in {@code identityMap}.
+     *
+     * @param object The object to be decoded.
+     * @param identityMap The identity map to be used. If null, a new
+     * ParseObject is created for each pointer and object.
+     * @return The decoded object.
+     */
+    @SuppressWarnings("rawtypes")
+    public static Object decode(Object object, ParseIdentityMap identityMap) {
 
         if ((object instanceof JSONArray)) {
-            return convertJSONArrayToList((JSONArray) object);
+            return convertJSONArrayToList((JSONArray) object, identityMap);
         }
 
         if (!(object instanceof JSONObject)) {
@@ -57,7 +71,7 @@ public class ParseDecoder {
 
         String typeString = jsonObject.optString(ParseConstants.KEYWORD_TYPE, null);
         if (typeString == null) {
-            return convertJSONObjectToMap(jsonObject);
+            return convertJSONObjectToMap(jsonObject, identityMap);
         } else if ("Date".equals(typeString)) {
             String iso = jsonObject.optString("iso");
             return Parse.parseDate(iso);
@@ -66,9 +80,9 @@ public class ParseDecoder {
             return Base64.decode(base64.getBytes());
         } else if ("Pointer".equals(typeString)) {
             return decodePointer(jsonObject.optString(ParseConstants.FIELD_CLASSNAME), 
-                    jsonObject.optString("objectId"));
+                    jsonObject.optString("objectId"), identityMap);
         } else if ("Object".equals(typeString)) {
-            return decodeObject(jsonObject);
+            return decodeObject(jsonObject, identityMap);
         } else if ("File".equals(typeString)) {
             final ParseFile file = new ParseFile(jsonObject.optString("name"),
                     jsonObject.optString("url"));
@@ -100,36 +114,56 @@ public class ParseDecoder {
     }
 
     public static List<Object> convertJSONArrayToList(JSONArray array) {
+        return convertJSONArrayToList(array, null);
+    }
+
+    public static List<Object> convertJSONArrayToList(JSONArray array, 
+            ParseIdentityMap identityMap) {
         List<Object> list = new ArrayList<Object>();
         for (int i = 0; i < array.length(); i++) {
-            list.add(decode(array.opt(i)));
+            list.add(decode(array.opt(i), identityMap));
         }
         return list;
     }
 
     public static Map<String, Object> convertJSONObjectToMap(JSONObject object) {
+        return convertJSONObjectToMap(object, null);
+    }
+
+    public static Map<String, Object> convertJSONObjectToMap(JSONObject object, 
+            ParseIdentityMap identityMap) {
         Map<String, Object> outputMap = new HashMap<String, Object>();
         Iterator<?> it = object.keys();
         while (it.hasNext()) {
             String key = (String) it.next();
             Object value = object.opt(key);
-            outputMap.put(key, decode(value));
+            outputMap.put(key, decode(value, identityMap));
         }
         return outputMap;
     }
 
-    private static ParseObject decodePointer(String className, String objectId) {
+    private static ParseObject decodePointer(String className, String objectId, 
+            ParseIdentityMap identityMap) {
+        if (identityMap != null) {
+            return identityMap.resolvePointer(className, objectId);
+        }
+        
         ParseObject obj = ParseRegistry.getObjectFactory(className).create(className);
         obj.setObjectId(objectId);
         
         return obj;
     }
 
-    private static ParseObject decodeObject(JSONObject jsonObject) {
+    private static ParseObject decodeObject(JSONObject jsonObject, 
+            ParseIdentityMap identityMap) {
         final String className = jsonObject.optString(ParseConstants.FIELD_CLASSNAME);
-        ParseObject obj = ParseRegistry.getObjectFactory(className).create(className);
         jsonObject.remove(ParseConstants.FIELD_CLASSNAME);
         jsonObject.remove(ParseConstants.KEYWORD_TYPE);
+        if (identityMap != null) {
+            return identityMap.resolve(className, jsonObject);
+        }
+        
+        ParseObject obj = ParseRegistry.getObjectFactory(className).create(className);
         obj.setData(jsonObject);
         return obj;
     }
@@ -27,6 +27,7 @@ import com.parse4cn1.encode.IParseObjectEncodingStrategy;
 import com.parse4cn1.encode.ParseEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * This class defines an operation to 'atomically' add objects to an array field 
@@ -62,4 +63,27 @@ public class AddToArrayOperation implements ParseOperation {
         }
         return output;
     }
+
+    @Override
+    public ParseOperation mergeWithPrevious(ParseOperation previous) {
+        if (previous == null) {
+            return this;
+        }
+        if (previous instanceof DeleteFieldOperation) {
+            return new SetFieldOperation(new ArrayList<Object>(objects));
+        }
+        if (previous instanceof SetFieldOperation) {
+            final List<Object> result = ParseOperationUtil.copyList(
+                    ((SetFieldOperation) previous).getValue());
+            result.addAll(objects);
+            return new SetFieldOperation(result);
+        }
+        if (previous instanceof AddToArrayOperation) {
+            final AddToArrayOperation merged 
+                    = new AddToArrayOperation(((AddToArrayOperation) previous).objects);
+            merged.objects.addAll(objects);
+            return merged;
+        }
+        throw new IllegalArgumentException("Operation is invalid after previous operation.");
+    }
 }
@@ -21,6 +21,7 @@ package com.parse4cn1.operation;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 
 import ca.weblite.codename1.json.JSONException;
 import ca.weblite.codename1.json.JSONObject;
@@ -65,4 +66,31 @@ public class AddUniqueToArrayOperation implements ParseOperation {
         }
         return output;
     }
+
+    @Override
+    public ParseOperation mergeWithPrevious(ParseOperation previous) {
+        if (previous == null) {
+            return this;
+        }
+        if (previous instanceof DeleteFieldOperation) {
+            return new SetFieldOperation(new ArrayList<Object>(objects));
+        }
+        if (previous instanceof SetFieldOperation) {
+            final List<Object> result = ParseOperationUtil.copyList(
+                    ((SetFieldOperation) previous).getValue());
+            for (Object object : objects) {
+                if (!result.contains(object)) {
+                    result.add(object);
+                }
+            }
+            return new SetFieldOperation(result);
+        }
+        if (previous instanceof AddUniqueToArrayOperation) {
+            final AddUniqueToArrayOperation merged = new AddUniqueToArrayOperation(
+                    ((AddUniqueToArrayOperation) previous).objects);
+            merged.objects.addAll(objects);
+            return merged;
+        }
+        throw new IllegalArgumentException("Operation is invalid after previous operation.");
+    }
 }
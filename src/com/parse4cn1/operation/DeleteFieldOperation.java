@@ -47,4 +47,9 @@ public class DeleteFieldOperation implements ParseOperation {
         }
         return output;
     }
+
+    @Override
+    public ParseOperation mergeWithPrevious(ParseOperation previous) {
+        return this; // Deleting overrides whatever happened before.
+    }
 }
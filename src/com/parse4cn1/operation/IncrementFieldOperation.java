@@ -75,4 +75,37 @@ public class IncrementFieldOperation implements ParseOperation {
             return amount;
         }
     }
+
+    @Override
+    public ParseOperation mergeWithPrevious(ParseOperation previous) {
+        if (previous == null) {
+            return this;
+        }
+        
+        try {
+            if (previous instanceof DeleteFieldOperation) {
+                return new SetFieldOperation(amount);
+            }
+            if (previous instanceof SetFieldOperation) {
+                final Object oldValue = ((SetFieldOperation) previous).getValue();
+                if (!ParseOperationUtil.isSupportedNumberType(oldValue)) {
+                    throw new IllegalArgumentException("You cannot increment a non-number.");
+                }
+                return new SetFieldOperation(ParseOperationUtil.addNumbers(oldValue, amount));
+            }
+            if (previous instanceof IncrementFieldOperation) {
+                final IncrementFieldOperation other = (IncrementFieldOperation) previous;
+                final Object sum = ParseOperationUtil.addNumbers(other.amount, amount);
+                if (!other.needIncrement) {
+                    // The previous increment was applied to a missing value 
+                    // and is therefore sent as a plain value.
+                    return new SetFieldOperation(sum);
+                }
+                return new IncrementFieldOperation(sum);
+            }
+        } catch (ParseException ex) {
+            throw new IllegalArgumentException(ex.getMessage());
+        }
+        throw new IllegalArgumentException("Operation is invalid after previous operation.");
+    }
 }
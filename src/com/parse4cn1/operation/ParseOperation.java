@@ -49,4 +49,17 @@ public interface ParseOperation {
     abstract Object encode(IParseObjectEncodingStrategy objectEncoder)
             throws ParseException;
 
+    /**
+     * Merges this operation with the operation that was previously performed 
+     * on the same field and has not yet been persisted, so that only a single 
+     * operation with the combined effect needs to be sent to the server.
+     * @param previous The previous operation or null if there is none.
+     * @return The operation that is equivalent to performing {@code previous}
+     * followed by this operation.
+     * @throws IllegalArgumentException if this operation cannot be performed 
+     * after {@code previous}, e.g., incrementing a field that is set to a 
+     * non-number.
+     */
+    abstract ParseOperation mergeWithPrevious(ParseOperation previous);
+
 }
@@ -20,6 +20,8 @@ package com.parse4cn1.operation;
 
 import com.parse4cn1.ParseException;
 import com.parse4cn1.util.Logger;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class defines general utilities related to Parse operations.
@@ -43,22 +45,18 @@ public class ParseOperationUtil {
         }
         
         if (((first instanceof Double)) || ((second instanceof Double))) {
-            return (Double) first + (Double) second;
+            return toDouble(first) + toDouble(second);
         }
         if (((first instanceof Float)) || ((second instanceof Float))) {
-            return (Float) first + (Float) second;
+            return (float) (toDouble(first) + toDouble(second));
         }
         if (((first instanceof Long)) || ((second instanceof Long))) {
-            return (Long) first + (Long) second;
+            return toLong(first) + toLong(second);
         }
-        if (((first instanceof Integer)) || ((second instanceof Integer))) {
-            return (Integer) first + (Integer) second;
-        }
-        if (((first instanceof Short)) || ((second instanceof Short))) {
-            return (Short) first + (Short) second;
-        }
-        if (((first instanceof Byte)) || ((second instanceof Byte))) {
-            return (Byte) first + (Byte) second;
+        if (((first instanceof Integer)) || ((second instanceof Integer))
+                || ((first instanceof Short)) || ((second instanceof Short))
+                || ((first instanceof Byte)) || ((second instanceof Byte))) {
+            return (int) (toLong(first) + toLong(second));
         }
         
         Logger.getInstance().error("Addition semantics not yet defined for the provided number types.");
@@ -78,4 +76,48 @@ public class ParseOperationUtil {
         return (o instanceof Double) || (o instanceof Float) || (o instanceof Long)
                 || (o instanceof Integer) || (o instanceof Short) || (o instanceof Byte);
     }
+
+    /**
+     * Creates a modifiable copy of a list value, e.g., for merging an array 
+     * operation into a preceding {@link SetFieldOperation}.
+     * 
+     * @param value The list value to be copied.
+     * @return The copy.
+     * @throws IllegalArgumentException if {@code value} is not a list.
+     */
+    static List<Object> copyList(Object value) {
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Operation is invalid after previous operation.");
+        }
+        return new ArrayList<Object>((List<?>) value);
+    }
+
+    private static double toDouble(Object number) {
+        if (number instanceof Double) {
+            return (Double) number;
+        }
+        if (number instanceof Float) {
+            return (Float) number;
+        }
+        return toLong(number);
+    }
+
+    private static long toLong(Object number) {
+        if (number instanceof Long) {
+            return (Long) number;
+        }
+        if (number instanceof Integer) {
+            return (Integer) number;
+        }
+        if (number instanceof Short) {
+            return (Short) number;
+        }
+        if (number instanceof Byte) {
+            return (Byte) number;
+        }
+        if (number instanceof Double) {
+            return (long) ((Double) number).doubleValue();
+        }
+        return (long) ((Float) number).floatValue();
+    }
 }
@@ -29,8 +29,9 @@ import com.parse4cn1.ParseRelation;
 import com.parse4cn1.encode.IParseObjectEncodingStrategy;
 import static com.parse4cn1.operation.RelationOperation.ERelationType.AddRelation;
 import com.parse4cn1.encode.ParseEncoder;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -45,8 +46,8 @@ public class RelationOperation<T extends ParseObject> implements ParseOperation
     }
     
     private String targetClass;
-    private Set<ParseObject> relations;
-    private ERelationType relationType;
+    private final Map<String, ParseObject> addedRelations;
+    private final Map<String, ParseObject> removedRelations;
 
     public RelationOperation(final Set<T> relations, final ERelationType relationType) {
         
@@ -80,8 +81,21 @@ public class RelationOperation<T extends ParseObject> implements ParseOperation
                     "Cannot create a ParseRelationOperation with no objects.");
         }
         
-        this.relationType = relationType;
-        this.relations = new HashSet<ParseObject>(uniqueRelations.values());
+        if (relationType == AddRelation) {
+            this.addedRelations = uniqueRelations;
+            this.removedRelations = new HashMap<String, ParseObject>();
+        } else {
+            this.addedRelations = new HashMap<String, ParseObject>();
+            this.removedRelations = uniqueRelations;
+        }
+    }
+
+    private RelationOperation(final String targetClass, 
+            final Map<String, ParseObject> addedRelations,
+            final Map<String, ParseObject> removedRelations) {
+        this.targetClass = targetClass;
+        this.addedRelations = addedRelations;
+        this.removedRelations = removedRelations;
     }
 
     public String getTargetClass() {
@@ -115,32 +129,90 @@ public class RelationOperation<T extends ParseObject> implements ParseOperation
     @Override
     public JSONObject encode(IParseObjectEncodingStrategy objectEncoder) throws ParseException {
 
-        JSONObject newRelations = null;
+        final JSONObject added = encode("AddRelation", addedRelations, objectEncoder);
+        final JSONObject removed = encode("RemoveRelation", removedRelations, objectEncoder);
 
-        if (this.relations.size() > 0) {
-            newRelations = new JSONObject();
-            try {
-                newRelations.put(ParseConstants.KEYWORD_OP, 
-                        (relationType == AddRelation) ? "AddRelation" : "RemoveRelation");
-                newRelations.put("objects", convertSetToArray(this.relations, objectEncoder));
-            } catch (JSONException ex) {
-                throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
-            }
+        if (added == null && removed == null) {
+            throw new IllegalArgumentException(
+                "A ParseRelationOperation was created without any data.");   
         }
+        
+        if (added == null) {
+            return removed;
+        } else if (removed == null) {
+            return added;
+        }
+        
+        // Both adding and removing relations requires a batch operation
+        final JSONObject batch = new JSONObject();
+        try {
+            final JSONArray ops = new JSONArray();
+            ops.put(added);
+            ops.put(removed);
+            batch.put(ParseConstants.KEYWORD_OP, "Batch");
+            batch.put("ops", ops);
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+        return batch;
+    }
 
-        if (newRelations == null) {
+    @Override
+    public ParseOperation mergeWithPrevious(ParseOperation previous) {
+        if (previous == null) {
+            return this;
+        }
+        
+        if (!(previous instanceof RelationOperation)) {
             throw new IllegalArgumentException(
-                "A ParseRelationOperation was created without any data.");   
+                    "Operation is invalid after previous operation.");
+        }
+        
+        final RelationOperation<?> other = (RelationOperation<?>) previous;
+        if (other.targetClass != null && !other.targetClass.equals(this.targetClass)) {
+            throw new IllegalArgumentException(
+                    "Related object object must be of class "
+                    + other.targetClass + ", but "
+                    + this.targetClass + " was passed in.");
+        }
+        
+        // Later adds undo earlier removes of the same object and vice versa
+        final Map<String, ParseObject> added 
+                = new HashMap<String, ParseObject>(other.addedRelations);
+        final Map<String, ParseObject> removed 
+                = new HashMap<String, ParseObject>(other.removedRelations);
+        for (String objectId : this.removedRelations.keySet()) {
+            added.remove(objectId);
+        }
+        for (String objectId : this.addedRelations.keySet()) {
+            removed.remove(objectId);
         }
+        added.putAll(this.addedRelations);
+        removed.putAll(this.removedRelations);
+        
+        return new RelationOperation<T>(this.targetClass, added, removed);
+    }
 
-        return newRelations;
+    private JSONObject encode(final String op, final Map<String, ParseObject> relations,
+            IParseObjectEncodingStrategy objectEncoder) throws ParseException {
+        if (relations.isEmpty()) {
+            return null;
+        }
+        
+        final JSONObject output = new JSONObject();
+        try {
+            output.put(ParseConstants.KEYWORD_OP, op);
+            output.put("objects", convertToArray(relations.values(), objectEncoder));
+        } catch (JSONException ex) {
+            throw new ParseException(ParseException.INVALID_JSON, ParseException.ERR_PREPARING_REQUEST, ex);
+        }
+        return output;
     }
     
-    
-    private JSONArray convertSetToArray(Set<ParseObject> set, 
+    private JSONArray convertToArray(Collection<ParseObject> objects, 
             IParseObjectEncodingStrategy objectEncoder) throws ParseException {
         JSONArray array = new JSONArray();
-        for (ParseObject obj : set) {
+        for (ParseObject obj : objects) {
             array.put(ParseEncoder.encode(obj, objectEncoder));
         }
         return array;
@@ -29,6 +29,7 @@ import com.parse4cn1.encode.ParseEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -66,4 +67,27 @@ public class RemoveFromArrayOperation implements ParseOperation {
         return output;
     }
 
+    @Override
+    public ParseOperation mergeWithPrevious(ParseOperation previous) {
+        if (previous == null) {
+            return this;
+        }
+        if (previous instanceof DeleteFieldOperation) {
+            return previous; // Nothing left to remove
+        }
+        if (previous instanceof SetFieldOperation) {
+            final List<Object> result = ParseOperationUtil.copyList(
+                    ((SetFieldOperation) previous).getValue());
+            result.removeAll(objects);
+            return new SetFieldOperation(result);
+        }
+        if (previous instanceof RemoveFromArrayOperation) {
+            final RemoveFromArrayOperation merged = new RemoveFromArrayOperation(
+                    ((RemoveFromArrayOperation) previous).objects);
+            merged.objects.addAll(objects);
+            return merged;
+        }
+        throw new IllegalArgumentException("Operation is invalid after previous operation.");
+    }
+
 }
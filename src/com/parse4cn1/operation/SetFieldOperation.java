@@ -44,4 +44,13 @@ public class SetFieldOperation implements ParseOperation {
     public Object encode(IParseObjectEncodingStrategy objectEncoder) throws ParseException {
         return ParseEncoder.encode(value, objectEncoder);
     }
+
+    @Override
+    public ParseOperation mergeWithPrevious(ParseOperation previous) {
+        return this; // The new value overrides whatever happened before.
+    }
+
+    public Object getValue() {
+        return value;
+    }
 }
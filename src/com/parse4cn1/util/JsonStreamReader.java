@@ -0,0 +1,476 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.util;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A pull-based JSON tokenizer that reads JSON text from a stream one token at
+ * a time. Unlike {@link JSONObject#JSONObject(java.lang.String)}, the input
+ * does not need to be fully loaded into memory; only the value currently being
+ * read is materialized.
+ * <p>
+ * Nested values can be read on demand as {@link JSONObject}s or
+ * {@link JSONArray}s via {@link #nextValue()} so that they can be processed
+ * by existing JSON-based code (e.g. {@link com.parse4cn1.ParseObject#setData(ca.weblite.codename1.json.JSONObject)}).
+ * The types of the values produced are the same as those produced by the
+ * CN1JSON library.
+ */
+public class JsonStreamReader {
+
+    /**
+     * The type of a JSON token.
+     */
+    public enum EToken {
+
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT;
+    }
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private static final int SCOPE_EMPTY_DOCUMENT = 0;
+    private static final int SCOPE_NONEMPTY_DOCUMENT = 1;
+    private static final int SCOPE_EMPTY_OBJECT = 2;
+    private static final int SCOPE_DANGLING_NAME = 3;
+    private static final int SCOPE_NONEMPTY_OBJECT = 4;
+    private static final int SCOPE_EMPTY_ARRAY = 5;
+    private static final int SCOPE_NONEMPTY_ARRAY = 6;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+
+    private int[] scopes = new int[32];
+    private int scopeCount = 0;
+    private EToken peeked;
+    private final StringBuilder valueBuilder = new StringBuilder();
+
+    /**
+     * Creates a reader for the JSON text provided by {@code reader}.
+     *
+     * @param reader The source of the JSON text. The reader is consumed
+     * incrementally; no additional buffering is required.
+     */
+    public JsonStreamReader(final Reader reader) {
+        if (reader == null) {
+            throw new NullPointerException("Null reader");
+        }
+        this.reader = reader;
+        pushScope(SCOPE_EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Retrieves the type of the next token without consuming it.
+     *
+     * @return The type of the next token.
+     * @throws IOException if reading from the underlying stream fails.
+     * @throws JSONException if the JSON text is malformed.
+     */
+    public EToken peek() throws IOException, JSONException {
+        if (peeked != null) {
+            return peeked;
+        }
+
+        int c;
+        switch (scopes[scopeCount - 1]) {
+            case SCOPE_EMPTY_ARRAY:
+                scopes[scopeCount - 1] = SCOPE_NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = EToken.END_ARRAY;
+                } else if (c != -1) {
+                    --pos;
+                }
+                break;
+            case SCOPE_NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = EToken.END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                break;
+            case SCOPE_EMPTY_OBJECT:
+            case SCOPE_NONEMPTY_OBJECT:
+                final boolean empty = (scopes[scopeCount - 1] == SCOPE_EMPTY_OBJECT);
+                scopes[scopeCount - 1] = SCOPE_DANGLING_NAME;
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = EToken.END_OBJECT;
+                }
+                if (!empty) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected name");
+                }
+                return peeked = EToken.NAME;
+            case SCOPE_DANGLING_NAME:
+                scopes[scopeCount - 1] = SCOPE_NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                break;
+            case SCOPE_EMPTY_DOCUMENT:
+                scopes[scopeCount - 1] = SCOPE_NONEMPTY_DOCUMENT;
+                break;
+            case SCOPE_NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace() == -1) {
+                    return peeked = EToken.END_DOCUMENT;
+                }
+                throw syntaxError("Unexpected content after end of document");
+            default:
+                throw new IllegalStateException("Invalid scope");
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return peeked = EToken.BEGIN_OBJECT;
+            case '[':
+                return peeked = EToken.BEGIN_ARRAY;
+            case '"':
+                return peeked = EToken.STRING;
+            case 't':
+            case 'f':
+                --pos;
+                return peeked = EToken.BOOLEAN;
+            case 'n':
+                --pos;
+                return peeked = EToken.NULL;
+            case -1:
+                throw syntaxError("Unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    --pos;
+                    return peeked = EToken.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * @return {@code true} if the current object or array has more elements.
+     * @throws IOException if reading from the underlying stream fails.
+     * @throws JSONException if the JSON text is malformed.
+     */
+    public boolean hasNext() throws IOException, JSONException {
+        final EToken token = peek();
+        return token != EToken.END_OBJECT && token != EToken.END_ARRAY
+                && token != EToken.END_DOCUMENT;
+    }
+
+    /**
+     * Consumes the opening brace of an object.
+     *
+     * @throws IOException if reading from the underlying stream fails.
+     * @throws JSONException if the next token is not the beginning of an object.
+     */
+    public void beginObject() throws IOException, JSONException {
+        consume(EToken.BEGIN_OBJECT);
+        pushScope(SCOPE_EMPTY_OBJECT);
+    }
+
+    /**
+     * Consumes the closing brace of the current object.
+     *
+     * @throws IOException if reading from the underlying stream fails.
+     * @throws JSONException if the next token is not the end of an object.
+     */
+    public void endObject() throws IOException, JSONException {
+        consume(EToken.END_OBJECT);
+        --scopeCount;
+    }
+
+    /**
+     * Consumes the opening bracket of an array.
+     *
+     * @throws IOException if reading from the underlying stream fails.
+     * @throws JSONException if the next token is not the beginning of an array.
+     */
+    public void beginArray() throws IOException, JSONException {
+        consume(EToken.BEGIN_ARRAY);
+        pushScope(SCOPE_EMPTY_ARRAY);
+    }
+
+    /**
+     * Consumes the closing bracket of the current array.
+     *
+     * @throws IOException if reading from the underlying stream fails.
+     * @throws JSONException if the next token is not the end of an array.
+     */
+    public void endArray() throws IOException, JSONException {
+        consume(EToken.END_ARRAY);
+        --scopeCount;
+    }
+
+    /**
+     * @return The name of the next property of the current object.
+     * @throws IOException if reading from the underlying stream fails.
+     * @throws JSONException if the next token is not a property name.
+     */
+    public String nextName() throws IOException, JSONException {
+        consume(EToken.NAME);
+        return readString();
+    }
+
+    /**
+     * @return The next string value.
+     * @throws IOException if reading from the underlying stream fails.
+     * @throws JSONException if the next token is not a string.
+     */
+    public String nextString() throws IOException, JSONException {
+        consume(EToken.STRING);
+        return readString();
+    }
+
+    /**
+     * Reads the next value, whatever its type. Objects and arrays are fully
+     * read and returned as a {@link JSONObject} and {@link JSONArray}
+     * respectively; {@code null} is returned as {@link JSONObject#NULL}.
+     *
+     * @return The next value.
+     * @throws IOException if reading from the underlying stream fails.
+     * @throws JSONException if the JSON text is malformed.
+     */
+    public Object nextValue() throws IOException, JSONException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                final JSONObject object = new JSONObject();
+                beginObject();
+                while (hasNext()) {
+                    final String name = nextName();
+                    object.put(name, nextValue());
+                }
+                endObject();
+                return object;
+            case BEGIN_ARRAY:
+                final JSONArray array = new JSONArray();
+                beginArray();
+                while (hasNext()) {
+                    array.put(nextValue());
+                }
+                endArray();
+                return array;
+            case STRING:
+                return nextString();
+            case NUMBER:
+                consume(EToken.NUMBER);
+                return toNumber(readLiteral());
+            case BOOLEAN:
+                consume(EToken.BOOLEAN);
+                final String bool = readLiteral();
+                if ("true".equals(bool)) {
+                    return Boolean.TRUE;
+                } else if ("false".equals(bool)) {
+                    return Boolean.FALSE;
+                }
+                throw syntaxError("Invalid literal '" + bool + "'");
+            case NULL:
+                consume(EToken.NULL);
+                final String nullLiteral = readLiteral();
+                if (!"null".equals(nullLiteral)) {
+                    throw syntaxError("Invalid literal '" + nullLiteral + "'");
+                }
+                return JSONObject.NULL;
+            default:
+                throw syntaxError("Expected a value but was " + peek());
+        }
+    }
+
+    /**
+     * Skips the next value (including any nested values).
+     *
+     * @throws IOException if reading from the underlying stream fails.
+     * @throws JSONException if the JSON text is malformed.
+     */
+    public void skipValue() throws IOException, JSONException {
+        nextValue();
+    }
+
+    /**
+     * Closes the underlying reader.
+     *
+     * @throws IOException if closing fails.
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void consume(final EToken expected) throws IOException, JSONException {
+        final EToken token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void pushScope(final int scope) {
+        if (scopeCount == scopes.length) {
+            final int[] newScopes = new int[scopeCount * 2];
+            System.arraycopy(scopes, 0, newScopes, 0, scopeCount);
+            scopes = newScopes;
+        }
+        scopes[scopeCount++] = scope;
+    }
+
+    private boolean fillBuffer() throws IOException {
+        final int count = reader.read(buffer, 0, buffer.length);
+        pos = 0;
+        limit = (count > 0) ? count : 0;
+        return limit > 0;
+    }
+
+    private int read() throws IOException {
+        if (pos >= limit && !fillBuffer()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+        return c;
+    }
+
+    /**
+     * Reads a string whose opening quote has already been consumed.
+     */
+    private String readString() throws IOException, JSONException {
+        valueBuilder.setLength(0);
+        while (true) {
+            // Copy unescaped runs directly from the buffer
+            int start = pos;
+            while (pos < limit) {
+                final char c = buffer[pos];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                ++pos;
+            }
+            valueBuilder.append(buffer, start, pos - start);
+
+            final int c = read();
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            } else if (c == '"') {
+                return valueBuilder.toString();
+            } else if (c == '\\') {
+                valueBuilder.append(readEscapedChar());
+            } else {
+                valueBuilder.append((char) c);
+            }
+        }
+    }
+
+    private char readEscapedChar() throws IOException, JSONException {
+        final int c = read();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'f':
+                return '\f';
+            case 'r':
+                return '\r';
+            case '"':
+            case '\'':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; ++i) {
+                    final int digit = Character.digit((char) read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape sequence");
+                    }
+                    value = (value << 4) + digit;
+                }
+                return (char) value;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    /**
+     * Reads an unquoted literal (number, boolean or null).
+     */
+    private String readLiteral() throws IOException {
+        valueBuilder.setLength(0);
+        while (true) {
+            final int c = read();
+            if (c == -1) {
+                break;
+            }
+            if (c == ',' || c == '}' || c == ']' || c == ':' || c == ' '
+                    || c == '\t' || c == '\n' || c == '\r') {
+                --pos;
+                break;
+            }
+            valueBuilder.append((char) c);
+        }
+        return valueBuilder.toString();
+    }
+
+    private Object toNumber(final String literal) throws JSONException {
+        if (literal.indexOf('.') < 0 && literal.indexOf('e') < 0
+                && literal.indexOf('E') < 0) {
+            try {
+                final long value = Long.parseLong(literal);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return Integer.valueOf((int) value);
+                }
+                return Long.valueOf(value);
+            } catch (NumberFormatException ex) {
+                // Too large for a long; fall back to double
+            }
+        }
+        
+        try {
+            return Double.valueOf(literal);
+        } catch (NumberFormatException ex) {
+            throw syntaxError("Invalid number '" + literal + "'");
+        }
+    }
+
+    private JSONException syntaxError(final String message) {
+        return new JSONException(message + " at offset " + pos + " of current buffer");
+    }
+}
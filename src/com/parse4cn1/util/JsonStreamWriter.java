@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.util;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Writes JSON text as UTF-8 directly to a stream. Unlike
+ * {@code json.toString().getBytes("UTF-8")}, the encoded text is never
+ * materialized as a whole; it is produced token by token and passed to the
+ * stream via a fixed-size buffer. This keeps the memory required for
+ * sending large request bodies (e.g. batch requests) independent of their
+ * size.
+ * <p>
+ * The output is identical to that of {@link JSONObject#toString()} and
+ * {@link JSONArray#toString()}. A writer without output stream only counts
+ * the bytes, e.g., to determine the content length of a request in advance.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class JsonStreamWriter {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final Utf8Writer writer;
+
+    /**
+     * Creates a writer for {@code output}.
+     *
+     * @param output The stream to which the encoded JSON text is to be
+     * written or null to only count the bytes.
+     */
+    public JsonStreamWriter(final OutputStream output) {
+        this.writer = new Utf8Writer(output);
+    }
+
+    /**
+     * Writes a JSON value.
+     *
+     * @param value The value, i.e., a {@link JSONObject} or {@link JSONArray}.
+     * @throws IOException if writing to the stream fails.
+     * @throws JSONException if {@code value} cannot be encoded.
+     */
+    public void write(final Object value) throws IOException, JSONException {
+        if (value instanceof JSONObject) {
+            ((JSONObject) value).write(writer);
+        } else if (value instanceof JSONArray) {
+            ((JSONArray) value).write(writer);
+        } else {
+            throw new IllegalArgumentException("Not a JSON object or array: " + value);
+        }
+    }
+
+    /**
+     * Writes any buffered bytes to the stream and flushes the stream.
+     *
+     * @throws IOException if writing to the stream fails.
+     */
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * @return The number of bytes written so far, including those that are
+     * still buffered.
+     */
+    public long getByteCount() {
+        return writer.byteCount;
+    }
+
+    /**
+     * Determines the size of the UTF-8 encoding of a JSON value without
+     * materializing it.
+     *
+     * @param value The value, i.e., a {@link JSONObject} or {@link JSONArray}.
+     * @return The number of bytes.
+     * @throws JSONException if {@code value} cannot be encoded.
+     */
+    public static long getLength(final Object value) throws JSONException {
+        final JsonStreamWriter counter = new JsonStreamWriter(null);
+        try {
+            counter.write(value);
+            counter.flush();
+        } catch (IOException ex) {
+            // Not possible without output stream
+            throw new JSONException(ex.getMessage());
+        }
+        return counter.getByteCount();
+    }
+
+    /**
+     * A writer that encodes characters as UTF-8 into a fixed-size buffer.
+     */
+    private static class Utf8Writer extends Writer {
+
+        private final OutputStream output;
+        private final byte[] buffer;
+        private int count;
+        private long byteCount;
+        private char highSurrogate;
+
+        Utf8Writer(final OutputStream output) {
+            this.output = output;
+            this.buffer = (output != null) ? new byte[BUFFER_SIZE] : null;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            encode((char) c);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; ++i) {
+                encode(chars[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; ++i) {
+                encode(str.charAt(i));
+            }
+        }
+
+        @Override
+        public void write(String str) throws IOException {
+            write(str, 0, str.length());
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (highSurrogate != 0) {
+                // Unpaired surrogate at the end of the text
+                highSurrogate = 0;
+                put('?');
+            }
+            if (output != null) {
+                output.write(buffer, 0, count);
+                count = 0;
+                output.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        private void encode(final char c) throws IOException {
+            if (highSurrogate != 0) {
+                final char high = highSurrogate;
+                highSurrogate = 0;
+                if (c >= 0xDC00 && c <= 0xDFFF) {
+                    final int codePoint = 0x10000 + ((high - 0xD800) << 10) + (c - 0xDC00);
+                    put(0xF0 | (codePoint >> 18));
+                    put(0x80 | ((codePoint >> 12) & 0x3F));
+                    put(0x80 | ((codePoint >> 6) & 0x3F));
+                    put(0x80 | (codePoint & 0x3F));
+                    return;
+                }
+                // Unpaired surrogate
+                put('?');
+            }
+
+            if (c < 0x80) {
+                put(c);
+            } else if (c < 0x800) {
+                put(0xC0 | (c >> 6));
+                put(0x80 | (c & 0x3F));
+            } else if (c >= 0xD800 && c <= 0xDBFF) {
+                highSurrogate = c;
+            } else if (c >= 0xDC00 && c <= 0xDFFF) {
+                put('?');
+            } else {
+                put(0xE0 | (c >> 12));
+                put(0x80 | ((c >> 6) & 0x3F));
+                put(0x80 | (c & 0x3F));
+            }
+        }
+
+        private void put(final int b) throws IOException {
+            ++byteCount;
+            if (output == null) {
+                return;
+            }
+            if (count == buffer.length) {
+                output.write(buffer, 0, count);
+                count = 0;
+            }
+            buffer[count++] = (byte) b;
+        }
+    }
+}
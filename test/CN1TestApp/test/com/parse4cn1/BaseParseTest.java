@@ -20,6 +20,7 @@ import com.codename1.testing.AbstractTest;
 import com.parse4cn1.util.Logger;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -120,23 +121,22 @@ public class BaseParseTest extends AbstractTest {
     }
     
     protected void deleteObjects(List<? extends ParseObject> objects) {
-        // TODO: Replace with batch deletion when batch operations are implemented
+        List<ParseObject> saved = new ArrayList<ParseObject>();
         for (ParseObject object : objects) {
             if (object.getObjectId() != null) {
-                try {
-                    object.delete();
-                } catch (ParseException ex) {
-                    fail("Deleting object failed\n" + ex);
-                }
+                saved.add(object);
             }
         }
+        
+        try {
+            ParseObject.deleteAll(saved);
+        } catch (ParseException ex) {
+            fail("Deleting objects failed\n" + ex);
+        }
     }
     
     protected void saveObjects(List<? extends ParseObject> objects) throws ParseException {
-        // TODO: Replace with batch creation when batch operations are implemented
-        for (ParseObject object: objects) {
-            object.save();
-        }
+        ParseObject.saveAll(objects);
     }
     
     protected byte[] getBytes(String fileName) throws ParseException {
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.ParseBatch.EBatchOpType;
+import com.parse4cn1.command.HttpRequest;
+import com.parse4cn1.command.ParseCommand;
+import com.parse4cn1.command.IHttpTransport;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseBatchTest extends BaseParseTest {
+
+    private final String classGameScore = "GameScore";
+    private final String fieldScore = "score";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testSaveAndDeleteAll();
+        testMixedBatch();
+        testBatchErrors();
+        testUsers();
+        testSaveHooks();
+        testClients();
+        return true;
+    }
+
+    @Override
+    protected void resetClassData() {
+        System.out.println("============== resetClassData()");
+        deleteObjects(classGameScore);
+    }
+
+    private void testSaveAndDeleteAll() throws ParseException {
+        System.out.println("============== testSaveAndDeleteAll()");
+
+        // More than one batch request is needed
+        final int count = ParseConstants.MAX_BATCH_SIZE * 2 + 5;
+        final List<ParseObject> objects = createObjects(count);
+
+        ParseObject.saveAll(objects);
+        for (ParseObject object : objects) {
+            assertNotNull(object.getObjectId(), "Object id is set after batch save");
+            assertNotNull(object.getCreatedAt(), "Creation time is set after batch save");
+            assertEqual(object.getCreatedAt(), object.getUpdatedAt(),
+                    "Update time equals creation time for newly created object");
+            assertFalse(object.isDirty(), "Object is not dirty after batch save");
+        }
+
+        ParseQuery<ParseObject> query = ParseQuery.getQuery(classGameScore);
+        assertEqual(count, query.count(), "All objects are created");
+
+        for (ParseObject object : objects) {
+            object.increment(fieldScore);
+        }
+        ParseObject.saveAll(objects);
+
+        ParseObject retrieved = ParseObject.fetch(classGameScore,
+                objects.get(count - 1).getObjectId());
+        assertEqual(Integer.valueOf(count), retrieved.getInt(fieldScore), "Batch update succeeded");
+
+        ParseObject.deleteAll(objects);
+        for (ParseObject object : objects) {
+            assertNull(object.getObjectId(), "Object is reset after batch delete");
+        }
+        assertEqual(0, query.count(), "All objects are deleted");
+    }
+
+    private void testMixedBatch() throws ParseException {
+        System.out.println("============== testMixedBatch()");
+
+        final List<ParseObject> objects = createObjects(3);
+        ParseObject.saveAll(objects.subList(0, 2));
+
+        final ParseObject toUpdate = objects.get(0);
+        final ParseObject toDelete = objects.get(1);
+        final ParseObject toCreate = objects.get(2);
+        toUpdate.put(fieldScore, 100);
+
+        ParseBatch batch = ParseBatch.create()
+                .addObject(toCreate, EBatchOpType.CREATE)
+                .addObject(toUpdate, EBatchOpType.UPDATE)
+                .addObject(toDelete, EBatchOpType.DELETE);
+        assertTrue(batch.execute(), "Mixed batch succeeds");
+        assertTrue(batch.getErrors().isEmpty(), "No errors for successful batch");
+
+        assertNotNull(toCreate.getObjectId(), "Created object has object id");
+        assertNull(toDelete.getObjectId(), "Deleted object is reset");
+        ParseObject retrieved = ParseObject.fetch(classGameScore, toUpdate.getObjectId());
+        assertEqual(Integer.valueOf(100), retrieved.getInt(fieldScore), "Object is updated");
+
+        ParseObject.deleteAll(objects);
+    }
+
+    private void testBatchErrors() throws ParseException {
+        System.out.println("============== testBatchErrors()");
+
+        final List<ParseObject> objects = createObjects(2);
+        ParseObject.saveAll(objects.subList(0, 1));
+
+        final ParseObject valid = objects.get(0);
+        final ParseObject nonExisting = objects.get(1);
+        nonExisting.setObjectId("nonExistingId");
+
+        ParseBatch batch = ParseBatch.create()
+                .addObject(valid, EBatchOpType.DELETE)
+                .addObject(nonExisting, EBatchOpType.DELETE);
+        assertFalse(batch.execute(), "Batch with invalid operation fails");
+
+        final Map<ParseObject, ParseException> errors = batch.getErrors();
+        assertEqual(1, errors.size(), "Only the invalid operation fails");
+        assertEqual(ParseException.OBJECT_NOT_FOUND,
+                errors.get(nonExisting).getCode(), "Error is mapped to failed object");
+        assertNull(valid.getObjectId(), "Valid operation in batch still succeeds");
+
+        try {
+            ParseBatch.create().addObject(ParseObject.create(classGameScore),
+                    EBatchOpType.DELETE);
+            fail("Deleting object without object id should fail");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.MISSING_OBJECT_ID, ex.getCode());
+        }
+    }
+
+    private void testUsers() throws ParseException, JSONException {
+        System.out.println("============== testUsers()");
+
+        final RecordingTransport transport = new RecordingTransport();
+        final ParseClient client = ParseClient.create("app", "key").setHttpTransport(transport);
+        final ParseUser user = new ParseUser();
+        user.setClient(client);
+        user.setData(new JSONObject("{\"objectId\":\"u1\",\"sessionToken\":\"token1\"}"));
+        user.put("nickname", "a");
+        final ParseObject score = ParseObject.create(classGameScore);
+        score.setClient(client);
+        score.put(fieldScore, 1);
+
+        final ParseBatch batch = ParseBatch.create().setClient(client)
+                .addObject(user, EBatchOpType.UPDATE)
+                .addObject(score, EBatchOpType.CREATE);
+        assertTrue(batch.execute(), "Batch with user succeeds");
+        assertEqual(2, transport.requests.size(), "User is saved with a separate request");
+        final HttpRequest userRequest = transport.requests.get(0).getUrl().endsWith(
+                ParseConstants.ENDPOINT_BATCH) ? transport.requests.get(1) : transport.requests.get(0);
+        assertEqual("PUT", userRequest.getMethod());
+        assertTrue(userRequest.getUrl().endsWith(ParseConstants.CLASS_NAME_USER + "/u1"),
+                "User is saved via its own endpoint");
+        assertEqual("token1", userRequest.getHeaders().get(ParseConstants.HEADER_SESSION_TOKEN),
+                "User is saved with its session token");
+        assertFalse(user.isDirty(), "User is not dirty after save");
+        assertEqual("s1", score.getObjectId(), "Other object is saved in batch");
+    }
+
+    private void testSaveHooks() throws ParseException, IOException {
+        System.out.println("============== testSaveHooks()");
+
+        final RecordingTransport transport = new RecordingTransport();
+        final ParseClient client = ParseClient.create("app", "key").setHttpTransport(transport);
+        final ParseObject score = new StampedObject(classGameScore);
+        score.setClient(client);
+        score.put(fieldScore, 1);
+
+        final ParseBatch batch = ParseBatch.create().addObject(score, EBatchOpType.CREATE);
+        assertTrue(batch.execute(), "Batch with save hook succeeds");
+        assertEqual(1, transport.requests.size(), "Object without headers is batched");
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        transport.requests.get(0).getBodyWriter().writeTo(body);
+        assertTrue(new String(body.toByteArray(), "UTF-8").indexOf("\"stamped\":true") >= 0,
+                "Batched body is set up by save hook");
+        assertEqual("s1", score.getObjectId(), "Object is saved in batch");
+    }
+
+    private void testClients() throws ParseException {
+        System.out.println("============== testClients()");
+
+        final ParseClient first = ParseClient.create("app", "key")
+                .setHttpTransport(new RecordingTransport());
+        final ParseClient second = ParseClient.create("app", "key")
+                .setHttpTransport(new RecordingTransport());
+        final ParseObject firstScore = ParseObject.create(classGameScore);
+        firstScore.setClient(first);
+        firstScore.put(fieldScore, 1);
+        final ParseObject secondScore = ParseObject.create(classGameScore);
+        secondScore.setClient(second);
+        secondScore.put(fieldScore, 2);
+
+        final ParseBatch batch = ParseBatch.create().addObject(firstScore, EBatchOpType.CREATE);
+        assertTrue(first == batch.getClient(), "Batch uses client of first object");
+        try {
+            batch.addObject(secondScore, EBatchOpType.CREATE);
+            fail("Adding object of different client should fail");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.OTHER_CAUSE, ex.getCode());
+        }
+
+        batch.setClient(second);
+        try {
+            batch.execute();
+            fail("Executing batch with object of different client should fail");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.OTHER_CAUSE, ex.getCode());
+        }
+    }
+
+    private List<ParseObject> createObjects(final int count) {
+        final List<ParseObject> objects = new ArrayList<ParseObject>();
+        for (int i = 0; i < count; ++i) {
+            ParseObject object = ParseObject.create(classGameScore);
+            object.put(fieldScore, i);
+            objects.add(object);
+        }
+        return objects;
+    }
+
+    /**
+     * An object whose save hook adds a field to the request body.
+     */
+    private static class StampedObject extends ParseObject {
+
+        StampedObject(final String className) {
+            super(className);
+        }
+
+        @Override
+        protected void setUpSaveCommand(final ParseCommand command) throws ParseException {
+            final JSONObject body = getParseData();
+            try {
+                body.put("stamped", true);
+            } catch (JSONException ex) {
+                throw new ParseException(ParseException.INVALID_JSON, 
+                        ParseException.ERR_PREPARING_REQUEST, ex);
+            }
+            command.setMessageBody(body);
+        }
+    }
+
+    /**
+     * A transport that records requests and returns canned responses for
+     * batch requests and single saves.
+     */
+    private static class RecordingTransport implements IHttpTransport {
+
+        private final List<HttpRequest> requests = new ArrayList<HttpRequest>();
+
+        public void perform(HttpRequest request, IResponseHandler handler) {
+            requests.add(request);
+            final String response = request.getUrl().endsWith(ParseConstants.ENDPOINT_BATCH)
+                    ? "[{\"success\":{\"objectId\":\"s1\",\"createdAt\":\"2015-01-01T00:00:00.000Z\"}}]"
+                    : "{\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}";
+            try {
+                handler.onResponse(200, null, new HashMap<String, String>(),
+                        new ByteArrayInputStream(response.getBytes("UTF-8")));
+            } catch (IOException ex) {
+                handler.onFailure(ex);
+            }
+            handler.onCompleted();
+        }
+
+        public void performAsync(HttpRequest request, IResponseHandler handler) {
+            perform(request, handler);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.callback.ParseFuture;
+import com.parse4cn1.command.HttpRequest;
+import com.parse4cn1.command.IHttpTransport;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseClientTest extends BaseParseTest {
+
+    private static final String NODE = "https://node1.example.com/parse";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testDefaultClient();
+        testIndependentClients();
+        testConcurrentSessions();
+        testCoalescedQueries();
+        testStreamedQuery();
+        testQueriedUsers();
+        return true;
+    }
+
+    private void testDefaultClient() {
+        System.out.println("============== testDefaultClient()");
+
+        assertEqual(TEST_APPLICATION_ID, Parse.getDefaultClient().getApplicationId());
+        assertEqual(TEST_CLIENT_KEY, Parse.getDefaultClient().getClientKey());
+        assertTrue(ParseQueryCache.getInstance() == Parse.getDefaultClient().getQueryCache(),
+                "Default client uses the global query cache");
+
+        final ParseObject object = ParseObject.create("Item");
+        assertTrue(Parse.getDefaultClient() == object.getClient(),
+                "Objects use the default client unless specified");
+        assertTrue(Parse.getDefaultClient() == ParseQuery.getQuery("Item").getClient(),
+                "Queries use the default client unless specified");
+    }
+
+    private void testIndependentClients() throws ParseException, JSONException {
+        System.out.println("============== testIndependentClients()");
+
+        final RecordingTransport transport = new RecordingTransport();
+        final ParseClient first = ParseClient.create("app1", "key1",
+                ParseEndpointRouter.create(NODE)).setHttpTransport(transport);
+        final ParseClient second = ParseClient.create("app2", "key2").setHttpTransport(transport);
+        assertFalse(first.getQueryCache() == second.getQueryCache(),
+                "Applications have separate query caches");
+
+        ParseQuery.getQuery("Item").setClient(first).find();
+        HttpRequest request = transport.getLast();
+        assertEqual("app1", request.getHeaders().get(ParseConstants.HEADER_APPLICATION_ID));
+        assertEqual("key1", request.getHeaders().get(ParseConstants.HEADER_CLIENT_KEY));
+        assertTrue(request.getUrl().startsWith(NODE + "/classes/Item"),
+                "Request is sent to the client's endpoint");
+        assertNull(request.getHeaders().get(ParseConstants.HEADER_SESSION_TOKEN),
+                "No session without current user");
+
+        logIn(second, "token2");
+        final ParseObject object = ParseObject.create("Item");
+        object.setClient(second);
+        object.put("name", "value");
+        object.save();
+        request = transport.getLast();
+        assertEqual("app2", request.getHeaders().get(ParseConstants.HEADER_APPLICATION_ID));
+        assertEqual("token2", request.getHeaders().get(ParseConstants.HEADER_SESSION_TOKEN));
+        assertTrue(request.getUrl().startsWith(Parse.getParseAPIUrl("classes/Item")));
+        assertNull(ParseUser.getCurrent(), "Default client's session is unaffected");
+
+        final ParseClient session = second.newSession();
+        assertNull(session.getCurrentUser(), "New session has no current user");
+        assertTrue(session.getQueryCache() == second.getQueryCache(),
+                "Sessions share the query cache");
+        assertTrue(session.getHttpTransport() == transport, "Sessions share the transport");
+
+        final List<ParseObject> results = ParseQuery.getQuery("Item").setClient(session).find();
+        assertEqual(1, results.size());
+        assertTrue(session == results.get(0).getClient(), "Results inherit the query's client");
+    }
+
+    private void testConcurrentSessions() throws InterruptedException, ParseException {
+        System.out.println("============== testConcurrentSessions()");
+
+        final RecordingTransport transport = new RecordingTransport();
+        final ParseClient client = ParseClient.create("app", "key").setHttpTransport(transport);
+        final int sessionCount = 8;
+        final int requestsPerSession = 50;
+        final List<String> failures = new ArrayList<String>();
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < sessionCount; ++i) {
+            final ParseClient session = client.newSession();
+            final String token = "token" + i;
+            logIn(session, token);
+
+            final Thread thread = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        for (int j = 0; j < requestsPerSession; ++j) {
+                            final ParseObject object = ParseObject.create("Item");
+                            object.setClient(session);
+                            object.put("session", token);
+                            object.save();
+                        }
+                    } catch (ParseException ex) {
+                        synchronized (failures) {
+                            failures.add(ex.getMessage());
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.isEmpty(), "Requests succeed: " + failures);
+        assertEqual(sessionCount * requestsPerSession, transport.getBodies().size());
+        for (int i = 0; i < transport.getBodies().size(); ++i) {
+            assertTrue(transport.getBodies().get(i).indexOf(
+                    "\"" + transport.getSessionTokens().get(i) + "\"") >= 0,
+                    "Request is sent with the session of the issuing client");
+        }
+    }
+
+    private void testCoalescedQueries() throws ParseException {
+        System.out.println("============== testCoalescedQueries()");
+
+        final DeferredTransport transport = new DeferredTransport();
+        final ParseClient client = ParseClient.create("app", "key").setHttpTransport(transport);
+        final ParseFuture<List<ParseObject>> first
+                = ParseQuery.getQuery("Item").setClient(client).findInBackground();
+        final ParseFuture<List<ParseObject>> second
+                = ParseQuery.getQuery("Item").setClient(client).findInBackground();
+        assertEqual(1, transport.getPendingCount(), "Identical queries share a request");
+
+        transport.completeAll();
+        assertEqual(1, first.get().size());
+        assertEqual(1, second.get().size(), "Joined query decodes the shared response");
+        assertEqual("a1", second.get().get(0).getObjectId());
+        assertEqual(Long.valueOf(1), Long.valueOf(client.getRequestCoalescer().getIssuedCount()));
+        assertEqual(Long.valueOf(1), Long.valueOf(client.getRequestCoalescer().getCoalescedCount()));
+    }
+
+    private void testStreamedQuery() throws ParseException {
+        System.out.println("============== testStreamedQuery()");
+
+        final ParseClient client = ParseClient.create("app", "key")
+                .setHttpTransport(new RecordingTransport());
+        final List<ParseObject> results = new ArrayList<ParseObject>();
+        ParseQuery.getQuery("Item").setClient(client).find(new ParseQuery.IResultConsumer<ParseObject>() {
+
+            public void consume(ParseObject object) throws ParseException {
+                results.add(object);
+            }
+        });
+        assertEqual(1, results.size());
+        assertEqual(Long.valueOf(0), Long.valueOf(client.getRequestCoalescer().getIssuedCount()),
+                "Streamed results are not buffered to be shared");
+        assertEqual(Long.valueOf(0), Long.valueOf(client.getResponseCache().getRequestCount()),
+                "Streamed results are not buffered to be revalidated");
+    }
+
+    private void testQueriedUsers() throws ParseException {
+        System.out.println("============== testQueriedUsers()");
+
+        final IHttpTransport transport = new IHttpTransport() {
+
+            public void perform(HttpRequest request, IResponseHandler handler) {
+                final String response = "{\"results\":[{\"objectId\":\"u1\","
+                        + "\"sessionToken\":\"token1\"}]}";
+                try {
+                    handler.onResponse(200, null, new HashMap<String, String>(),
+                            new ByteArrayInputStream(response.getBytes("UTF-8")));
+                } catch (IOException ex) {
+                    handler.onFailure(ex);
+                }
+                handler.onCompleted();
+            }
+
+            public void performAsync(HttpRequest request, IResponseHandler handler) {
+                perform(request, handler);
+            }
+        };
+        final ParseClient client = ParseClient.create("app", "key").setHttpTransport(transport);
+        final ParseUser defaultUser = Parse.getDefaultClient().getCurrentUser();
+
+        final ParseQuery<ParseUser> query = ParseQuery.getQuery(ParseConstants.CLASS_NAME_USER);
+        final ParseUser user = query.setClient(client).find().get(0);
+        assertTrue(client == user.getClient(), "Queried user belongs to the query's client");
+        assertTrue(user == client.getCurrentUser(), 
+                "Session token of queried user is associated with the query's client");
+        assertTrue(defaultUser == Parse.getDefaultClient().getCurrentUser(),
+                "Default client's current user is unaffected");
+
+        final ParseClient session = client.newSession();
+        final ParseQuery<ParseUser> mappedQuery = ParseQuery.getQuery(ParseConstants.CLASS_NAME_USER);
+        mappedQuery.setClient(session).setIdentityMap(new ParseIdentityMap());
+        final ParseUser mappedUser = mappedQuery.find().get(0);
+        assertTrue(mappedUser == session.getCurrentUser(), 
+                "Session token of resolved user is associated with the query's client");
+        assertTrue(defaultUser == Parse.getDefaultClient().getCurrentUser(),
+                "Default client's current user is unaffected by resolved user");
+    }
+
+    private void logIn(final ParseClient client, final String sessionToken) {
+        final ParseUser user = new ParseUser();
+        user.setClient(client);
+        user.setData(new JSONObject(new HashMap<String, String>() {
+            {
+                put(ParseConstants.FIELD_OBJECT_ID, "user");
+                put(ParseConstants.FIELD_SESSION_TOKEN, sessionToken);
+            }
+        }));
+        assertTrue(user == client.getCurrentUser(), "Login sets the client's current user");
+    }
+
+    /**
+     * A transport that completes asynchronous requests on demand.
+     */
+    private static class DeferredTransport extends RecordingTransport {
+
+        private final List<HttpRequest> pending = new ArrayList<HttpRequest>();
+        private final List<IResponseHandler> handlers = new ArrayList<IResponseHandler>();
+
+        @Override
+        public synchronized void performAsync(HttpRequest request, IResponseHandler handler) {
+            pending.add(request);
+            handlers.add(handler);
+        }
+
+        synchronized int getPendingCount() {
+            return pending.size();
+        }
+
+        void completeAll() {
+            final List<HttpRequest> requests;
+            final List<IResponseHandler> waiting;
+            synchronized (this) {
+                requests = new ArrayList<HttpRequest>(pending);
+                waiting = new ArrayList<IResponseHandler>(handlers);
+                pending.clear();
+                handlers.clear();
+            }
+            for (int i = 0; i < requests.size(); ++i) {
+                perform(requests.get(i), waiting.get(i));
+            }
+        }
+    }
+
+    /**
+     * A transport that records requests and returns a canned response that
+     * is valid for saves and queries.
+     */
+    private static class RecordingTransport implements IHttpTransport {
+
+        private final List<HttpRequest> requests = new ArrayList<HttpRequest>();
+        private final List<String> bodies = new ArrayList<String>();
+        private final List<String> sessionTokens = new ArrayList<String>();
+
+        public void perform(HttpRequest request, IResponseHandler handler) {
+            try {
+                if (request.getBodyWriter() != null) {
+                    final java.io.ByteArrayOutputStream body = new java.io.ByteArrayOutputStream();
+                    request.getBodyWriter().writeTo(body);
+                    synchronized (this) {
+                        bodies.add(new String(body.toByteArray(), "UTF-8"));
+                        sessionTokens.add(request.getHeaders().get(
+                                ParseConstants.HEADER_SESSION_TOKEN));
+                    }
+                }
+                synchronized (this) {
+                    requests.add(request);
+                }
+                final String response = "{\"objectId\":\"a1\",\"createdAt\":\"2015-01-01T00:00:00.000Z\","
+                        + "\"results\":[{\"objectId\":\"a1\"}]}";
+                handler.onResponse(200, null, new HashMap<String, String>(),
+                        new ByteArrayInputStream(response.getBytes("UTF-8")));
+            } catch (IOException ex) {
+                handler.onFailure(ex);
+            }
+            handler.onCompleted();
+        }
+
+        public void performAsync(HttpRequest request, IResponseHandler handler) {
+            perform(request, handler);
+        }
+
+        synchronized HttpRequest getLast() {
+            return requests.get(requests.size() - 1);
+        }
+
+        synchronized List<String> getBodies() {
+            return bodies;
+        }
+
+        synchronized List<String> getSessionTokens() {
+            return sessionTokens;
+        }
+    }
+}
@@ -45,6 +45,7 @@ public class ParseCloudTest extends BaseParseTest {
         // Cloud function
         final String helloWorld = ParseCloud.callFunction("hello", null);
         assertEqual("Hello world!", helloWorld);
+        assertEqual("Hello world!", ParseCloud.callFunctionInBackground("hello", null).get());
         
         // Cloud job via function wrapper
         for (int i = 0; i < 5; ++i) {
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseCounterAggregatorTest extends BaseParseTest {
+
+    private final String classItem = "Item";
+    private final String fieldViews = "views";
+    private final String fieldLikes = "likes";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testConcurrentIncrements();
+        testBackgroundFlush();
+        testNonExistentObject();
+        return true;
+    }
+
+    @Override
+    protected void resetClassData() {
+        System.out.println("============== resetClassData()");
+        deleteObjects(classItem);
+    }
+
+    private void testConcurrentIncrements() throws ParseException, InterruptedException {
+        System.out.println("============== testConcurrentIncrements()");
+
+        final List<ParseObject> items = createItems(3);
+        final ParseCounterAggregator aggregator = ParseCounterAggregator.create(4);
+
+        final int threadCount = 5;
+        final int incrementsPerThread = 200;
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; ++i) {
+            final Thread thread = new Thread(new Runnable() {
+
+                public void run() {
+                    for (int j = 0; j < incrementsPerThread; ++j) {
+                        final ParseObject item = items.get(j % items.size());
+                        aggregator.increment(classItem, item.getObjectId(), fieldViews);
+                        if (j % 10 == 0) {
+                            aggregator.increment(classItem, item.getObjectId(), fieldLikes, 2);
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final ParseObject first = items.get(0);
+        assertEqual(2 * items.size(), aggregator.getPendingCount(),
+                "One pending counter per object and key");
+        assertEqual(335L, aggregator.getPendingAmount(classItem, first.getObjectId(), fieldViews));
+        assertEqual(70L, aggregator.getPendingAmount(classItem, first.getObjectId(), fieldLikes));
+
+        assertTrue(aggregator.flush(), "Flush succeeds");
+        assertEqual(0, aggregator.getPendingCount(), "Nothing is pending after flush");
+
+        int totalViews = 0;
+        for (ParseObject item : items) {
+            final ParseObject retrieved = ParseObject.fetch(classItem, item.getObjectId());
+            totalViews += retrieved.getInt(fieldViews);
+        }
+        assertEqual(threadCount * incrementsPerThread, totalViews, "No increment is lost");
+        assertEqual(Integer.valueOf(70),
+                ParseObject.fetch(classItem, first.getObjectId()).getInt(fieldLikes));
+
+        aggregator.setBatched(false);
+        aggregator.increment(classItem, first.getObjectId(), fieldViews, -35);
+        assertTrue(aggregator.flush(), "Unbatched flush succeeds");
+        assertEqual(Integer.valueOf(300),
+                ParseObject.fetch(classItem, first.getObjectId()).getInt(fieldViews));
+    }
+
+    private void testBackgroundFlush() throws ParseException, InterruptedException {
+        System.out.println("============== testBackgroundFlush()");
+
+        final ParseObject item = createItems(1).get(0);
+        final ParseCounterAggregator aggregator = ParseCounterAggregator.create()
+                .setFlushThreshold(2);
+        aggregator.start();
+
+        aggregator.increment(classItem, item.getObjectId(), fieldViews, 5);
+        Thread.sleep(500);
+        assertEqual(1, aggregator.getPendingCount(), "Threshold not yet reached");
+
+        aggregator.increment(classItem, item.getObjectId(), fieldLikes);
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (aggregator.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEqual(0, aggregator.getPendingCount(), "Reaching threshold triggers flush");
+
+        aggregator.increment(classItem, item.getObjectId(), fieldViews, 5);
+        assertTrue(aggregator.stop(), "Stopping flushes remaining increments");
+
+        final ParseObject retrieved = ParseObject.fetch(classItem, item.getObjectId());
+        assertEqual(Integer.valueOf(10), retrieved.getInt(fieldViews));
+        assertEqual(Integer.valueOf(1), retrieved.getInt(fieldLikes));
+    }
+
+    private void testNonExistentObject() throws ParseException {
+        System.out.println("============== testNonExistentObject()");
+
+        final ParseCounterAggregator aggregator = ParseCounterAggregator.create();
+        aggregator.increment(classItem, "nonExistent", fieldViews);
+        assertFalse(aggregator.flush(), "Flush fails for non-existent object");
+        assertEqual(0, aggregator.getPendingCount(),
+                "Increments of non-existent objects are discarded");
+
+        aggregator.increment(classItem, "canceled", fieldViews, 1);
+        aggregator.increment(classItem, "canceled", fieldViews, -1);
+        assertTrue(aggregator.flush(), "Increments that cancel out are not sent");
+    }
+
+    private List<ParseObject> createItems(final int count) throws ParseException {
+        final List<ParseObject> items = new ArrayList<ParseObject>();
+        for (int i = 0; i < count; ++i) {
+            final ParseObject item = ParseObject.create(classItem);
+            item.put(fieldViews, 0);
+            item.put(fieldLikes, 0);
+            items.add(item);
+        }
+        ParseObject.saveAll(items);
+        return items;
+    }
+}
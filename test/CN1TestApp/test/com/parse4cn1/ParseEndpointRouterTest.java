@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.ParseEndpointRouter.EPolicy;
+import com.parse4cn1.ParseEndpointRouter.Endpoint;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseEndpointRouterTest extends BaseParseTest {
+
+    private static final String NODE1 = "https://node1.example.com/parse";
+    private static final String NODE2 = "https://node2.example.com/parse";
+    private static final String NODE3 = "https://node3.example.com/parse";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testUrlMapping();
+        testRoundRobin();
+        testLeastOutstanding();
+        testLatencyWeighted();
+        testHealthMarking();
+        return true;
+    }
+
+    private void testUrlMapping() {
+        System.out.println("============== testUrlMapping()");
+
+        final ParseEndpointRouter router = ParseEndpointRouter.create(
+                new String[]{NODE1 + "/", NODE2});
+        assertEqual(NODE1, router.getPrimaryUrl(), "Trailing slash is removed");
+        assertEqual("/parse", router.getPrimaryPath());
+        assertEqual("/1", ParseEndpointRouter.create("https://api.parse.com/1").getPrimaryPath());
+        assertEqual("", ParseEndpointRouter.create("http://localhost:1337").getPrimaryPath());
+
+        assertNull(router.acquire("https://files.example.com/a.png", null),
+                "URLs of other hosts are not routed");
+        assertNull(router.acquire(NODE1 + "x/classes", null),
+                "URLs that merely share a prefix are not routed");
+
+        final Endpoint endpoint = router.acquire(NODE1 + "/classes/Item", null);
+        assertNotNull(endpoint);
+        assertTrue(router.resolve(endpoint, NODE1 + "/classes/Item").endsWith("/parse/classes/Item"));
+        router.release(endpoint, true, 10);
+
+        Parse.initialize(TEST_APPLICATION_ID, TEST_CLIENT_KEY, router);
+        try {
+            assertEqual(NODE1 + "/classes", Parse.getParseAPIUrl("classes"));
+        } finally {
+            init();
+        }
+        assertEqual("https://api.parse.com/1/classes", Parse.getParseAPIUrl("classes"),
+                "Default endpoint is restored by initialize()");
+    }
+
+    private void testRoundRobin() {
+        System.out.println("============== testRoundRobin()");
+
+        final ParseEndpointRouter router = createRouter(EPolicy.ROUND_ROBIN);
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < 30; ++i) {
+            final Endpoint endpoint = router.acquire(NODE1, null);
+            increment(counts, endpoint.getUrl());
+            router.release(endpoint, true, 10);
+        }
+        assertEqual(Integer.valueOf(10), counts.get(NODE1));
+        assertEqual(Integer.valueOf(10), counts.get(NODE2));
+        assertEqual(Integer.valueOf(10), counts.get(NODE3));
+
+        final List<Endpoint> excluded = new ArrayList<Endpoint>();
+        excluded.add(router.acquire(NODE1, null));
+        excluded.add(router.acquire(NODE1, null));
+        final Endpoint remaining = router.acquire(NODE1, excluded);
+        assertFalse(excluded.contains(remaining), "Excluded endpoints are skipped");
+    }
+
+    private void testLeastOutstanding() {
+        System.out.println("============== testLeastOutstanding()");
+
+        final ParseEndpointRouter router = createRouter(EPolicy.LEAST_OUTSTANDING);
+        final List<Endpoint> busy = new ArrayList<Endpoint>();
+        for (int i = 0; i < 3; ++i) {
+            busy.add(router.acquire(NODE1, null));
+        }
+        assertEqual(1, router.getOutstandingRequests(0));
+        assertEqual(1, router.getOutstandingRequests(1));
+        assertEqual(1, router.getOutstandingRequests(2));
+
+        // Completing the request of one endpoint makes it the preferred one
+        final Endpoint idle = busy.remove(1);
+        router.release(idle, true, 10);
+        assertTrue(idle == router.acquire(NODE1, null),
+                "Endpoint with fewest outstanding requests is selected");
+    }
+
+    private void testLatencyWeighted() {
+        System.out.println("============== testLatencyWeighted()");
+
+        final ParseEndpointRouter router = createRouter(EPolicy.LATENCY_WEIGHTED);
+        final Map<String, Endpoint> byUrl = new HashMap<String, Endpoint>();
+        while (byUrl.size() < 3) {
+            final Endpoint endpoint = router.acquire(NODE1, null);
+            byUrl.put(endpoint.getUrl(), endpoint);
+            router.release(endpoint, true, NODE3.equals(endpoint.getUrl()) ? 1000 : 10);
+        }
+
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < 1000; ++i) {
+            final Endpoint endpoint = router.acquire(NODE1, null);
+            increment(counts, endpoint.getUrl());
+            router.release(endpoint, true, NODE3.equals(endpoint.getUrl()) ? 1000 : 10);
+        }
+        final int slowCount = counts.containsKey(NODE3) ? counts.get(NODE3) : 0;
+        assertTrue(slowCount < 50, "Slow endpoint receives few requests (" + slowCount + ")");
+        assertTrue(counts.get(NODE1) > 300 && counts.get(NODE2) > 300,
+                "Fast endpoints share the load");
+    }
+
+    private void testHealthMarking() throws InterruptedException {
+        System.out.println("============== testHealthMarking()");
+
+        final ParseEndpointRouter router = ParseEndpointRouter.create(new String[]{NODE1, NODE2})
+                .setFailureThreshold(2)
+                .setRecoveryDelay(200);
+
+        final Endpoint node1 = router.acquire(NODE1, null);
+        final Endpoint node2 = router.acquire(NODE1, null);
+        router.release(node1, true, 10);
+        router.release(node2, true, 10);
+
+        report(router, node1, node2, false);
+        assertTrue(router.isHealthy(0), "Single failure does not mark endpoint as unhealthy");
+        report(router, node1, node2, true);
+        report(router, node1, node2, false);
+        assertTrue(router.isHealthy(0), "Failures must be consecutive");
+        report(router, node1, node2, false);
+        assertFalse(router.isHealthy(0), "Consecutive failures mark endpoint as unhealthy");
+
+        for (int i = 0; i < 5; ++i) {
+            final Endpoint endpoint = router.acquire(NODE1, null);
+            assertTrue(node2 == endpoint, "Unhealthy endpoint is skipped");
+            router.release(endpoint, true, 10);
+        }
+
+        // If all endpoints are unhealthy, the one recovering first is used
+        report(router, node2, node1, false);
+        report(router, node2, node1, false);
+        assertFalse(router.isHealthy(1));
+        final Endpoint recovering = router.acquire(NODE1, null);
+        assertTrue(node1 == recovering, "Endpoint recovering first is selected");
+        router.release(recovering, true, 10);
+        assertTrue(router.isHealthy(0), "Success marks endpoint as healthy");
+
+        Thread.sleep(300);
+        assertTrue(router.isHealthy(1), "Endpoint becomes eligible again after recovery delay");
+    }
+
+    private void report(final ParseEndpointRouter router, final Endpoint target,
+            final Endpoint other, final boolean success) {
+        final List<Endpoint> excluded = new ArrayList<Endpoint>();
+        excluded.add(other);
+        final Endpoint endpoint = router.acquire(NODE1, excluded);
+        assertTrue(target == endpoint);
+        router.release(endpoint, success, 10);
+    }
+
+    private ParseEndpointRouter createRouter(final EPolicy policy) {
+        return ParseEndpointRouter.create(new String[]{NODE1, NODE2, NODE3}).setPolicy(policy);
+    }
+
+    private void increment(final Map<String, Integer> counts, final String key) {
+        final Integer count = counts.get(key);
+        counts.put(key, (count == null) ? 1 : count + 1);
+    }
+}
@@ -15,12 +15,17 @@
  */
 package com.parse4cn1;
 
+import com.codename1.io.FileSystemStorage;
+import com.codename1.io.Util;
 import com.parse4cn1.callback.ProgressCallback;
+import com.parse4cn1.command.ParseDownloadCommand;
 import com.parse4cn1.util.MimeType;
 import static com.parse4cn1.util.MimeType.getFileExtension;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -40,6 +45,9 @@ public class ParseFileTest extends BaseParseTest {
         testDataFileUpload();
         testArbitraryExtensionFileUpload();
         testSaveWithProgressListener();
+        testStreamUpload();
+        testStreamDownload();
+        testSegmentedDownload();
         return true;
     }
 
@@ -115,6 +123,89 @@ public class ParseFileTest extends BaseParseTest {
         deleteFile(file.getName());
     }
 
+    private void testStreamUpload() throws ParseException, IOException {
+        System.out.println("============== testStreamUpload()");
+        final String fileName = "parse.pdf";
+        assertNotNull(getClass().getResource("/" + fileName), "Test file missing");
+
+        byte[] inputBytes = getBytes("/" + fileName);
+        ParseFile file = new ParseFile(fileName, getClass().getResourceAsStream("/" + fileName),
+                inputBytes.length, MimeType.getMimeType(getFileExtension(fileName)));
+        assertFalse(file.isDataAvailable(), "Stream is not read before saving");
+
+        final AtomicInteger percentDone = new AtomicInteger(0);
+        file.save(new ProgressCallback() {
+
+            @Override
+            public void done(Integer done) {
+                percentDone.getAndSet(done);
+            }
+        });
+        assertEqual(100, percentDone.get(), "Progress is reported for streamed upload");
+        assertFalse(file.isDirty());
+
+        ParseFile retrieved = new ParseFile(file.getName(), file.getUrl());
+        assertTrue(Arrays.equals(inputBytes, retrieved.getData()),
+                "Streamed data should match retrieved file data");
+        deleteFile(file.getName());
+    }
+
+    private void testStreamDownload() throws ParseException, IOException {
+        System.out.println("============== testStreamDownload()");
+        final String fileName = "parse.pdf";
+        assertNotNull(getClass().getResource("/" + fileName), "Test file missing");
+
+        byte[] inputBytes = getBytes("/" + fileName);
+        ParseFile file = new ParseFile(fileName, inputBytes,
+                MimeType.getMimeType(getFileExtension(fileName)));
+        file.save();
+
+        ParseFile retrieved = new ParseFile(file.getName(), file.getUrl());
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final AtomicInteger percentDone = new AtomicInteger(0);
+        retrieved.download(output, new ProgressCallback() {
+
+            @Override
+            public void done(Integer done) {
+                percentDone.getAndSet(done);
+            }
+        });
+        assertTrue(Arrays.equals(inputBytes, output.toByteArray()),
+                "Streamed data should match saved file data");
+        assertEqual(100, percentDone.get(), "100% expected after successful download");
+        assertFalse(retrieved.isDataAvailable(), "Streamed data is not retained");
+        deleteFile(file.getName());
+    }
+
+    private void testSegmentedDownload() throws ParseException, IOException {
+        System.out.println("============== testSegmentedDownload()");
+        final String fileName = "parse.pdf";
+        assertNotNull(getClass().getResource("/" + fileName), "Test file missing");
+
+        byte[] inputBytes = getBytes("/" + fileName);
+        ParseFile file = new ParseFile(fileName, inputBytes,
+                MimeType.getMimeType(getFileExtension(fileName)));
+        file.save();
+
+        final FileSystemStorage storage = FileSystemStorage.getInstance();
+        final String path = storage.getAppHomePath() + "segmented.pdf";
+        final ParseDownloadCommand command = new ParseDownloadCommand(file.getUrl(), null);
+        command.setSegmentedOutput(path, 4);
+        command.setMinSegmentSize(inputBytes.length / 4 + 1);
+        assertFalse(command.perform().isFailed(), "Segmented download should succeed");
+
+        final InputStream input = storage.openInputStream(path);
+        try {
+            assertTrue(Arrays.equals(inputBytes, Util.readInputStream(input)),
+                    "Joined segments should match saved file data");
+        } finally {
+            input.close();
+        }
+        assertFalse(storage.exists(path + ".part1"), "Temporary files are removed");
+        storage.delete(path);
+        deleteFile(file.getName());
+    }
+
     private void uploadAndCheck(final String fileName) throws ParseException, IOException {
         assertNotNull(getClass().getResource("/" + fileName), "Test file missing");
 
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.encode.ParseDecoder;
+import java.util.List;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseIdentityMapTest extends BaseParseTest {
+
+    private final String classGameScore = "GameScore";
+    private final String classPlayer = "Player";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testPointerUniquing();
+        testMergeNewerData();
+        testModifiedObjectsAreNotOverwritten();
+        testDeletedObjects();
+        return true;
+    }
+
+    private void testPointerUniquing() throws JSONException {
+        System.out.println("============== testPointerUniquing()");
+
+        final JSONArray results = new JSONArray();
+        for (int i = 0; i < 100; ++i) {
+            final JSONObject score = new JSONObject();
+            score.put(ParseConstants.FIELD_OBJECT_ID, "score" + i);
+            score.put("player", createPointer(classPlayer, "player" + (i % 5)));
+            results.put(score);
+        }
+
+        final ParseIdentityMap identityMap = new ParseIdentityMap();
+        final List<ParseObject> scores = decodeResults(results, identityMap);
+        final ParseObject player = scores.get(0).getParseObject("player");
+        assertTrue(player == scores.get(5).getParseObject("player"),
+                "Pointers to same object resolve to same instance");
+        assertFalse(player == scores.get(1).getParseObject("player"));
+        assertTrue(player == identityMap.get(classPlayer, "player0"));
+        assertTrue(scores.get(7) == identityMap.get(classGameScore, "score7"));
+
+        final List<ParseObject> copies = decodeResults(results, null);
+        assertFalse(copies.get(0).getParseObject("player")
+                == copies.get(5).getParseObject("player"),
+                "Without identity map, each pointer yields a new instance");
+    }
+
+    private void testMergeNewerData() throws JSONException {
+        System.out.println("============== testMergeNewerData()");
+
+        final ParseIdentityMap identityMap = new ParseIdentityMap();
+        final ParseObject pointer = identityMap.resolvePointer(classPlayer, "p1");
+        assertFalse(pointer.isDataAvailable());
+
+        final JSONObject data = new JSONObject();
+        data.put(ParseConstants.FIELD_OBJECT_ID, "p1");
+        data.put(ParseConstants.FIELD_UPDATED_AT, "2015-05-01T10:00:00.000Z");
+        data.put("name", "Alice");
+        assertTrue(pointer == identityMap.resolve(classPlayer, data),
+                "Full object resolves to existing pointer instance");
+        assertEqual("Alice", pointer.getString("name"), "Data merged into pointer");
+
+        data.put("name", "Bob");
+        data.put(ParseConstants.FIELD_UPDATED_AT, "2015-04-01T10:00:00.000Z");
+        identityMap.resolve(classPlayer, data);
+        assertEqual("Alice", pointer.getString("name"), "Older data is ignored");
+
+        data.put(ParseConstants.FIELD_UPDATED_AT, "2015-06-01T10:00:00.000Z");
+        identityMap.resolve(classPlayer, data);
+        assertEqual("Bob", pointer.getString("name"), "Newer data is merged");
+    }
+
+    private void testModifiedObjectsAreNotOverwritten() throws JSONException {
+        System.out.println("============== testModifiedObjectsAreNotOverwritten()");
+
+        final ParseIdentityMap identityMap = new ParseIdentityMap();
+        final ParseObject player = ParseObject.create(classPlayer);
+        player.setObjectId("p2");
+        player.put("name", "Local");
+        identityMap.put(player);
+
+        final JSONObject data = new JSONObject();
+        data.put(ParseConstants.FIELD_OBJECT_ID, "p2");
+        data.put("name", "Remote");
+        assertTrue(player == identityMap.resolve(classPlayer, data));
+        assertEqual("Local", player.getString("name"), "Unsaved changes are retained");
+        assertTrue(player.isDirty());
+    }
+
+    private void testDeletedObjects() {
+        System.out.println("============== testDeletedObjects()");
+
+        final ParseIdentityMap identityMap = new ParseIdentityMap();
+        final ParseObject player = identityMap.resolvePointer(classPlayer, "p3");
+        assertEqual(1, identityMap.size());
+
+        // Deleting an object resets it
+        player.reset();
+        assertNull(identityMap.get(classPlayer, "p3"), "Reset object is dropped");
+        assertFalse(player == identityMap.resolvePointer(classPlayer, "p3"));
+
+        identityMap.clear();
+        assertEqual(0, identityMap.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ParseObject> decodeResults(final JSONArray results,
+            final ParseIdentityMap identityMap) throws JSONException {
+        final JSONArray objects = new JSONArray();
+        for (int i = 0; i < results.length(); ++i) {
+            final JSONObject object = new JSONObject(results.getJSONObject(i).toString());
+            object.put(ParseConstants.KEYWORD_TYPE, "Object");
+            object.put(ParseConstants.FIELD_CLASSNAME, classGameScore);
+            objects.put(object);
+        }
+        return (List<ParseObject>) ParseDecoder.decode(objects, identityMap);
+    }
+
+    private JSONObject createPointer(final String className, final String objectId)
+            throws JSONException {
+        final JSONObject pointer = new JSONObject();
+        pointer.put(ParseConstants.KEYWORD_TYPE, "Pointer");
+        pointer.put(ParseConstants.FIELD_CLASSNAME, className);
+        pointer.put(ParseConstants.FIELD_OBJECT_ID, objectId);
+        return pointer;
+    }
+}
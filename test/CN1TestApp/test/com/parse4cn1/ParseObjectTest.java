@@ -18,12 +18,15 @@ package com.parse4cn1;
 import ca.weblite.codename1.json.JSONArray;
 import ca.weblite.codename1.json.JSONException;
 import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.callback.GetCallback;
+import com.parse4cn1.callback.ParseFuture;
 import com.parse4cn1.encode.ParseDecoder;
 import com.parse4cn1.util.ParseRegistry;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -69,6 +72,10 @@ public class ParseObjectTest extends BaseParseTest {
         testCreateObjectExtended();
         testUpdateObjectExtended();
         testCustomParseObjectClass();
+        testInBackground();
+        testOperationMerging();
+        testHydration();
+        benchmarkHydration();
         return true;
     }
 
@@ -355,4 +362,185 @@ public class ParseObjectTest extends BaseParseTest {
         assertEqual("ReadOnly", retrieved.getString(CustomParseObject.CUSTOM_FIELD_NAME));
 
     }
+
+    private void testInBackground() throws ParseException {
+        System.out.println("============== testInBackground()");
+        
+        final ParseObject gameScore = ParseObject.create(classGameScore);
+        gameScore.put("score", 1337);
+        final ParseFuture<Void> saveFuture = gameScore.saveInBackground();
+        saveFuture.get();
+        assertTrue(saveFuture.isDone(), "Future is done after get() returns");
+        assertNotNull(gameScore.getObjectId(), "Object is saved in background");
+        
+        // get() may return before the callbacks have run, so the test waits 
+        // for a future that is completed by the callback itself
+        final ParseFuture<ParseObject> notified = new ParseFuture<ParseObject>();
+        final ParseFuture<ParseObject> fetchFuture 
+                = ParseObject.fetchInBackground(classGameScore, gameScore.getObjectId());
+        fetchFuture.addCallback(new GetCallback<ParseObject>() {
+
+            @Override
+            public void done(ParseObject t, ParseException parseException) {
+                if (parseException != null) {
+                    notified.fail(parseException);
+                } else {
+                    notified.complete(t);
+                }
+            }
+        });
+        final ParseObject fetched = notified.get();
+        assertEqual(Integer.valueOf(1337), fetched.getInt("score"), 
+                "Fetch in background succeeds");
+        
+        gameScore.deleteInBackground().get();
+        assertNull(gameScore.getObjectId(), "Object is deleted in background");
+        
+        try {
+            gameScore.deleteInBackground().get();
+            fail("Deleting object without objectId should fail");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.MISSING_OBJECT_ID, ex.getCode());
+        }
+    }
+
+    private void testOperationMerging() throws ParseException, JSONException {
+        System.out.println("============== testOperationMerging()");
+        
+        final ParseObject obj = ParseObject.create(classGameScore);
+        obj.put("views", 10);
+        obj.put("tags", new ArrayList<String>(Arrays.asList("a")));
+        obj.save();
+        
+        for (int i = 0; i < 5; ++i) {
+            obj.increment("views");
+        }
+        obj.increment("views", 2.5);
+        JSONObject encoded = obj.getParseData().getJSONObject("views");
+        assertEqual("Increment", encoded.getString(ParseConstants.KEYWORD_OP));
+        assertEqual(7.5, encoded.getDouble("amount"), "Increments are summed");
+        
+        obj.addToArrayField("tags", "b");
+        obj.addAllToArrayField("tags", Arrays.asList("c", "d"));
+        encoded = obj.getParseData().getJSONObject("tags");
+        assertEqual("Add", encoded.getString(ParseConstants.KEYWORD_OP));
+        assertEqual(3, encoded.getJSONArray("objects").length(), "Adds are concatenated");
+        
+        obj.save();
+        final ParseObject retrieved = ParseObject.fetch(obj.getClassName(), obj.getObjectId());
+        assertEqual(17.5, retrieved.getDouble("views"));
+        assertEqual(Arrays.asList("a", "b", "c", "d"), retrieved.getList("tags"));
+        
+        // Operations after set or delete collapse into a set
+        obj.put("views", 1);
+        obj.increment("views", 2);
+        assertEqual(Integer.valueOf(3), obj.getParseData().get("views"));
+        
+        obj.remove("tags");
+        obj.addToArrayField("tags", "x");
+        obj.addUniqueToArrayField("tags", "x");
+        final JSONArray tags = obj.getParseData().getJSONArray("tags");
+        assertEqual(1, tags.length(), "Add and AddUnique after delete yield a single set");
+        
+        obj.removeFromArrayField("tags", "x");
+        assertEqual(0, obj.getParseData().getJSONArray("tags").length());
+        
+        try {
+            obj.put("playerName", "Sean Plott");
+            obj.addToArrayField("playerName", "x");
+            fail("Adding to a non-array value should fail");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().startsWith("Operation is invalid"));
+        }
+        
+        obj.save();
+        obj.delete();
+    }
+
+    private void testHydration() throws ParseException, JSONException {
+        System.out.println("============== testHydration()");
+        
+        final ParseObject object = ParseObject.create(classGameScore);
+        object.put("local", "value");
+        object.setData(createHydrationData(1));
+        
+        assertEqual("obj1", object.getObjectId());
+        assertNotNull(object.getCreatedAt(), "Reserved keys are set");
+        assertEqual(Integer.valueOf(1), object.getInt("score"));
+        assertEqual("value", object.getString("local"), "Existing data is preserved");
+        assertTrue(object.getParseObject("owner") != null, "Pointers are decoded");
+        assertEqual(3, object.getList("tags").size(), "Arrays are decoded");
+        assertFalse(object.isDirty(), "Hydrated object is not dirty");
+        assertEqual(0, object.getParseData().length(), "Hydrated object has no pending operations");
+    }
+    
+    /**
+     * Compares hydrating objects via put() (as setData() used to do) to 
+     * the dedicated hydration path of setData().
+     */
+    private void benchmarkHydration() throws JSONException {
+        System.out.println("============== benchmarkHydration()");
+        
+        final int count = 10000;
+        final JSONObject[] results = new JSONObject[count];
+        for (int i = 0; i < count; ++i) {
+            results[i] = createHydrationData(i);
+        }
+        
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.currentTimeMillis();
+        for (JSONObject result : results) {
+            final ParseObject object = ParseObject.create(classGameScore);
+            final Iterator<?> it = result.keys();
+            while (it.hasNext()) {
+                final String key = (String) it.next();
+                final Object value = result.opt(key);
+                if (Parse.isReservedKey(key)) {
+                    object.setReservedKey(key, value);
+                } else {
+                    object.put(key, ParseDecoder.decode(value));
+                }
+            }
+            object.setDirty(false);
+        }
+        final long putTime = System.currentTimeMillis() - start;
+        final long putHeap = runtime.totalMemory() - runtime.freeMemory() - heapBefore;
+        
+        System.gc();
+        heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        start = System.currentTimeMillis();
+        for (JSONObject result : results) {
+            ParseObject.create(classGameScore).setData(result);
+        }
+        final long hydrateTime = System.currentTimeMillis() - start;
+        final long hydrateHeap = runtime.totalMemory() - runtime.freeMemory() - heapBefore;
+        
+        System.out.println("Hydrating " + count + " objects:"
+                + "\n\tVia put():  " + putTime + " ms, ~" + (putHeap / 1024) + " KB allocated"
+                + "\n\tVia setData(): " + hydrateTime + " ms, ~" + (hydrateHeap / 1024) + " KB allocated");
+    }
+    
+    private JSONObject createHydrationData(final int index) throws JSONException {
+        final JSONObject owner = new JSONObject();
+        owner.put(ParseConstants.KEYWORD_TYPE, "Pointer");
+        owner.put(ParseConstants.FIELD_CLASSNAME, classPlayer);
+        owner.put(ParseConstants.FIELD_OBJECT_ID, "player" + index);
+        
+        final JSONObject result = new JSONObject();
+        result.put(ParseConstants.FIELD_OBJECT_ID, "obj" + index);
+        result.put(ParseConstants.FIELD_CREATED_AT, "2015-06-01T10:00:00.000Z");
+        result.put(ParseConstants.FIELD_UPDATED_AT, "2015-06-01T10:00:00.000Z");
+        result.put("score", index);
+        result.put("playerName", "Player " + index);
+        result.put("cheatMode", false);
+        final JSONArray tags = new JSONArray();
+        tags.put("a");
+        tags.put("b");
+        tags.put("c");
+        result.put("tags", tags);
+        result.put("owner", owner);
+        return result;
+    }
 }
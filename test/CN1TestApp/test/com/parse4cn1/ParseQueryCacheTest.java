@@ -0,0 +1,281 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.ParseQuery.ECachePolicy;
+import com.parse4cn1.command.HttpRequest;
+import com.parse4cn1.command.IHttpTransport;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseQueryCacheTest extends BaseParseTest {
+
+    private final String classGameScore = "GameScore";
+    private final String fieldScore = "score";
+    private final ParseQueryCache cache = ParseQueryCache.getInstance();
+
+    @Override
+    public boolean runTest() throws Exception {
+        testCacheKey();
+        testLruEviction();
+        testCachePolicies();
+        testInvalidation();
+        testStaleResults();
+        testMaxCacheAge();
+        testIncludedObjects();
+        return true;
+    }
+
+    @Override
+    public void prepare() {
+        super.prepare();
+        ParseQuery.clearAllCachedResults();
+        cache.resetStatistics();
+    }
+
+    @Override
+    public void cleanup() {
+        cache.setMaxEntries(ParseQueryCache.DEFAULT_MAX_ENTRIES);
+        ParseQuery.clearAllCachedResults();
+        super.cleanup();
+    }
+
+    @Override
+    protected void resetClassData() {
+        System.out.println("============== resetClassData()");
+        deleteObjects(classGameScore);
+    }
+
+    private void testCacheKey() throws JSONException {
+        System.out.println("============== testCacheKey()");
+
+        final JSONObject first = new JSONObject(
+                "{\"className\":\"GameScore\",\"where\":{\"a\":1,\"b\":{\"$gt\":2,\"$lt\":5}},\"limit\":10}");
+        final JSONObject second = new JSONObject(
+                "{\"limit\":10,\"where\":{\"b\":{\"$lt\":5,\"$gt\":2},\"a\":1},\"className\":\"GameScore\"}");
+        assertEqual(ParseQueryCache.createKey("results", first),
+                ParseQueryCache.createKey("results", second),
+                "Key is independent of order of constraints");
+        assertFalse(ParseQueryCache.createKey("results", first).equals(
+                ParseQueryCache.createKey("count", first)), "Type is part of key");
+
+        second.put("skip", 1);
+        assertFalse(ParseQueryCache.createKey("results", first).equals(
+                ParseQueryCache.createKey("results", second)), "Skip is part of key");
+    }
+
+    private void testLruEviction() {
+        System.out.println("============== testLruEviction()");
+
+        cache.setMaxEntries(2);
+        cache.put("first", classGameScore, Integer.valueOf(1));
+        cache.put("second", classGameScore, Integer.valueOf(2));
+        assertNotNull(cache.get("first", Long.MAX_VALUE), "Access makes entry most recently used");
+        cache.put("third", classGameScore, Integer.valueOf(3));
+
+        assertEqual(2, cache.size());
+        assertNull(cache.peek("second", Long.MAX_VALUE), "Least recently used entry is evicted");
+        assertNotNull(cache.peek("first", Long.MAX_VALUE));
+        assertNotNull(cache.peek("third", Long.MAX_VALUE));
+
+        cache.setMaxEntries(ParseQueryCache.DEFAULT_MAX_ENTRIES);
+        cache.clear();
+    }
+
+    private void testCachePolicies() throws ParseException {
+        System.out.println("============== testCachePolicies()");
+
+        createScores(3);
+        final ParseQuery<ParseObject> query = ParseQuery.getQuery(classGameScore);
+        query.setCachePolicy(ECachePolicy.CACHE_ONLY);
+        try {
+            query.find();
+            fail("CACHE_ONLY should fail without cached result");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.CACHE_MISS, ex.getCode());
+        }
+
+        query.setCachePolicy(ECachePolicy.IGNORE_CACHE);
+        query.find();
+        assertFalse(query.hasCachedResult(), "IGNORE_CACHE does not save results");
+
+        query.setCachePolicy(ECachePolicy.NETWORK_ONLY);
+        final List<ParseObject> fromNetwork = query.find();
+        assertTrue(query.hasCachedResult(), "NETWORK_ONLY saves results");
+
+        cache.resetStatistics();
+        query.setCachePolicy(ECachePolicy.CACHE_ELSE_NETWORK);
+        final List<ParseObject> fromCache = query.find();
+        assertEqual(1L, cache.getHitCount(), "Result is served from cache");
+        assertEqual(fromNetwork.size(), fromCache.size());
+        assertFalse(fromNetwork.get(0) == fromCache.get(0), "Each hit yields new objects");
+        assertEqual(fromNetwork.get(0).getObjectId(), fromCache.get(0).getObjectId());
+
+        query.setCachePolicy(ECachePolicy.CACHE_ONLY);
+        assertEqual(3, query.find().size(), "CACHE_ONLY uses cached result");
+
+        query.setCachePolicy(ECachePolicy.NETWORK_ELSE_CACHE);
+        assertEqual(3, query.count());
+        query.setCachePolicy(ECachePolicy.CACHE_ONLY);
+        assertEqual(3, query.count(), "Count is cached separately");
+
+        query.setCachePolicy(ECachePolicy.CACHE_THEN_NETWORK);
+        try {
+            query.find();
+            fail("CACHE_THEN_NETWORK requires a callback");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+
+        query.clearCachedResult();
+        assertFalse(query.hasCachedResult(), "Cached result is cleared");
+    }
+
+    private void testInvalidation() throws ParseException {
+        System.out.println("============== testInvalidation()");
+
+        final ParseQuery<ParseObject> query = ParseQuery.getQuery(classGameScore);
+        query.setCachePolicy(ECachePolicy.CACHE_ELSE_NETWORK);
+        final int count = query.find().size();
+        assertTrue(query.hasCachedResult());
+
+        final ParseObject object = ParseObject.create(classGameScore);
+        object.put(fieldScore, 100);
+        object.save();
+        assertFalse(query.hasCachedResult(), "Saving an object invalidates its class");
+        assertEqual(count + 1, query.find().size(), "Saved object is found");
+
+        object.delete();
+        assertFalse(query.hasCachedResult(), "Deleting an object invalidates its class");
+        assertEqual(count, query.find().size(), "Deleted object is not found");
+    }
+
+    private void testStaleResults() {
+        System.out.println("============== testStaleResults()");
+
+        final List<String> included = new ArrayList<String>();
+        included.add("Player");
+        long epoch = cache.getEpoch();
+        cache.invalidate(classGameScore);
+        assertFalse(cache.put("first", classGameScore, included, Integer.valueOf(1), epoch),
+                "Result of query in progress during invalidation is not cached");
+        assertNull(cache.peek("first", Long.MAX_VALUE));
+
+        epoch = cache.getEpoch();
+        cache.invalidate("Player");
+        assertFalse(cache.put("first", classGameScore, included, Integer.valueOf(1), epoch),
+                "Invalidation of included class is detected");
+
+        epoch = cache.getEpoch();
+        cache.invalidate("Other");
+        assertTrue(cache.put("first", classGameScore, included, Integer.valueOf(1), epoch),
+                "Invalidation of unrelated class is ignored");
+
+        epoch = cache.getEpoch();
+        cache.clear();
+        assertFalse(cache.put("first", classGameScore, included, Integer.valueOf(1), epoch),
+                "Result of query in progress while clearing the cache is not cached");
+    }
+
+    private void testMaxCacheAge() throws ParseException {
+        System.out.println("============== testMaxCacheAge()");
+
+        final ParseQuery<ParseObject> query = ParseQuery.getQuery(classGameScore);
+        query.setCachePolicy(ECachePolicy.NETWORK_ONLY);
+        query.find();
+        assertTrue(query.hasCachedResult());
+
+        query.setMaxCacheAge(0);
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException ex) {
+            // Ignore
+        }
+        assertFalse(query.hasCachedResult(), "Expired result is not used");
+    }
+
+    private void testIncludedObjects() throws ParseException {
+        System.out.println("============== testIncludedObjects()");
+
+        final CannedTransport transport = new CannedTransport("{\"results\":[{\"objectId\":\"s1\","
+                + "\"player\":{\"__type\":\"Object\",\"className\":\"Player\","
+                + "\"objectId\":\"p1\",\"name\":\"a\"}}],"
+                + "\"objectId\":\"p1\",\"updatedAt\":\"2015-01-01T00:00:00.000Z\"}");
+        final ParseClient client = ParseClient.create("app", "key").setHttpTransport(transport);
+        final ParseQuery<ParseObject> query = ParseQuery.getQuery(classGameScore)
+                .setClient(client).include("player");
+        query.setCachePolicy(ECachePolicy.CACHE_ELSE_NETWORK);
+
+        Object player = query.find().get(0).get("player");
+        assertTrue(player instanceof ParseObject, "Included object is decoded from network");
+        player = query.find().get(0).get("player");
+        assertEqual(1, transport.requestCount, "Second result is served from cache");
+        assertTrue(player instanceof ParseObject, "Included object is decoded from cache");
+        assertEqual("a", ((ParseObject) player).getString("name"));
+
+        ((ParseObject) player).setClient(client);
+        ((ParseObject) player).put("name", "b");
+        ((ParseObject) player).save();
+        assertFalse(query.hasCachedResult(), "Saving an included object invalidates the result");
+    }
+
+    private void createScores(final int count) throws ParseException {
+        final List<ParseObject> objects = new ArrayList<ParseObject>();
+        for (int i = 0; i < count; ++i) {
+            final ParseObject object = ParseObject.create(classGameScore);
+            object.put(fieldScore, i);
+            objects.add(object);
+        }
+        ParseObject.saveAll(objects);
+    }
+
+    /**
+     * A transport that returns the same response to every request.
+     */
+    private static class CannedTransport implements IHttpTransport {
+
+        private final String response;
+        private int requestCount;
+
+        CannedTransport(final String response) {
+            this.response = response;
+        }
+
+        public void perform(HttpRequest request, IResponseHandler handler) {
+            ++requestCount;
+            try {
+                handler.onResponse(200, null, new HashMap<String, String>(),
+                        new ByteArrayInputStream(response.getBytes("UTF-8")));
+            } catch (IOException ex) {
+                handler.onFailure(ex);
+            }
+            handler.onCompleted();
+        }
+
+        public void performAsync(HttpRequest request, IResponseHandler handler) {
+            perform(request, handler);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseQueryEvaluatorTest extends BaseParseTest {
+
+    private final String classGameScore = "GameScore";
+    private final String fieldScore = "score";
+    private final String fieldPlayerName = "playerName";
+    private final String fieldArrayField = "arrayField";
+    private final String fieldLocation = "location";
+    private List<ParseObject> objects;
+
+    @Override
+    public boolean runTest() throws Exception {
+        prepareData();
+        testComparisonConstraints();
+        testArrayConstraints();
+        testStringConstraints();
+        testOrConstraint();
+        testOrderSkipAndLimit();
+        testSelectedKeys();
+        testGeoConstraints();
+        testUnsupportedConstraints();
+        return true;
+    }
+
+    private void prepareData() {
+        System.out.println("============== prepareData()");
+        objects = new ArrayList<ParseObject>();
+        objects.add(createObject("id1", 4, "Jonathan Walsh", new Integer[]{2}, 10.0, 10.0));
+        objects.add(createObject("id2", 9, "Zabro Wunsch", new Integer[]{1, 8, 9}, 20.0, 20.0));
+        objects.add(createObject("id3", 1000, "Dario Wunsch", null, 10.5, 10.5));
+        objects.add(createObject("id4", 1000, null, new Integer[]{2, 3, 4}, -10.0, 170.0));
+        objects.add(createObject("id5", 3500, "Mr. Winner", new Integer[]{2, 3}, 0.0, 0.0));
+    }
+
+    private void testComparisonConstraints() throws ParseException {
+        System.out.println("============== testComparisonConstraints()");
+
+        assertIds(query().whereEqualTo(fieldScore, 1000), "id3", "id4");
+        assertIds(query().whereNotEqualTo(fieldScore, 1000), "id1", "id2", "id5");
+        assertIds(query().whereGreaterThan(fieldScore, 9), "id3", "id4", "id5");
+        assertIds(query().whereGreaterThanOrEqualTo(fieldScore, 9).whereLessThan(fieldScore, 3500),
+                "id2", "id3", "id4");
+        assertIds(query().whereLessThanOrEqualTo(fieldScore, 9.0), "id1", "id2");
+        assertIds(query().whereContainedIn(fieldScore, Arrays.asList(new Integer[]{4, 3500})),
+                "id1", "id5");
+        assertIds(query().whereNotContainedIn(fieldScore, Arrays.asList(new Integer[]{4, 3500})),
+                "id2", "id3", "id4");
+        assertIds(query().whereExists(fieldPlayerName), "id1", "id2", "id3", "id5");
+        assertIds(query().whereDoesNotExist(fieldPlayerName), "id4");
+        assertIds(query().whereEqualTo(ParseConstants.FIELD_OBJECT_ID, "id2"), "id2");
+        assertIds(query().whereLessThan(ParseConstants.FIELD_CREATED_AT, new Date(3000)),
+                "id1", "id2");
+    }
+
+    private void testArrayConstraints() throws ParseException {
+        System.out.println("============== testArrayConstraints()");
+
+        assertIds(query().whereEqualTo(fieldArrayField, 2), "id1", "id4", "id5");
+        assertIds(query().whereContainsAll(fieldArrayField, Arrays.asList(new Integer[]{2, 3})),
+                "id4", "id5");
+        assertIds(query().whereContainedIn(fieldArrayField, Arrays.asList(new Integer[]{4, 9})),
+                "id2", "id4");
+    }
+
+    private void testStringConstraints() throws ParseException {
+        System.out.println("============== testStringConstraints()");
+
+        assertIds(query().whereContains(fieldPlayerName, "Wun"), "id2", "id3");
+        assertIds(query().whereStartsWith(fieldPlayerName, "Mr."), "id5");
+        assertIds(query().whereEndsWith(fieldPlayerName, "sh"), "id1");
+        assertIds(query().setCaseSensitive(false).whereContains(fieldPlayerName, "wun"),
+                "id2", "id3");
+        assertIds(query().whereContains(fieldPlayerName, "wun"));
+    }
+
+    private void testOrConstraint() throws ParseException {
+        System.out.println("============== testOrConstraint()");
+
+        final ParseQuery<ParseObject> query = ParseQuery.getOrQuery(Arrays.asList(
+                new ParseQuery[]{query().whereEqualTo(fieldScore, 4),
+                    query().whereGreaterThan(fieldScore, 1000)}));
+        assertIds(query, "id1", "id5");
+    }
+
+    private void testOrderSkipAndLimit() throws ParseException {
+        System.out.println("============== testOrderSkipAndLimit()");
+
+        assertOrderedIds(query().orderByDescending(fieldScore).addAscendingOrder(fieldPlayerName),
+                "id5", "id4", "id3", "id2", "id1");
+        assertOrderedIds(query().orderByAscending(fieldScore).setSkip(1).setLimit(2),
+                "id2", "id3");
+        assertOrderedIds(query().orderByAscending(fieldScore).setSkip(10));
+    }
+
+    private void testSelectedKeys() throws ParseException {
+        System.out.println("============== testSelectedKeys()");
+
+        final List<ParseObject> results = query().whereEqualTo(fieldScore, 4)
+                .selectKeys(Arrays.asList(new String[]{fieldPlayerName}))
+                .findLocally(objects);
+        assertEqual(1, results.size());
+
+        final ParseObject projection = results.get(0);
+        assertFalse(projection == objects.get(0), "Projection is a copy");
+        assertEqual("id1", projection.getObjectId());
+        assertEqual("Jonathan Walsh", projection.getString(fieldPlayerName));
+        assertNull(projection.get(fieldScore), "Unselected key is excluded");
+        assertFalse(projection.isDirty(), "Projection is not dirty");
+    }
+
+    private void testGeoConstraints() throws ParseException {
+        System.out.println("============== testGeoConstraints()");
+
+        final ParseGeoPoint origin = new ParseGeoPoint(10.0, 10.0);
+        assertOrderedIds(query().whereNear(fieldLocation, origin),
+                "id1", "id3", "id5", "id2", "id4");
+        assertIds(query().whereWithinKilometers(fieldLocation, origin, 100), "id1", "id3");
+        assertIds(query().whereWithinGeoBox(fieldLocation,
+                new ParseGeoPoint(-1.0, -1.0), new ParseGeoPoint(11.0, 11.0)),
+                "id1", "id3", "id5");
+        // Box crossing the 180th meridian
+        assertIds(query().whereWithinGeoBox(fieldLocation,
+                new ParseGeoPoint(-20.0, 160.0), new ParseGeoPoint(0.0, -170.0)), "id4");
+    }
+
+    private void testUnsupportedConstraints() throws ParseException {
+        System.out.println("============== testUnsupportedConstraints()");
+
+        try {
+            ParseQueryEvaluator.compile(query().whereMatchesQuery(fieldScore, query()));
+            fail("$inQuery cannot be evaluated locally");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.INVALID_QUERY, ex.getCode());
+        }
+
+        try {
+            ParseQueryEvaluator.compile(query().whereMatches(fieldPlayerName, "W.*h"));
+            fail("Arbitrary regular expressions cannot be evaluated locally");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.INVALID_QUERY, ex.getCode());
+        }
+
+        assertFalse(ParseQueryEvaluator.compile(query()).matches(
+                ParseObject.create("OtherClass")), "Objects of other classes never match");
+    }
+
+    private ParseQuery<ParseObject> query() {
+        return ParseQuery.getQuery(classGameScore);
+    }
+
+    private void assertIds(final ParseQuery<ParseObject> query, final String... expectedIds)
+            throws ParseException {
+        final ParseQueryEvaluator<ParseObject> evaluator = ParseQueryEvaluator.compile(query);
+        final List<String> ids = new ArrayList<String>();
+        for (ParseObject object : objects) {
+            if (evaluator.matches(object)) {
+                ids.add(object.getObjectId());
+            }
+        }
+        assertEqual(Arrays.asList(expectedIds), ids, "Matches for query " + query.encode());
+    }
+
+    private void assertOrderedIds(final ParseQuery<ParseObject> query, final String... expectedIds)
+            throws ParseException {
+        final List<String> ids = new ArrayList<String>();
+        for (ParseObject object : query.findLocally(objects)) {
+            ids.add(object.getObjectId());
+        }
+        assertEqual(Arrays.asList(expectedIds), ids, "Results for query " + query.encode());
+    }
+
+    private ParseObject createObject(final String objectId, final int score,
+            final String playerName, final Integer[] array,
+            final double latitude, final double longitude) {
+        final ParseObject object = ParseObject.create(classGameScore);
+        object.setObjectId(objectId);
+        object.setCreatedAt(new Date(1000 * Integer.parseInt(objectId.substring(2))));
+        object.put(fieldScore, score);
+        if (playerName != null) {
+            object.put(fieldPlayerName, playerName);
+        }
+        if (array != null) {
+            object.put(fieldArrayField, Arrays.asList(array));
+        }
+        object.put(fieldLocation, new ParseGeoPoint(latitude, longitude));
+        return object;
+    }
+}
@@ -153,6 +153,9 @@ public class ParseQueryTest extends BaseParseTest {
         checkNotExistsConstraints();
         checkMatchesOrDoesNotMatchKeyInQueryConstraints();
         checkSortConstraints();
+        checkStreamedResults();
+        checkIterator();
+        checkParallelScan();
         checkLimitAndSkipConstraints();
         checkKeyConstraints();
         checkArrayValueConstraints();
@@ -576,6 +579,178 @@ public class ParseQueryTest extends BaseParseTest {
         }
     }
 
+    private void checkStreamedResults() throws ParseException {
+        System.out.println("============== checkStreamedResults()");
+        query = ParseQuery.getQuery(classGameScore);
+        query.addAscendingOrder(ParseConstants.FIELD_CREATED_AT);
+        final List<ParseObject> expected = query.find();
+        
+        final List<ParseObject> streamed = new ArrayList<ParseObject>();
+        query.find(new ParseQuery.IResultConsumer<ParseObject>() {
+
+            public void consume(ParseObject object) throws ParseException {
+                streamed.add(object);
+            }
+        });
+        
+        assertEqual(expected.size(), streamed.size(),
+                "Streamed query is expected to return the same results as find()");
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEqual(expected.get(i).getObjectId(), streamed.get(i).getObjectId());
+            assertEqual(expected.get(i).getInt(fieldScore), streamed.get(i).getInt(fieldScore));
+            assertFalse(streamed.get(i).isDirty(), "Streamed results are not dirty");
+        }
+        
+        try {
+            query.find(new ParseQuery.IResultConsumer<ParseObject>() {
+
+                public void consume(ParseObject object) throws ParseException {
+                    throw new ParseException(ParseException.OTHER_CAUSE, "Abort");
+                }
+            });
+            fail("Exception thrown by consumer should abort query");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.OTHER_CAUSE, ex.getCode());
+        }
+    }
+
+    private void checkIterator() throws ParseException {
+        System.out.println("============== checkIterator()");
+        final List<String> expectedIds = new ArrayList<String>();
+        for (ParseObject object : gameScoreObjects) {
+            expectedIds.add(object.getObjectId());
+        }
+        
+        // Small page size to enforce multiple pages
+        query = ParseQuery.getQuery(classGameScore);
+        ParseQueryIterator<ParseObject> it = query.iterator(3);
+        assertNull(it.getCursor(), "No cursor before first result");
+        final List<String> ids = new ArrayList<String>();
+        String cursor = null;
+        while (it.hasNext()) {
+            ids.add(it.next().getObjectId());
+            if (ids.size() == 4) {
+                cursor = it.getCursor();
+            }
+        }
+        assertEqual(expectedIds.size(), ids.size(), "All objects are iterated");
+        assertEqual(new HashSet<String>(expectedIds), new HashSet<String>(ids), 
+                "Each object is iterated exactly once");
+        for (int i = 1; i < ids.size(); ++i) {
+            assertTrue(ids.get(i - 1).compareTo(ids.get(i)) < 0, "Results are ordered by objectId");
+        }
+        
+        // Resume after the first four results
+        it = query.iterator(ParseQueryIterator.ECursorKey.OBJECT_ID, 3, cursor);
+        final List<String> resumed = new ArrayList<String>();
+        while (it.hasNext()) {
+            resumed.add(it.next().getObjectId());
+        }
+        assertEqual(ids.subList(4, ids.size()), resumed, "Iteration resumes after cursor");
+        
+        // Creation time-based cursor; batch-saved objects share creation times
+        it = query.iterator(ParseQueryIterator.ECursorKey.CREATED_AT, 2, null);
+        final Set<String> createdAtIds = new HashSet<String>();
+        ParseObject previous = null;
+        while (it.hasNext()) {
+            final ParseObject current = it.next();
+            assertTrue(createdAtIds.add(current.getObjectId()), "No duplicates");
+            if (previous != null) {
+                assertFalse(current.getCreatedAt().before(previous.getCreatedAt()),
+                        "Results are ordered by creation time");
+                if (current.getCreatedAt().equals(previous.getCreatedAt())) {
+                    assertTrue(previous.getObjectId().compareTo(current.getObjectId()) < 0,
+                            "Results with equal creation time are ordered by objectId");
+                }
+            }
+            previous = current;
+        }
+        assertEqual(new HashSet<String>(expectedIds), createdAtIds, 
+                "All objects are iterated by creation time");
+        
+        // Constraints are kept and the limit caps the total result count
+        query = ParseQuery.getQuery(classGameScore);
+        query.whereGreaterThan(fieldScore, 5).setLimit(3);
+        it = query.iterator(2);
+        int count = 0;
+        while (it.hasNext()) {
+            assertTrue(it.next().getInt(fieldScore) > 5, "Constraint is respected");
+            ++count;
+        }
+        assertEqual(3, count, "Limit caps the number of iterated results");
+        
+        try {
+            ParseQuery.getQuery(classGameScore).orderByAscending(fieldScore).iterator(10);
+            fail("Ordered query cannot be iterated via a cursor");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+        
+        query = ParseQuery.getQuery(classGameScore);
+        query.whereEqualTo(ParseConstants.FIELD_OBJECT_ID, ids.get(0));
+        it = query.iterator(ParseQueryIterator.ECursorKey.OBJECT_ID, 3, cursor);
+        try {
+            it.hasNext();
+            fail("Query with exact objectId cannot be paged via a cursor");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.INVALID_QUERY, ex.getCode());
+        }
+    }
+
+    private void checkParallelScan() throws ParseException {
+        System.out.println("============== checkParallelScan()");
+        final Set<String> expectedIds = new HashSet<String>();
+        for (ParseObject object : gameScoreObjects) {
+            expectedIds.add(object.getObjectId());
+        }
+        
+        final List<String> ids = new ArrayList<String>();
+        ParseParallelScan.create(ParseQuery.getQuery(classGameScore))
+                .setPartitionCount(5)
+                .setParallelism(3)
+                .setPageSize(2)
+                .execute(new ParseQuery.IResultConsumer<ParseObject>() {
+
+            public void consume(ParseObject object) throws ParseException {
+                ids.add(object.getObjectId());
+            }
+        });
+        assertEqual(expectedIds.size(), ids.size(), "Each object is scanned exactly once");
+        assertEqual(expectedIds, new HashSet<String>(ids), "All objects are scanned");
+        
+        // Partition ranges are combined with user constraints
+        query = ParseQuery.getQuery(classGameScore);
+        query.whereGreaterThan(fieldScore, 5);
+        final int expectedCount = query.count();
+        final List<ParseObject> results = new ArrayList<ParseObject>();
+        ParseParallelScan.create((ParseQuery<ParseObject>) query)
+                .setPartitionCount(62)
+                .execute(new ParseQuery.IResultConsumer<ParseObject>() {
+
+            public void consume(ParseObject object) throws ParseException {
+                results.add(object);
+            }
+        });
+        assertEqual(expectedCount, results.size(), "Constraint is respected in all partitions");
+        for (ParseObject object : results) {
+            assertTrue(object.getInt(fieldScore) > 5, "Constraint is respected");
+        }
+        
+        try {
+            ParseParallelScan.create(ParseQuery.getQuery(classGameScore))
+                    .setPartitionCount(2)
+                    .execute(new ParseQuery.IResultConsumer<ParseObject>() {
+
+                public void consume(ParseObject object) throws ParseException {
+                    throw new ParseException(ParseException.OTHER_CAUSE, "Abort");
+                }
+            });
+            fail("Exception thrown by consumer should abort scan");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.OTHER_CAUSE, ex.getCode());
+        }
+    }
+
     private void checkLimitAndSkipConstraints() throws ParseException {
         System.out.println("============== checkLimitAndSkipConstraints()");
         final int limit = gameScoreObjects.size() / 2;
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.command.ParseCommand.EPriority;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseRateLimiterTest extends BaseParseTest {
+
+    @Override
+    public boolean runTest() throws Exception {
+        testBurstAndRefill();
+        testEndpointClassLimit();
+        testFailFast();
+        testBackgroundReserve();
+        testPriorityLanes();
+        return true;
+    }
+
+    private void testBurstAndRefill() throws InterruptedException {
+        System.out.println("============== testBurstAndRefill()");
+
+        final ParseRateLimiter limiter = ParseRateLimiter.create(20, 5).setBackgroundReserve(0);
+        for (int i = 0; i < 5; ++i) {
+            assertEqual(Long.valueOf(0), Long.valueOf(limiter.tryAcquire("classes", EPriority.NORMAL)),
+                    "Burst is available at once");
+        }
+        final long wait = limiter.tryAcquire("classes", EPriority.NORMAL);
+        assertTrue(wait > 0 && wait <= 50, "Next permit is available after 50 ms (" + wait + ")");
+
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(limiter.acquire("classes", EPriority.NORMAL, true));
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed >= 400, "Sustained rate is limited (" + elapsed + " ms for 10 permits)");
+        assertEqual(Long.valueOf(15), Long.valueOf(limiter.getAcquiredCount()));
+    }
+
+    private void testEndpointClassLimit() {
+        System.out.println("============== testEndpointClassLimit()");
+
+        final ParseRateLimiter limiter = ParseRateLimiter.create(100, 10)
+                .setLimit("functions", 1, 2);
+        assertEqual(Long.valueOf(0), Long.valueOf(limiter.tryAcquire("functions", EPriority.NORMAL)));
+        assertEqual(Long.valueOf(0), Long.valueOf(limiter.tryAcquire("functions", EPriority.NORMAL)));
+        assertTrue(limiter.tryAcquire("functions", EPriority.NORMAL) > 0,
+                "Endpoint class limit applies");
+        assertEqual(Long.valueOf(0), Long.valueOf(limiter.tryAcquire("classes", EPriority.NORMAL)),
+                "Other endpoint classes are only subject to the global limit");
+    }
+
+    private void testFailFast() throws InterruptedException {
+        System.out.println("============== testFailFast()");
+
+        final ParseRateLimiter limiter = ParseRateLimiter.create(1, 1);
+        assertTrue(limiter.acquire("classes", EPriority.NORMAL, false));
+        final long start = System.currentTimeMillis();
+        assertFalse(limiter.acquire("classes", EPriority.NORMAL, false),
+                "Non-blocking acquisition fails if no permit is available");
+        assertTrue(System.currentTimeMillis() - start < 100, "Failure is immediate");
+        assertEqual(Long.valueOf(1), Long.valueOf(limiter.getRejectedCount()));
+    }
+
+    private void testBackgroundReserve() {
+        System.out.println("============== testBackgroundReserve()");
+
+        final ParseRateLimiter limiter = ParseRateLimiter.create(1, 8).setBackgroundReserve(0.5);
+        int background = 0;
+        while (limiter.tryAcquire("classes", EPriority.BACKGROUND) == 0) {
+            ++background;
+        }
+        assertEqual(Integer.valueOf(4), Integer.valueOf(background),
+                "Background requests cannot use the reserve");
+        for (int i = 0; i < 4; ++i) {
+            assertEqual(Long.valueOf(0), Long.valueOf(limiter.tryAcquire("classes", EPriority.INTERACTIVE)),
+                    "Reserve is available to interactive requests");
+        }
+    }
+
+    private void testPriorityLanes() throws InterruptedException {
+        System.out.println("============== testPriorityLanes()");
+
+        final ParseRateLimiter limiter = ParseRateLimiter.create(20, 1).setBackgroundReserve(0);
+        assertTrue(limiter.acquire("classes", EPriority.NORMAL, true));
+
+        final List<EPriority> order = new ArrayList<EPriority>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        final EPriority[] priorities = new EPriority[]{EPriority.BACKGROUND, EPriority.BACKGROUND,
+            EPriority.BACKGROUND, EPriority.INTERACTIVE, EPriority.INTERACTIVE};
+        for (final EPriority priority : priorities) {
+            final Thread thread = new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        limiter.acquire("classes", priority, true);
+                        synchronized (order) {
+                            order.add(priority);
+                        }
+                    } catch (InterruptedException ex) {
+                        fail("Interrupted");
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+            if (priority == EPriority.BACKGROUND) {
+                // Let the background requests queue up first
+                Thread.sleep(5);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEqual(Integer.valueOf(priorities.length), Integer.valueOf(order.size()));
+        final int lastInteractive = order.lastIndexOf(EPriority.INTERACTIVE);
+        assertTrue(lastInteractive <= 2, "Interactive requests overtake waiting background requests: "
+                + order);
+        assertEqual(Integer.valueOf(0), Integer.valueOf(limiter.getWaitingCount(EPriority.BACKGROUND)));
+    }
+}
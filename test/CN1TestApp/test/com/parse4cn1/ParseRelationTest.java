@@ -15,6 +15,7 @@
  */
 package com.parse4cn1;
 
+import ca.weblite.codename1.json.JSONArray;
 import ca.weblite.codename1.json.JSONException;
 import ca.weblite.codename1.json.JSONObject;
 import com.parse4cn1.encode.IParseObjectEncodingStrategy;
@@ -97,6 +98,17 @@ public class ParseRelationTest extends BaseParseTest {
         checkRelationInParent(report, 2 /* count in RemoveRelation */,
                 parentKey, RelationOperation.ERelationType.RemoveRelation);
 
+        // The pending operation in the parent combines all adds and removes
+        final JSONObject pending = report.getParseData().getJSONObject(parentKey);
+        assertEqual("Batch", pending.getString(ParseConstants.KEYWORD_OP),
+                "Merged relation operation is a batch");
+        final JSONArray ops = pending.getJSONArray("ops");
+        assertEqual("AddRelation", ops.getJSONObject(0).getString(ParseConstants.KEYWORD_OP));
+        assertEqual(1, ops.getJSONObject(0).getJSONArray("objects").length(),
+                "Only contributor2 remains to be added");
+        assertEqual("RemoveRelation", ops.getJSONObject(1).getString(ParseConstants.KEYWORD_OP));
+        assertEqual(2, ops.getJSONObject(1).getJSONArray("objects").length());
+
         assertEqual(targetClass, relation.getTargetClass(),
                 "Target class is not changed by valid add/remove calls");
     }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1;
+
+import com.parse4cn1.ParseRetryPolicy.ECircuitState;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseRetryPolicyTest extends BaseParseTest {
+
+    private static final String ENDPOINT = "https://node1.example.com/parse";
+
+    @Override
+    public boolean runTest() throws Exception {
+        testRetryable();
+        testBackoff();
+        testRetryAfter();
+        testCircuitBreaker();
+        return true;
+    }
+
+    private void testRetryable() {
+        System.out.println("============== testRetryable()");
+
+        final ParseRetryPolicy policy = ParseRetryPolicy.create();
+        assertTrue(policy.isRetryable("GET", 0, false), "Connection failure");
+        assertTrue(policy.isRetryable("PUT", 502, false));
+        assertTrue(policy.isRetryable("DELETE", 504, false));
+        assertTrue(policy.isRetryable("GET", 500, false));
+        assertFalse(policy.isRetryable("GET", 400, false), "Client error");
+        assertFalse(policy.isRetryable("GET", 404, false));
+        assertFalse(policy.isRetryable("GET", 501, false), "Not implemented is permanent");
+
+        assertFalse(policy.isRetryable("POST", 0, false), "POST might have been processed");
+        assertFalse(policy.isRetryable("POST", 500, false));
+        assertTrue(policy.isRetryable("POST", 0, true), "POST marked as safe");
+        assertTrue(policy.isRetryable("POST", 503, false), "Unavailable; not processed");
+        assertTrue(policy.isRetryable("POST", 429, false), "Throttled; not processed");
+    }
+
+    private void testBackoff() {
+        System.out.println("============== testBackoff()");
+
+        final ParseRetryPolicy policy = ParseRetryPolicy.create().setDelays(100, 1000);
+        final long[] caps = new long[]{100, 200, 400, 800, 1000, 1000};
+        for (int retry = 0; retry < caps.length; ++retry) {
+            long max = 0;
+            for (int i = 0; i < 200; ++i) {
+                final long delay = policy.getRetryDelay(retry, null);
+                assertTrue(delay >= 0 && delay <= caps[retry],
+                        "Delay " + delay + " of retry " + retry + " exceeds " + caps[retry]);
+                max = Math.max(max, delay);
+            }
+            assertTrue(max > caps[retry] / 2, "Delays are spread up to the cap");
+        }
+        assertTrue(policy.getRetryDelay(1000, null) <= 1000, "Large retry counts do not overflow");
+    }
+
+    private void testRetryAfter() {
+        System.out.println("============== testRetryAfter()");
+
+        final ParseRetryPolicy policy = ParseRetryPolicy.create().setDelays(100, 5000);
+        assertEqual(Long.valueOf(2000), Long.valueOf(policy.getRetryDelay(0, "2")));
+        assertEqual(Long.valueOf(0), Long.valueOf(policy.getRetryDelay(0, " 0 ")));
+        assertEqual(Long.valueOf(-1), Long.valueOf(policy.getRetryDelay(0, "120")),
+                "Delays beyond the maximum are not waited for");
+        assertTrue(policy.getRetryDelay(0, "Wed, 21 Oct 2015 07:28:00 GMT") <= 100,
+                "HTTP dates fall back to backoff");
+    }
+
+    private void testCircuitBreaker() throws InterruptedException {
+        System.out.println("============== testCircuitBreaker()");
+
+        assertEqual("https://files.example.com",
+                ParseRetryPolicy.getEndpointKey("https://files.example.com/a/b.png"));
+        assertEqual("http://localhost:1337", ParseRetryPolicy.getEndpointKey("http://localhost:1337"));
+
+        final ParseRetryPolicy policy = ParseRetryPolicy.create()
+                .setBreakerThreshold(3).setBreakerOpenTime(200);
+        report(policy, false);
+        report(policy, false);
+        report(policy, true);
+        report(policy, false);
+        report(policy, false);
+        assertEqual(ECircuitState.CLOSED, policy.getCircuitState(ENDPOINT),
+                "Failures must be consecutive");
+        report(policy, false);
+        assertEqual(ECircuitState.OPEN, policy.getCircuitState(ENDPOINT));
+        assertFalse(policy.allowRequest(ENDPOINT), "Open circuit rejects requests");
+        assertTrue(policy.allowRequest("https://node2.example.com/parse"),
+                "Circuits are per endpoint");
+
+        Thread.sleep(250);
+        assertTrue(policy.allowRequest(ENDPOINT), "Probe is let through after open time");
+        assertFalse(policy.allowRequest(ENDPOINT), "Only a single probe is let through");
+        policy.recordOutcome(ENDPOINT, false);
+        assertEqual(ECircuitState.OPEN, policy.getCircuitState(ENDPOINT),
+                "Failed probe opens the circuit again");
+
+        Thread.sleep(250);
+        report(policy, true);
+        assertEqual(ECircuitState.CLOSED, policy.getCircuitState(ENDPOINT));
+
+        assertEqual(Long.valueOf(2), Long.valueOf(policy.getBreakerOpenCount()));
+        assertEqual(Long.valueOf(2), Long.valueOf(policy.getRejectedCount()));
+        policy.resetStatistics();
+        assertEqual(Long.valueOf(0), Long.valueOf(policy.getAttemptCount()));
+
+        final ParseRetryPolicy disabled = ParseRetryPolicy.create().setBreakerThreshold(0);
+        for (int i = 0; i < 10; ++i) {
+            report(disabled, false);
+        }
+        assertEqual(ECircuitState.CLOSED, disabled.getCircuitState(ENDPOINT),
+                "Threshold 0 disables circuit breaking");
+    }
+
+    private void report(final ParseRetryPolicy policy, final boolean success) {
+        assertTrue(policy.allowRequest(ENDPOINT));
+        policy.recordOutcome(ENDPOINT, success);
+    }
+}
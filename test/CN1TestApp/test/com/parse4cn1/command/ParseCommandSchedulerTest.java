@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.command.ParseCommand.EPriority;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseCommandSchedulerTest extends BaseParseTest {
+
+    @Override
+    public boolean runTest() throws Exception {
+        testConcurrencyCaps();
+        testPriorityOrder();
+        testCancelQueued();
+        testBlockingAcquire();
+        return true;
+    }
+
+    private void testConcurrencyCaps() {
+        System.out.println("============== testConcurrencyCaps()");
+
+        final ParseCommandScheduler scheduler = ParseCommandScheduler.create()
+                .setMaxConcurrent(3);
+        final List<String> started = new ArrayList<String>();
+        for (int i = 0; i < 3; ++i) {
+            scheduler.submit(EPriority.BACKGROUND, new RecordingTask("b" + i, started));
+        }
+        assertEqual(1, scheduler.getInFlightCount(EPriority.BACKGROUND),
+                "Background requests are capped");
+        assertEqual(2, scheduler.getQueuedCount(EPriority.BACKGROUND));
+
+        scheduler.submit(EPriority.NORMAL, new RecordingTask("n0", started));
+        scheduler.submit(EPriority.NORMAL, new RecordingTask("n1", started));
+        scheduler.submit(EPriority.NORMAL, new RecordingTask("n2", started));
+        assertEqual(2, scheduler.getInFlightCount(EPriority.NORMAL),
+                "Overall limit applies to other classes");
+        assertEqual(1, scheduler.getQueuedCount(EPriority.NORMAL));
+
+        scheduler.release(EPriority.BACKGROUND);
+        assertEqual("n2", started.get(started.size() - 1),
+                "Released slot is used by the queued request of highest priority");
+        assertEqual(0, scheduler.getInFlightCount(EPriority.BACKGROUND));
+    }
+
+    private void testPriorityOrder() {
+        System.out.println("============== testPriorityOrder()");
+
+        final ParseCommandScheduler scheduler = ParseCommandScheduler.create()
+                .setMaxConcurrent(1).setMaxConcurrent(EPriority.BACKGROUND, 1);
+        final List<String> started = new ArrayList<String>();
+        scheduler.submit(EPriority.BACKGROUND, new RecordingTask("b0", started));
+        scheduler.submit(EPriority.BACKGROUND, new RecordingTask("b1", started));
+        scheduler.submit(EPriority.NORMAL, new RecordingTask("n0", started));
+        scheduler.submit(EPriority.INTERACTIVE, new RecordingTask("i0", started));
+        scheduler.submit(EPriority.INTERACTIVE, new RecordingTask("i1", started));
+
+        assertEqual(1, started.size(), "In-flight request is not preempted");
+        for (int i = 0; i < 4; ++i) {
+            scheduler.release(priorityOf(started.get(started.size() - 1)));
+        }
+        assertEqual("[b0, i0, i1, n0, b1]", started.toString(),
+                "Queued requests are issued by priority, then in order of arrival");
+    }
+
+    private void testCancelQueued() {
+        System.out.println("============== testCancelQueued()");
+
+        final ParseCommandScheduler scheduler = ParseCommandScheduler.create();
+        final List<String> started = new ArrayList<String>();
+        final List<String> cancelled = new ArrayList<String>();
+        for (int i = 0; i < 3; ++i) {
+            scheduler.submit(EPriority.BACKGROUND, new RecordingTask("b" + i, started, cancelled));
+        }
+        assertEqual(2, scheduler.cancelQueued(EPriority.BACKGROUND));
+        assertEqual("[b1, b2]", cancelled.toString(), "Only queued requests are cancelled");
+        assertEqual(1, scheduler.getInFlightCount(EPriority.BACKGROUND));
+        assertEqual(Long.valueOf(2), Long.valueOf(scheduler.getCancelledCount()));
+
+        scheduler.release(EPriority.BACKGROUND);
+        assertEqual("[b0]", started.toString(), "Cancelled requests are not issued");
+    }
+
+    private void testBlockingAcquire() throws InterruptedException {
+        System.out.println("============== testBlockingAcquire()");
+
+        final ParseCommandScheduler scheduler = ParseCommandScheduler.create().setMaxConcurrent(1);
+        assertTrue(scheduler.acquire(EPriority.NORMAL));
+
+        final boolean[] acquired = new boolean[1];
+        final Thread waiter = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    acquired[0] = scheduler.acquire(EPriority.INTERACTIVE);
+                } catch (InterruptedException ex) {
+                    fail("Interrupted");
+                }
+            }
+        });
+        waiter.start();
+        Thread.sleep(100);
+        assertEqual(1, scheduler.getQueuedCount(EPriority.INTERACTIVE), "Waiter is queued");
+
+        scheduler.release(EPriority.NORMAL);
+        waiter.join(1000);
+        assertTrue(acquired[0], "Waiter acquires the released slot");
+        assertEqual(1, scheduler.getInFlightCount(EPriority.INTERACTIVE));
+
+        final Thread cancelledWaiter = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    acquired[0] = scheduler.acquire(EPriority.BACKGROUND);
+                } catch (InterruptedException ex) {
+                    fail("Interrupted");
+                }
+            }
+        });
+        cancelledWaiter.start();
+        Thread.sleep(100);
+        scheduler.cancelQueued(EPriority.BACKGROUND);
+        cancelledWaiter.join(1000);
+        assertFalse(acquired[0], "Cancelled waiter does not acquire a slot");
+    }
+
+    private EPriority priorityOf(final String name) {
+        switch (name.charAt(0)) {
+            case 'i':
+                return EPriority.INTERACTIVE;
+            case 'b':
+                return EPriority.BACKGROUND;
+            default:
+                return EPriority.NORMAL;
+        }
+    }
+
+    /**
+     * A task that records when it is started or cancelled.
+     */
+    private static class RecordingTask implements ParseCommandScheduler.ITask {
+
+        private final String name;
+        private final List<String> started;
+        private final List<String> cancelled;
+
+        RecordingTask(final String name, final List<String> started) {
+            this(name, started, new ArrayList<String>());
+        }
+
+        RecordingTask(final String name, final List<String> started,
+                final List<String> cancelled) {
+            this.name = name;
+            this.started = started;
+            this.cancelled = cancelled;
+        }
+
+        public void run() {
+            started.add(name);
+        }
+
+        public void cancel() {
+            cancelled.add(name);
+        }
+    }
+}
@@ -0,0 +1,858 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.codename1.io.Util;
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.Parse;
+import com.parse4cn1.ParseConstants;
+import com.parse4cn1.ParseEndpointRouter;
+import com.parse4cn1.ParseException;
+import com.parse4cn1.ParseQuery;
+import com.parse4cn1.ParseRateLimiter;
+import com.parse4cn1.ParseRetryPolicy;
+import com.parse4cn1.ParseRetryPolicy.ECircuitState;
+import com.parse4cn1.command.ParseCommand.EPriority;
+import com.parse4cn1.callback.ParseFuture;
+import com.parse4cn1.callback.ProgressCallback;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseCommandTest extends BaseParseTest {
+
+    private static final int ITERATIONS = 50;
+
+    @Override
+    public boolean runTest() throws Exception {
+        final IHttpTransport defaultTransport = Parse.getHttpTransport();
+        final ParseRetryPolicy defaultRetryPolicy = Parse.getDefaultClient().getRetryPolicy();
+        try {
+            // Isolate the other tests from retries and circuit breaking
+            Parse.getDefaultClient().setRetryPolicy(
+                    ParseRetryPolicy.create().setMaxRetries(0).setBreakerThreshold(0));
+            testRequestPreparation();
+            testResponseMapping();
+            testAsyncCompletion();
+            testFailover();
+            init();
+            testRetry();
+            testCircuitBreaker();
+            testRateLimiting();
+            testScheduling();
+            testCoalescing();
+            testConditionalRequests();
+            testStreamingUpload();
+            testResumableDownload();
+            testRangedDownload();
+        } finally {
+            Parse.setHttpTransport(defaultTransport);
+            Parse.getDefaultClient().setRetryPolicy(defaultRetryPolicy);
+            Parse.getDefaultClient().setRateLimiter(null);
+            Parse.getDefaultClient().setScheduler(null);
+            Parse.getDefaultClient().setRequestCoalescer(ParseRequestCoalescer.create());
+            Parse.getDefaultClient().setResponseCache(ParseResponseCache.create());
+            init();
+        }
+        benchmarkTransport();
+        return true;
+    }
+
+    private void testRequestPreparation() throws ParseException, JSONException, IOException {
+        System.out.println("============== testRequestPreparation()");
+
+        final StubTransport transport = new StubTransport(200, "{}");
+        Parse.setHttpTransport(transport);
+
+        final ParsePostCommand post = new ParsePostCommand("classes/Item");
+        post.setMessageBody(new JSONObject("{\"name\":\"\u20ac\"}"));
+        post.perform();
+
+        assertEqual("POST", transport.request.getMethod());
+        assertEqual(Parse.getParseAPIUrl("classes/Item"), transport.request.getUrl());
+        assertEqual(TEST_APPLICATION_ID,
+                transport.request.getHeaders().get(ParseConstants.HEADER_APPLICATION_ID));
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        transport.request.getBodyWriter().writeTo(body);
+        assertEqual("{\"name\":\"\u20ac\"}", new String(body.toByteArray(), "UTF-8"),
+                "Body is written as UTF-8");
+        assertEqual((long) body.size(), transport.request.getContentLength());
+
+        final ParseGetCommand get = new ParseGetCommand("classes/Item");
+        get.addArgument("limit", "10");
+        get.perform();
+
+        assertTrue(transport.request.isGet());
+        assertNull(transport.request.getBodyWriter(), "GET request has no body");
+        assertEqual("10", transport.request.getArguments().get("limit"));
+        assertFalse(transport.request.isProgressReported(),
+                "Progress is only reported if a callback is set");
+    }
+
+    private void testResponseMapping() throws ParseException, JSONException {
+        System.out.println("============== testResponseMapping()");
+
+        final StubTransport transport = new StubTransport(200, "{\"objectId\":\"a1\"}");
+        transport.headers.put("etag", "\"v1\"");
+        Parse.setHttpTransport(transport);
+
+        ParseResponse response = new ParseGetCommand("classes/Item", "a1").perform();
+        assertFalse(response.isFailed());
+        assertEqual("a1", response.getJsonObject().getString(ParseConstants.FIELD_OBJECT_ID));
+        assertEqual("\"v1\"", response.getHeader("ETag"),
+                "Headers are retrieved case-insensitively");
+
+        Parse.setHttpTransport(new StubTransport(404,
+                "{\"code\":101,\"error\":\"object not found for get\"}"));
+        response = new ParseGetCommand("classes/Item", "a1").perform();
+        assertTrue(response.isFailed());
+        assertEqual(ParseException.OBJECT_NOT_FOUND, response.getException().getCode());
+
+        final StubTransport failingTransport = new StubTransport(0, null);
+        Parse.setHttpTransport(failingTransport);
+        response = new ParseGetCommand("classes/Item", "a1").perform();
+        assertTrue(response.isFailed());
+        assertEqual(ParseException.CONNECTION_FAILED, response.getException().getCode());
+        assertEqual(1, failingTransport.completions, "Completion is signaled once");
+    }
+
+    private void testAsyncCompletion() throws ParseException, JSONException {
+        System.out.println("============== testAsyncCompletion()");
+
+        Parse.setHttpTransport(new StubTransport(201, "{\"objectId\":\"b2\"}"));
+        final ParseFuture<ParseResponse> future
+                = new ParsePostCommand("classes/Item").performAsync();
+        assertTrue(future.isDone(), "Future is completed by the transport");
+        assertEqual(Integer.valueOf(201), Integer.valueOf(future.get().getStatusCode()));
+        assertEqual("b2", future.get().getJsonObject().getString(ParseConstants.FIELD_OBJECT_ID));
+    }
+
+    private void testFailover() throws ParseException {
+        System.out.println("============== testFailover()");
+
+        final String node1 = "https://node1.example.com/parse";
+        final String node2 = "https://node2.example.com/parse";
+        final ParseEndpointRouter router = ParseEndpointRouter.create(new String[]{node1, node2});
+        Parse.initialize(TEST_APPLICATION_ID, TEST_CLIENT_KEY, router);
+
+        final NodeTransport transport = new NodeTransport(node1, 0);
+        Parse.setHttpTransport(transport);
+        for (int i = 0; i < 4; ++i) {
+            final ParseResponse response = new ParseGetCommand("classes/Item", "a1").perform();
+            assertFalse(response.isFailed(), "GET fails over to healthy node");
+            assertTrue(transport.lastUrl.startsWith(node2 + "/classes/Item"));
+        }
+        assertFalse(router.isHealthy(0), "Failing node is marked as unhealthy");
+        assertEqual(6, transport.requestCount,
+                "Unhealthy node is skipped once marked (2 failed + 4 successful attempts)");
+
+        final ParseEndpointRouter postRouter = ParseEndpointRouter.create(new String[]{node1, node2});
+        Parse.initialize(TEST_APPLICATION_ID, TEST_CLIENT_KEY, postRouter);
+        Parse.setHttpTransport(new NodeTransport(node1, 0));
+        assertTrue(new ParsePostCommand("classes/Item").perform().isFailed(),
+                "POST is not re-issued after a connection failure");
+
+        Parse.setHttpTransport(new NodeTransport(node1, 503));
+        assertFalse(new ParsePostCommand("classes/Item").perform().isFailed(),
+                "POST is re-issued if the node is unavailable");
+
+        Parse.setHttpTransport(new NodeTransport(node1, 0));
+        assertFalse(new ParseGetCommand("classes/Item").performAsync().get().isFailed(),
+                "Asynchronous GET fails over to healthy node");
+    }
+
+    private void testRetry() throws ParseException {
+        System.out.println("============== testRetry()");
+
+        final ParseRetryPolicy policy = ParseRetryPolicy.create().setDelays(10, 2000);
+        Parse.getDefaultClient().setRetryPolicy(policy);
+
+        SequenceTransport transport = new SequenceTransport(new int[]{503, 0, 200});
+        Parse.setHttpTransport(transport);
+        assertFalse(new ParseGetCommand("classes/Item").perform().isFailed(),
+                "Transient failures of GET are retried");
+        assertEqual(3, transport.requestCount);
+        assertEqual(2L, policy.getRetryCount());
+
+        transport = new SequenceTransport(new int[]{0, 200});
+        Parse.setHttpTransport(transport);
+        assertTrue(new ParsePostCommand("classes/Item").perform().isFailed(),
+                "POST is not retried after a connection failure");
+        assertEqual(1, transport.requestCount);
+
+        transport = new SequenceTransport(new int[]{0, 200});
+        Parse.setHttpTransport(transport);
+        final ParsePostCommand safePost = new ParsePostCommand("classes/Item");
+        safePost.setRetrySafe(true);
+        assertFalse(safePost.perform().isFailed(), "POST marked as safe is retried");
+        assertEqual(2, transport.requestCount);
+
+        transport = new SequenceTransport(new int[]{429, 200});
+        transport.retryAfter = "1";
+        Parse.setHttpTransport(transport);
+        long start = System.currentTimeMillis();
+        assertFalse(new ParsePostCommand("classes/Item").perform().isFailed(),
+                "Throttled POST is retried");
+        assertTrue(System.currentTimeMillis() - start >= 1000, "Retry-After is respected");
+
+        policy.resetStatistics();
+        transport = new SequenceTransport(new int[]{429, 200});
+        transport.retryAfter = "60";
+        Parse.setHttpTransport(transport);
+        assertTrue(new ParseGetCommand("classes/Item").perform().isFailed(),
+                "Request fails if Retry-After exceeds the maximum delay");
+        assertEqual(1, transport.requestCount);
+        assertEqual(1L, policy.getExhaustedCount());
+
+        policy.setMaxRetries(2);
+        transport = new SequenceTransport(new int[]{500, 500, 500, 200});
+        Parse.setHttpTransport(transport);
+        assertTrue(new ParseGetCommand("classes/Item").perform().isFailed(),
+                "Retries are limited");
+        assertEqual(3, transport.requestCount);
+
+        transport = new SequenceTransport(new int[]{400, 200});
+        Parse.setHttpTransport(transport);
+        assertTrue(new ParseGetCommand("classes/Item").perform().isFailed(),
+                "Client errors are not retried");
+        assertEqual(1, transport.requestCount);
+
+        transport = new SequenceTransport(new int[]{503, 504, 200});
+        Parse.setHttpTransport(transport);
+        assertFalse(new ParseGetCommand("classes/Item").performAsync().get().isFailed(),
+                "Asynchronous requests are retried");
+        assertEqual(3, transport.requestCount);
+    }
+
+    private void testCircuitBreaker() throws ParseException, InterruptedException {
+        System.out.println("============== testCircuitBreaker()");
+
+        final ParseRetryPolicy policy = ParseRetryPolicy.create().setMaxRetries(0)
+                .setBreakerThreshold(2).setBreakerOpenTime(200);
+        Parse.getDefaultClient().setRetryPolicy(policy);
+        final String endpoint = Parse.getDefaultClient().getEndpointRouter().getPrimaryUrl();
+
+        final SequenceTransport transport = new SequenceTransport(new int[]{0, 502, 200, 200});
+        Parse.setHttpTransport(transport);
+        new ParseGetCommand("classes/Item").perform();
+        assertEqual(ECircuitState.CLOSED, policy.getCircuitState(endpoint));
+        new ParseGetCommand("classes/Item").perform();
+        assertEqual(ECircuitState.OPEN, policy.getCircuitState(endpoint),
+                "Consecutive failures open the circuit");
+
+        final ParseResponse response = new ParseGetCommand("classes/Item").perform();
+        assertTrue(response.isFailed(), "Requests fail while the circuit is open");
+        assertEqual(ParseException.CONNECTION_FAILED, response.getException().getCode());
+        assertEqual(2, transport.requestCount, "Request is not issued");
+        assertEqual(1L, policy.getRejectedCount());
+        assertEqual(1L, policy.getBreakerOpenCount());
+
+        Thread.sleep(250);
+        assertEqual(ECircuitState.HALF_OPEN, policy.getCircuitState(endpoint));
+        assertFalse(new ParseGetCommand("classes/Item").perform().isFailed(),
+                "Probe request is issued after the open time");
+        assertEqual(ECircuitState.CLOSED, policy.getCircuitState(endpoint),
+                "Successful probe closes the circuit");
+    }
+
+    private void testRateLimiting() throws ParseException {
+        System.out.println("============== testRateLimiting()");
+
+        Parse.getDefaultClient().setRetryPolicy(ParseRetryPolicy.create());
+        final ParseRateLimiter limiter = ParseRateLimiter.create(20, 2)
+                .setMode(ParseRateLimiter.EMode.FAIL_FAST);
+        Parse.getDefaultClient().setRateLimiter(limiter);
+        final StubTransport transport = new StubTransport(200, "{}");
+        Parse.setHttpTransport(transport);
+
+        assertFalse(new ParseGetCommand("classes/Item").perform().isFailed());
+        assertFalse(new ParseGetCommand("classes/Item").perform().isFailed());
+        ParseResponse response = new ParseGetCommand("classes/Item").perform();
+        assertTrue(response.isFailed(), "Request fails fast when the quota is used up");
+        assertEqual(ParseException.REQUEST_LIMIT_EXCEEDED, response.getException().getCode());
+        assertEqual(2, transport.completions, "Rejected request is not issued");
+
+        final ParseGetCommand blocking = new ParseGetCommand("classes/Item");
+        blocking.setRateLimitMode(ParseRateLimiter.EMode.BLOCK);
+        assertFalse(blocking.perform().isFailed(), "Blocking request waits for a permit");
+
+        limiter.setMode(ParseRateLimiter.EMode.BLOCK);
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 5; ++i) {
+            assertFalse(new ParseGetCommand("classes/Item").perform().isFailed());
+        }
+        assertFalse(new ParseGetCommand("classes/Item").performAsync().get().isFailed(),
+                "Asynchronous request is deferred until a permit is available");
+        assertTrue(System.currentTimeMillis() - start >= 250, "Requests are spread out");
+        assertEqual(0, limiter.getWaitingCount(EPriority.NORMAL));
+
+        for (int i = 0; i < 5; ++i) {
+            final ParseDownloadCommand download
+                    = new ParseDownloadCommand("https://files.example.com/a.txt", null);
+            download.setRateLimitMode(ParseRateLimiter.EMode.FAIL_FAST);
+            assertFalse(download.perform().isFailed(), "Requests to other hosts are not limited");
+        }
+    }
+
+    private void testScheduling() throws ParseException {
+        System.out.println("============== testScheduling()");
+
+        Parse.getDefaultClient().setRateLimiter(null);
+        final ParseCommandScheduler scheduler = ParseCommandScheduler.create().setMaxConcurrent(1);
+        Parse.getDefaultClient().setScheduler(scheduler);
+        final DeferredTransport transport = new DeferredTransport();
+        Parse.setHttpTransport(transport);
+
+        final ParseCommand background = new ParseGetCommand("classes/Item", "s1");
+        background.setPriority(EPriority.BACKGROUND);
+        final ParseFuture<ParseResponse> first = background.performAsync();
+        final ParseCommand queued = new ParseGetCommand("classes/Item", "s2");
+        queued.setPriority(EPriority.BACKGROUND);
+        final ParseFuture<ParseResponse> second = queued.performAsync();
+        final ParseCommand interactive = new ParseGetCommand("classes/Item", "s3");
+        interactive.setPriority(EPriority.INTERACTIVE);
+        final ParseFuture<ParseResponse> third = interactive.performAsync();
+
+        assertEqual(1, transport.requests.size(), "Only one request is in flight");
+        assertEqual(EPriority.BACKGROUND, transport.requests.get(0).getPriority(),
+                "Priority is passed to the transport");
+        assertEqual(2, scheduler.getQueuedCount(EPriority.BACKGROUND)
+                + scheduler.getQueuedCount(EPriority.INTERACTIVE));
+
+        transport.complete(0);
+        assertFalse(first.get().isFailed());
+        assertEqual(2, transport.requests.size());
+        assertEqual(EPriority.INTERACTIVE, transport.requests.get(1).getPriority(),
+                "Queued interactive request overtakes queued background request");
+
+        assertEqual(1, scheduler.cancelQueued(EPriority.BACKGROUND));
+        assertTrue(second.isDone(), "Cancelled request is completed");
+        assertEqual(ParseException.OTHER_CAUSE, second.get().getException().getCode());
+
+        transport.complete(1);
+        assertFalse(third.get().isFailed());
+        assertEqual(2, transport.requests.size(), "Cancelled request is not issued");
+        assertEqual(0, scheduler.getInFlightCount(EPriority.INTERACTIVE), "Slots are released");
+
+        try {
+            interactive.setPriority(null);
+            fail("Null priority should be rejected");
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+        assertEqual(EPriority.INTERACTIVE, ParseQuery.getQuery("Item")
+                .setPriority(EPriority.INTERACTIVE).getPriority(), "Query priority is retained");
+    }
+
+    private void testCoalescing() throws ParseException, JSONException {
+        System.out.println("============== testCoalescing()");
+
+        Parse.getDefaultClient().setScheduler(null);
+        final ParseRequestCoalescer coalescer = ParseRequestCoalescer.create();
+        Parse.getDefaultClient().setRequestCoalescer(coalescer);
+        final DeferredTransport transport = new DeferredTransport();
+        Parse.setHttpTransport(transport);
+
+        final ParseFuture<ParseResponse> first = new ParseGetCommand("classes/Item", "a1").performAsync();
+        final ParseFuture<ParseResponse> second = new ParseGetCommand("classes/Item", "a1").performAsync();
+        final ParseGetCommand otherSession = new ParseGetCommand("classes/Item", "a1");
+        otherSession.addHeader(ParseConstants.HEADER_SESSION_TOKEN, "r:other");
+        final ParseFuture<ParseResponse> third = otherSession.performAsync();
+        assertEqual(2, transport.requests.size(),
+                "Identical requests of the same session share a request");
+
+        transport.complete(0);
+        transport.complete(1);
+        assertTrue(first.isDone() && second.isDone() && third.isDone());
+        assertFalse(second.get().isFailed(), "Joined request receives the response");
+        assertTrue(first.get().getJsonObject() != second.get().getJsonObject(),
+                "Decoded response is not shared");
+        assertEqual(Long.valueOf(1), Long.valueOf(coalescer.getCoalescedCount()));
+
+        coalescer.setMemoizationTime(60000);
+        final StubTransport stub = new StubTransport(200, "{}");
+        Parse.setHttpTransport(stub);
+        assertFalse(new ParseGetCommand("classes/Item", "a2").perform().isFailed());
+        assertFalse(new ParseGetCommand("classes/Item", "a2").perform().isFailed());
+        assertEqual(1, stub.completions, "Memoized response is reused");
+
+        assertFalse(new ParsePutCommand("classes/Item", "a2").perform().isFailed());
+        assertFalse(new ParseGetCommand("classes/Item", "a2").perform().isFailed());
+        assertEqual(3, stub.completions, "Modification invalidates memoized responses");
+    }
+
+    private void testConditionalRequests() throws ParseException, JSONException {
+        System.out.println("============== testConditionalRequests()");
+
+        final ParseResponseCache cache = ParseResponseCache.create();
+        Parse.getDefaultClient().setResponseCache(cache);
+        Parse.getDefaultClient().setRequestCoalescer(null);
+        final ValidatingTransport transport = new ValidatingTransport("\"v1\"", "{\"name\":\"a\"}");
+        Parse.setHttpTransport(transport);
+
+        ParseResponse response = new ParseGetCommand("classes/Item", "c1").perform();
+        assertNull(transport.request.getHeaders().get("If-None-Match"), "First request is unconditional");
+        assertEqual(1, cache.size(), "Response with validator is cached");
+
+        response = new ParseGetCommand("classes/Item", "c1").perform();
+        assertEqual("\"v1\"", transport.request.getHeaders().get("If-None-Match"));
+        assertFalse(response.isFailed(), "Not modified response is successful");
+        assertEqual("a", response.getJsonObject().getString("name"), "Cached body is used");
+
+        final ParseDownloadCommand download
+                = new ParseDownloadCommand("https://files.example.com/c1.png", null);
+        assertEqual(12, download.perform().getResponseData().length);
+        final byte[] data = new ParseDownloadCommand("https://files.example.com/c1.png", null)
+                .perform().getResponseData();
+        assertEqual(12, data.length, "Cached file data is used");
+
+        transport.version = "\"v2\"";
+        response = new ParseGetCommand("classes/Item", "c1").perform();
+        assertEqual(200, response.getStatusCode(), "Modified resource is transferred");
+        assertEqual(Long.valueOf(5), Long.valueOf(cache.getRequestCount()));
+        assertEqual(Long.valueOf(2), Long.valueOf(cache.getHitCount()));
+        assertEqual(Long.valueOf(12 + 12), Long.valueOf(cache.getBytesSaved()),
+                "Saved bytes are counted");
+        assertTrue(cache.getHitRatio() == 0.4, "Hit ratio is " + cache.getHitRatio());
+
+        transport.notFound = true;
+        new ParseGetCommand("classes/Item", "c1").perform();
+        transport.notFound = false;
+        new ParseGetCommand("classes/Item", "c1").perform();
+        assertNull(transport.request.getHeaders().get("If-None-Match"),
+                "Response of deleted resource is removed");
+
+        Parse.getDefaultClient().setResponseCache(null);
+        new ParseGetCommand("classes/Item", "c1").perform();
+        new ParseGetCommand("classes/Item", "c1").perform();
+        assertNull(transport.request.getHeaders().get("If-None-Match"),
+                "Conditional requests can be disabled");
+
+        Parse.getDefaultClient().setResponseCache(cache);
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        assertFalse(createStreamedGet("c2", streamed).perform().isFailed());
+        streamed = new ByteArrayOutputStream();
+        assertFalse(createStreamedGet("c2", streamed).perform().isFailed());
+        assertEqual("\"v2\"", transport.request.getHeaders().get("If-None-Match"),
+                "Streamed response is revalidated");
+        assertEqual("{\"name\":\"a\"}", new String(streamed.toByteArray()),
+                "Cached body is replayed to the stream handler");
+    }
+
+    private ParseGetCommand createStreamedGet(final String objectId, 
+            final ByteArrayOutputStream output) {
+        final ParseGetCommand command = new ParseGetCommand("classes/Item", objectId);
+        command.setResponseStreamHandler(new IResponseStreamHandler() {
+
+            public void handleResponse(InputStream input) throws IOException, ParseException {
+                Util.copy(input, output);
+            }
+        });
+        return command;
+    }
+
+    private void testStreamingUpload() throws ParseException, IOException {
+        System.out.println("============== testStreamingUpload()");
+
+        final StubTransport transport = new StubTransport(201, "{}");
+        Parse.setHttpTransport(transport);
+
+        // Larger than the copy buffer to exercise multiple reads
+        final byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        ParseUploadCommand upload = new ParseUploadCommand("files/a.bin");
+        upload.setData(new ByteArrayInputStream(data), data.length);
+        upload.perform();
+        assertEqual(Long.valueOf(data.length), Long.valueOf(transport.request.getContentLength()));
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        transport.request.getBodyWriter().writeTo(body);
+        assertTrue(Arrays.equals(data, body.toByteArray()), "Stream is copied to the body");
+        try {
+            transport.request.getBodyWriter().writeTo(new ByteArrayOutputStream());
+            fail("Stream cannot be sent twice");
+        } catch (IOException ex) {
+            // Expected
+        }
+
+        upload = new ParseUploadCommand("files/a.bin");
+        upload.setData(new ByteArrayInputStream(data, 0, 100), 200);
+        upload.perform();
+        try {
+            transport.request.getBodyWriter().writeTo(new ByteArrayOutputStream());
+            fail("Stream shorter than its declared length is detected");
+        } catch (IOException ex) {
+            // Expected
+        }
+
+        upload = new ParseUploadCommand("files/a.bin");
+        upload.setData(new ByteArrayInputStream(data, 0, 100), -1);
+        upload.perform();
+        assertEqual(Long.valueOf(-1), Long.valueOf(transport.request.getContentLength()));
+        body.reset();
+        transport.request.getBodyWriter().writeTo(body);
+        assertEqual(100, body.size(), "Stream of unknown length is read until its end");
+    }
+
+    private void testResumableDownload() throws ParseException {
+        System.out.println("============== testResumableDownload()");
+
+        Parse.getDefaultClient().setRetryPolicy(ParseRetryPolicy.create().setDelays(10, 100));
+        final byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (i * 7);
+        }
+        final RangeTransport transport = new RangeTransport(data);
+        Parse.setHttpTransport(transport);
+
+        transport.interruptAfter = 5000;
+        final List<Integer> progress = new ArrayList<Integer>();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ParseDownloadCommand download = new ParseDownloadCommand("https://files.example.com/d.bin", null);
+        download.setOutput(output, 0);
+        download.setProgressCallback(new ProgressCallback() {
+
+            @Override
+            public void done(Integer percentDone) {
+                progress.add(percentDone);
+            }
+        });
+        assertFalse(download.perform().isFailed(), "Interrupted download is resumed");
+        assertTrue(Arrays.equals(data, output.toByteArray()), "Downloaded data is complete");
+        assertNull(transport.ranges.get(0));
+        assertEqual("bytes=5000-", transport.ranges.get(1), "Only missing data is requested");
+        assertEqual(Long.valueOf(data.length), Long.valueOf(download.getTotalLength()));
+        assertEqual(Integer.valueOf(100), progress.get(progress.size() - 1),
+                "Progress relates to the whole resource");
+
+        transport.ranges.clear();
+        transport.interruptAfter = 5000;
+        transport.rangeSupported = false;
+        output = new ByteArrayOutputStream();
+        download = new ParseDownloadCommand("https://files.example.com/d.bin", null);
+        download.setOutput(output, 0);
+        assertFalse(download.perform().isFailed());
+        assertEqual(2, transport.ranges.size());
+        assertTrue(Arrays.equals(data, output.toByteArray()),
+                "Data already written is skipped if the range is ignored");
+        transport.rangeSupported = true;
+
+        transport.ranges.clear();
+        output = new ByteArrayOutputStream();
+        output.write(data, 0, 1000);
+        download = new ParseDownloadCommand("https://files.example.com/d.bin", null);
+        download.setOutput(output, 1000);
+        assertFalse(download.perform().isFailed());
+        assertEqual("bytes=1000-", transport.ranges.get(0), "Download continues at offset");
+        assertTrue(Arrays.equals(data, output.toByteArray()));
+
+        Parse.getDefaultClient().setRetryPolicy(
+                ParseRetryPolicy.create().setMaxRetries(0).setBreakerThreshold(0));
+        transport.interruptAfter = 5000;
+        download = new ParseDownloadCommand("https://files.example.com/d.bin", null);
+        download.setOutput(new ByteArrayOutputStream(), 0);
+        assertTrue(download.perform().isFailed(), "Truncated download is detected");
+        assertEqual(Long.valueOf(5000), Long.valueOf(download.getBytesWritten()));
+    }
+
+    private void testRangedDownload() throws ParseException {
+        System.out.println("============== testRangedDownload()");
+
+        Parse.getDefaultClient().setRetryPolicy(ParseRetryPolicy.create().setDelays(10, 100));
+        final byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (i * 3);
+        }
+        final byte[] segment = new byte[5000];
+        System.arraycopy(data, 5000, segment, 0, segment.length);
+        final RangeTransport transport = new RangeTransport(data);
+        Parse.setHttpTransport(transport);
+
+        transport.interruptAfter = 2000;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ParseDownloadCommand download = new ParseDownloadCommand("https://files.example.com/d.bin", null);
+        download.setOutput(output, 0);
+        download.setRange(5000, 9999);
+        assertFalse(download.perform().isFailed(), "Interrupted segment is resumed");
+        assertEqual("bytes=5000-9999", transport.ranges.get(0));
+        assertEqual("bytes=7000-9999", transport.ranges.get(1), "Only rest of segment is requested");
+        assertTrue(download.isPartial());
+        assertTrue(Arrays.equals(segment, output.toByteArray()), "Segment data is complete");
+
+        transport.rangeSupported = false;
+        output = new ByteArrayOutputStream();
+        download = new ParseDownloadCommand("https://files.example.com/d.bin", null);
+        download.setOutput(output, 0);
+        download.setRange(5000, 9999);
+        assertFalse(download.perform().isFailed());
+        assertFalse(download.isPartial());
+        assertTrue(Arrays.equals(segment, output.toByteArray()),
+                "Segment is cut out of full response if the range is ignored");
+
+        Parse.getDefaultClient().setRetryPolicy(
+                ParseRetryPolicy.create().setMaxRetries(0).setBreakerThreshold(0));
+    }
+
+    private void benchmarkTransport() throws ParseException {
+        System.out.println("============== benchmarkTransport()");
+
+        final long start = System.currentTimeMillis();
+        int failures = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            if (new ParseGetCommand("classes/Item").perform().isFailed()) {
+                ++failures;
+            }
+        }
+        final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(ITERATIONS + " GET requests via "
+                + Parse.getHttpTransport().getClass().getName() + " took " + elapsed
+                + " ms (" + (ITERATIONS * 1000 / elapsed) + " requests/s, "
+                + failures + " failed)");
+    }
+
+    /**
+     * A transport that simulates a cluster in which one node is unavailable.
+     */
+    private static class NodeTransport extends StubTransport {
+
+        private final String failingNode;
+        private final int failingStatusCode;
+        private String lastUrl;
+        private int requestCount;
+
+        /**
+         * @param failingNode The base URL of the unavailable node.
+         * @param failingStatusCode The status code returned by the unavailable
+         * node or 0 to simulate a connection failure.
+         */
+        NodeTransport(final String failingNode, final int failingStatusCode) {
+            super(200, "{}");
+            this.failingNode = failingNode;
+            this.failingStatusCode = failingStatusCode;
+        }
+
+        @Override
+        public void perform(HttpRequest request, IResponseHandler handler) {
+            lastUrl = request.getUrl();
+            ++requestCount;
+            if (!lastUrl.startsWith(failingNode)) {
+                super.perform(request, handler);
+            } else if (failingStatusCode > 0) {
+                new StubTransport(failingStatusCode, "").perform(request, handler);
+            } else {
+                new StubTransport(0, null).perform(request, handler);
+            }
+        }
+    }
+
+    /**
+     * A transport that completes asynchronous requests on demand.
+     */
+    private static class DeferredTransport extends StubTransport {
+
+        private final List<HttpRequest> requests = new ArrayList<HttpRequest>();
+        private final List<IResponseHandler> handlers = new ArrayList<IResponseHandler>();
+
+        DeferredTransport() {
+            super(200, "{}");
+        }
+
+        @Override
+        public void performAsync(HttpRequest request, IResponseHandler handler) {
+            requests.add(request);
+            handlers.add(handler);
+        }
+
+        void complete(final int index) {
+            perform(requests.get(index), handlers.get(index));
+        }
+    }
+
+    /**
+     * A transport that serves a resource with an ETag and honors 
+     * If-None-Match.
+     */
+    private static class ValidatingTransport implements IHttpTransport {
+
+        private final String body;
+        private String version;
+        private boolean notFound;
+        private HttpRequest request;
+
+        ValidatingTransport(final String version, final String body) {
+            this.version = version;
+            this.body = body;
+        }
+
+        public void perform(HttpRequest request, IResponseHandler handler) {
+            this.request = request;
+            final StubTransport stub;
+            if (notFound) {
+                stub = new StubTransport(404, "{\"code\":101,\"error\":\"not found\"}");
+            } else if (version.equals(request.getHeaders().get("If-None-Match"))) {
+                stub = new StubTransport(304, "");
+            } else {
+                stub = new StubTransport(200, body);
+            }
+            stub.headers.put("etag", version);
+            stub.perform(request, handler);
+        }
+
+        public void performAsync(HttpRequest request, IResponseHandler handler) {
+            perform(request, handler);
+        }
+    }
+
+    /**
+     * A transport that serves a resource, honoring {@code Range} headers.
+     */
+    private static class RangeTransport implements IHttpTransport {
+
+        private final byte[] data;
+        private final List<String> ranges = new ArrayList<String>();
+        private boolean rangeSupported = true;
+        private int interruptAfter = -1;
+
+        RangeTransport(final byte[] data) {
+            this.data = data;
+        }
+
+        public void perform(HttpRequest request, IResponseHandler handler) {
+            final String range = request.getHeaders().get("Range");
+            ranges.add(range);
+            final Map<String, String> headers = new HashMap<String, String>();
+            int start = 0;
+            int end = data.length - 1;
+            int statusCode = 200;
+            if (range != null && rangeSupported) {
+                final int dash = range.indexOf('-');
+                start = Integer.parseInt(range.substring("bytes=".length(), dash));
+                if (dash < range.length() - 1) {
+                    end = Math.min(end, Integer.parseInt(range.substring(dash + 1)));
+                }
+                statusCode = 206;
+                headers.put("content-range", "bytes " + start + "-" + end + "/" + data.length);
+            } else {
+                headers.put("content-length", String.valueOf(data.length));
+            }
+
+            // Simulates a connection that is closed before the body is complete
+            int length = end - start + 1;
+            if (interruptAfter >= 0) {
+                length = interruptAfter;
+                interruptAfter = -1;
+            }
+            try {
+                handler.onResponse(statusCode, null, headers,
+                        new ByteArrayInputStream(data, start, length));
+            } catch (IOException ex) {
+                handler.onFailure(ex);
+            }
+            handler.onCompleted();
+        }
+
+        public void performAsync(HttpRequest request, IResponseHandler handler) {
+            perform(request, handler);
+        }
+    }
+
+    /**
+     * A transport that responds with a sequence of status codes.
+     */
+    private static class SequenceTransport implements IHttpTransport {
+
+        private final int[] statusCodes;
+        private String retryAfter;
+        private int requestCount;
+
+        /**
+         * @param statusCodes The status codes to be returned in turn; 0 
+         * simulates a connection failure.
+         */
+        SequenceTransport(final int[] statusCodes) {
+            this.statusCodes = statusCodes;
+        }
+
+        public synchronized void perform(HttpRequest request, IResponseHandler handler) {
+            final int statusCode = statusCodes[Math.min(requestCount, statusCodes.length - 1)];
+            ++requestCount;
+            final StubTransport stub = new StubTransport(statusCode, "{}");
+            if (retryAfter != null) {
+                stub.headers.put("retry-after", retryAfter);
+            }
+            stub.perform(request, handler);
+        }
+
+        public void performAsync(HttpRequest request, IResponseHandler handler) {
+            perform(request, handler);
+        }
+    }
+
+    /**
+     * A transport that returns a canned response and records the last request.
+     */
+    private static class StubTransport implements IHttpTransport {
+
+        private final int statusCode;
+        private final String body;
+        private final Map<String, String> headers = new HashMap<String, String>();
+        private HttpRequest request;
+        private int completions;
+
+        /**
+         * @param statusCode The status code to be returned or 0 to simulate
+         * a connection failure.
+         * @param body The response body.
+         */
+        StubTransport(final int statusCode, final String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+        public void perform(HttpRequest request, IResponseHandler handler) {
+            this.request = request;
+            if (statusCode > 0) {
+                try {
+                    handler.onResponse(statusCode, null, headers,
+                            new ByteArrayInputStream(body.getBytes("UTF-8")));
+                } catch (IOException ex) {
+                    handler.onFailure(ex);
+                }
+            } else {
+                handler.onFailure(new IOException("Connection refused"));
+            }
+            ++completions;
+            handler.onCompleted();
+        }
+
+        public void performAsync(HttpRequest request, IResponseHandler handler) {
+            perform(request, handler);
+        }
+    }
+}
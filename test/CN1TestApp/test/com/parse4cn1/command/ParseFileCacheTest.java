@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.codename1.io.FileSystemStorage;
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.Parse;
+import com.parse4cn1.ParseException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseFileCacheTest extends BaseParseTest {
+
+    private String directory;
+
+    @Override
+    public boolean runTest() throws Exception {
+        directory = FileSystemStorage.getInstance().getAppHomePath() + "parseFileCacheTest/";
+        try {
+            testLookup();
+            testEviction();
+            testPersistence();
+            testDownload();
+        } finally {
+            ParseFileCache.create(directory).clear();
+        }
+        return true;
+    }
+
+    private void testLookup() {
+        System.out.println("============== testLookup()");
+
+        final ParseFileCache cache = ParseFileCache.create(directory);
+        cache.clear();
+        assertNull(cache.get("https://files.example.com/a.png"), "Empty cache has no data");
+
+        cache.put("https://files.example.com/a.png", createData(100, 1));
+        assertTrue(Arrays.equals(createData(100, 1), cache.get("https://files.example.com/a.png")));
+        assertNull(cache.get("https://files.example.com/b.png"));
+        assertEqual(1, cache.size());
+        assertEqual(Long.valueOf(100), Long.valueOf(cache.getByteCount()));
+        assertEqual(Long.valueOf(3), Long.valueOf(cache.getRequestCount()));
+        assertEqual(Long.valueOf(1), Long.valueOf(cache.getHitCount()));
+        assertEqual(Long.valueOf(100), Long.valueOf(cache.getBytesSaved()));
+
+        final ParseFileCache.Entry entry = cache.store("https://files.example.com/b.png");
+        assertNull(cache.get("https://files.example.com/b.png"),
+                "Data is not available before the entry is committed");
+        entry.abort();
+        assertEqual(1, cache.size(), "Aborted entry is not cached");
+        assertEqual(16, ParseFileCache.getName("https://files.example.com/a.png").length());
+    }
+
+    private void testEviction() {
+        System.out.println("============== testEviction()");
+
+        final ParseFileCache cache = ParseFileCache.create(directory).setMaxBytes(100);
+        cache.clear();
+        cache.resetStatistics();
+        cache.put("a", createData(40, 1));
+        cache.put("b", createData(40, 2));
+        cache.get("a");
+        cache.put("c", createData(40, 3));
+        assertEqual(2, cache.size(), "Size budget is enforced");
+        assertNull(cache.get("b"), "Least recently used file is evicted");
+        assertEqual(Long.valueOf(1), Long.valueOf(cache.getEvictionCount()));
+        assertFalse(FileSystemStorage.getInstance().exists(
+                cache.getDirectory() + ParseFileCache.getName("b")), "Evicted file is deleted");
+
+        cache.put("d", createData(101, 4));
+        assertNull(cache.get("d"), "Oversized file is not cached");
+        assertEqual(Long.valueOf(80), Long.valueOf(cache.getByteCount()));
+    }
+
+    private void testPersistence() {
+        System.out.println("============== testPersistence()");
+
+        ParseFileCache cache = ParseFileCache.create(directory);
+        cache.clear();
+        cache.put("a", createData(10, 1));
+        cache.put("b", createData(20, 2));
+
+        cache = ParseFileCache.create(directory);
+        assertEqual(2, cache.size(), "Index is rebuilt from the directory");
+        assertEqual(Long.valueOf(30), Long.valueOf(cache.getByteCount()));
+        assertTrue(Arrays.equals(createData(20, 2), cache.get("b")));
+
+        cache.setMaxBytes(25);
+        assertNull(cache.get("a"), "Older file is evicted first after restart");
+    }
+
+    private void testDownload() throws ParseException {
+        System.out.println("============== testDownload()");
+
+        final IHttpTransport defaultTransport = Parse.getHttpTransport();
+        final ParseFileCache cache = ParseFileCache.create(directory);
+        cache.clear();
+        final CountingTransport transport = new CountingTransport(createData(1000, 5));
+        try {
+            Parse.setHttpTransport(transport);
+            Parse.getDefaultClient().setFileCache(cache);
+            Parse.getDefaultClient().setResponseCache(null);
+            Parse.getDefaultClient().setRequestCoalescer(null);
+
+            final String url = "https://files.example.com/c.png";
+            assertEqual(1000, new ParseDownloadCommand(url, null).perform().getResponseData().length);
+            assertTrue(Arrays.equals(createData(1000, 5),
+                    new ParseDownloadCommand(url, null).perform().getResponseData()),
+                    "Cached data is used");
+            assertEqual(1, transport.requestCount, "File is downloaded only once");
+
+            final String streamedUrl = "https://files.example.com/d.png";
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ParseDownloadCommand download = new ParseDownloadCommand(streamedUrl, null);
+            download.setOutput(output, 0);
+            assertFalse(download.perform().isFailed());
+            output = new ByteArrayOutputStream();
+            download = new ParseDownloadCommand(streamedUrl, null);
+            download.setOutput(output, 0);
+            assertFalse(download.perform().isFailed());
+            assertTrue(Arrays.equals(createData(1000, 5), output.toByteArray()),
+                    "Streamed download is cached");
+            assertEqual(2, transport.requestCount);
+        } finally {
+            Parse.setHttpTransport(defaultTransport);
+            Parse.getDefaultClient().setFileCache(null);
+            Parse.getDefaultClient().setResponseCache(ParseResponseCache.create());
+            Parse.getDefaultClient().setRequestCoalescer(ParseRequestCoalescer.create());
+        }
+    }
+
+    private byte[] createData(final int length, final int seed) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (i * seed);
+        }
+        return data;
+    }
+
+    /**
+     * A transport that serves the same data for every request.
+     */
+    private static class CountingTransport implements IHttpTransport {
+
+        private final byte[] data;
+        private int requestCount;
+
+        CountingTransport(final byte[] data) {
+            this.data = data;
+        }
+
+        public void perform(HttpRequest request, IResponseHandler handler) {
+            ++requestCount;
+            final Map<String, String> headers = new HashMap<String, String>();
+            headers.put("content-length", String.valueOf(data.length));
+            try {
+                handler.onResponse(200, null, headers, new ByteArrayInputStream(data));
+            } catch (IOException ex) {
+                handler.onFailure(ex);
+            }
+            handler.onCompleted();
+        }
+
+        public void performAsync(HttpRequest request, IResponseHandler handler) {
+            perform(request, handler);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import ca.weblite.codename1.json.JSONException;
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.ParseException;
+import com.parse4cn1.callback.ParseFuture;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseRequestCoalescerTest extends BaseParseTest {
+
+    @Override
+    public boolean runTest() throws Exception {
+        testSingleFlight();
+        testMemoization();
+        return true;
+    }
+
+    private void testSingleFlight() throws ParseException, JSONException {
+        System.out.println("============== testSingleFlight()");
+
+        final ParseRequestCoalescer coalescer = ParseRequestCoalescer.create();
+        final String flightKey = coalescer.join("a", new ParseFuture<ParseResponse>());
+        assertNotNull(flightKey, "First request is issued");
+        final ParseFuture<ParseResponse> first = new ParseFuture<ParseResponse>();
+        final ParseFuture<ParseResponse> second = new ParseFuture<ParseResponse>();
+        assertNull(coalescer.join("a", first), "Identical request joins the request in flight");
+        assertNull(coalescer.join("a", second));
+        assertNotNull(coalescer.join("b", new ParseFuture<ParseResponse>()),
+                "Other request is issued");
+        assertFalse(first.isDone());
+
+        final ParseResponse response = createResponse(200, "{\"objectId\":\"a1\"}");
+        coalescer.complete(flightKey, response);
+        assertTrue(first.isDone() && second.isDone(), "Joined requests are completed");
+        assertEqual("a1", first.get().getJsonObject().getString("objectId"));
+        assertTrue(first.get().getJsonObject() != second.get().getJsonObject(),
+                "Each request decodes its own copy of the response");
+
+        assertNotNull(coalescer.join("a", new ParseFuture<ParseResponse>()),
+                "Completed request is not memoized by default");
+        assertEqual(Long.valueOf(3), Long.valueOf(coalescer.getIssuedCount()));
+        assertEqual(Long.valueOf(2), Long.valueOf(coalescer.getCoalescedCount()));
+    }
+
+    private void testMemoization() throws ParseException, JSONException, InterruptedException {
+        System.out.println("============== testMemoization()");
+
+        final ParseRequestCoalescer coalescer = ParseRequestCoalescer.create()
+                .setMemoizationTime(100);
+        coalescer.complete(coalescer.join("a", new ParseFuture<ParseResponse>()),
+                createResponse(200, "{\"objectId\":\"a1\"}"));
+
+        final ParseFuture<ParseResponse> memoized = new ParseFuture<ParseResponse>();
+        assertNull(coalescer.join("a", memoized), "Response is memoized");
+        assertEqual("a1", memoized.get().getJsonObject().getString("objectId"));
+        assertEqual(Long.valueOf(1), Long.valueOf(coalescer.getMemoizedCount()));
+
+        coalescer.invalidate();
+        String flightKey = coalescer.join("a", new ParseFuture<ParseResponse>());
+        assertNotNull(flightKey, "Invalidated response is not reused");
+        coalescer.complete(flightKey, createResponse(200, "{}"));
+        Thread.sleep(150);
+        flightKey = coalescer.join("a", new ParseFuture<ParseResponse>());
+        assertNotNull(flightKey, "Expired response is not reused");
+        coalescer.complete(flightKey, createResponse(404, "{\"code\":101,\"error\":\"not found\"}"));
+        flightKey = coalescer.join("a", new ParseFuture<ParseResponse>());
+        assertNotNull(flightKey, "Failed response is not memoized");
+        coalescer.complete(flightKey, createResponse(200, "{}"));
+
+        final String staleKey = coalescer.join("b", new ParseFuture<ParseResponse>());
+        coalescer.invalidate();
+        final String freshKey = coalescer.join("b", new ParseFuture<ParseResponse>());
+        assertNotNull(freshKey, "Request in flight during invalidation is not joined");
+        final ParseFuture<ParseResponse> joined = new ParseFuture<ParseResponse>();
+        assertNull(coalescer.join("b", joined), "Request issued after invalidation is joined");
+        coalescer.complete(staleKey, createResponse(200, "{\"objectId\":\"old\"}"));
+        assertFalse(joined.isDone(), "Stale response is not passed to later requests");
+        coalescer.complete(freshKey, createResponse(200, "{\"objectId\":\"new\"}"));
+        assertEqual("new", joined.get().getJsonObject().getString("objectId"));
+    }
+
+    private ParseResponse createResponse(final int statusCode, final String body) {
+        final ParseResponse response = new ParseResponse();
+        if (statusCode < 200 || statusCode >= 300) {
+            response.setConnectionError(statusCode, null);
+        }
+        response.setResponseData(statusCode, body.getBytes());
+        return response;
+    }
+}
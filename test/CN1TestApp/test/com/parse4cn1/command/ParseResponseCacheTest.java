@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import com.parse4cn1.BaseParseTest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * @author sidiabale
+ */
+public class ParseResponseCacheTest extends BaseParseTest {
+
+    @Override
+    public boolean runTest() throws Exception {
+        testValidators();
+        testEviction();
+        return true;
+    }
+
+    private void testValidators() {
+        System.out.println("============== testValidators()");
+
+        final ParseResponseCache cache = ParseResponseCache.create();
+        cache.store("a", createHeaders("etag", "\"v1\""), new byte[10]);
+        cache.store("b", createHeaders("last-modified", "Wed, 21 Oct 2015 07:28:00 GMT"),
+                new byte[10]);
+        cache.store("c", new HashMap<String, String>(), new byte[10]);
+        final Map<String, String> noStore = createHeaders("etag", "\"v1\"");
+        noStore.put("cache-control", "private, no-store");
+        cache.store("d", noStore, new byte[10]);
+        assertEqual(2, cache.size(), "Only responses with validators are cached");
+
+        HttpRequest request = new HttpRequest();
+        assertTrue(cache.prepare("a", request) != null);
+        assertEqual("\"v1\"", request.getHeaders().get("If-None-Match"));
+        request = new HttpRequest();
+        assertTrue(cache.prepare("b", request) != null);
+        assertEqual("Wed, 21 Oct 2015 07:28:00 GMT", request.getHeaders().get("If-Modified-Since"));
+        request = new HttpRequest();
+        assertNull(cache.prepare("c", request));
+        assertTrue(request.getHeaders().isEmpty(), "No conditional headers without cached response");
+
+        cache.store("a", createHeaders("etag", "\"v1\""), null);
+        assertEqual(1, cache.size(), "Failed response removes cached response");
+    }
+
+    private void testEviction() {
+        System.out.println("============== testEviction()");
+
+        final ParseResponseCache cache = ParseResponseCache.create().setMaxEntries(3).setMaxBytes(100);
+        cache.store("a", createHeaders("etag", "1"), new byte[40]);
+        cache.store("b", createHeaders("etag", "2"), new byte[40]);
+        cache.prepare("a", new HttpRequest());
+        cache.store("c", createHeaders("etag", "3"), new byte[40]);
+        assertEqual(2, cache.size(), "Size bound is enforced");
+        assertNull(cache.prepare("b", new HttpRequest()), "Least recently used entry is evicted");
+        assertEqual(Long.valueOf(80), Long.valueOf(cache.getByteCount()));
+
+        cache.store("d", createHeaders("etag", "4"), new byte[101]);
+        assertNull(cache.prepare("d", new HttpRequest()), "Oversized response is not cached");
+
+        cache.store("e", createHeaders("etag", "5"), new byte[1]);
+        cache.store("f", createHeaders("etag", "6"), new byte[1]);
+        assertEqual(3, cache.size(), "Entry bound is enforced");
+    }
+
+    private Map<String, String> createHeaders(final String name, final String value) {
+        final Map<String, String> headers = new HashMap<String, String>();
+        headers.put(name, value);
+        return headers;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.command;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.ParseException;
+import java.io.UnsupportedEncodingException;
+
+public class ParseResponseTest extends BaseParseTest {
+
+    private static final int RESULT_COUNT = 1000;
+
+    @Override
+    public boolean runTest() throws Exception {
+        testDecodeOnce();
+        testReleaseResponseData();
+        testInvalidJson();
+        testDecodeResultPage();
+        return true;
+    }
+
+    private void testDecodeOnce() throws ParseException, JSONException {
+        System.out.println("============== testDecodeOnce()");
+
+        final ParseResponse response = createResponse(
+                "{\"name\":\"Gr\u00fc\u00dfe \u20ac\",\"count\":1}");
+        final JSONObject first = response.getJsonObject();
+        assertTrue(first == response.getJsonObject(), "Decoded JSON is cached");
+        assertEqual("Gr\u00fc\u00dfe \u20ac", first.getString("name"),
+                "Response is decoded as UTF-8");
+
+        try {
+            response.getJsonArray();
+            fail("Object response cannot be retrieved as array");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.INVALID_JSON, ex.getCode());
+        }
+
+        final ParseResponse arrayResponse = createResponse("[{\"success\":{}}]");
+        assertEqual(1, arrayResponse.getJsonArray().length());
+        assertTrue(arrayResponse.getJsonArray() == arrayResponse.getJsonArray(),
+                "Decoded JSON array is cached");
+    }
+
+    private void testReleaseResponseData() throws ParseException {
+        System.out.println("============== testReleaseResponseData()");
+
+        final ParseResponse response = createResponse("{\"count\":1}");
+        final JSONObject json = response.getJsonObject();
+        response.releaseResponseData();
+
+        assertNull(response.getResponseData(), "Raw data is released");
+        assertFalse(response.isFailed(), "Releasing data does not mark response as failed");
+        assertTrue(json == response.getJsonObject(), "Decoded JSON survives release");
+
+        final ParseResponse undecoded = createResponse("{\"count\":1}");
+        undecoded.releaseResponseData();
+        try {
+            undecoded.getJsonObject();
+            fail("Decoding released data should fail");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.INVALID_JSON, ex.getCode());
+        }
+    }
+
+    private void testInvalidJson() {
+        System.out.println("============== testInvalidJson()");
+
+        try {
+            createResponse("{\"count\":").getJsonObject();
+            fail("Invalid JSON should not be decoded");
+        } catch (ParseException ex) {
+            assertEqual(ParseException.INVALID_JSON, ex.getCode());
+        }
+    }
+
+    private void testDecodeResultPage() throws Exception {
+        System.out.println("============== testDecodeResultPage()");
+
+        final byte[] body = createResultPage(RESULT_COUNT).getBytes("UTF-8");
+        final JSONArray expected = new JSONObject(new String(body, "UTF-8"))
+                .getJSONArray("results");
+
+        final ParseResponse response = createResponse(body);
+        final JSONArray results = response.getJsonObject().getJSONArray("results");
+        response.releaseResponseData();
+
+        assertEqual(Integer.valueOf(RESULT_COUNT), Integer.valueOf(results.length()),
+                "All results are decoded");
+        for (int i = 0; i < RESULT_COUNT; ++i) {
+            assertEqual(expected.getJSONObject(i).toString(), 
+                    results.getJSONObject(i).toString(), 
+                    "Result " + i + " is decoded like a String-parsed page");
+        }
+        assertEqual("Sp\u00e9ler " + (RESULT_COUNT - 1), 
+                results.getJSONObject(RESULT_COUNT - 1).getString("playerName"),
+                "Non-ASCII values are decoded as UTF-8");
+        assertTrue(response.getJsonObject().getJSONArray("results") == results,
+                "Result page is decoded only once");
+    }
+
+    private String createResultPage(final int count) {
+        final StringBuilder builder = new StringBuilder("{\"results\":[");
+        for (int i = 0; i < count; ++i) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"objectId\":\"obj").append(i)
+                    .append("\",\"createdAt\":\"2015-06-01T10:00:00.000Z\"")
+                    .append(",\"updatedAt\":\"2015-06-01T10:00:00.000Z\"")
+                    .append(",\"score\":").append(i)
+                    .append(",\"playerName\":\"Sp\u00e9ler ").append(i).append('"')
+                    .append(",\"cheatMode\":false}");
+        }
+        return builder.append("]}").toString();
+    }
+
+    private ParseResponse createResponse(final String body) throws ParseException {
+        try {
+            return createResponse(body.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException ex) {
+            throw new ParseException(ParseException.ERR_INTERNAL, ex);
+        }
+    }
+
+    private ParseResponse createResponse(final byte[] body) {
+        final ParseResponse response = new ParseResponse();
+        response.setResponseData(200, body);
+        return response;
+    }
+}
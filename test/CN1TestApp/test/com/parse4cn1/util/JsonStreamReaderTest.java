@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.util;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.BaseParseTest;
+import com.parse4cn1.util.JsonStreamReader.EToken;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+public class JsonStreamReaderTest extends BaseParseTest {
+
+    @Override
+    public boolean runTest() throws Exception {
+        testTokens();
+        testValues();
+        testStreamingResults();
+        testMalformedInput();
+        return true;
+    }
+
+    private void testTokens() throws IOException, JSONException {
+        System.out.println("============== testTokens()");
+        
+        final JsonStreamReader reader = createReader(
+                "{\"a\": [1, \"two\", true, null], \"b\": {}}");
+        assertEqual(EToken.BEGIN_OBJECT, reader.peek());
+        reader.beginObject();
+        assertEqual("a", reader.nextName());
+        reader.beginArray();
+        assertEqual(EToken.NUMBER, reader.peek());
+        assertEqual(Integer.valueOf(1), reader.nextValue());
+        assertEqual("two", reader.nextString());
+        assertEqual(Boolean.TRUE, reader.nextValue());
+        assertEqual(JSONObject.NULL, reader.nextValue());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEqual("b", reader.nextName());
+        reader.skipValue();
+        reader.endObject();
+        assertEqual(EToken.END_DOCUMENT, reader.peek());
+    }
+
+    private void testValues() throws IOException, JSONException {
+        System.out.println("============== testValues()");
+        
+        final String json = "{\"int\":42,\"long\":12345678901,\"double\":-1.5e3,"
+                + "\"string\":\"esc\\\"aped\\n\\u00e9\",\"nested\":{\"array\":[[],{}]}}";
+        final JSONObject expected = new JSONObject(json);
+        final JSONObject actual = (JSONObject) createReader(json).nextValue();
+        
+        assertEqual(expected.get("int"), actual.get("int"));
+        assertEqual(expected.get("long"), actual.get("long"));
+        assertEqual(expected.get("double"), actual.get("double"));
+        assertEqual(expected.get("string"), actual.get("string"));
+        assertEqual(expected.getJSONObject("nested").toString(),
+                actual.getJSONObject("nested").toString());
+    }
+
+    private void testStreamingResults() throws IOException, JSONException {
+        System.out.println("============== testStreamingResults()");
+        
+        // Larger than the internal buffer to exercise buffer refills
+        final JSONArray results = new JSONArray();
+        for (int i = 0; i < 500; ++i) {
+            final JSONObject result = new JSONObject();
+            result.put("objectId", "id" + i);
+            result.put("score", i);
+            results.put(result);
+        }
+        final JSONObject response = new JSONObject();
+        response.put("results", results);
+        
+        final JsonStreamReader reader = createReader(response.toString());
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            assertEqual("results", reader.nextName());
+            reader.beginArray();
+            while (reader.hasNext()) {
+                final JSONObject result = (JSONObject) reader.nextValue();
+                assertEqual("id" + count, result.getString("objectId"));
+                assertEqual(count, result.getInt("score"));
+                ++count;
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        assertEqual(500, count);
+    }
+
+    private void testMalformedInput() throws IOException {
+        System.out.println("============== testMalformedInput()");
+        
+        final String[] malformed = {"", "{", "[1,]", "{\"a\" 1}", "{\"a\":tru}", "[1] 2"};
+        for (String json : malformed) {
+            try {
+                final JsonStreamReader reader = createReader(json);
+                reader.nextValue();
+                reader.peek();
+                fail("Malformed JSON should be rejected: " + json);
+            } catch (JSONException ex) {
+                // Expected
+            }
+        }
+    }
+
+    private JsonStreamReader createReader(final String json) throws IOException {
+        return new JsonStreamReader(new InputStreamReader(
+                new ByteArrayInputStream(json.getBytes("UTF-8")), "UTF-8"));
+    }
+}
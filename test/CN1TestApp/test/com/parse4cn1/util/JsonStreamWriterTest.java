@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.util;
+
+import ca.weblite.codename1.json.JSONArray;
+import ca.weblite.codename1.json.JSONException;
+import ca.weblite.codename1.json.JSONObject;
+import com.parse4cn1.BaseParseTest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class JsonStreamWriterTest extends BaseParseTest {
+
+    private static final int PAYLOAD_OBJECTS = 5000;
+    private static final int ITERATIONS = 5;
+
+    @Override
+    public boolean runTest() throws Exception {
+        testEncoding();
+        testLargePayload();
+        benchmarkAllocation();
+        return true;
+    }
+
+    private void testEncoding() throws IOException, JSONException {
+        System.out.println("============== testEncoding()");
+
+        final JSONObject json = new JSONObject();
+        json.put("ascii", "plain \"quoted\" </tag>\n");
+        json.put("unicode", "\u00e9\u20ac\ud83d\ude00");
+        json.put("numbers", new JSONArray().put(1).put(12345678901L).put(-1.5).put(2.0));
+        json.put("nested", new JSONObject().put("flag", true).put("none", JSONObject.NULL));
+
+        final byte[] expected = json.toString().getBytes("UTF-8");
+        assertEqual(new String(expected, "UTF-8"), new String(write(json), "UTF-8"),
+                "Output equals that of toString()");
+        assertEqual(Long.valueOf(expected.length), Long.valueOf(JsonStreamWriter.getLength(json)));
+
+        final JSONArray array = new JSONArray().put(json).put("x");
+        assertEqual(array.toString(), new String(write(array), "UTF-8"));
+    }
+
+    private void testLargePayload() throws IOException, JSONException {
+        System.out.println("============== testLargePayload()");
+
+        // Much larger than the internal buffer to exercise buffer flushes
+        final JSONObject payload = createPayload();
+        final byte[] expected = payload.toString().getBytes("UTF-8");
+        final byte[] actual = write(payload);
+        assertTrue(expected.length > 1024 * 1024, "Payload exceeds 1 MB");
+        assertEqual(expected.length, actual.length);
+        assertEqual(new String(expected, "UTF-8"), new String(actual, "UTF-8"));
+    }
+
+    private void benchmarkAllocation() throws IOException, JSONException {
+        System.out.println("============== benchmarkAllocation()");
+
+        final JSONObject payload = createPayload();
+        final Runtime runtime = Runtime.getRuntime();
+        final OutputStream sink = new OutputStream() {
+
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        // The last of several iterations is reported to exclude warm-up effects
+        long materialized = 0;
+        long materializedTime = 0;
+        long streamed = 0;
+        long streamedTime = 0;
+        int length = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            System.gc();
+            long before = runtime.totalMemory() - runtime.freeMemory();
+            long start = System.currentTimeMillis();
+            final byte[] bytes = payload.toString().getBytes("UTF-8");
+            materializedTime = System.currentTimeMillis() - start;
+            materialized = runtime.totalMemory() - runtime.freeMemory() - before;
+            length = bytes.length;
+
+            System.gc();
+            before = runtime.totalMemory() - runtime.freeMemory();
+            start = System.currentTimeMillis();
+            final JsonStreamWriter writer = new JsonStreamWriter(sink);
+            writer.write(payload);
+            writer.flush();
+            streamedTime = System.currentTimeMillis() - start;
+            streamed = runtime.totalMemory() - runtime.freeMemory() - before;
+            assertEqual(Long.valueOf(length), Long.valueOf(writer.getByteCount()));
+        }
+
+        System.out.println("Encoding a " + length + " byte payload: toString().getBytes() took "
+                + materializedTime + " ms and allocated ~" + materialized 
+                + " bytes (retaining a string and a byte array of the full payload); "
+                + "streaming took " + streamedTime + " ms and allocated ~" + streamed
+                + " bytes (retaining a 4 KB buffer)");
+    }
+
+    private JSONObject createPayload() throws JSONException {
+        final JSONArray requests = new JSONArray();
+        for (int i = 0; i < PAYLOAD_OBJECTS; ++i) {
+            final JSONObject body = new JSONObject();
+            body.put("title", "Item " + i + " \u00e9t\u00e9");
+            body.put("description", "A reasonably long description of item " + i
+                    + " that makes the payload large enough to be realistic.");
+            body.put("score", i * 1.5);
+            body.put("tags", new JSONArray().put("a").put("b").put("c"));
+            final JSONObject request = new JSONObject();
+            request.put("method", "POST");
+            request.put("path", "/1/classes/Item");
+            request.put("body", body);
+            requests.put(request);
+        }
+        return new JSONObject().put("requests", requests);
+    }
+
+    private byte[] write(final Object json) throws IOException, JSONException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final JsonStreamWriter writer = new JsonStreamWriter(output);
+        writer.write(json);
+        writer.flush();
+        return output.toByteArray();
+    }
+}
@@ -6,6 +6,7 @@
 package com.parse4cn1.test.javaapplication;
 
 import com.codename1.ui.Display;
+import com.parse4cn1.Parse;
 import com.parse4cn1.ParseException;
 import com.parse4cn1.BaseParseTest;
 import java.awt.BorderLayout;
@@ -47,6 +48,12 @@ public class CN1TestJavaApplication {
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        // Run with -Dparse4cn1.jdkTransport=<max concurrent requests> to issue
+        // requests via HttpURLConnection instead of the CN1 network manager
+        final Integer maxConcurrentRequests = Integer.getInteger("parse4cn1.jdkTransport");
+        if (maxConcurrentRequests != null) {
+            Parse.setHttpTransport(new JdkHttpTransport(maxConcurrentRequests));
+        }
 //        createAppWithoutProperContext();
         createAppWithProperContext(false);
     }
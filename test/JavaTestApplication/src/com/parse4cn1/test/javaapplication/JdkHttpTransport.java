@@ -0,0 +1,363 @@
+/*
+ * Copyright 2015 Chidiebere Okwudire.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parse4cn1.test.javaapplication;
+
+import com.parse4cn1.command.HttpRequest;
+import com.parse4cn1.command.IHttpTransport;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link IHttpTransport} for JavaSE applications (e.g. servers) that issues
+ * requests via {@link HttpURLConnection} instead of the Codename One network
+ * manager.
+ * <p>
+ * Unlike the default transport, requests are not serialized on a small number
+ * of network threads: synchronous requests are issued on the calling thread
+ * and asynchronous requests on a bounded worker pool. Connections are kept
+ * alive and reused by the JDK's connection cache (whose size is controlled by
+ * the {@code http.maxConnections} system property) as long as response
+ * bodies are fully consumed, which this transport ensures.
+ *
+ * @author sidiabale
+ */
+public class JdkHttpTransport implements IHttpTransport {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ExecutorService executor;
+    private int connectTimeout = 10000;
+    private int readTimeout = 30000;
+    private boolean chunkedStreaming;
+
+    /**
+     * Creates a transport whose asynchronous requests are issued on at most
+     * {@code maxConcurrentRequests} threads.
+     *
+     * @param maxConcurrentRequests The maximum number of concurrent
+     * asynchronous requests.
+     */
+    public JdkHttpTransport(final int maxConcurrentRequests) {
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(maxConcurrentRequests));
+        }
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(maxConcurrentRequests, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable,
+                        "JdkHttpTransport-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Sets the connect and read timeouts.
+     *
+     * @param connectTimeout The connect timeout in milliseconds.
+     * @param readTimeout The read timeout in milliseconds.
+     * @return This transport.
+     */
+    public JdkHttpTransport setTimeouts(final int connectTimeout, final int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * Determines whether bodies of unknown length are streamed in chunks
+     * rather than buffered in memory in order to compute the content length.
+     * Disabled by default since not all servers accept chunked requests.
+     *
+     * @param chunkedStreaming {@code true} to enable chunked streaming.
+     * @return This transport.
+     */
+    public JdkHttpTransport setChunkedStreaming(final boolean chunkedStreaming) {
+        this.chunkedStreaming = chunkedStreaming;
+        return this;
+    }
+
+    /**
+     * Stops the worker threads once pending asynchronous requests are
+     * completed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public void perform(final HttpRequest request, final IResponseHandler handler) {
+        try {
+            execute(request, handler);
+        } catch (Exception ex) {
+            // Only thrown if no response was delivered to the handler
+            handler.onFailure(ex);
+        }
+        handler.onCompleted();
+    }
+
+    @Override
+    public void performAsync(final HttpRequest request, final IResponseHandler handler) {
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                perform(request, handler);
+            }
+        });
+    }
+
+    private void execute(final HttpRequest request, final IResponseHandler handler)
+            throws IOException {
+        final String query = encodeArguments(request.getArguments());
+        final boolean argumentsInUrl = request.isGet() || "DELETE".equals(request.getMethod());
+        final boolean hasBody = request.getBodyWriter() != null
+                || (!argumentsInUrl && query.length() > 0);
+
+        String url = request.getUrl();
+        if (argumentsInUrl && query.length() > 0) {
+            url += (url.indexOf('?') < 0 ? "?" : "&") + query;
+        }
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(request.getMethod());
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setUseCaches(false);
+        connection.setInstanceFollowRedirects(true);
+        for (Entry<String, String> header : request.getHeaders().entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        if (hasBody) {
+            writeBody(connection, request, query, handler);
+        }
+
+        final int statusCode = connection.getResponseCode();
+        final String statusMessage = connection.getResponseMessage();
+        final Map<String, String> headers = new HashMap<String, String>();
+        for (Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+                headers.put(header.getKey().toLowerCase(), header.getValue().get(0));
+            }
+        }
+
+        InputStream body = (statusCode >= 400)
+                ? connection.getErrorStream() : connection.getInputStream();
+        if (body == null) {
+            body = new ByteArrayInputStream(new byte[0]);
+        }
+
+        // Once the response is delivered, the handler is responsible for any
+        // failure to read it, i.e., onFailure() must not be invoked anymore
+        try {
+            // For requests with a body, the upload progress is reported instead
+            handler.onResponse(statusCode, statusMessage, headers,
+                    (request.isProgressReported() && !hasBody)
+                            ? new ProgressInputStream(body, connection.getContentLengthLong(), handler)
+                            : body);
+            // Drain any unread bytes so that the connection can be reused
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (body.read(buffer) >= 0) {
+            }
+        } catch (Exception ex) {
+            // The connection is not reused
+            connection.disconnect();
+        } finally {
+            try {
+                body.close();
+            } catch (IOException ex) {
+                // Ignored; the response has already been delivered
+            }
+        }
+    }
+
+    private void writeBody(final HttpURLConnection connection, final HttpRequest request,
+            final String formBody, final IResponseHandler handler) throws IOException {
+        connection.setDoOutput(true);
+
+        final HttpRequest.IBodyWriter writer;
+        long contentLength;
+        if (request.getBodyWriter() != null) {
+            writer = request.getBodyWriter();
+            contentLength = request.getContentLength();
+        } else {
+            final byte[] bytes = formBody.getBytes("UTF-8");
+            if (!request.getHeaders().containsKey("Content-Type")) {
+                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            }
+            writer = new HttpRequest.IBodyWriter() {
+
+                @Override
+                public void writeTo(OutputStream output) throws IOException {
+                    output.write(bytes);
+                }
+            };
+            contentLength = bytes.length;
+        }
+
+        if (contentLength >= 0) {
+            connection.setFixedLengthStreamingMode(contentLength);
+        } else if (chunkedStreaming) {
+            connection.setChunkedStreamingMode(BUFFER_SIZE);
+        }
+
+        final OutputStream output = request.isProgressReported()
+                ? new ProgressOutputStream(connection.getOutputStream(), contentLength, handler)
+                : connection.getOutputStream();
+        try {
+            writer.writeTo(output);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static String encodeArguments(final Map<String, String> arguments)
+            throws UnsupportedEncodingException {
+        final StringBuilder query = new StringBuilder();
+        for (Entry<String, String> argument : arguments.entrySet()) {
+            if (query.length() > 0) {
+                query.append('&');
+            }
+            query.append(URLEncoder.encode(argument.getKey(), "UTF-8"))
+                    .append('=')
+                    .append(URLEncoder.encode(argument.getValue(), "UTF-8"));
+        }
+        return query.toString();
+    }
+
+    /**
+     * Reports progress to a response handler as bytes are transferred.
+     */
+    private static class ProgressTracker {
+
+        private final long length;
+        private final IResponseHandler handler;
+        private long transferred;
+        private int lastPercentage = -1;
+
+        ProgressTracker(final long length, final IResponseHandler handler) {
+            this.length = length;
+            this.handler = handler;
+        }
+
+        void progress(final int n) {
+            transferred += n;
+            if (length > 0) {
+                final int percentage = (int) (transferred * 100 / length);
+                if (percentage != lastPercentage) {
+                    lastPercentage = percentage;
+                    handler.onProgress(percentage);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports upload progress to a response handler as the request body is
+     * written.
+     */
+    private static class ProgressOutputStream extends OutputStream {
+
+        private final OutputStream output;
+        private final ProgressTracker tracker;
+
+        ProgressOutputStream(final OutputStream output, final long length,
+                final IResponseHandler handler) {
+            this.output = output;
+            this.tracker = new ProgressTracker(length, handler);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            output.write(b);
+            tracker.progress(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            output.write(buffer, offset, count);
+            tracker.progress(count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+
+    /**
+     * Reports download progress to a response handler as the response body
+     * is read.
+     */
+    private static class ProgressInputStream extends InputStream {
+
+        private final InputStream input;
+        private final ProgressTracker tracker;
+
+        ProgressInputStream(final InputStream input, final long length,
+                final IResponseHandler handler) {
+            this.input = input;
+            this.tracker = new ProgressTracker(length, handler);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = input.read();
+            if (b >= 0) {
+                tracker.progress(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            final int n = input.read(buffer, offset, count);
+            if (n > 0) {
+                tracker.progress(n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}